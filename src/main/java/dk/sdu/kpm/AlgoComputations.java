@@ -3,18 +3,20 @@ package dk.sdu.kpm;
 import dk.sdu.kpm.algo.glone.ACO;
 import dk.sdu.kpm.algo.glone.Greedy;
 import dk.sdu.kpm.algo.glone.Optimal;
-import dk.sdu.kpm.algo.ines.GeneCluster;
+import dk.sdu.kpm.algo.ines.ComponentGraphBuilder;
 import dk.sdu.kpm.algo.ines.GraphProcessing;
 import dk.sdu.kpm.algo.ines.LComponentGraph;
 import dk.sdu.kpm.graph.GeneNode;
 import dk.sdu.kpm.graph.KPMGraph;
 import dk.sdu.kpm.graph.Result;
+import dk.sdu.kpm.graph.ResultCollector;
 import dk.sdu.kpm.logging.KpmLogger;
 import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
 import dk.sdu.kpm.taskmonitors.KPMDummyTaskMonitor;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 
 /**
@@ -27,7 +29,54 @@ public class AlgoComputations {
     private Optimal opt = null;
     private ACO aco = null;
 
+    private ComponentGraphBuilder componentGraphBuilder = null;
+
+    private ForkJoinPool executor = null;
+
+    /**
+     * Sets the builder that contracts the graph for the INES algorithms when
+     * a validity is given, so that consecutive runs can reuse its work and
+     * the contracted graphs. It has to belong to the graph the algorithms are
+     * run on.
+     */
+    public void setComponentGraphBuilder(ComponentGraphBuilder componentGraphBuilder) {
+        this.componentGraphBuilder = componentGraphBuilder;
+    }
+
+    /**
+     * Sets the pool every algorithm runs on, so that the runs of a service
+     * share their threads instead of creating a pool each. It is owned by the
+     * caller and not shut down. Without a pool, the algorithms use the shared
+     * pool with NUMBER_OF_PROCESSORS workers, see SharedPools.
+     */
+    public void setExecutor(ForkJoinPool executor) {
+        this.executor = executor;
+    }
+
     public List<Result> run(Algo algo, KPMGraph g, IKPMTaskMonitor taskMonitor, KPMSettings settings) {
+        return run(algo, g, null, taskMonitor, settings);
+    }
+
+    /**
+     * Runs the algorithm with the exception nodes given by validity instead of
+     * the flags of the nodes of g, so that several runs with different case
+     * exceptions can share one graph.
+     *
+     * @param validity the validity of every node as computed by
+     * KPMGraph.computeValidity(), or null to use the flags of the nodes
+     */
+    public List<Result> run(Algo algo, KPMGraph g, boolean[] validity, IKPMTaskMonitor taskMonitor, KPMSettings settings) {
+        return run(algo, g, validity, ResultCollector.fromSettings(settings), taskMonitor, settings);
+    }
+
+    /**
+     * Runs the algorithm and keeps the results the given collector accepts.
+     *
+     * @param collector receives the solutions while the algorithm runs
+     * @return the results kept by the collector, best first
+     */
+    public List<Result> run(Algo algo, KPMGraph g, boolean[] validity, ResultCollector collector,
+                            IKPMTaskMonitor taskMonitor, KPMSettings settings) {
 
         List<Result> results = null;
 
@@ -40,41 +89,46 @@ public class AlgoComputations {
             switch (algo) {
 
                 case LCG:
-                    lcg = GraphProcessing.componentGraph(g, taskMonitor, settings);
-                    results = lcg.ACO();
+                    lcg = componentGraph(g, validity, taskMonitor, settings);
+                    lcg.setExecutor(executor);
+                    results = lcg.ACO(collector);
+                    releaseComponentGraph(lcg);
                     lcg = null;
-                    GeneCluster.resetExcpMap(); //to avoid keep exception gene clusters around forever
                     break;
 
                 case GREEDY:
-                    lcg = GraphProcessing.componentGraph(g, taskMonitor, settings);
-                    results = lcg.greedy();
+                    lcg = componentGraph(g, validity, taskMonitor, settings);
+                    lcg.setExecutor(executor);
+                    results = lcg.greedy(collector);
+                    releaseComponentGraph(lcg);
                     lcg = null;
-                    GeneCluster.resetExcpMap(); //to avoid keep exception gene clusters around forever
                     break;
 
                 case OPTIMAL:
-                    lcg = GraphProcessing.componentGraph(g, taskMonitor, settings);
-                    results = lcg.optimal();
+                    lcg = componentGraph(g, validity, taskMonitor, settings);
+                    results = lcg.optimal(collector);
+                    releaseComponentGraph(lcg);
                     lcg = null;
-                    GeneCluster.resetExcpMap(); //to avoid keep exception gene clusters around forever
                     break;
 
                 case EXCEPTIONSUMGREEDY:
                     greedy = new Greedy(g, taskMonitor, settings);
-                    results = greedy.runGreedy();
+                    greedy.setExecutor(executor);
+                    results = greedy.runGreedy(collector);
                     greedy = null;
                     break;
 
                 case EXCEPTIONSUMOPTIMAL:
                     opt = new Optimal(g, taskMonitor, settings);
-                    results = opt.runOptimal();
+                    opt.setExecutor(executor);
+                    results = opt.runOptimal(collector);
                     opt = null;
                     break;
 
                 case EXCEPTIONSUMACO:
                     aco = new ACO(g, taskMonitor, settings);
-                    results = aco.runACO();
+                    aco.setExecutor(executor);
+                    results = aco.runACO(collector);
                     aco = null;
                     break;
 
@@ -91,6 +145,22 @@ public class AlgoComputations {
         return results;
     }
 
+    private LComponentGraph componentGraph(KPMGraph g, boolean[] validity, IKPMTaskMonitor taskMonitor, KPMSettings settings) {
+        if (validity == null) {
+            return GraphProcessing.componentGraph(g, taskMonitor, settings);
+        }
+        if (componentGraphBuilder != null) {
+            return componentGraphBuilder.build(validity, taskMonitor, settings);
+        }
+        return GraphProcessing.componentGraph(g, validity, taskMonitor, settings);
+    }
+
+    private void releaseComponentGraph(LComponentGraph lg) {
+        if (componentGraphBuilder != null && lg != null) {
+            componentGraphBuilder.release(lg);
+        }
+    }
+
     private synchronized void cleanup(){
         this.aco = null;
         this.greedy = null;
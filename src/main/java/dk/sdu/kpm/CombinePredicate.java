@@ -0,0 +1,253 @@
+package dk.sdu.kpm;
+
+import dk.sdu.kpm.graph.GeneIdDictionary;
+import org.mvel2.MVEL;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The combination of the studies (OR, AND or a custom formula) compiled into a
+ * predicate over a bit mask. Bit i of the mask is set if study getStudy(i)
+ * stays within its case exception limit L.
+ *
+ * Custom formulas are compiled by MVEL once. With at most
+ * TRUTH_TABLE_MAX_STUDIES studies the formula is evaluated for every mask up
+ * front, so that testing a mask is a single array lookup. A formula that
+ * cannot be evaluated for a mask, e.g. because it refers to an unknown
+ * identifier, is false for that mask.
+ *
+ * Use {@link KPMSettings#getCombinePredicate()} to get the predicate for the
+ * current settings.
+ */
+public final class CombinePredicate implements Serializable {
+
+    private static final long serialVersionUID = -2290457113862014379L;
+
+    public static final int TRUTH_TABLE_MAX_STUDIES = 16;
+
+    // a mask must fit into a long
+    public static final int MAX_STUDIES = 63;
+
+    private final Combine operator;
+
+    private final String formula;
+
+    private final String[] studies;
+
+    // the index of every study in the dictionary they were last looked up in,
+    // see getStudyIndices()
+    private transient volatile StudyIndices studyIndices;
+
+    private final long allStudies;
+
+    // null if the formula is evaluated on every call
+    private final boolean[] truthTable;
+
+    // null if there is no truth table
+    private final long[] minimalMasks;
+
+    private transient Serializable compiledFormula;
+
+    public CombinePredicate(Combine operator, String formula, Collection<String> studies) {
+        if (studies.size() > MAX_STUDIES) {
+            throw new IllegalArgumentException("Cannot combine more than " + MAX_STUDIES + " studies.");
+        }
+
+        this.operator = operator;
+        this.formula = formula;
+        this.studies = studies.toArray(new String[studies.size()]);
+        this.allStudies = this.studies.length == 0 ? 0 : -1L >>> (64 - this.studies.length);
+
+        if (operator == Combine.CUSTOM && this.studies.length <= TRUTH_TABLE_MAX_STUDIES) {
+            truthTable = new boolean[1 << this.studies.length];
+            for (int mask = 0; mask < truthTable.length; mask++) {
+                truthTable[mask] = evaluate(mask);
+            }
+            minimalMasks = findMinimalMasks(truthTable);
+        } else {
+            truthTable = null;
+            minimalMasks = null;
+        }
+    }
+
+    /**
+     * @return whether this predicate was compiled for the given combination,
+     * i.e. whether it can be used instead of compiling a new one
+     */
+    public boolean isCompiledFor(Combine operator, String formula, Collection<String> studies) {
+        if (this.operator != operator || studies.size() != this.studies.length) {
+            return false;
+        }
+        if (operator == Combine.CUSTOM && !this.formula.equals(formula)) {
+            return false;
+        }
+        for (String study : this.studies) {
+            if (!studies.contains(study)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getNumStudies() {
+        return studies.length;
+    }
+
+    /**
+     * @return the study that corresponds to bit i of the masks
+     */
+    public String getStudy(int i) {
+        return studies[i];
+    }
+
+    /**
+     * @param studyIds the study dictionary of a graph, see
+     * KPMGraph.getStudyIdDictionary()
+     * @return the index of every study by its bit in the given dictionary
+     */
+    public int[] getStudyIndices(GeneIdDictionary studyIds) {
+        StudyIndices indices = studyIndices;
+        if (indices == null || indices.studyIds != studyIds) {
+            int[] resolved = new int[studies.length];
+            for (int i = 0; i < studies.length; i++) {
+                resolved[i] = studyIds.intern(studies[i]);
+            }
+            indices = new StudyIndices(studyIds, resolved);
+            studyIndices = indices;
+        }
+        return indices.indices.clone();
+    }
+
+    /**
+     * @param caseExceptions the case exception limit L of every study, e.g.
+     * KPMSettings.CASE_EXCEPTIONS_MAP
+     * @return the limit of every study by its bit
+     */
+    public int[] getCaseExceptions(Map<String, Integer> caseExceptions) {
+        int[] limits = new int[studies.length];
+        for (int i = 0; i < studies.length; i++) {
+            limits[i] = caseExceptions.get(studies[i]);
+        }
+        return limits;
+    }
+
+    public Combine getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return the custom formula, only used with Combine.CUSTOM
+     */
+    public String getFormula() {
+        return formula;
+    }
+
+    /**
+     * @param withinLimits bit i is set if study getStudy(i) is within its
+     * case exception limit
+     * @return whether the combination of the studies is satisfied
+     */
+    public boolean test(long withinLimits) {
+        switch (operator) {
+            case OR:
+                return withinLimits != 0;
+            case AND:
+                return withinLimits == allStudies;
+            case CUSTOM:
+                if (truthTable != null) {
+                    return truthTable[(int) withinLimits];
+                }
+                return evaluate(withinLimits);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the smallest sets of studies that satisfy the combination when
+     * they are within their limits, no matter what the other studies do.
+     * Every mask that satisfies the predicate contains one of them.
+     *
+     * @return the inclusion-minimal satisfying masks, or null if they are not
+     * known because the formula is evaluated lazily
+     */
+    public long[] getMinimalMasks() {
+        switch (operator) {
+            case OR:
+                long[] singletons = new long[studies.length];
+                for (int i = 0; i < studies.length; i++) {
+                    singletons[i] = 1L << i;
+                }
+                return singletons;
+            case AND:
+                return new long[]{allStudies};
+            default:
+                return minimalMasks == null ? null : minimalMasks.clone();
+        }
+    }
+
+    private boolean evaluate(long withinLimits) {
+        // the legacy evaluation was false without studies as well
+        if (studies.length == 0) {
+            return false;
+        }
+        Map<String, Object> context = new HashMap<String, Object>();
+        for (int i = 0; i < studies.length; i++) {
+            context.put(studies[i], (withinLimits & (1L << i)) != 0);
+        }
+        try {
+            Object result = MVEL.executeExpression(getCompiledFormula(), context);
+            return Boolean.TRUE.equals(result);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private synchronized Serializable getCompiledFormula() {
+        if (compiledFormula == null) {
+            compiledFormula = MVEL.compileExpression(formula);
+        }
+        return compiledFormula;
+    }
+
+    private static long[] findMinimalMasks(boolean[] truthTable) {
+        // coveredBelow[mask]: some proper subset of mask satisfies the formula
+        boolean[] coveredBelow = new boolean[truthTable.length];
+        List<Long> result = new ArrayList<Long>();
+        for (int mask = 0; mask < truthTable.length; mask++) {
+            for (int rest = mask; rest != 0 && !coveredBelow[mask]; rest &= rest - 1) {
+                int sub = mask & ~Integer.lowestOneBit(rest);
+                coveredBelow[mask] = truthTable[sub] || coveredBelow[sub];
+            }
+            if (truthTable[mask] && !coveredBelow[mask]) {
+                result.add((long) mask);
+            }
+        }
+
+        long[] masks = new long[result.size()];
+        for (int i = 0; i < masks.length; i++) {
+            masks[i] = result.get(i);
+        }
+        return masks;
+    }
+
+    /**
+     * The indices of the studies in one study dictionary.
+     */
+    private static final class StudyIndices {
+
+        final GeneIdDictionary studyIds;
+
+        final int[] indices;
+
+        StudyIndices(GeneIdDictionary studyIds, int[] indices) {
+            this.studyIds = studyIds;
+            this.indices = indices;
+        }
+    }
+}
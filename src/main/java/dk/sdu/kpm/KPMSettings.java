@@ -107,6 +107,27 @@ public class KPMSettings {
     // && = AND, || = OR, ! = negation, () = parenthesis.
     public volatile String COMBINE_FORMULA = "(L1 || L2) && !L1";
 
+    // COMBINE_OPERATOR and COMBINE_FORMULA compiled for the studies in
+    // CASE_EXCEPTIONS_MAP, see getCombinePredicate().
+    private volatile CombinePredicate combinePredicate;
+
+    /**
+     * Returns the combination of the studies compiled for the current
+     * COMBINE_OPERATOR, COMBINE_FORMULA and the studies of
+     * CASE_EXCEPTIONS_MAP. The predicate is compiled again only when one of
+     * them has changed, so callers should fetch it once per run and not in
+     * their inner loops.
+     */
+    public CombinePredicate getCombinePredicate() {
+        CombinePredicate predicate = combinePredicate;
+        if (predicate == null
+                || !predicate.isCompiledFor(COMBINE_OPERATOR, COMBINE_FORMULA, CASE_EXCEPTIONS_MAP.keySet())) {
+            predicate = new CombinePredicate(COMBINE_OPERATOR, COMBINE_FORMULA, CASE_EXCEPTIONS_MAP.keySet());
+            combinePredicate = predicate;
+        }
+        return predicate;
+    }
+
     // Determines whether certain evaluation routines should run. Enabling only
     // yields some statistics, has no effect on a "normal" algorithm run other
     // than slowing it down.
@@ -158,9 +179,12 @@ public class KPMSettings {
     // which local search method is used to improve the result
     public volatile LocalSearch L_SEARCH = LocalSearch.GREEDY1;
 
-    // Randomness Generator used
+    // Randomness Generator used. The algorithms derive a random stream for
+    // every parallel task from SEED (see SplitMixRandom), so a run is
+    // reproducible for a given SEED however the tasks are scheduled.
     public volatile long SEED = (new Random(System.currentTimeMillis())).nextLong();
 
+    // shared generator, only used where a single sequential stream is needed
     public volatile Random R = new Random(SEED);
 
 	/* ------ GLOBAL VARIABLES ------------ */
@@ -213,6 +237,11 @@ public class KPMSettings {
 
     public volatile int INC_K = 2;
 
+    // Number of (K, L) combinations of a batch run that are computed at the
+    // same time, each with its own copy of these settings. Every combination
+    // may itself use NUMBER_OF_PROCESSORS threads.
+    public volatile int NUMBER_OF_PARALLEL_RUNS = 1;
+
     /**
      * Default value of case exceptions for every data set.
      */
@@ -293,6 +322,17 @@ public class KPMSettings {
     * @param settings
     */
    public KPMSettings(KPMSettings settings){
+	   this(settings, true);
+   }
+
+   /**
+    * Method for creating a copy of a KPMSettings object.
+    * @param settings
+    * @param copyGraphs whether MAIN_GRAPH and MAIN_GRAPH_BACKUP are copied as
+    * well. Copies that do not modify the graphs, like the ones for the single
+    * (K, L) combinations of a batch run, can share them with the original.
+    */
+   public KPMSettings(KPMSettings settings, boolean copyGraphs){
 	   	RunID = settings.getKpmRunID();
         VALIDATION_GOLDSTANDARD_NODES = new ArrayList<String>(settings.VALIDATION_GOLDSTANDARD_NODES);
 	   	USE_INES = settings.USE_INES;
@@ -304,9 +344,10 @@ public class KPMSettings {
 	    ALGO = settings.ALGO;
 	    NUM_SOLUTIONS = settings.NUM_SOLUTIONS;
 	    NUMBER_OF_PROCESSORS = settings.NUMBER_OF_PROCESSORS;
-	    NODE_HEURISTIC_VALUE = Heuristic.AVERAGE;
+	    NODE_HEURISTIC_VALUE = settings.NODE_HEURISTIC_VALUE;
 	    COMBINE_OPERATOR = settings.COMBINE_OPERATOR;
 	    COMBINE_FORMULA = settings.COMBINE_FORMULA;
+	    combinePredicate = settings.combinePredicate;
 	    EVAL = settings.EVAL;
 	    DOUBLE_SOLUTIONS_ALLOWED = settings.DOUBLE_SOLUTIONS_ALLOWED;
 	    ALPHA = settings.ALPHA;
@@ -323,8 +364,13 @@ public class KPMSettings {
 	    L_SEARCH = settings.L_SEARCH;
 	    SEED = settings.SEED;
 	    R = settings.R;
-	    MAIN_GRAPH = new KPMGraph(settings.MAIN_GRAPH);
-	    MAIN_GRAPH_BACKUP = new KPMGraph(settings.MAIN_GRAPH_BACKUP);
+	    if (copyGraphs) {
+	        MAIN_GRAPH = new KPMGraph(settings.MAIN_GRAPH);
+	        MAIN_GRAPH_BACKUP = new KPMGraph(settings.MAIN_GRAPH_BACKUP);
+	    } else {
+	        MAIN_GRAPH = settings.MAIN_GRAPH;
+	        MAIN_GRAPH_BACKUP = settings.MAIN_GRAPH_BACKUP;
+	    }
 	    EDGE_ID_MAP = settings.EDGE_ID_MAP;
 	    GENE_EXCEPTIONS_MULTI = new HashMap<String, Integer>(settings.GENE_EXCEPTIONS_MULTI);
 	    NUM_CASES_MAP = new HashMap<String, Integer>(settings.NUM_CASES_MAP);
@@ -339,6 +385,7 @@ public class KPMSettings {
 	    MIN_K = settings.MIN_K;
 	    MAX_K = settings.MAX_K;
 	    INC_K = settings.INC_K;
+	    NUMBER_OF_PARALLEL_RUNS = settings.NUMBER_OF_PARALLEL_RUNS;
 	    MIN_L = new HashMap<String, Integer>(settings.MIN_L);
 	    MAX_L = new HashMap<String, Integer>(settings.MAX_L);
 	    INC_L = new HashMap<String, Integer>(settings.INC_L);
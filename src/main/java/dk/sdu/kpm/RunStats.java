@@ -9,6 +9,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import dk.sdu.kpm.graph.GeneEdge;
+import dk.sdu.kpm.graph.GeneIdDictionary;
 import dk.sdu.kpm.graph.GeneNode;
 import dk.sdu.kpm.graph.Result;
 import dk.sdu.kpm.logging.KpmLogger;
@@ -227,56 +228,40 @@ public class RunStats {
                 }
             }
 
-            nodeCount = new HashMap<String, Integer>();
-            for (GeneNode node : kpmSettings.MAIN_GRAPH.getVertices()) {
-                nodeCount.put(node.getNodeId(), 0);
-            }
-
-            edgeCount = new HashMap<String, Integer>();
+            // Count by the int of the gene and by the edge itself, the id's
+            // are only looked up once all results have been counted. The
+            // results come from MAIN_GRAPH or graphs derived from it, which
+            // share its dictionary.
+            GeneIdDictionary dictionary = kpmSettings.MAIN_GRAPH.getGeneIdDictionary();
+            int[] nodeHits = new int[dictionary.size()];
+            Map<GeneEdge, int[]> edgeHits = new HashMap<GeneEdge, int[]>();
             for (GeneEdge edge : kpmSettings.MAIN_GRAPH.getEdges()) {
-                edgeCount.put(edge.getEdgeId(), 0);
+                edgeHits.put(edge, new int[1]);
             }
 
             int index = 0;
             for (Result result : results) {
                 Map<String, GeneNode> nodes = result.getVisitedNodes();
-                for (String nodeId : nodes.keySet()) {
-                    int curr = nodeCount.get(nodeId) + 1;
+                for (GeneNode node : nodes.values()) {
+                    int curr = ++nodeHits[node.getGeneId()];
                     if (curr < minNodeHits) {
                         minNodeHits = curr;
                     }
                     if (curr > maxNodeHits) {
                         maxNodeHits = curr;
                     }
-
-                    nodeCount.put(nodeId, curr);
-
-                    if (kpmSettings.TOTAL_NODE_HITS.containsKey(nodeId)) {
-                        kpmSettings.TOTAL_NODE_HITS.put(nodeId, kpmSettings.TOTAL_NODE_HITS.get(nodeId) + 1);
-                    } else {
-                        kpmSettings.TOTAL_NODE_HITS.put(nodeId, 1);
-                    }
                 }
 
                 List<GeneEdge> edges = kpmSettings.MAIN_GRAPH.getConnectingEdges(nodes.values());
                 index2numEdges.put(index, edges.size());
                 for (GeneEdge edge : edges) {
-                    String edgeId = edge.getEdgeId();
-                    int curr = edgeCount.get(edgeId) + 1;
+                    int curr = ++edgeHits.get(edge)[0];
                     if (curr < minEdgeHits) {
                         minEdgeHits = curr;
                     }
                     if (curr > maxEdgeHits) {
                         maxEdgeHits = curr;
                     }
-
-                    edgeCount.put(edgeId, curr);
-
-                    if (kpmSettings.TOTAL_EDGE_HITS.containsKey(edgeId)) {
-                        kpmSettings.TOTAL_EDGE_HITS.put(edgeId, kpmSettings.TOTAL_EDGE_HITS.get(edgeId) + 1);
-                    } else {
-                        kpmSettings.TOTAL_EDGE_HITS.put(edgeId, 1);
-                    }
                 }
 
                 values[index][0] = new Integer(index + 1);
@@ -303,8 +288,29 @@ public class RunStats {
                     }
                 }
                 index++;
+            }
 
+            nodeCount = new HashMap<String, Integer>();
+            for (GeneNode node : kpmSettings.MAIN_GRAPH.getVertices()) {
+                nodeCount.put(node.getNodeId(), nodeHits[node.getGeneId()]);
+            }
+            for (int geneId = 0; geneId < nodeHits.length; geneId++) {
+                if (nodeHits[geneId] > 0) {
+                    addHits(kpmSettings.TOTAL_NODE_HITS, dictionary.getString(geneId), nodeHits[geneId]);
+                }
+            }
 
+            edgeCount = new HashMap<String, Integer>();
+            for (Map.Entry<GeneEdge, int[]> entry : edgeHits.entrySet()) {
+                String edgeId = entry.getKey().getEdgeId();
+                int hits = entry.getValue()[0];
+                edgeCount.put(edgeId, hits);
+                if (hits > 0) {
+                    addHits(kpmSettings.TOTAL_EDGE_HITS, edgeId, hits);
+                }
+            }
+
+            if (!results.isEmpty()) {
                 for (String nodeId : nodeCount.keySet()) {
                     nodeCountNorm.put(nodeId, ((double) nodeCount.get(nodeId) / (double) maxNodeHits));
                 }
@@ -334,5 +340,10 @@ public class RunStats {
         }
 	}
 
+	private static void addHits(Map<String, Integer> totalHits, String id, int hits) {
+		Integer total = totalHits.get(id);
+		totalHits.put(id, total == null ? hits : total + hits);
+	}
+
 
 }
\ No newline at end of file
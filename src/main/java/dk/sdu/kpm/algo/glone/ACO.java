@@ -3,23 +3,27 @@ package dk.sdu.kpm.algo.glone;
 import dk.sdu.kpm.KPMSettings;
 import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
 import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
 import dk.sdu.kpm.graph.KPMGraph;
 import dk.sdu.kpm.graph.Result;
+import dk.sdu.kpm.graph.ResultCollector;
+import dk.sdu.kpm.utils.SharedPools;
+import dk.sdu.kpm.utils.SplitMixRandom;
 
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ACO implements Serializable {
 
     private KPMGraph g;
 
-    private int iteration = 1;
-
-    private int iterationsWithoutChange = 0;
+    private GraphSnapshot snapshot;
 
     private double[] rhoExp = null;
 
@@ -33,6 +37,11 @@ public class ACO implements Serializable {
 
     private volatile KPMSettings kpmSettings;
 
+    private volatile ResultCollector collector;
+
+    // owned by the caller, see setExecutor()
+    private transient volatile ForkJoinPool executor;
+
     public ACO(KPMGraph g, IKPMTaskMonitor taskMonitor, KPMSettings settings) {
         this.kpmSettings = settings;
         this.g = g;
@@ -43,30 +52,103 @@ public class ACO implements Serializable {
         return allSolutions;
     }
 
+    /**
+     * Sets the pool the colonies run on. It is not shut down by this class.
+     * Without a pool, the shared pool with NUMBER_OF_PROCESSORS workers is
+     * used, see SharedPools.
+     */
+    public void setExecutor(ForkJoinPool executor) {
+        this.executor = executor;
+    }
+
+    private ForkJoinPool executor() {
+        return executor != null ? executor : SharedPools.get(kpmSettings.NUMBER_OF_PROCESSORS);
+    }
+
     public List<Result> runACO() {
+        return runACO(ResultCollector.fromSettings(kpmSettings));
+    }
 
+    /**
+     * Runs the ACO from every starting node. Every starting node is an
+     * independent colony with a pheromone table of its own, so with
+     * NUMBER_OF_PROCESSORS > 1 or a pool given by setExecutor() the colonies
+     * run concurrently on the pool, which also builds the solutions of the
+     * iteration-based colonies.
+     *
+     * @param collector receives the best solution from every starting node,
+     * in the order of the starting nodes
+     * @return the results kept by the collector
+     */
+    public List<Result> runACO(ResultCollector collector) {
 
+        this.collector = collector;
+        snapshot = g.getSnapshot();
         precomputeRhoExp();
 
-        List<Result> solutions = new ArrayList<Result>();
+        if (kpmSettings.ITERATION_BASED && kpmSettings.MAX_RUNS_WITHOUT_CHANGE == Integer.MAX_VALUE
+                && kpmSettings.MAX_ITERATIONS == Integer.MAX_VALUE) {
+            System.out.println("Either maxrunswithoutchange or iterations must be set to a value != 0.");
+            System.exit(-1);
+        }
+
+        List<GeneNode> startingNodes = new ArrayList<GeneNode>(chooseStartingNodes(kpmSettings.NUM_STARTNODES));
+        Result[] best = new Result[startingNodes.size()];
 
-        Collection<GeneNode> startingNodes = chooseStartingNodes(kpmSettings.NUM_STARTNODES);
+        if (executor == null && kpmSettings.NUMBER_OF_PROCESSORS <= 1) {
+            for (int i = 0; i < best.length && !isCancelled(); i++) {
+                best[i] = new Colony(i, startingNodes.get(i)).run();
+            }
+        } else {
+            ForkJoinPool pool = executor();
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (int i = 0; i < best.length; i++) {
+                final Colony colony = new Colony(i, startingNodes.get(i));
+                futures.add(pool.submit(new Callable<Result>() {
 
-        for (GeneNode n : startingNodes) {
-            if(isCancelled()){
-                break;
+                    @Override
+                    public Result call() throws Exception {
+                        return colony.run();
+                    }
+                }));
             }
-            g.refreshGraph(kpmSettings); // reset all pheromone values
 
+            try {
+                for (int i = 0; i < best.length; i++) {
+                    best[i] = futures.get(i).get();
+                }
+            } catch (InterruptedException e) {
+                cancelAll(futures);
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                // a failed colony fails the run instead of missing from the
+                // results
+                cancelAll(futures);
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
 
-            if (!kpmSettings.ITERATION_BASED) {
-                solutions.add(Collections.min(globalBestACOFromNode(n)));
-            } else {
-                solutions.add(Collections.min(iterationBestACOFromNode(n)));
+        for (Result result : best) {
+            if (result != null) {
+                collector.offer(result);
             }
         }
 
-        return solutions;
+        return collector.getResults();
+    }
+
+    private static void cancelAll(List<Future<Result>> futures) {
+        for (Future<Result> future : futures) {
+            future.cancel(true);
+        }
     }
 
     /**
@@ -135,309 +217,456 @@ public class ACO implements Serializable {
     }
 
     /**
-     * Yields the results from an global-best ACO approach (meaning, the
-     * pheromone values are always updated according to the globally best
-     * available solution)
-     *
-     * @param startingNode The starting node which has to be in the solution
-     * @return an unsorted list of solutions that contain startingNode
+     * The ACO from one starting node. Its pheromones are its own, so
+     * colonies of different starting nodes can run at the same time.
      */
-    private List<Result> globalBestACOFromNode(GeneNode startingNode) {
-        List<Result> solutions = new ArrayList<Result>();
-        Subgraph bestSolution = null;
-        iteration = 1;
-        iterationsWithoutChange = 0;
-
-        while (iterationsWithoutChange < kpmSettings.MAX_RUNS_WITHOUT_CHANGE && !isCancelled()) {
-            Subgraph solution = buildSolution(startingNode, iteration);
-            solution = kpmSettings.L_SEARCH.localSearch(solution, g, kpmSettings);
-
-            if (bestSolution == null
-                    || solution.getFitness() > bestSolution.getFitness()) {
-                bestSolution = solution;
-                iterationsWithoutChange = 0;
-            } else {
-                iterationsWithoutChange++;
-            }
-
-            // FOR EVALUATION PURPOSES ONLY
-            if (kpmSettings.EVAL) {
-                if (solution.getFitness() > currentBestFitness) {
-                    currentBestFitness = solution.getFitness();
-                }
-                fitnessInIterationList.add(currentBestFitness);
-            }
-            // END EVAL
-
-            updatePheromones(bestSolution, false);
+    private final class Colony {
 
-            assert solution.isConnected(g);
-            solutions.add(solution);
-            solution.flagExceptionNodes();
+        // the position of the starting node, which identifies the random
+        // numbers of the colony
+        private final int colonyIndex;
 
-            iteration++;
-            if (!kpmSettings.IS_BATCH_RUN) {
-                double completed = (double) iteration / (double) kpmSettings.MAX_ITERATIONS;
-                taskMonitor.setProgress(completed);
-            }
+        private final GeneNode startingNode;
 
-        }
+        // Pheromone of every node by snapshot index, together with the
+        // iteration it was last updated in. An iteration of 0 means the
+        // pheromone has never been updated and is still the initial 0.5.
+        private final double[] pheromones;
 
-        return solutions;
-    }
+        private final int[] lastIterationPheromoneUpdated;
 
-    private List<Result> iterationBestACOFromNode(final GeneNode startingNode) {
-        List<Result> toReturn = new ArrayList<Result>();
-        Subgraph bestSolution = null;
+        private int iteration = 1;
 
-        int iterationsWithoutChange = 0;
-        iteration = 1;
+        private int iterationsWithoutChange = 0;
 
-        if (kpmSettings.MAX_RUNS_WITHOUT_CHANGE == Integer.MAX_VALUE
-                && kpmSettings.MAX_ITERATIONS == Integer.MAX_VALUE) {
-            System.out.println("Either maxrunswithoutchange or iterations must be set to a value != 0.");
-            System.exit(-1);
+        Colony(int colonyIndex, GeneNode startingNode) {
+            this.colonyIndex = colonyIndex;
+            this.startingNode = startingNode;
+            this.pheromones = new double[snapshot.size()];
+            this.lastIterationPheromoneUpdated = new int[snapshot.size()];
         }
 
-        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        /**
+         * @return the best solution that contains the starting node, or
+         * null if there is none
+         */
+        Result run() {
+            if (!kpmSettings.ITERATION_BASED) {
+                return globalBestACOFromNode();
+            }
+            return iterationBestACOFromNode();
+        }
 
-        while (iterationsWithoutChange < kpmSettings.MAX_RUNS_WITHOUT_CHANGE
-                && iteration <= kpmSettings.MAX_ITERATIONS && !isCancelled()) {
-            Subgraph[] solutions = new Subgraph[kpmSettings.NUMBER_OF_SOLUTIONS_PER_ITERATION];
-            List<Future<Subgraph>> futures = new LinkedList<Future<Subgraph>>();
+        // the pheromone of a node as last updated, 0.5 before the first update
+        private double storedPheromone(int index) {
+            return lastIterationPheromoneUpdated[index] != 0 ? pheromones[index] : 0.5;
+        }
 
-            for (int j = 0; j < solutions.length; j++) {
-                futures.add(pool.submit(new Callable<Subgraph>() {
+        /**
+         * Yields the results from an global-best ACO approach (meaning, the
+         * pheromone values are always updated according to the globally best
+         * available solution)
+         *
+         * @return the best solution that contains startingNode, the first one
+         * among equal solutions, or null if there is none
+         */
+        private Result globalBestACOFromNode() {
+            Result best = null;
+            Subgraph bestSolution = null;
+
+            while (iterationsWithoutChange < kpmSettings.MAX_RUNS_WITHOUT_CHANGE && !isCancelled()) {
+                Subgraph solution = buildSolution(iteration, 0);
+                solution = kpmSettings.L_SEARCH.localSearch(solution, g, kpmSettings, isCancelled);
+
+                if (bestSolution == null
+                        || solution.getFitness() > bestSolution.getFitness()) {
+                    bestSolution = solution;
+                    iterationsWithoutChange = 0;
+                } else {
+                    iterationsWithoutChange++;
+                }
 
-                    @Override
-                    public Subgraph call() throws Exception {
-                        return buildSolution(startingNode, iteration);
+                // FOR EVALUATION PURPOSES ONLY
+                if (kpmSettings.EVAL) {
+                    synchronized (fitnessInIterationList) {
+                        if (solution.getFitness() > currentBestFitness) {
+                            currentBestFitness = solution.getFitness();
+                        }
+                        fitnessInIterationList.add(currentBestFitness);
                     }
-                }));
-            }
-
-            Subgraph iterationBest = null;
+                }
+                // END EVAL
 
-            int j = 0;
-            for (Future<Subgraph> f : futures) {
+                updatePheromones(bestSolution, false);
 
-                // compute the solutions concurrently
-                try {
-                    solutions[j] = f.get();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    continue;
+                assert solution.isConnected(g);
+                if (best == null || solution.compareTo(best) < 0) {
+                    best = solution;
                 }
+                collector.flagExceptionNodes(solution);
 
-                if (iterationBest == null
-                        || solutions[j].getFitness() > iterationBest.getFitness()) {
-                    iterationBest = solutions[j];
+                iteration++;
+                if (!kpmSettings.IS_BATCH_RUN) {
+                    double completed = (double) iteration / (double) kpmSettings.MAX_ITERATIONS;
+                    taskMonitor.setProgress(completed);
                 }
-                j++;
+
             }
 
-            iterationBest = kpmSettings.L_SEARCH.localSearch(iterationBest, g, kpmSettings);
+            return best;
+        }
 
-            if (bestSolution == null
-                    || iterationBest.getFitness() > bestSolution.getFitness()) {
-                bestSolution = iterationBest;
-                iterationsWithoutChange = 0;
-            } else {
-                iterationsWithoutChange++;
-            }
+        private Result iterationBestACOFromNode() {
+            Result best = null;
+            Subgraph bestSolution = null;
 
-            updatePheromones(iterationBest, true);
+            while (iterationsWithoutChange < kpmSettings.MAX_RUNS_WITHOUT_CHANGE
+                    && iteration <= kpmSettings.MAX_ITERATIONS && !isCancelled()) {
+                Subgraph[] solutions = buildSolutions(kpmSettings.NUMBER_OF_SOLUTIONS_PER_ITERATION);
 
-            assert iterationBest.isConnected(g);
-            toReturn.add(iterationBest);
-            iterationBest.flagExceptionNodes();
+                Subgraph iterationBest = null;
+                for (Subgraph solution : solutions) {
+                    if (iterationBest == null
+                            || solution.getFitness() > iterationBest.getFitness()) {
+                        iterationBest = solution;
+                    }
+                }
 
-            iteration++;
-            if (!kpmSettings.IS_BATCH_RUN) {
-                double completed = (double) iteration / (double) kpmSettings.MAX_ITERATIONS;
-                taskMonitor.setProgress(completed);
-            }
+                iterationBest = kpmSettings.L_SEARCH.localSearch(iterationBest, g, kpmSettings, isCancelled);
 
-        }
+                if (bestSolution == null
+                        || iterationBest.getFitness() > bestSolution.getFitness()) {
+                    bestSolution = iterationBest;
+                    iterationsWithoutChange = 0;
+                } else {
+                    iterationsWithoutChange++;
+                }
 
-        pool.shutdown();
-        return toReturn;
-    }
+                updatePheromones(iterationBest, true);
 
-    private void updatePheromones(Subgraph bestSolution,
-                                  boolean addFitnessToPheromone) {
-        for (GeneNode n : bestSolution) {
-            if(isCancelled()){
-                return;
-            }
+                assert iterationBest.isConnected(g);
+                if (best == null || iterationBest.compareTo(best) < 0) {
+                    best = iterationBest;
+                }
+                collector.flagExceptionNodes(iterationBest);
 
-            double currentPheromone = n.getPheromone()
-                    * powRho((iteration - 1)
-                    - n.getLastIterationPheromoneUpdated());
+                iteration++;
+                if (!kpmSettings.IS_BATCH_RUN) {
+                    double completed = (double) iteration / (double) kpmSettings.MAX_ITERATIONS;
+                    taskMonitor.setProgress(completed);
+                }
 
-            if (currentPheromone < kpmSettings.TAU_MIN) {
-                currentPheromone = kpmSettings.TAU_MIN;
             }
 
-            if (!addFitnessToPheromone) {
-                currentPheromone += kpmSettings.RHO;
-            } else {
-                currentPheromone += (1 - (1.0 / bestSolution.getFitness()));
-            }
+            return best;
+        }
 
-            if (currentPheromone > 1 - kpmSettings.TAU_MIN) {
-                currentPheromone = 1 - kpmSettings.TAU_MIN;
+        /**
+         * Builds the solutions of one iteration, concurrently if the colony
+         * runs on the pool. The pheromones are only read meanwhile.
+         *
+         * @return the solutions
+         */
+        private Subgraph[] buildSolutions(int numSolutions) {
+            Subgraph[] solutions = new Subgraph[numSolutions];
+            final int currentIteration = iteration;
+            if (!ForkJoinTask.inForkJoinPool()) {
+                for (int j = 0; j < solutions.length; j++) {
+                    solutions[j] = buildSolution(currentIteration, j);
+                }
+                return solutions;
             }
 
-            n.setPheromone(currentPheromone, kpmSettings.TAU_MIN);
-            n.setLastIterationPheromoneUpdated(iteration);
+            List<ForkJoinTask<Subgraph>> tasks = new ArrayList<ForkJoinTask<Subgraph>>();
+            for (int j = 0; j < solutions.length; j++) {
+                final int ant = j;
+                tasks.add(ForkJoinTask.adapt(new Callable<Subgraph>() {
+
+                    @Override
+                    public Subgraph call() throws Exception {
+                        return buildSolution(currentIteration, ant);
+                    }
+                }));
+            }
+            // joining within the pool runs other tasks instead of blocking,
+            // and rethrows the exception of a failed ant
+            ForkJoinTask.invokeAll(tasks);
+            for (int j = 0; j < solutions.length; j++) {
+                solutions[j] = tasks.get(j).join();
+            }
+            return solutions;
         }
-        // double rhoHat = 0;
-        //
-        // switch (KPMParameters.RHO_DECAY) {
-        // case CONSTANT:
-        // rhoHat = KPMParameters.RHO;
-        // break;
-        //
-        // case QUADRATIC:
-        // rhoHat = ((0.5 - KPMParameters.RHO) / (KPMParameters.MAX_RUNS_WITHOUT_CHANGE *
-        // KPMParameters.MAX_RUNS_WITHOUT_CHANGE))
-        // * iterationsWithoutChange
-        // * iterationsWithoutChange
-        // + KPMParameters.RHO;
-        // break;
-        //
-        // case LINEAR:
-        // rhoHat = (0.5 - KPMParameters.RHO) / KPMParameters.MAX_RUNS_WITHOUT_CHANGE
-        // * iterationsWithoutChange + KPMParameters.RHO;
-        // break;
-        //
-        // case EXPONENTIAL:
-        // rhoHat = KPMParameters.RHO
-        // * Math.pow(Math.E, Math.log(0.5 / KPMParameters.RHO)
-        // / KPMParameters.MAX_RUNS_WITHOUT_CHANGE);
-        // break;
-        // }
-        //
-        // for (GeneNode n : g.getVertices()) {
-        // double currentPheromone = n.getPheromone() * rhoHat;
-        //
-        // if (currentPheromone < KPMParameters.TAU_MIN) {
-        // currentPheromone = KPMParameters.TAU_MIN;
-        // }
-        //
-        // if (bestSolution.contains(n)) {
-        // if (!addFitnessToPheromone) {
-        // currentPheromone += rhoHat;
-        // } else {
-        // currentPheromone += (1 - (1.0 / bestSolution.getFitness()));
-        // }
-        //
-        // if (currentPheromone > 1 - KPMParameters.TAU_MIN) {
-        // currentPheromone = 1 - KPMParameters.TAU_MIN;
-        // }
-        // }
-        // n.setPheromone(currentPheromone);
-        // n.setLastIterationPheromoneUpdated(iteration);
-        // }
-    }
 
-    /**
-     * Constructs one particular solution from a given starting node.
-     *
-     * @param n
-     * @param iteration
-     * @return
-     */
-    private Subgraph buildSolution(GeneNode n, int iteration) {
-        Subgraph solution = new Subgraph(kpmSettings);
-        solution.add(n);
-        Set<GeneNode> currentNeighbors = new HashSet<GeneNode>(
-                g.getNeighbors(n));
+        private void updatePheromones(Subgraph bestSolution,
+                                      boolean addFitnessToPheromone) {
+            for (GeneNode n : bestSolution) {
+                if(isCancelled()){
+                    return;
+                }
 
-        while (addNodeToSolution(solution, currentNeighbors, iteration) && !isCancelled());
+                int index = n.getIndex();
+                double currentPheromone = storedPheromone(index)
+                        * powRho((iteration - 1)
+                        - lastIterationPheromoneUpdated[index]);
 
-        return solution;
-    }
+                if (currentPheromone < kpmSettings.TAU_MIN) {
+                    currentPheromone = kpmSettings.TAU_MIN;
+                }
 
-    private boolean addNodeToSolution(Subgraph currentSolution,
-                                      Set<GeneNode> currentNeighbors, int iteration) {
+                if (!addFitnessToPheromone) {
+                    currentPheromone += kpmSettings.RHO;
+                } else {
+                    currentPheromone += (1 - (1.0 / bestSolution.getFitness()));
+                }
 
-        // we iterate over all neighbors, yielding their probability of getting
-        // them.
-        double totalProbability = 0.0;
-        Map<GeneNode, Double> probabilities = new HashMap<GeneNode, Double>();
+                if (currentPheromone > 1 - kpmSettings.TAU_MIN) {
+                    currentPheromone = 1 - kpmSettings.TAU_MIN;
+                }
 
-        for (GeneNode neighbor : currentNeighbors) {
-            if(isCancelled()){
-                return false;
-            }
-            if (currentSolution.canAdd(neighbor)) {
-                double neighborProbability = computeProbability(neighbor,
-                        iteration);
-                probabilities.put(neighbor, neighborProbability);
-                totalProbability += neighborProbability;
+                pheromones[index] = currentPheromone;
+                lastIterationPheromoneUpdated[index] = iteration;
             }
+            // double rhoHat = 0;
+            //
+            // switch (KPMParameters.RHO_DECAY) {
+            // case CONSTANT:
+            // rhoHat = KPMParameters.RHO;
+            // break;
+            //
+            // case QUADRATIC:
+            // rhoHat = ((0.5 - KPMParameters.RHO) / (KPMParameters.MAX_RUNS_WITHOUT_CHANGE *
+            // KPMParameters.MAX_RUNS_WITHOUT_CHANGE))
+            // * iterationsWithoutChange
+            // * iterationsWithoutChange
+            // + KPMParameters.RHO;
+            // break;
+            //
+            // case LINEAR:
+            // rhoHat = (0.5 - KPMParameters.RHO) / KPMParameters.MAX_RUNS_WITHOUT_CHANGE
+            // * iterationsWithoutChange + KPMParameters.RHO;
+            // break;
+            //
+            // case EXPONENTIAL:
+            // rhoHat = KPMParameters.RHO
+            // * Math.pow(Math.E, Math.log(0.5 / KPMParameters.RHO)
+            // / KPMParameters.MAX_RUNS_WITHOUT_CHANGE);
+            // break;
+            // }
+            //
+            // for (GeneNode n : g.getVertices()) {
+            // double currentPheromone = n.getPheromone() * rhoHat;
+            //
+            // if (currentPheromone < KPMParameters.TAU_MIN) {
+            // currentPheromone = KPMParameters.TAU_MIN;
+            // }
+            //
+            // if (bestSolution.contains(n)) {
+            // if (!addFitnessToPheromone) {
+            // currentPheromone += rhoHat;
+            // } else {
+            // currentPheromone += (1 - (1.0 / bestSolution.getFitness()));
+            // }
+            //
+            // if (currentPheromone > 1 - KPMParameters.TAU_MIN) {
+            // currentPheromone = 1 - KPMParameters.TAU_MIN;
+            // }
+            // }
+            // n.setPheromone(currentPheromone);
+            // n.setLastIterationPheromoneUpdated(iteration);
+            // }
         }
 
-        // System.out.println("Total prob: " + totalProbability);
-        if (totalProbability == 0.0) // can't add more nodes
-        {
-            return false;
+        /**
+         * Constructs one particular solution from the starting node.
+         *
+         * The probability of a node, see computeProbability(), does not
+         * change while a solution is built, so it is computed once when the
+         * node is first considered. The frontier keeps the probabilities of
+         * the nodes that can be added in a sum tree, by their position in the
+         * frontier, and a node is drawn from it in O(log n). Without gene
+         * exceptions, a FrontierFeasibility tells which nodes can no longer
+         * be added after every step, otherwise the frontier is checked with
+         * canAdd() again.
+         *
+         * The random numbers come from a stream of the solution's own, so the
+         * solution does not depend on which thread builds it or when.
+         *
+         * @param iteration
+         * @param ant the index of the solution within the iteration
+         * @return
+         */
+        private Subgraph buildSolution(int iteration, int ant) {
+            Random random = SplitMixRandom.forTask(kpmSettings.SEED, colonyIndex, iteration, ant);
+            Subgraph solution = new Subgraph(kpmSettings);
+            solution.add(startingNode);
+            int capacity = Math.max(snapshot.degree(startingNode.getIndex()), 8);
+            NodeFrontier currentNeighbors = new NodeFrontier(capacity);
+            SumTree probabilities = new SumTree(capacity);
+            // the probability of the node at every position of the frontier,
+            // NaN if it has not been computed yet
+            double[] weights = new double[capacity];
+            FrontierFeasibility feasibility = solution.checksCasesOnly()
+                    ? new FrontierFeasibility(solution, snapshot, currentNeighbors) : null;
+            weights = expand(startingNode.getIndex(), solution, currentNeighbors, probabilities,
+                    weights, feasibility, iteration);
+
+            while (!isCancelled()) {
+                int newNode = addNodeToSolution(solution, currentNeighbors, probabilities, weights,
+                        feasibility, iteration, random);
+                if (newNode < 0) {
+                    break;
+                }
+                weights = expand(newNode, solution, currentNeighbors, probabilities,
+                        weights, feasibility, iteration);
+            }
+
+            return solution;
         }
 
-        // next, we draw a random number and chose the new node
-        double pick = kpmSettings.R.nextDouble() * totalProbability;
-        GeneNode newNode = null;
-        for (GeneNode neighbor : probabilities.keySet()) {
-            if(isCancelled()){
-                return false;
+        /**
+         * Adds the neighbors of newNode that are not part of the solution to
+         * the end of the frontier. With a feasibility, their probabilities
+         * are set in the sum tree right away.
+         *
+         * @return the weights, grown if the frontier has grown beyond them
+         */
+        private double[] expand(int newNode, Subgraph solution, NodeFrontier currentNeighbors,
+                                SumTree probabilities, double[] weights,
+                                FrontierFeasibility feasibility, int iteration) {
+            for (int p = snapshot.neighborsStart(newNode), end = snapshot.neighborsEnd(newNode); p < end; p++) {
+                int neighbor = snapshot.neighborAt(p);
+                if (!solution.containsIndex(neighbor) && currentNeighbors.add(neighbor)) {
+                    int position = currentNeighbors.size() - 1;
+                    if (weights.length <= position) {
+                        weights = Arrays.copyOf(weights, 2 * currentNeighbors.size());
+                    }
+                    weights[position] = Double.NaN;
+                    if (feasibility != null && feasibility.add(neighbor)) {
+                        weights[position] = computeProbability(snapshot.getNode(neighbor), iteration);
+                        probabilities.set(position, weights[position]);
+                    }
+                }
             }
-            double p = probabilities.get(neighbor);
-            if (pick > p) {
-                pick -= p;
-            } else {
-                newNode = neighbor;
-                break;
+            return weights;
+        }
+
+        /**
+         * Sets the probabilities of the nodes of the frontier whose
+         * feasibility may have changed by the last node added to the
+         * solution.
+         */
+        private void updateFeasibility(NodeFrontier currentNeighbors, SumTree probabilities,
+                                       double[] weights, FrontierFeasibility feasibility,
+                                       int iteration) {
+            for (int i = 0, n = feasibility.update(); i < n; i++) {
+                int position = feasibility.getChanged(i);
+                double probability = 0.0;
+                if (feasibility.canAdd(position)) {
+                    if (Double.isNaN(weights[position])) {
+                        weights[position] = computeProbability(
+                                snapshot.getNode(currentNeighbors.get(position)), iteration);
+                    }
+                    probability = weights[position];
+                }
+                if (probabilities.get(position) != probability) {
+                    probabilities.set(position, probability);
+                }
             }
         }
 
-        assert newNode != null;
+        /**
+         * Picks one node of the frontier with a probability proportional to
+         * computeProbability() and adds it to the solution.
+         *
+         * @param probabilities the probability of the node at every position
+         * of the frontier if it can be added, 0 otherwise, as of the last call
+         * @param feasibility keeps the probabilities up to date, or null if
+         * every node of the frontier has to be checked again
+         * @return the index of the added node, or -1 if none can be added
+         */
+        private int addNodeToSolution(Subgraph currentSolution, NodeFrontier currentNeighbors,
+                                          SumTree probabilities, double[] weights,
+                                          FrontierFeasibility feasibility, int iteration,
+                                          Random random) {
+
+            // whether a node can be added depends on the solution, so every
+            // neighbor is checked again, but only changes touch the tree
+            for (int i = 0; feasibility == null && i < currentNeighbors.size(); i++) {
+                if(isCancelled()){
+                    return -1;
+                }
+                GeneNode neighbor = snapshot.getNode(currentNeighbors.get(i));
+                double probability = 0.0;
+                if (currentSolution.canAdd(neighbor)) {
+                    if (Double.isNaN(weights[i])) {
+                        weights[i] = computeProbability(neighbor, iteration);
+                    }
+                    probability = weights[i];
+                }
+                if (probabilities.get(i) != probability) {
+                    probabilities.set(i, probability);
+                }
+            }
 
-        currentSolution.add(newNode);
-        currentSolution.updateNeighbors(currentNeighbors, newNode, g);
+            double totalProbability = probabilities.total();
+            if (totalProbability == 0.0) // can't add more nodes
+            {
+                return -1;
+            }
 
-        return true;
-    }
+            // next, we draw a random number and chose the new node
+            double pick = random.nextDouble() * totalProbability;
+            int position = probabilities.sample(pick);
+            int newNode = currentNeighbors.get(position);
 
-    /**
-     * Computes the probability that a node is chosen.
-     *
-     * @param neighbor the node to be added
-     * @param iteration
-     * @param iteration in which iteration this algorithm is
-     * @return the probability (does not have to be normalized to 1.0)
-     */
-    private double computeProbability(GeneNode neighbor, int iteration) {
-        // add +1 in case it has 0 non-differentially expressed cases
-        double weight = 1.0 / (neighbor.getHeuristicValue(kpmSettings.NODE_HEURISTIC_VALUE) + 1);
-
-        // double pheromone = neighbor.getPheromone();
-        // assert pheromone >= KPMParameters.TAU_MIN;
-        // assert pheromone <= (1 - KPMParameters.TAU_MIN);
-
-        double pheromone = neighbor.getPheromone()
-                * powRho((iteration - 1)
-                - neighbor.getLastIterationPheromoneUpdated());
-
-        if (pheromone < kpmSettings.TAU_MIN) {
-            pheromone = kpmSettings.TAU_MIN;
-        } else if (pheromone > 1 - kpmSettings.TAU_MIN) {
-            throw new IllegalStateException(
-                    "Pheromone was too big although this should not happen.");
+            // the last node of the frontier takes the free position
+            int last = currentNeighbors.size() - 1;
+            currentNeighbors.removeAt(position);
+            if (feasibility != null) {
+                feasibility.removeAt(position);
+            }
+            weights[position] = weights[last];
+            probabilities.set(position, probabilities.get(last));
+            probabilities.set(last, 0.0);
+
+            currentSolution.add(snapshot.getNode(newNode));
+            if (feasibility != null) {
+                updateFeasibility(currentNeighbors, probabilities, weights, feasibility, iteration);
+            }
+
+            return newNode;
         }
 
-        return tradeOff(pheromone, weight);
+        /**
+         * Computes the probability that a node is chosen.
+         *
+         * @param neighbor the node to be added
+         * @param iteration
+         * @param iteration in which iteration this algorithm is
+         * @return the probability (does not have to be normalized to 1.0)
+         */
+        private double computeProbability(GeneNode neighbor, int iteration) {
+            // add +1 in case it has 0 non-differentially expressed cases
+            double weight = 1.0 / (neighbor.getHeuristicValue(kpmSettings.NODE_HEURISTIC_VALUE) + 1);
+
+            // double pheromone = neighbor.getPheromone();
+            // assert pheromone >= KPMParameters.TAU_MIN;
+            // assert pheromone <= (1 - KPMParameters.TAU_MIN);
+
+            int index = neighbor.getIndex();
+            double pheromone = storedPheromone(index)
+                    * powRho((iteration - 1)
+                    - lastIterationPheromoneUpdated[index]);
+
+            if (pheromone < kpmSettings.TAU_MIN) {
+                pheromone = kpmSettings.TAU_MIN;
+            } else if (pheromone > 1 - kpmSettings.TAU_MIN) {
+                throw new IllegalStateException(
+                        "Pheromone was too big although this should not happen.");
+            }
+
+            return tradeOff(pheromone, weight);
+        }
     }
 
     private double tradeOff(double pheromone, double weight) {
@@ -500,17 +729,15 @@ public class ACO implements Serializable {
         return fitnessInIterationList;
     }
 
-    private volatile boolean isCancelled = false;
+    // also stops the local searches of this run
+    private final AtomicBoolean isCancelled = new AtomicBoolean();
 
-    private synchronized boolean isCancelled(){
-        return this.isCancelled;
+    private boolean isCancelled(){
+        return this.isCancelled.get();
     }
 
-    public synchronized void cancel() {
-        this.isCancelled = true;
-        if(kpmSettings.L_SEARCH != null){
-            kpmSettings.L_SEARCH.cancel();
-        }
+    public void cancel() {
+        this.isCancelled.set(true);
 //        if(pool != null){
 //            pool.shutdownNow();
 //        }
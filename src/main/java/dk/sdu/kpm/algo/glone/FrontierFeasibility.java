@@ -0,0 +1,188 @@
+package dk.sdu.kpm.algo.glone;
+
+import dk.sdu.kpm.CombinePredicate;
+import dk.sdu.kpm.graph.GraphSnapshot;
+
+import java.util.Arrays;
+
+/**
+ * Tracks which nodes of the frontier of a solution without gene exceptions
+ * can be added to it, so that they do not all have to be checked with
+ * Subgraph.canAdd() again every time the solution grows.
+ *
+ * Such a node can be added if the combine predicate accepts the mask of the
+ * studies whose slack its cases still fit into, see Subgraph.getCaseSlack().
+ * The slack only shrinks, so a bit of a mask is only ever cleared. For every
+ * study, the nodes whose bit is still set are kept in a max-heap by their
+ * cases. After the solution has grown, update() takes the nodes that no
+ * longer fit off the top of the heaps, and only those have to be tested
+ * again. Every bit of every node is so cleared at most once per solution.
+ *
+ * The masks are kept by the position of the nodes in the frontier, the nodes
+ * that left the frontier stay in the heaps until they reach the top and are
+ * skipped then.
+ */
+final class FrontierFeasibility {
+
+    private final Subgraph solution;
+
+    private final GraphSnapshot snapshot;
+
+    private final NodeFrontier frontier;
+
+    private final CombinePredicate predicate;
+
+    // the index of the study at every bit
+    private final int[] studies;
+
+    // per bit, the nodes whose bit is set and their cases, as binary
+    // max-heaps by the cases
+    private final int[][] heapNodes;
+
+    private final int[][] heapCases;
+
+    private final int[] heapSizes;
+
+    // the mask of every node of the frontier, by its position
+    private long[] masks = new long[8];
+
+    // the positions whose masks changed by the last update(), with
+    // repetitions
+    private int[] changed = new int[8];
+
+    private int numChanged = 0;
+
+    /**
+     * @param solution a solution that contains at least one node and has no
+     * gene exceptions, see Subgraph.checksCasesOnly()
+     * @param frontier the frontier of the solution
+     */
+    FrontierFeasibility(Subgraph solution, GraphSnapshot snapshot, NodeFrontier frontier) {
+        this.solution = solution;
+        this.snapshot = snapshot;
+        this.frontier = frontier;
+        this.predicate = solution.getCombinePredicate();
+        this.studies = solution.getStudies();
+        this.heapNodes = new int[studies.length][8];
+        this.heapCases = new int[studies.length][8];
+        this.heapSizes = new int[studies.length];
+    }
+
+    /**
+     * Starts tracking a node that has just been added to the end of the
+     * frontier.
+     *
+     * @return whether the node can be added to the solution
+     */
+    boolean add(int node) {
+        long mask = 0;
+        for (int bit = 0; bit < studies.length; bit++) {
+            int cases = snapshot.getNode(node).getNumNoDiffExpressedCases(studies[bit]);
+            if (cases <= solution.getCaseSlack(bit)) {
+                mask |= 1L << bit;
+                push(bit, node, cases);
+            }
+        }
+        int position = frontier.size() - 1;
+        if (position == masks.length) {
+            masks = Arrays.copyOf(masks, 2 * position);
+        }
+        masks[position] = mask;
+        return predicate.test(mask);
+    }
+
+    /**
+     * Follows NodeFrontier.removeAt(), which moves the node at the last
+     * position to the given one.
+     */
+    void removeAt(int position) {
+        masks[position] = masks[frontier.size()];
+    }
+
+    /**
+     * @return whether the node at the given position of the frontier can be
+     * added to the solution as of the last update()
+     */
+    boolean canAdd(int position) {
+        return predicate.test(masks[position]);
+    }
+
+    /**
+     * Clears the bits of the nodes whose cases no longer fit into the slack
+     * of the solution. Call after every node added to the solution.
+     *
+     * @return the number of masks that have changed, see getChanged()
+     */
+    int update() {
+        numChanged = 0;
+        for (int bit = 0; bit < studies.length; bit++) {
+            int slack = solution.getCaseSlack(bit);
+            while (heapSizes[bit] > 0 && heapCases[bit][0] > slack) {
+                int position = frontier.indexOf(pop(bit));
+                if (position < 0) {
+                    continue;
+                }
+                masks[position] &= ~(1L << bit);
+                if (numChanged == changed.length) {
+                    changed = Arrays.copyOf(changed, 2 * numChanged);
+                }
+                changed[numChanged++] = position;
+            }
+        }
+        return numChanged;
+    }
+
+    /**
+     * @return the position in the frontier of the i-th mask that has changed
+     * by the last update()
+     */
+    int getChanged(int i) {
+        return changed[i];
+    }
+
+    private void push(int bit, int node, int cases) {
+        int[] nodes = heapNodes[bit];
+        int[] keys = heapCases[bit];
+        int i = heapSizes[bit]++;
+        if (i == nodes.length) {
+            nodes = heapNodes[bit] = Arrays.copyOf(nodes, 2 * i);
+            keys = heapCases[bit] = Arrays.copyOf(keys, 2 * i);
+        }
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] >= cases) {
+                break;
+            }
+            nodes[i] = nodes[parent];
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        nodes[i] = node;
+        keys[i] = cases;
+    }
+
+    private int pop(int bit) {
+        int[] nodes = heapNodes[bit];
+        int[] keys = heapCases[bit];
+        int top = nodes[0];
+        int size = --heapSizes[bit];
+        int node = nodes[size];
+        int cases = keys[size];
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && keys[child + 1] > keys[child]) {
+                child++;
+            }
+            if (keys[child] <= cases) {
+                break;
+            }
+            nodes[i] = nodes[child];
+            keys[i] = keys[child];
+            i = child;
+        }
+        nodes[i] = node;
+        keys[i] = cases;
+        return top;
+    }
+}
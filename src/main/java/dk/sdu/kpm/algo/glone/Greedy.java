@@ -3,8 +3,12 @@ package dk.sdu.kpm.algo.glone;
 import dk.sdu.kpm.KPMSettings;
 import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
 import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
 import dk.sdu.kpm.graph.KPMGraph;
 import dk.sdu.kpm.graph.Result;
+import dk.sdu.kpm.graph.ResultCollector;
+import dk.sdu.kpm.utils.SharedPools;
+import dk.sdu.kpm.utils.SplitMixRandom;
 
 import java.io.Serializable;
 import java.util.*;
@@ -20,12 +24,19 @@ public class Greedy implements Serializable {
 
     private KPMGraph g;
 
+    private GraphSnapshot snapshot;
+
     public List<Result> allSolutions;
     
     public IKPMTaskMonitor taskMonitor;
 
     private volatile KPMSettings kpmSettings;
 
+    private volatile ResultCollector collector;
+
+    // owned by the caller, see setExecutor()
+    private transient volatile ForkJoinPool executor;
+
     public Greedy(KPMGraph g, IKPMTaskMonitor taskMonitor, KPMSettings settings) {
         this.g = g;
         this.taskMonitor = taskMonitor;
@@ -38,25 +49,51 @@ public class Greedy implements Serializable {
         return allSolutions;
     }
 
+    /**
+     * Sets the pool the search runs on. It is not shut down by this class.
+     * Without a pool, the shared pool with NUMBER_OF_PROCESSORS workers is
+     * used, see SharedPools.
+     */
+    public void setExecutor(ForkJoinPool executor) {
+        this.executor = executor;
+    }
+
+    private ForkJoinPool executor() {
+        return executor != null ? executor : SharedPools.get(kpmSettings.NUMBER_OF_PROCESSORS);
+    }
+
     public List<Result> runGreedy() {
+        return runGreedy(ResultCollector.fromSettings(kpmSettings));
+    }
+
+    /**
+     * Runs the greedy search from every node.
+     *
+     * @param collector receives the solution from every node
+     * @return the results kept by the collector
+     */
+    public List<Result> runGreedy(ResultCollector collector) {
         // this.g = g;
-        List<Result> toReturn = new ArrayList<Result>();
+        this.collector = collector;
         int nodesComputed = 0;
         int numV = g.getVertexCount();
+        snapshot = g.getSnapshot();
 
 
-        ExecutorService pool = Executors.newFixedThreadPool(kpmSettings.NUMBER_OF_PROCESSORS);
+        ForkJoinPool pool = executor();
 
         List<Future<Result>> futures = new LinkedList<Future<Result>>();
 
 
         // all nodes are possible entry points
+        int task = 0;
         for (final GeneNode node : g.getVertices()) {
+            final int startIndex = task++;
             futures.add(pool.submit(new Callable<Result>() {
 
                 @Override
                 public Result call() throws Exception {
-                    return fromStartingNode(node);
+                    return fromStartingNode(node, SplitMixRandom.forTask(kpmSettings.SEED, startIndex));
                 }
             }));
         }
@@ -66,7 +103,7 @@ public class Greedy implements Serializable {
             try {
                 r = f.get();
                 if (r != null) {
-                    toReturn.add(r);
+                    collector.offer(r);
                 }
                 nodesComputed++;
                 if (!kpmSettings.IS_BATCH_RUN) {
@@ -80,11 +117,14 @@ public class Greedy implements Serializable {
             }
 
         }
-        pool.shutdown();
-        return toReturn;
+        return collector.getResults();
     }
 
-    private Result fromStartingNode(GeneNode startingNode) {
+    /**
+     * @param random the random numbers of this starting node, so that ties
+     * are broken the same way however the starting nodes are scheduled
+     */
+    private Result fromStartingNode(GeneNode startingNode, Random random) {
         Subgraph solution = new Subgraph(kpmSettings);
         if (k == 0) {
             if (!solution.canAdd(startingNode)) {
@@ -93,22 +133,21 @@ public class Greedy implements Serializable {
         }
 
         solution.add(startingNode);
-        HashSet<GeneNode> currentNeighbors = new HashSet<GeneNode>();
-        currentNeighbors.addAll(g.getNeighbors(startingNode));
+        NodeFrontier currentNeighbors = new NodeFrontier(snapshot.degree(startingNode.getIndex()));
+        currentNeighbors.expand(startingNode.getIndex(), solution, snapshot);
+        int[] newNodes = new int[8];
 
 
 //        assert (solution.getNonDifferentiallyExpressedCases() <= l);
 
         while (true && !isCancelled()) {
-            List<GeneNode> newNodes = new ArrayList<GeneNode>();
+            int numNewNodes = 0;
             double bestFitness = Double.MAX_VALUE;
-            HashSet<GeneNode> validNeighbors = new HashSet<GeneNode>();
-            for (GeneNode node: currentNeighbors) {
-                if (solution.canAdd(node)) {
-                    validNeighbors.add(node);
+            for (int i = currentNeighbors.size() - 1; i >= 0; i--) {
+                if (!solution.canAdd(snapshot.getNode(currentNeighbors.get(i)))) {
+                    currentNeighbors.removeAt(i);
                 }
             }
-            currentNeighbors = validNeighbors;               
             if (currentNeighbors.isEmpty()) {
                 break;
             }
@@ -117,53 +156,48 @@ public class Greedy implements Serializable {
             // several
             // neighbors with the same best fitness, choose one uniformly at
             // random
-            for (GeneNode node : currentNeighbors) {
+            for (int i = 0; i < currentNeighbors.size(); i++) {
                 if(isCancelled()){
                     break;
                 }
 
-                if (node.getHeuristicValue(kpmSettings.NODE_HEURISTIC_VALUE) < bestFitness) {
-                    bestFitness = node.getHeuristicValue(kpmSettings.NODE_HEURISTIC_VALUE);
-                    newNodes.clear();
-                    newNodes.add(node);
-                } else if (node.getHeuristicValue(kpmSettings.NODE_HEURISTIC_VALUE) == bestFitness) {
-                    newNodes.add(node);
+                int node = currentNeighbors.get(i);
+                int heuristicValue = snapshot.getNode(node).getHeuristicValue(kpmSettings.NODE_HEURISTIC_VALUE);
+                if (heuristicValue < bestFitness) {
+                    bestFitness = heuristicValue;
+                    numNewNodes = 0;
+                } else if (heuristicValue > bestFitness) {
+                    continue;
                 }
+                if (numNewNodes == newNodes.length) {
+                    newNodes = Arrays.copyOf(newNodes, numNewNodes * 2);
+                }
+                newNodes[numNewNodes++] = node;
             }
 
-            if (newNodes.size() == 0) {
+            if (numNewNodes == 0) {
                 break;
                 //TODO: Figure out what to do here instead of throwing the exception:
                 //throw new IllegalStateException("We did not pick a node...");
             }
 
-            GeneNode newNode = newNodes.get(kpmSettings.R.nextInt(newNodes.size()));
+            int newNode = newNodes[random.nextInt(numNewNodes)];
 
-            if (!solution.canAdd(newNode)) {
+            if (!solution.canAdd(snapshot.getNode(newNode))) {
                 break;
             }
 
-            solution.add(newNode);
+            solution.add(snapshot.getNode(newNode));
 
-            updateNeighbors(solution, currentNeighbors, newNode);
+            currentNeighbors.expand(newNode, solution, snapshot);
         }
 
         // flag the most expensive nodes as exception nodes
-        solution.flagExceptionNodes();
+        collector.flagExceptionNodes(solution);
 
         return solution;
     }
 
-    private void updateNeighbors(Subgraph solution,
-            Set<GeneNode> currentNeighbors, GeneNode newNode) {
-        currentNeighbors.remove(newNode);
-        for (GeneNode node : g.getNeighbors(newNode)) {
-            if (!solution.contains(node)) {
-                currentNeighbors.add(node);
-            }
-        }
-    }
-
     private volatile boolean isCancelled = false;
 
     private synchronized boolean isCancelled(){
@@ -3,19 +3,25 @@ package dk.sdu.kpm.algo.glone;
 import dk.sdu.kpm.Heuristic;
 import dk.sdu.kpm.KPMSettings;
 import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
 import dk.sdu.kpm.graph.KPMGraph;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
+/**
+ * The local search methods. The constants are shared by all runs, so they keep
+ * no state of their own: the settings and the cancellation flag of a run are
+ * passed to every call.
+ */
 public enum LocalSearch {
 	GREEDY1, GREEDY2, OPTIMAL, OFF;
 
-    private volatile KPMSettings kpmSettings;
-    
 	/**
 	 * Improves a given solution by local searching its neighborhood. For this,
 	 * it removes one node and tries to add other nodes such that the solution
@@ -26,10 +32,22 @@ public enum LocalSearch {
 	 * @return the solution which has been locally optimized
 	 */
 	public Subgraph localSearch(Subgraph s, KPMGraph g, KPMSettings settings) {
+		return localSearch(s, g, settings, new AtomicBoolean());
+	}
+
+	/**
+	 * @param cancelled
+	 *            the cancellation flag of the run, the search stops early
+	 *            once it is set
+	 * @see #localSearch(Subgraph, KPMGraph, KPMSettings)
+	 */
+	public Subgraph localSearch(Subgraph s, KPMGraph g, KPMSettings kpmSettings, AtomicBoolean cancelled) {
 		if (this == LocalSearch.OFF || s.size() == 1)
 			return s;
-		
-		this.kpmSettings = settings;
+
+		GraphSnapshot snapshot = g.getSnapshot();
+		NeighborhoodBound neighborhoodBound = this == LocalSearch.OPTIMAL
+				? new NeighborhoodBound(snapshot, kpmSettings) : null;
 		// currently ignores depth
 		Subgraph bestSolution = s;
 
@@ -45,11 +63,13 @@ public enum LocalSearch {
 				continue;
 
 			// compute current neighbors
-			Set<GeneNode> currentNeighbors = new HashSet<GeneNode>();
-			for (GeneNode inClone : clone)
-				for (GeneNode potentialNeighbor : g.getNeighbors(inClone))
-					if (!clone.contains(potentialNeighbor))
-						currentNeighbors.add(potentialNeighbor);
+			NodeFrontier currentNeighbors = new NodeFrontier(clone.size());
+			for (GeneNode inClone : clone) {
+				int index = inClone.getIndex();
+				for (int p = snapshot.neighborsStart(index), end = snapshot.neighborsEnd(index); p < end; p++)
+					if (!clone.containsIndex(snapshot.neighborAt(p)))
+						currentNeighbors.add(snapshot.neighborAt(p));
+			}
 
 			// must have neighbors since we just removed one node.. !
 			assert !currentNeighbors.isEmpty();
@@ -58,13 +78,14 @@ public enum LocalSearch {
 
 			switch (this) {
 			case GREEDY1:
-				newSol = localSearchGreedy1Step(clone, currentNeighbors, g);
+				newSol = localSearchGreedy1Step(clone, currentNeighbors, snapshot);
 				break;
 			case GREEDY2:
-				newSol = localSearchGreedy2Step(clone, currentNeighbors, g, kpmSettings.NODE_HEURISTIC_VALUE);
+				newSol = localSearchGreedy2Step(clone, currentNeighbors, snapshot, kpmSettings.NODE_HEURISTIC_VALUE);
 				break;
 			case OPTIMAL:
-				newSol = localSearchOptimalStep(clone, currentNeighbors, g);
+				newSol = localSearchOptimalStep(clone, currentNeighbors, g, neighborhoodBound,
+						kpmSettings, cancelled);
 				break;
 			default:
 			}
@@ -87,10 +108,11 @@ public enum LocalSearch {
 	 * @return the optimal subgraph that can be constructed from clone
 	 */
 	private Subgraph localSearchOptimalStep(Subgraph clone,
-			Set<GeneNode> currentNeighbors, KPMGraph g) {
+			NodeFrontier currentNeighbors, KPMGraph g, NeighborhoodBound neighborhoodBound,
+			KPMSettings kpmSettings, AtomicBoolean cancelled) {
 
         return branchSolution(clone, currentNeighbors,
-				Collections.<GeneNode> emptySet(), 0, g, kpmSettings);
+				new BitSet(), 0, g, neighborhoodBound, kpmSettings, cancelled);
 	}
 
     /**
@@ -112,58 +134,60 @@ public enum LocalSearch {
      * current lower bound fitness. True otherwise.
      */
     private Subgraph branchSolution(Subgraph init,
-                                   Set<GeneNode> currentNeighbors, Set<GeneNode> visitedNodes,
-                                   int lowerBound, KPMGraph g, KPMSettings kpmSettings) {
+                                   NodeFrontier currentNeighbors, BitSet visitedNodes,
+                                   int lowerBound, KPMGraph g, NeighborhoodBound neighborhoodBound,
+                                   KPMSettings kpmSettings, AtomicBoolean cancelled) {
         assert init.isConnected(g);
 
+        GraphSnapshot snapshot = g.getSnapshot();
         Subgraph bestSolution = init;
         if (lowerBound < bestSolution.getFitness()) {
             lowerBound = bestSolution.getFitness();
         }
 
-        Set<GeneNode> visitedNodesFromHere = new HashSet<GeneNode>(visitedNodes);
+        BitSet visitedNodesFromHere = (BitSet) visitedNodes.clone();
 
-        for (GeneNode newNode : currentNeighbors) {
-            if(isCancelled()){
+        for (int i = 0; i < currentNeighbors.size(); i++) {
+            if(cancelled.get()){
                 break;
             }
 
-            if (!init.canAdd(newNode) || visitedNodes.contains(newNode)) {
+            int newNode = currentNeighbors.get(i);
+            if (visitedNodes.get(newNode) || !init.canAdd(snapshot.getNode(newNode))) {
                 continue;
             }
 
             // make a deep copy
             Subgraph branch = new Subgraph(kpmSettings);
             branch.addAll(init);
-            branch.add(newNode);
-            Set<GeneNode> currentNodesNeighbors = new HashSet<GeneNode>(
-                    currentNeighbors);
+            branch.add(snapshot.getNode(newNode));
+            NodeFrontier currentNodesNeighbors = new NodeFrontier(currentNeighbors);
 
-            branch.updateNeighbors(currentNodesNeighbors, newNode, g);
+            currentNodesNeighbors.expand(newNode, branch, snapshot);
 
             // Bound.
-            if (boundSolution(branch, currentNodesNeighbors, g) <= lowerBound) {
+            int upperBound = neighborhoodBound.bound(branch, currentNodesNeighbors, visitedNodesFromHere);
+            if (upperBound <= lowerBound) {
                 continue;
             }
 
             // Branch.
             Subgraph branchedSolution = branchSolution(branch,
-                    currentNodesNeighbors, visitedNodesFromHere, lowerBound, g, kpmSettings);
+                    currentNodesNeighbors, visitedNodesFromHere, lowerBound, g, neighborhoodBound, kpmSettings,
+                    cancelled);
+            assert branchedSolution.getFitness() <= upperBound;
 
             if (lowerBound < branchedSolution.getFitness()) {
                 lowerBound = branchedSolution.getFitness();
                 bestSolution = branchedSolution;
             }
 
-            visitedNodesFromHere.add(newNode);
+            visitedNodesFromHere.set(newNode);
         }
 
         return bestSolution;
     }
 
-    private static int boundSolution(Subgraph toBound,Set<GeneNode> currentNeighbors, KPMGraph g) {
-        return Integer.MAX_VALUE;
-    }
 	/**
 	 * Greedily adds nodes to the solution until no new nodes are possible to
 	 * add.
@@ -176,16 +200,16 @@ public enum LocalSearch {
 	 * @return
 	 */
 	private Subgraph localSearchGreedy1Step(Subgraph clone,
-			Set<GeneNode> currentNeighbors, KPMGraph g) {
+			NodeFrontier currentNeighbors, GraphSnapshot snapshot) {
 
 		while (!currentNeighbors.isEmpty()) {
 			// max since they are in the wrong order
-			GeneNode smallest = Collections.max(currentNeighbors);
-			if (clone.canAdd(smallest)) {
-				clone.add(smallest);
+			int smallest = maxNeighbor(currentNeighbors, -1, snapshot);
+			if (clone.canAdd(snapshot.getNode(smallest))) {
+				clone.add(snapshot.getNode(smallest));
 
 				// update neighbors
-				clone.updateNeighbors(currentNeighbors, smallest, g);
+				currentNeighbors.expand(smallest, clone, snapshot);
 			} else
 				return clone;
 		}
@@ -201,73 +225,79 @@ public enum LocalSearch {
 	 * @return
 	 */
 	private Subgraph localSearchGreedy2Step(Subgraph clone,
-			Set<GeneNode> currentNeighbors, KPMGraph g, Heuristic node_heuristic_value) {
+			NodeFrontier currentNeighbors, GraphSnapshot snapshot, Heuristic node_heuristic_value) {
 		while (!currentNeighbors.isEmpty()) {
 			// for each neighbor, save the cost for (that neighbor +
 			// cheapest neighborsNeighbor)
 			Set<TwoNodes> costs = new HashSet<TwoNodes>();
-			for (GeneNode n : currentNeighbors) {
+			for (int i = 0; i < currentNeighbors.size(); i++) {
+				int n = currentNeighbors.get(i);
 				GeneNode minNeighbor = null;
-				for (GeneNode neighborsNeighbor : g.getNeighbors(n))
-					if (!clone.contains(neighborsNeighbor)
+				for (int p = snapshot.neighborsStart(n), end = snapshot.neighborsEnd(n); p < end; p++) {
+					int neighborsNeighbor = snapshot.neighborAt(p);
+					if (!clone.containsIndex(neighborsNeighbor)
 							&& !currentNeighbors.contains(neighborsNeighbor)
-							&& (minNeighbor == null || neighborsNeighbor
+							&& (minNeighbor == null || snapshot.getNode(neighborsNeighbor)
 									.getHeuristicValue(node_heuristic_value) < minNeighbor
 									.getHeuristicValue(node_heuristic_value)))
-						minNeighbor = neighborsNeighbor;
+						minNeighbor = snapshot.getNode(neighborsNeighbor);
+				}
 
 				if (minNeighbor != null)
-					costs.add(new TwoNodes(n, minNeighbor, kpmSettings.NODE_HEURISTIC_VALUE));
+					costs.add(new TwoNodes(snapshot.getNode(n), minNeighbor, node_heuristic_value));
 			}
 
 			// finally, add the two cheapest nodes in the current neighbors
-			GeneNode smallest = Collections.max(currentNeighbors);
-			currentNeighbors.remove(smallest);
+			int smallest = maxNeighbor(currentNeighbors, -1, snapshot);
 
-			if (currentNeighbors.isEmpty()) {
+			if (currentNeighbors.size() == 1) {
 				// do nothing ... is captured by call to 1-greedy
 			} else {
-				GeneNode secondSmallest = Collections.max(currentNeighbors);
-				costs.add(new TwoNodes(smallest, secondSmallest, kpmSettings.NODE_HEURISTIC_VALUE));
+				int secondSmallest = maxNeighbor(currentNeighbors, smallest, snapshot);
+				costs.add(new TwoNodes(snapshot.getNode(smallest), snapshot.getNode(secondSmallest),
+						node_heuristic_value));
 			}
 
-			currentNeighbors.add(smallest);
-
 			// now, determine the minimum cost.
 			TwoNodes minimum;
 			try {
 				minimum = Collections.min(costs);
 			} catch (NoSuchElementException e) {
-				return localSearchGreedy1Step(clone, currentNeighbors, g);
+				return localSearchGreedy1Step(clone, currentNeighbors, snapshot);
 			}
 
 			// now, add the nodes to the solution and repeat.
 			if (!clone.canAdd(minimum.getN1()))
-				return localSearchGreedy1Step(clone, currentNeighbors, g);
+				return localSearchGreedy1Step(clone, currentNeighbors, snapshot);
 			else {
 				clone.add(minimum.getN1());
-				clone.updateNeighbors(currentNeighbors, minimum.getN1(), g);
+				currentNeighbors.expand(minimum.getN1().getIndex(), clone, snapshot);
 			}
 
 			if (!clone.canAdd(minimum.getN2()))
 				return clone;
 			else {
 				clone.add(minimum.getN2());
-				clone.updateNeighbors(currentNeighbors, minimum.getN2(), g);
+				currentNeighbors.expand(minimum.getN2().getIndex(), clone, snapshot);
 			}
 		}
 
-		return localSearchGreedy1Step(clone, currentNeighbors, g);
+		return localSearchGreedy1Step(clone, currentNeighbors, snapshot);
 	}
 
-
-    private volatile boolean isCancelled = false;
-
-    private synchronized boolean isCancelled(){
-        return this.isCancelled;
-    }
-
-    public synchronized void cancel() {
-        this.isCancelled = true;
-    }
+	/**
+	 * @return the frontier node that is largest according to the natural
+	 *         order of GeneNode (i.e. the cheapest one), ignoring the node
+	 *         skip
+	 */
+	private static int maxNeighbor(NodeFrontier currentNeighbors, int skip, GraphSnapshot snapshot) {
+		int max = -1;
+		for (int i = 0; i < currentNeighbors.size(); i++) {
+			int candidate = currentNeighbors.get(i);
+			if (candidate != skip && (max == -1
+					|| snapshot.getNode(candidate).compareTo(snapshot.getNode(max)) > 0))
+				max = candidate;
+		}
+		return max;
+	}
 }
@@ -0,0 +1,351 @@
+package dk.sdu.kpm.algo.glone;
+
+import dk.sdu.kpm.CombinePredicate;
+import dk.sdu.kpm.KPMSettings;
+import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Upper bound on the fitness a partial solution of the exception-sum model can
+ * still reach, used to prune the branch-and-bound of {@link Optimal} and of
+ * {@link LocalSearch#OPTIMAL}.
+ *
+ * The bound works as described in Optimal.runOptimal(): first it determines
+ * how many more nodes y can be added before the case exception limit of every
+ * study is crossed, assuming the cheapest nodes of the whole graph. It then
+ * collects the y-neighborhood of the solution and repeats the count with the
+ * cheapest nodes of that neighborhood only. Every node that can still be added
+ * lies in the y-neighborhood, so the solution can grow by at most
+ * min(|y-neighborhood|, number of nodes that fit) nodes.
+ *
+ * For every study s, the number of nodes J_s that fit is the largest J such
+ * that the current non-diff. expressed cases of s plus the J smallest
+ * non-diff. expressed cases of s in the candidate pool stay within L_s. The
+ * studies that are within their limits in the final solution satisfy the
+ * combination, so they contain one of the minimal satisfying sets W of the
+ * {@link CombinePredicate}, and the solution may grow by the largest
+ * min_{s in W} J_s. With OR this is max_s J_s, with AND min_s J_s.
+ *
+ * With K > 0 gene exceptions the first K nodes are free, and every later node
+ * increases the case counts by the cases of either the new node or of an
+ * exception node that is already in the solution, and the same node can be
+ * charged at most twice. The pool is then taken over the solution and the
+ * neighborhood, with every node counted twice.
+ *
+ * Instances keep scratch space for the neighborhood search and must not be
+ * shared between threads; use the copy constructor to get another instance
+ * backed by the same precomputed tables.
+ */
+final class NeighborhoodBound {
+
+    private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private final GraphSnapshot snapshot;
+
+    private final int geneExceptions;
+
+    // index of every study, see GraphSnapshot.getStudyIdDictionary()
+    private final int[] studies;
+
+    // minimal satisfying masks of the combination over studies, null if
+    // unknown
+    private final long[] minimalMasks;
+
+    // L for every study, in the order of studies
+    private final int[] caseExceptions;
+
+    // non-diff. expressed cases per study and node index
+    private final int[][] costs;
+
+    // number of nodes in the graph with a given number of non-diff. expressed
+    // cases, per study
+    private final int[][] globalHistogram;
+
+    // scratch space
+
+    private final int[][] histogram;
+
+    private final int[] visited;
+
+    private int visitStamp = 0;
+
+    private final int[] queue;
+
+    private final int[] depth;
+
+    private final int[] studyFits;
+
+    NeighborhoodBound(GraphSnapshot snapshot, KPMSettings kpmSettings) {
+        this.snapshot = snapshot;
+        this.geneExceptions = kpmSettings.GENE_EXCEPTIONS;
+        CombinePredicate predicate = kpmSettings.getCombinePredicate();
+        this.minimalMasks = predicate.getMinimalMasks();
+
+        int numStudies = predicate.getNumStudies();
+        studies = predicate.getStudyIndices(snapshot.getStudyIdDictionary());
+        caseExceptions = predicate.getCaseExceptions(kpmSettings.CASE_EXCEPTIONS_MAP);
+        costs = new int[numStudies][snapshot.size()];
+        globalHistogram = new int[numStudies][];
+
+        for (int s = 0; s < numStudies; s++) {
+            int maxCost = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                costs[s][i] = snapshot.getNode(i).getNumNoDiffExpressedCases(studies[s]);
+                maxCost = Math.max(maxCost, costs[s][i]);
+            }
+            globalHistogram[s] = new int[maxCost + 1];
+            for (int i = 0; i < snapshot.size(); i++) {
+                globalHistogram[s][costs[s][i]]++;
+            }
+        }
+
+        histogram = new int[numStudies][];
+        for (int s = 0; s < numStudies; s++) {
+            histogram[s] = new int[globalHistogram[s].length];
+        }
+        visited = new int[snapshot.size()];
+        queue = new int[snapshot.size()];
+        depth = new int[snapshot.size()];
+        studyFits = new int[studies.length];
+    }
+
+    /**
+     * Creates an instance that shares the precomputed tables of the given one
+     * but has its own scratch space.
+     */
+    NeighborhoodBound(NeighborhoodBound shared) {
+        this.snapshot = shared.snapshot;
+        this.geneExceptions = shared.geneExceptions;
+        this.studies = shared.studies;
+        this.minimalMasks = shared.minimalMasks;
+        this.caseExceptions = shared.caseExceptions;
+        this.costs = shared.costs;
+        this.globalHistogram = shared.globalHistogram;
+
+        histogram = new int[studies.length][];
+        for (int s = 0; s < studies.length; s++) {
+            histogram[s] = new int[globalHistogram[s].length];
+        }
+        visited = new int[snapshot.size()];
+        queue = new int[snapshot.size()];
+        depth = new int[snapshot.size()];
+        studyFits = new int[studies.length];
+    }
+
+    /**
+     * Upper bounds the fitness that the given solution can reach.
+     *
+     * @param solution the solution to bound
+     * @param currentNeighbors the nodes adjacent to the solution
+     * @param excluded nodes that must not be added to the solution anymore,
+     * because the solutions containing them are enumerated elsewhere
+     * @return an upper bound on the size of every solution that can be grown
+     * from the given one without using excluded nodes
+     */
+    int bound(Subgraph solution, NodeFrontier currentNeighbors, BitSet excluded) {
+        int size = solution.size();
+        int free = geneExceptions > 0 ? Math.max(0, geneExceptions - size) : 0;
+        int[] current = currentCases(solution);
+
+        // first pass: the cheapest nodes of the whole graph
+        if (geneExceptions > 0) {
+            clearHistograms();
+            addToHistograms(globalHistogram);
+            addToHistograms(globalHistogram);
+        }
+        int fits = nodesThatFit(current, geneExceptions > 0 ? histogram : globalHistogram);
+        int radius = saturatedAdd(free, fits);
+        if (radius == 0) {
+            return size;
+        }
+
+        // second pass: the cheapest nodes of the radius-neighborhood
+        clearHistograms();
+        int reachable = collectNeighborhood(solution, currentNeighbors, excluded, current, radius);
+        if (geneExceptions > 0) {
+            for (GeneNode node : solution) {
+                for (int s = 0; s < studies.length; s++) {
+                    histogram[s][costs[s][node.getIndex()]]++;
+                }
+            }
+            for (int s = 0; s < studies.length; s++) {
+                for (int v = 0; v < histogram[s].length; v++) {
+                    histogram[s][v] *= 2;
+                }
+            }
+        }
+        fits = nodesThatFit(current, histogram);
+
+        return size + Math.min(reachable, saturatedAdd(free, fits));
+    }
+
+    private int[] currentCases(Subgraph solution) {
+        return solution.getNonDifferentiallyExpressedCasesByStudy();
+    }
+
+    /**
+     * Breadth-first search from the solution up to the given depth, skipping
+     * excluded nodes and nodes that can never be added. The non-diff.
+     * expressed cases of every node found are added to the histograms.
+     *
+     * @return the number of nodes found
+     */
+    private int collectNeighborhood(Subgraph solution, NodeFrontier currentNeighbors,
+                                    BitSet excluded, int[] current, int radius) {
+        if (++visitStamp == 0) {
+            Arrays.fill(visited, 0);
+            visitStamp = 1;
+        }
+
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < currentNeighbors.size(); i++) {
+            int node = currentNeighbors.get(i);
+            if (visited[node] != visitStamp && isCandidate(node, solution, excluded, current)) {
+                visited[node] = visitStamp;
+                depth[node] = 1;
+                queue[tail++] = node;
+            }
+        }
+
+        while (head < tail) {
+            int node = queue[head++];
+            for (int s = 0; s < studies.length; s++) {
+                histogram[s][costs[s][node]]++;
+            }
+            if (depth[node] == radius) {
+                continue;
+            }
+            for (int p = snapshot.neighborsStart(node), end = snapshot.neighborsEnd(node); p < end; p++) {
+                int neighbor = snapshot.neighborAt(p);
+                if (visited[neighbor] != visitStamp && isCandidate(neighbor, solution, excluded, current)) {
+                    visited[neighbor] = visitStamp;
+                    depth[neighbor] = depth[node] + 1;
+                    queue[tail++] = neighbor;
+                }
+            }
+        }
+
+        return tail;
+    }
+
+    private boolean isCandidate(int node, Subgraph solution, BitSet excluded, int[] current) {
+        if (solution.containsIndex(node) || excluded.get(node)) {
+            return false;
+        }
+        if (geneExceptions > 0) {
+            return true;
+        }
+
+        // Case counts never decrease, so a node that cannot be added now can
+        // never be added: the studies within their limits at that time would
+        // contain a minimal satisfying set.
+        if (minimalMasks == null) {
+            return true;
+        }
+        for (long mask : minimalMasks) {
+            boolean fits = true;
+            for (int s = 0; s < studies.length && fits; s++) {
+                if ((mask & (1L << s)) != 0 && current[s] + costs[s][node] > caseExceptions[s]) {
+                    fits = false;
+                }
+            }
+            if (fits) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how many more nodes can be charged to the solution before the
+     * combination of the studies is violated, if the charged cases are taken
+     * from the given histograms
+     */
+    private int nodesThatFit(int[] current, int[][] pool) {
+        if (minimalMasks == null) {
+            return UNBOUNDED;
+        }
+
+        int[] fits = studyFits;
+        for (int s = 0; s < studies.length; s++) {
+            fits[s] = nodesThatFit(current[s], caseExceptions[s], pool[s]);
+        }
+
+        int result = 0;
+        for (long mask : minimalMasks) {
+            int fitsAll = UNBOUNDED;
+            for (int s = 0; s < studies.length; s++) {
+                if ((mask & (1L << s)) != 0) {
+                    fitsAll = Math.min(fitsAll, fits[s]);
+                }
+            }
+            result = Math.max(result, fitsAll);
+        }
+        return result;
+    }
+
+    private int nodesThatFit(int current, int limit, int[] pool) {
+        int budget = limit - current;
+        if (geneExceptions == 0) {
+            return cheapestWithin(pool, budget);
+        }
+
+        // The node checked by Subgraph.canAdd() is not necessarily the node
+        // whose cases are charged, so the last node only has to fit with the
+        // smallest cost of the pool.
+        int min = 0;
+        while (min < pool.length && pool[min] == 0) {
+            min++;
+        }
+        if (min == pool.length || budget < min) {
+            return 0;
+        }
+        return saturatedAdd(1, cheapestWithin(pool, budget - min));
+    }
+
+    /**
+     * @return the largest number of elements of the pool whose sum is at most
+     * budget
+     */
+    private static int cheapestWithin(int[] pool, int budget) {
+        if (budget < 0) {
+            return 0;
+        }
+        int count = 0;
+        for (int v = 0; v < pool.length; v++) {
+            if (pool[v] == 0) {
+                continue;
+            }
+            int take = v == 0 ? pool[v] : Math.min(pool[v], budget / v);
+            count += take;
+            budget -= take * v;
+            if (take < pool[v]) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private void clearHistograms() {
+        for (int[] h : histogram) {
+            Arrays.fill(h, 0);
+        }
+    }
+
+    private void addToHistograms(int[][] other) {
+        for (int s = 0; s < studies.length; s++) {
+            for (int v = 0; v < other[s].length; v++) {
+                histogram[s][v] += other[s][v];
+            }
+        }
+    }
+
+    private static int saturatedAdd(int a, int b) {
+        long sum = (long) a + b;
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+    }
+}
@@ -0,0 +1,180 @@
+package dk.sdu.kpm.algo.glone;
+
+import dk.sdu.kpm.graph.GraphSnapshot;
+
+import java.util.Arrays;
+
+/**
+ * The set of nodes adjacent to a growing solution, kept as snapshot indices.
+ * The members are kept in a dense array, and the position of every member in
+ * an open-addressing hash table, so testing membership, adding and removing
+ * a node take O(1), and iterating, adding and expanding the frontier never
+ * allocates once the arrays have grown to their working size. Both arrays
+ * are sized by the frontier, not by the snapshot, so copying a frontier when
+ * branching stays cheap.
+ *
+ * Removing a member moves the last member into its slot, so the iteration
+ * order is not stable across removals.
+ */
+final class NodeFrontier {
+
+    private int[] members;
+
+    private int size = 0;
+
+    // node + 1 of every member, 0 for a free slot, by linear probing
+    private int[] keys;
+
+    // the position of the member in the same slot of keys
+    private int[] positions;
+
+    NodeFrontier(int capacity) {
+        members = new int[Math.max(capacity, 8)];
+        int slots = Integer.highestOneBit(2 * members.length - 1) << 1;
+        keys = new int[slots];
+        positions = new int[slots];
+    }
+
+    /**
+     * Copy constructor, used when branching a solution.
+     */
+    NodeFrontier(NodeFrontier other) {
+        members = Arrays.copyOf(other.members, Math.max(other.size, 8));
+        size = other.size;
+        keys = other.keys.clone();
+        positions = other.positions.clone();
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the node index stored at the given position, 0 <= position <
+     * size()
+     */
+    int get(int position) {
+        return members[position];
+    }
+
+    boolean contains(int node) {
+        return keys[slot(node)] != 0;
+    }
+
+    /**
+     * @return the position of the given node, or -1 if it is no member
+     */
+    int indexOf(int node) {
+        int slot = slot(node);
+        return keys[slot] == 0 ? -1 : positions[slot];
+    }
+
+    boolean add(int node) {
+        int slot = slot(node);
+        if (keys[slot] != 0) {
+            return false;
+        }
+        if (size == members.length) {
+            members = Arrays.copyOf(members, size * 2);
+        }
+        members[size] = node;
+        keys[slot] = node + 1;
+        positions[slot] = size++;
+        // at most half of the slots are used
+        if (2 * size > keys.length) {
+            rehash(2 * keys.length);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the member at the given position by moving the last member
+     * into its place.
+     */
+    void removeAt(int position) {
+        delete(slot(members[position]));
+        int last = members[--size];
+        if (position < size) {
+            members[position] = last;
+            positions[slot(last)] = position;
+        }
+    }
+
+    boolean remove(int node) {
+        int position = indexOf(node);
+        if (position < 0) {
+            return false;
+        }
+        removeAt(position);
+        return true;
+    }
+
+    /**
+     * Removes newNode from the frontier and adds all its neighbors that are
+     * not part of the solution yet.
+     */
+    void expand(int newNode, Subgraph solution, GraphSnapshot snapshot) {
+        remove(newNode);
+        for (int p = snapshot.neighborsStart(newNode), end = snapshot.neighborsEnd(newNode); p < end; p++) {
+            int neighbor = snapshot.neighborAt(p);
+            if (!solution.containsIndex(neighbor)) {
+                add(neighbor);
+            }
+        }
+    }
+
+    /**
+     * @return the slot of the given node, or the free slot it would take
+     */
+    private int slot(int node) {
+        int mask = keys.length - 1;
+        int slot = home(node) & mask;
+        while (keys[slot] != 0 && keys[slot] != node + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int home(int node) {
+        int h = node * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Frees the given slot and moves the members that were placed behind it
+     * by probing back, so that no lookup stops at the free slot early.
+     */
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        int free = slot;
+        for (int next = (free + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = home(keys[next] - 1) & mask;
+            // the member in next can move to free if free lies on its probe
+            // path, i.e. between its home slot and next, cyclically
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                positions[free] = positions[next];
+                free = next;
+            }
+        }
+        keys[free] = 0;
+    }
+
+    private void rehash(int slots) {
+        int[] oldKeys = keys;
+        int[] oldPositions = positions;
+        keys = new int[slots];
+        positions = new int[slots];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i] - 1);
+                keys[slot] = oldKeys[i];
+                positions[slot] = oldPositions[i];
+            }
+        }
+    }
+}
@@ -3,14 +3,26 @@ package dk.sdu.kpm.algo.glone;
 import dk.sdu.kpm.KPMSettings;
 import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
 import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
 import dk.sdu.kpm.graph.KPMGraph;
 import dk.sdu.kpm.graph.Result;
+import dk.sdu.kpm.graph.ResultCollector;
+import dk.sdu.kpm.logging.KpmLogger;
+import dk.sdu.kpm.utils.SharedPools;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 
 public class Optimal implements Serializable {
 
@@ -22,12 +34,52 @@ public class Optimal implements Serializable {
     
     private volatile KPMSettings kpmSettings;
 
+    // Forking stops once a worker has this many tasks queued that nobody has
+    // stolen yet; deeper branches are then searched inline.
+    private static final int MAX_SURPLUS_TASKS = 3;
+
+    private GraphSnapshot snapshot;
+
+    // The upper bound keeps scratch space, so every bound computation takes
+    // a copy of its own from the free ones of this run, see bound(). There
+    // are never more copies than concurrent computations, and they are
+    // dropped with the run instead of staying with the pool's workers.
+    private transient NeighborhoodBound sharedBound;
+
+    private transient Queue<NeighborhoodBound> freeBounds;
+
+    // Fitness of the best solution found by any worker.
+    private final AtomicInteger lowerBound = new AtomicInteger();
+
+    private final Object incumbentLock = new Object();
+
+    // Guarded by incumbentLock.
+    private Subgraph incumbent;
+
+    private final AtomicInteger startingVerticesDone = new AtomicInteger();
+
+    // owned by the caller, see setExecutor()
+    private transient volatile ForkJoinPool executor;
+
     public List<Result> getResults() {
         return allSolutions;
     }
 
+    /**
+     * Sets the pool the search runs on. It is not shut down by this class.
+     * Without a pool, the shared pool with NUMBER_OF_PROCESSORS workers is
+     * used, see SharedPools.
+     */
+    public void setExecutor(ForkJoinPool executor) {
+        this.executor = executor;
+    }
+
+    private ForkJoinPool executor() {
+        return executor != null ? executor : SharedPools.get(kpmSettings.NUMBER_OF_PROCESSORS);
+    }
+
     public Optimal(KPMGraph input, IKPMTaskMonitor taskMonitor, KPMSettings settings) {
-        g = new KPMGraph(input);
+        g = input;
         this.taskMonitor = taskMonitor;
         this.kpmSettings = settings;
     }
@@ -43,131 +95,261 @@ public class Optimal implements Serializable {
      * current subgraph. In this neighborhood, nodes are added until the case
      * exception limit is crossed.
      *
+     * The search runs on the pool given by setExecutor(), or the shared one
+     * with KPMSettings.NUMBER_OF_PROCESSORS workers. Every starting vertex
+     * and, while workers are idle, every branch is a task that can be
+     * stolen, and all workers prune against the best solution found by any
+     * of them.
+     *
      * @return The optimal solution.
      */
     public List<Result> runOptimal() {
+        return runOptimal(ResultCollector.fromSettings(kpmSettings));
+    }
+
+    /**
+     * @param collector receives the optimal solution
+     * @return the results kept by the collector
+     * @see #runOptimal()
+     */
+    public List<Result> runOptimal(ResultCollector collector) {
         //g = new KPMGraph(input);
         if (! kpmSettings.IS_BATCH_RUN) {
             taskMonitor.setStatusMessage("Performing preprocessing...");
         }
-        Subgraph opt = (Subgraph) Collections.min((new Greedy(g, taskMonitor, kpmSettings)).runGreedy());
-
-        g.setAllNodesValid();
-        int lowerBound = opt.getFitness();
+        ResultCollector greedyResults = new ResultCollector(1, true);
+        greedyResults.setExceptionFlags(collector.getExceptionFlags());
+        Greedy greedy = new Greedy(g, taskMonitor, kpmSettings);
+        greedy.setExecutor(executor);
+        Subgraph opt = (Subgraph) greedy.runGreedy(greedyResults).get(0);
+
+        incumbent = opt;
+        lowerBound.set(opt.getFitness());
+        startingVerticesDone.set(0);
         if (! kpmSettings.IS_BATCH_RUN) {
             taskMonitor.setStatusMessage("Extracting pathways...");
         }
 //        System.out.println("greedy: " + lowerBound);
 
-        int count = 0;
-        int numSteps = g.getVertexCount();
-
-        while (true && !isCancelled()) {
-            // System.out.println("Step " + ++count + " of " + numSteps);
-            // works b/c this vertex is removed in the next run
-            GeneNode startingVertex = g.getVertices().iterator().next();
-
-            Subgraph init = new Subgraph(kpmSettings);
-            if (init.canAdd(startingVertex)) {
-                init.add(startingVertex);
-                Set<GeneNode> currentNeighbors = new HashSet<GeneNode>();
-                currentNeighbors.addAll(g.getNeighbors(startingVertex));
+        snapshot = g.getSnapshot();
+        sharedBound = new NeighborhoodBound(snapshot, kpmSettings);
+        freeBounds = new ConcurrentLinkedQueue<NeighborhoodBound>();
+        try {
+            executor().invoke(new StartingVerticesTask(0, snapshot.size()));
+        } finally {
+            sharedBound = null;
+            freeBounds = null;
+        }
 
-                Subgraph best = branchSolution(init, currentNeighbors,
-                        Collections.<GeneNode>emptySet(), lowerBound, g, kpmSettings);
+        if (! kpmSettings.IS_BATCH_RUN) {
+            taskMonitor.setProgress(99);
+        }
+        synchronized (incumbentLock) {
+            opt = incumbent;
+        }
+        collector.flagExceptionNodes(opt);
+        collector.offer(opt);
+        return collector.getResults();
+    }
 
-                if (best != null && best.getFitness() > lowerBound) {
-                    opt = best;
-                    lowerBound = best.getFitness();
-                }
-            }
+    /**
+     * Searches all solutions that contain the given starting vertex but none
+     * of the vertices before it. Every solution containing an earlier starting
+     * vertex is enumerated from that vertex, so earlier starting vertices are
+     * excluded from the search instead of being removed from the graph.
+     */
+    private void searchFromStartingVertex(int start) {
+        GeneNode startingVertex = snapshot.getNode(start);
 
-            g.removeVertex(startingVertex);
+        Subgraph init = new Subgraph(kpmSettings);
+        if (init.canAdd(startingVertex)) {
+            init.add(startingVertex);
+            NodeFrontier currentNeighbors = new NodeFrontier(snapshot.degree(start));
+            currentNeighbors.expand(start, init, snapshot);
 
-            if (g.getVertices().isEmpty()) {
-                break;
-            }
-            count++;
-            if (! kpmSettings.IS_BATCH_RUN) {
-                double completed = (double) count / (double) numSteps;
-                taskMonitor.setProgress(completed);
-            }
+            BitSet excluded = new BitSet(snapshot.size());
+            excluded.set(0, start);
 
+            branchSolution(init, currentNeighbors, excluded);
         }
-        
+
+        int done = startingVerticesDone.incrementAndGet();
         if (! kpmSettings.IS_BATCH_RUN) {
-            taskMonitor.setProgress(99);
+            double completed = (double) done / (double) snapshot.size();
+            taskMonitor.setProgress(completed);
         }
-        opt.flagExceptionNodes();
-        return Collections.singletonList((Result) opt);
     }
 
     /**
      * Takes an existing solution with x<=l case exceptions. Branches the
-     * solution to add more nodes.
-     *
-     *
-     *
-
+     * solution to add more nodes. Branches are forked as separate tasks while
+     * other workers are running out of work, otherwise they are searched
+     * recursively in the current thread.
      *
      * @param init What solution to start with
      * @param currentNeighbors all nodes that can be reached from init within
      * exactly 1 step
      * @param visitedNodes all Nodes that are already covered by another branch,
      * such that we can ignore them
-     * @param lowerBound the current highest known lower bound
-     * @param g the graph on which we work
-     * @return false, if the solution's upper bound fitness does not match the
-     * current lower bound fitness. True otherwise.
+     * @return the highest fitness found in this branch, at least the fitness of
+     * init
      */
-    public Subgraph branchSolution(Subgraph init,
-                                          Set<GeneNode> currentNeighbors, Set<GeneNode> visitedNodes,
-                                          int lowerBound, KPMGraph g, KPMSettings kpmSettings) {
+    private int branchSolution(Subgraph init, NodeFrontier currentNeighbors, BitSet visitedNodes) {
         assert init.isConnected(g);
 
-        Subgraph bestSolution = init;
-        if (lowerBound < bestSolution.getFitness()) {
-            lowerBound = bestSolution.getFitness();
-        }
+        offerSolution(init);
+        int bestFitness = init.getFitness();
 
-        Set<GeneNode> visitedNodesFromHere = new HashSet<GeneNode>(visitedNodes);
+        BitSet visitedNodesFromHere = (BitSet) visitedNodes.clone();
+        List<BranchTask> forked = null;
 
-        for (GeneNode newNode : currentNeighbors) {
+        for (int i = 0; i < currentNeighbors.size(); i++) {
             if(isCancelled()){
                 break;
             }
 
-            if (!init.canAdd(newNode) || visitedNodes.contains(newNode)) {
+            int newNode = currentNeighbors.get(i);
+            if (visitedNodes.get(newNode) || !init.canAdd(snapshot.getNode(newNode))) {
                 continue;
             }
 
             // make a deep copy
             Subgraph branch = new Subgraph(kpmSettings);
             branch.addAll(init);
-            branch.add(newNode);
-            Set<GeneNode> currentNodesNeighbors = new HashSet<GeneNode>(
-                    currentNeighbors);
+            branch.add(snapshot.getNode(newNode));
+            NodeFrontier currentNodesNeighbors = new NodeFrontier(currentNeighbors);
 
-            branch.updateNeighbors(currentNodesNeighbors, newNode, g);
+            currentNodesNeighbors.expand(newNode, branch, snapshot);
 
             // Bound.
-            if (boundSolution(branch, currentNodesNeighbors, g) <= lowerBound) {
-                continue;
+            int upperBound = bound(branch, currentNodesNeighbors, visitedNodesFromHere);
+            if (upperBound > lowerBound.get()) {
+                // Branch.
+                if (upperBound - branch.size() > 1
+                        && ForkJoinTask.getSurplusQueuedTaskCount() < MAX_SURPLUS_TASKS) {
+                    BranchTask task = new BranchTask(branch, currentNodesNeighbors,
+                            (BitSet) visitedNodesFromHere.clone(), upperBound);
+                    task.fork();
+                    if (forked == null) {
+                        forked = new ArrayList<BranchTask>();
+                    }
+                    forked.add(task);
+                } else {
+                    int branchFitness = branchSolution(branch, currentNodesNeighbors, visitedNodesFromHere);
+                    assert branchFitness <= upperBound : "upper bound " + upperBound
+                            + " is below the fitness " + branchFitness + " found from " + branch;
+                    bestFitness = Math.max(bestFitness, branchFitness);
+                }
             }
 
-            // Branch.
-            Subgraph branchedSolution = branchSolution(branch,
-                    currentNodesNeighbors, visitedNodesFromHere, lowerBound, g, kpmSettings);
+            // All solutions containing newNode have been searched or pruned.
+            visitedNodesFromHere.set(newNode);
+        }
+
+        if (forked != null) {
+            for (BranchTask task : forked) {
+                bestFitness = Math.max(bestFitness, task.join());
+            }
+        }
+
+        return bestFitness;
+    }
+
+    /**
+     * @see NeighborhoodBound#bound(Subgraph, NodeFrontier, BitSet)
+     */
+    private int bound(Subgraph branch, NodeFrontier currentNeighbors, BitSet visitedNodes) {
+        NeighborhoodBound bound = freeBounds.poll();
+        if (bound == null) {
+            bound = new NeighborhoodBound(sharedBound);
+        }
+        try {
+            return bound.bound(branch, currentNeighbors, visitedNodes);
+        } finally {
+            freeBounds.offer(bound);
+        }
+    }
+
+    /**
+     * Makes the given solution the incumbent if it is better than the best
+     * one found so far by any worker.
+     */
+    private void offerSolution(Subgraph solution) {
+        int fitness = solution.getFitness();
+        if (fitness <= lowerBound.get()) {
+            return;
+        }
+        synchronized (incumbentLock) {
+            if (fitness > incumbent.getFitness()) {
+                incumbent = solution;
+                lowerBound.set(fitness);
+            }
+        }
+    }
+
+    /**
+     * Splits a range of starting vertices until single vertices are left.
+     */
+    private class StartingVerticesTask extends RecursiveAction {
 
-            if (lowerBound < branchedSolution.getFitness()) {
-                lowerBound = branchedSolution.getFitness();
-                bestSolution = branchedSolution;
+        private static final long serialVersionUID = 3309476208917716573L;
+
+        private final int from;
+
+        private final int to;
+
+        StartingVerticesTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (isCancelled()) {
+                return;
+            }
+            if (to - from == 1) {
+                searchFromStartingVertex(from);
+            } else if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new StartingVerticesTask(from, middle), new StartingVerticesTask(middle, to));
             }
+        }
+    }
+
+    /**
+     * A branch of the search tree that can be stolen by another worker.
+     */
+    private class BranchTask extends RecursiveTask<Integer> {
 
-            visitedNodesFromHere.add(newNode);
+        private static final long serialVersionUID = -8450611278316934025L;
+
+        private final Subgraph branch;
+
+        private final NodeFrontier currentNeighbors;
+
+        private final BitSet visitedNodes;
+
+        private final int upperBound;
+
+        BranchTask(Subgraph branch, NodeFrontier currentNeighbors, BitSet visitedNodes, int upperBound) {
+            this.branch = branch;
+            this.currentNeighbors = currentNeighbors;
+            this.visitedNodes = visitedNodes;
+            this.upperBound = upperBound;
         }
 
-        return bestSolution;
+        @Override
+        protected Integer compute() {
+            // the incumbent may have improved while this task was queued
+            if (upperBound <= lowerBound.get()) {
+                return branch.getFitness();
+            }
+            int branchFitness = branchSolution(branch, currentNeighbors, visitedNodes);
+            assert branchFitness <= upperBound : "upper bound " + upperBound
+                    + " is below the fitness " + branchFitness + " found from " + branch;
+            return branchFitness;
+        }
     }
 
     // /**
@@ -328,25 +510,16 @@ public class Optimal implements Serializable {
 //
 //		return diffCasesArray.size();
 //	}
-    private static int boundSolution(Subgraph toBound,
-            Set<GeneNode> currentNeighbors, KPMGraph g) {
-        return Integer.MAX_VALUE;
-    }
-
-
 
     private volatile boolean isCancelled = false;
 
-    private synchronized boolean isCancelled(){
-        if(isCancelled){
-            System.out.println("Optimal has been cancelled");
-        }
+    private boolean isCancelled(){
         return this.isCancelled;
     }
 
     public synchronized void cancel() {
         this.isCancelled = true;
-        System.out.println("cancelled Optimal");
+        KpmLogger.log(Level.INFO, "Optimal has been cancelled.");
 //        if(pool != null){
 //            pool.shutdownNow();
 //        }
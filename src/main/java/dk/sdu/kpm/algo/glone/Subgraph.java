@@ -1,12 +1,14 @@
 package dk.sdu.kpm.algo.glone;
 
 import dk.sdu.kpm.Combine;
+import dk.sdu.kpm.CombinePredicate;
 import dk.sdu.kpm.KPMSettings;
 import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.PackedExpression;
+import dk.sdu.kpm.graph.GraphSnapshot;
 import dk.sdu.kpm.graph.KPMGraph;
 import dk.sdu.kpm.graph.Result;
-
-import org.mvel2.MVEL;
+import dk.sdu.kpm.graph.ResultFingerprint;
 
 import java.io.Serializable;
 import java.util.*;
@@ -23,16 +25,25 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
     private HashMap<String, GeneNode> visitedNodes = null;
     private GeneNode lastExceptionNode = null;
     private int nonDifferentiallyExpressedCases = 0;
-    private Map<String, Integer> nonDifferentiallyExpressedCasesMap;
+    // Non-diff. expressed cases of the non-exception nodes per study, in the
+    // order of the studies of combinePredicate
+    private int[] nonDifferentiallyExpressedCasesByStudy;
+    // Snapshot indices of the nodes in this subgraph, for cheap membership tests
+    private BitSet nodeIndices = new BitSet();
+    // Compiled combination of the studies, its bits give the study order
+    private CombinePredicate combinePredicate;
+    // Study index and case exception limit of every study; the indices are
+    // those of the graph of the nodes, resolved by the first node checked
+    private int[] studies;
+    private int[] caseExceptions;
     public int instances = 1;
 
     public Subgraph(KPMSettings settings) {
     	kpmSettings = settings;
+    	combinePredicate = kpmSettings.getCombinePredicate();
+    	caseExceptions = combinePredicate.getCaseExceptions(kpmSettings.CASE_EXCEPTIONS_MAP);
     	
-        nonDifferentiallyExpressedCasesMap = new HashMap<String, Integer>();
-        for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-            nonDifferentiallyExpressedCasesMap.put(expId, 0);
-        }
+        nonDifferentiallyExpressedCasesByStudy = new int[combinePredicate.getNumStudies()];
     }
 
     @Override
@@ -84,6 +95,11 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
         return visitedNodes;
     }
 
+    @Override
+    public ResultFingerprint getFingerprint() {
+        return ResultFingerprint.of(nodeIndices);
+    }
+
     /**
      * Determines if the given node can still be added to this result without
      * crossing the maximal non-differential expressed cases allowed, as given
@@ -93,6 +109,9 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
      * @return
      */
     public boolean canAdd(GeneNode node) {
+        if (studies == null) {
+            studies = combinePredicate.getStudyIndices(node.getStudyIdDictionary());
+        }
 
         if (lastExceptionNode == null && kpmSettings.GENE_EXCEPTIONS > 0) {
             return true;
@@ -101,8 +120,8 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
         } else {
 
             boolean newIsBetter = true;
-            for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-                if (node.getNumNoDiffExpressedCases(expId) > lastExceptionNode.getNumNoDiffExpressedCases(expId)) {
+            for (int study : studies) {
+                if (node.getNumNoDiffExpressedCases(study) > lastExceptionNode.getNumNoDiffExpressedCases(study)) {
                     newIsBetter = false;
                 }
             }
@@ -117,37 +136,44 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
     
     private boolean checkCondition(GeneNode node) {
         if (kpmSettings.COMBINE_OPERATOR == Combine.OR) {
-            for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-                if (getNonDifferentiallyExpressedCasesMap().get(expId)
-                        + node.getNumNoDiffExpressedCases(expId) <= kpmSettings.CASE_EXCEPTIONS_MAP.get(expId)) {
+            for (int s = 0; s < studies.length; s++) {
+                if (nonDifferentiallyExpressedCasesByStudy[s]
+                        + node.getNumNoDiffExpressedCases(studies[s]) <= caseExceptions[s]) {
                     return true;
                 }
             }
             return false;
         } else if (kpmSettings.COMBINE_OPERATOR == Combine.AND) {
-            for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-                if (getNonDifferentiallyExpressedCasesMap().get(expId)
-                        + node.getNumNoDiffExpressedCases(expId) > kpmSettings.CASE_EXCEPTIONS_MAP.get(expId)) {
+            for (int s = 0; s < studies.length; s++) {
+                if (nonDifferentiallyExpressedCasesByStudy[s]
+                        + node.getNumNoDiffExpressedCases(studies[s]) > caseExceptions[s]) {
                     return false;
                 }
             }
             return true;
             
         } else if (kpmSettings.COMBINE_OPERATOR == Combine.CUSTOM) {
-            Map<String, Object> context = new HashMap<String, Object>();
-            for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-                boolean aux = getNonDifferentiallyExpressedCasesMap().get(expId)
-                        + node.getNumNoDiffExpressedCases(expId) 
-                        <= kpmSettings.CASE_EXCEPTIONS_MAP.get(expId);
-                context.put(expId, aux);
+            long withinLimits = 0;
+            for (int s = 0; s < studies.length; s++) {
+                if (nonDifferentiallyExpressedCasesByStudy[s]
+                        + node.getNumNoDiffExpressedCases(studies[s])
+                        <= caseExceptions[s]) {
+                    withinLimits |= 1L << s;
+                }
             }
-            return MVEL.evalToBoolean(kpmSettings.COMBINE_FORMULA, context);
+            return combinePredicate.test(withinLimits);
            
         }
         
         return false;
     }
 
+    private void addNonDifferentiallyExpressedCases(GeneNode node) {
+        for (int s = 0; s < studies.length; s++) {
+            nonDifferentiallyExpressedCasesByStudy[s] += node.getNumNoDiffExpressedCases(studies[s]);
+        }
+    }
+
     @Override
     public boolean addAll(java.util.Collection<? extends GeneNode> c) {
         if (size() != 0 || !(c instanceof Subgraph)) {
@@ -156,9 +182,14 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
         }
 
         boolean toReturn = super.addAll(c);
+        nodeIndices = (BitSet) ((Subgraph) c).nodeIndices.clone();
         lastExceptionNode = ((Subgraph) c).lastExceptionNode;
+        combinePredicate = ((Subgraph) c).combinePredicate;
+        studies = ((Subgraph) c).studies;
+        caseExceptions = ((Subgraph) c).caseExceptions;
         nonDifferentiallyExpressedCases = ((Subgraph) c).nonDifferentiallyExpressedCases;
-        nonDifferentiallyExpressedCasesMap = ((Subgraph) c).nonDifferentiallyExpressedCasesMap;
+        // copy, the clone must not add its cases to the original
+        nonDifferentiallyExpressedCasesByStudy = ((Subgraph) c).nonDifferentiallyExpressedCasesByStudy.clone();
 
         return toReturn;
     }
@@ -170,11 +201,9 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
         }
 
         if (super.add(e)) {
+            nodeIndices.set(e.getIndex());
             if (kpmSettings.GENE_EXCEPTIONS == 0) {
-                for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-                    nonDifferentiallyExpressedCasesMap.put(expId,
-                            nonDifferentiallyExpressedCasesMap.get(expId) + e.getNumNoDiffExpressedCases(expId));
-                }
+                addNonDifferentiallyExpressedCases(e);
             } else if (lastExceptionNode == null
                     && size() < kpmSettings.GENE_EXCEPTIONS) {
                 ; // do nothing since we are adding exception nodes
@@ -185,10 +214,7 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
                 throw new IllegalStateException(
                         "We have more nodes in this cluster than allowed exception nodes, but we do not know what the exception nodes are");
             } else if (e.getAverageNonExpressedCases() <= lastExceptionNode.getAverageNonExpressedCases()) {
-                for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-                    nonDifferentiallyExpressedCasesMap.put(expId,
-                            nonDifferentiallyExpressedCasesMap.get(expId) + e.getNumNoDiffExpressedCases(expId));
-                }
+                addNonDifferentiallyExpressedCases(e);
 
 
                 if (e.compareTo(lastExceptionNode) < 0) {
@@ -197,10 +223,7 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
                 // only happens when 2 nodes with the same penalty are added
 
             } else {
-                for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-                    nonDifferentiallyExpressedCasesMap.put(expId,
-                            nonDifferentiallyExpressedCasesMap.get(expId) + lastExceptionNode.getNumNoDiffExpressedCases(expId));
-                }
+                addNonDifferentiallyExpressedCases(lastExceptionNode);
                 // there is a new lastExceptionNode...
                 lastExceptionNode = lower(lastExceptionNode);
             }
@@ -263,10 +286,9 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
             int nCases = kpmSettings.NUM_CASES_MAP.get(expId);
             int[][] frequencies = new int[alphabetSize][nCases];
             for (GeneNode node : nodeList) {
-                char[] expressionArray = node.getDifferenceArray(expId);
-                for (int j = 0; j < expressionArray.length; j++) {
-                    char symbol = expressionArray[j];
-                    if (symbol == GeneNode.NODIFFERENCE) {
+                PackedExpression expression = node.getExpression(expId);
+                for (int j = 0; j < expression.getNumCases(); j++) {
+                    if (!expression.isDifferent(j)) {
                         frequencies[0][j]++;
                     } else {
                         frequencies[1][j]++;
@@ -315,10 +337,9 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
             int nCases = kpmSettings.NUM_CASES_MAP.get(expId);
             int[][] frequencies = new int[alphabetSize][nCases];
             for (GeneNode node : this) {
-                char[] expressionArray = node.getDifferenceArray(expId);
-                for (int j = 0; j < expressionArray.length; j++) {
-                    char symbol = expressionArray[j];
-                    if (symbol == GeneNode.NODIFFERENCE) {
+                PackedExpression expression = node.getExpression(expId);
+                for (int j = 0; j < expression.getNumCases(); j++) {
+                    if (!expression.isDifferent(j)) {
                         frequencies[0][j]++;
                     } else {
                         frequencies[1][j]++;
@@ -402,7 +423,20 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
     }
 
     public Map<String, Integer> getNonDifferentiallyExpressedCasesMap() {
-        return nonDifferentiallyExpressedCasesMap;
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        for (int s = 0; s < nonDifferentiallyExpressedCasesByStudy.length; s++) {
+            map.put(combinePredicate.getStudy(s), nonDifferentiallyExpressedCasesByStudy[s]);
+        }
+        return map;
+    }
+
+    /**
+     * @return the non-diff. expressed cases of the non-exception nodes for
+     * every study, in the order of the studies of
+     * KPMSettings.getCombinePredicate()
+     */
+    public int[] getNonDifferentiallyExpressedCasesByStudy() {
+        return nonDifferentiallyExpressedCasesByStudy.clone();
     }
 
     private int reevaluateNonDifferentiallyExpressedCases() {
@@ -435,6 +469,15 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
         }
     }
 
+    @Override
+    public void flagExceptionNodes(boolean[] validity) {
+        int exceptions = kpmSettings.GENE_EXCEPTIONS;
+
+        for (GeneNode n : this) {
+            validity[n.getIndex()] = exceptions-- <= 0;
+        }
+    }
+
     /**
      * @return an array of all non-differentially expressed cases. E.g., the
      * solution contains 3 nodes with 3, 7 and 10 non-differentially expressed
@@ -476,40 +519,85 @@ public class Subgraph extends TreeSet<GeneNode> implements Result, Serializable
         return toReturn;
     }
 
+    /**
+     * Checks whether the node with the given snapshot index is part of this
+     * subgraph. Much cheaper than contains(), which has to walk the tree.
+     *
+     * @param index the index of the node in the snapshot of the graph this
+     * subgraph was built on
+     */
+    public boolean containsIndex(int index) {
+        return nodeIndices.get(index);
+    }
+
+    /**
+     * @return whether canAdd() only compares the cases of the node with the
+     * slack of every study, see getCaseSlack(), which is the case without
+     * gene exceptions
+     */
+    boolean checksCasesOnly() {
+        return kpmSettings.GENE_EXCEPTIONS == 0;
+    }
+
+    CombinePredicate getCombinePredicate() {
+        return combinePredicate;
+    }
+
+    /**
+     * @return the index of the study at every bit of the combine predicate,
+     * null until the first node has been checked
+     */
+    int[] getStudies() {
+        return studies;
+    }
+
+    /**
+     * @return how many more non-differentially expressed cases of the study
+     * at the given bit the solution can take, only ever shrinks as nodes are
+     * added
+     */
+    int getCaseSlack(int bit) {
+        return caseExceptions[bit] - nonDifferentiallyExpressedCasesByStudy[bit];
+    }
+
     /**
      * Checks whether this subgraph of graph g is connected using BFS
      *
      * @return
      */
     public boolean isConnected(KPMGraph g) {
-        Set<GeneNode> visitedNodes = new HashSet<GeneNode>();
-        Set<GeneNode> uncheckedNodes = new HashSet<GeneNode>();
-        GeneNode start = iterator().next();
-        visitedNodes.add(start);
-        uncheckedNodes.add(start);
-
-        while (visitedNodes.size() < size() && uncheckedNodes.size() > 0) {
-            Set<GeneNode> newUncheckedNodes = new HashSet<GeneNode>();
-            for (GeneNode unchecked : uncheckedNodes) {
-                for (GeneNode neighbor : g.getNeighbors(unchecked)) {
-                    if (contains(neighbor) && !visitedNodes.contains(neighbor)) {
-                        visitedNodes.add(neighbor);
-                        newUncheckedNodes.add(neighbor);
-                    }
+        GraphSnapshot snapshot = g.getSnapshot();
+        BitSet visited = new BitSet(snapshot.size());
+        int[] queue = new int[size()];
+        int head = 0;
+        int tail = 0;
+        int start = snapshot.indexOf(first());
+        visited.set(start);
+        queue[tail++] = start;
+
+        while (head < tail) {
+            int unchecked = queue[head++];
+            for (int p = snapshot.neighborsStart(unchecked), end = snapshot.neighborsEnd(unchecked); p < end; p++) {
+                int neighbor = snapshot.neighborAt(p);
+                if (containsIndex(neighbor) && !visited.get(neighbor)) {
+                    visited.set(neighbor);
+                    queue[tail++] = neighbor;
                 }
             }
-            uncheckedNodes = newUncheckedNodes;
         }
 
-        return visitedNodes.size() == size();
+        return tail == size();
     }
 
     public void updateNeighbors(Set<GeneNode> currentNeighbors,
             GeneNode newNode, KPMGraph g) {
+        GraphSnapshot snapshot = g.getSnapshot();
+        int index = snapshot.indexOf(newNode);
         currentNeighbors.remove(newNode);
-        for (GeneNode node : g.getNeighbors(newNode)) {
-            if (!contains(node)) {
-                currentNeighbors.add(node);
+        for (int p = snapshot.neighborsStart(index), end = snapshot.neighborsEnd(index); p < end; p++) {
+            int neighbor = snapshot.neighborAt(p);
+            if (!containsIndex(neighbor)) {
+                currentNeighbors.add(snapshot.getNode(neighbor));
             }
         }
     }
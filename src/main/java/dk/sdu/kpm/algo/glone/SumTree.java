@@ -0,0 +1,78 @@
+package dk.sdu.kpm.algo.glone;
+
+/**
+ * Non-negative weights by position, stored as the leaves of a complete
+ * binary tree whose inner nodes hold the sums of their children. Setting a
+ * weight and drawing a position with a probability proportional to its
+ * weight both take O(log n).
+ *
+ * The sums are recomputed from the children on every update instead of
+ * being adjusted by the difference, so they do not drift, and a subtree of
+ * zero weights really sums to zero.
+ */
+final class SumTree {
+
+    // sums[1] is the root, the children of i are 2i and 2i + 1, and the leaf
+    // of position p is sums[capacity + p]
+    private double[] sums;
+
+    private int capacity;
+
+    SumTree(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 1;
+        this.sums = new double[2 * this.capacity];
+    }
+
+    double get(int position) {
+        return position < capacity ? sums[capacity + position] : 0.0;
+    }
+
+    void set(int position, double weight) {
+        if (position >= capacity) {
+            grow(position + 1);
+        }
+        int i = capacity + position;
+        sums[i] = weight;
+        for (i >>>= 1; i > 0; i >>>= 1) {
+            sums[i] = sums[2 * i] + sums[2 * i + 1];
+        }
+    }
+
+    double total() {
+        return sums[1];
+    }
+
+    /**
+     * @param pick a value in [0, total()]
+     * @return the position whose range of the cumulative weights contains
+     * pick, always one with a positive weight if total() > 0
+     */
+    int sample(double pick) {
+        int i = 1;
+        while (i < capacity) {
+            double left = sums[2 * i];
+            // never descend into a subtree without weight
+            if (left > 0 && (pick <= left || sums[2 * i + 1] == 0)) {
+                i = 2 * i;
+            } else {
+                pick -= left;
+                i = 2 * i + 1;
+            }
+        }
+        return i - capacity;
+    }
+
+    private void grow(int minCapacity) {
+        int newCapacity = capacity;
+        while (newCapacity < minCapacity) {
+            newCapacity *= 2;
+        }
+        double[] newSums = new double[2 * newCapacity];
+        System.arraycopy(sums, capacity, newSums, newCapacity, capacity);
+        capacity = newCapacity;
+        sums = newSums;
+        for (int i = capacity - 1; i > 0; i--) {
+            sums[i] = sums[2 * i] + sums[2 * i + 1];
+        }
+    }
+}
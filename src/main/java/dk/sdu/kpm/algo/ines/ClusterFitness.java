@@ -0,0 +1,73 @@
+package dk.sdu.kpm.algo.ines;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * The fitness of every exception cluster of an l-component graph while one
+ * solution is built, indexed by GeneCluster.getIndex(). The fitness of an
+ * exception cluster is the sum of the weights of the valid clusters around
+ * it that are not yet in the solution; it equals the weight of the cluster
+ * when the solution is empty.
+ *
+ * Every solution that is built gets a fitness of its own, so solutions can
+ * be built concurrently on the same graph without sharing any state.
+ *
+ * Orders the clusters like GeneCluster did: valid clusters first, then the
+ * exception clusters by ascending fitness.
+ */
+final class ClusterFitness implements Comparator<GeneCluster> {
+
+	private final int[] fitness;
+
+	/**
+	 * @param clusters
+	 *            the vertices of the graph, the fitness of every exception
+	 *            cluster among them starts at its weight
+	 * @param numExceptionClusters
+	 *            the number of exception clusters ever created for the graph
+	 */
+	ClusterFitness(Collection<GeneCluster> clusters, int numExceptionClusters) {
+		fitness = new int[numExceptionClusters];
+		Arrays.fill(fitness, -1);
+		for (GeneCluster cluster : clusters)
+			if (!cluster.isValid())
+				fitness[cluster.getIndex()] = cluster.getWeight();
+	}
+
+	int get(GeneCluster cluster) {
+		if (cluster.isValid())
+			throw new IllegalStateException(
+					"Wanted to get fitness on valid node.");
+
+		return fitness[cluster.getIndex()];
+	}
+
+	void set(GeneCluster cluster, int value) {
+		if (cluster.isValid())
+			throw new IllegalStateException(
+					"Wanted to set fitness on valid node.");
+		if (value < 1)
+			throw new IllegalArgumentException(
+					"Wanted to decrease fitness below 1: " + value);
+		if (value > cluster.getWeight())
+			throw new IllegalArgumentException(
+					"Wanted to increase fitness above its weight.");
+
+		fitness[cluster.getIndex()] = value;
+	}
+
+	@Override
+	public int compare(GeneCluster a, GeneCluster b) {
+		if (a.isValid() && b.isValid())
+			return 0;
+		else if (a.isValid())
+			return -1;
+		else if (b.isValid())
+			return 1;
+
+		else
+			return (new Integer(get(a)).compareTo(get(b)));
+	}
+}
@@ -0,0 +1,315 @@
+package dk.sdu.kpm.algo.ines;
+
+import dk.sdu.kpm.KPMSettings;
+import dk.sdu.kpm.graph.GeneEdge;
+import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
+import dk.sdu.kpm.graph.KPMGraph;
+import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the l-component graphs of one KPMGraph for a sequence of validities,
+ * e.g. for the L values of a batch run.
+ *
+ * Raising L only turns exception nodes into valid nodes, so the components of
+ * the valid nodes merge but never split. The builder keeps the union-find
+ * structure of the previous build: if the next validity contains all nodes
+ * that were valid before, only the edges of the newly valid nodes are joined,
+ * and the clusters of the components that did not change are reused.
+ * Otherwise, e.g. when L decreases or a custom formula is not monotone, the
+ * builder starts over.
+ *
+ * The contracted graph does not depend on K. A graph that is given back with
+ * {@link #release(LComponentGraph)} after a run is kept for the same validity,
+ * and handed out again by the next build for it instead of contracting the
+ * graph once more. A graph is only ever handed out to one run at a time. The
+ * builder can be shared by several threads.
+ */
+public class ComponentGraphBuilder {
+
+	private final KPMGraph g;
+
+	private GraphSnapshot snapshot;
+
+	// validity of the previous build
+	private boolean[] valid;
+
+	private int[] parent;
+
+	private int[] size;
+
+	// the cluster of every component of the previous build, by its root
+	private GeneCluster[] clusters;
+
+	private final int cacheSize;
+
+	// released graphs by their validity, least recently released first
+	private final LinkedHashMap<ValidityKey, LComponentGraph> released = new LinkedHashMap<ValidityKey, LComponentGraph>();
+
+	// the validity of the graphs that were handed out
+	private final Map<LComponentGraph, ValidityKey> handedOut = new IdentityHashMap<LComponentGraph, ValidityKey>();
+
+	public ComponentGraphBuilder(KPMGraph g) {
+		this(g, 0);
+	}
+
+	/**
+	 * @param cacheSize
+	 *            the number of released graphs that are kept
+	 */
+	public ComponentGraphBuilder(KPMGraph g, int cacheSize) {
+		this.g = g;
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Contracts the graph for the given validity, see
+	 * {@link GraphProcessing#componentGraph(KPMGraph, IKPMTaskMonitor, KPMSettings)}.
+	 *
+	 * @param validity
+	 *            the validity of every node, see
+	 *            {@link KPMGraph#computeValidity(KPMSettings)}
+	 */
+	public synchronized LComponentGraph build(boolean[] validity,
+			IKPMTaskMonitor taskMonitor, KPMSettings kpmSettings) {
+		GraphSnapshot current = g.getSnapshot();
+		if (validity.length != current.size())
+			throw new IllegalArgumentException("Expected the validity of "
+					+ current.size() + " nodes, got " + validity.length + ".");
+		if (current != snapshot) {
+			released.clear();
+			handedOut.clear();
+			reset(current);
+		}
+
+		ValidityKey key = cacheSize > 0 ? new ValidityKey(validity) : null;
+		LComponentGraph cached = released.remove(key);
+		if (cached != null) {
+			cached.reset(taskMonitor, kpmSettings);
+			handedOut.put(cached, key);
+			return cached;
+		}
+
+		if (!extendsPrevious(validity))
+			reset(current);
+
+		int n = snapshot.size();
+
+		// Join the newly valid nodes with their valid neighbors.
+		int[] newlyValid = new int[16];
+		int numNewlyValid = 0;
+		for (int index = 0; index < n; index++) {
+			if (validity[index] && !valid[index]) {
+				valid[index] = true;
+				if (numNewlyValid == newlyValid.length)
+					newlyValid = Arrays.copyOf(newlyValid, numNewlyValid * 2);
+				newlyValid[numNewlyValid++] = index;
+			}
+		}
+		for (int i = 0; i < numNewlyValid; i++) {
+			int index = newlyValid[i];
+			for (int p = snapshot.neighborsStart(index), end = snapshot.neighborsEnd(index); p < end; p++) {
+				int neighbor = snapshot.neighborAt(p);
+				if (valid[neighbor])
+					union(index, neighbor);
+			}
+		}
+
+		// A component changed iff it contains a newly valid node.
+		boolean[] changed = new boolean[n];
+		for (int i = 0; i < numNewlyValid; i++) {
+			int root = find(newlyValid[i]);
+			changed[root] = true;
+			clusters[root] = null;
+		}
+
+		// Sort the nodes of the changed components by component, so that the
+		// nodes of the component with root r are members[start[r]] ..
+		// members[end[r] - 1].
+		int[] start = new int[n];
+		int[] end = new int[n];
+		int numMembers = 0;
+		for (int index = 0; index < n; index++) {
+			if (valid[index] && find(index) == index && changed[index]) {
+				start[index] = numMembers;
+				end[index] = numMembers;
+				numMembers += size[index];
+			}
+		}
+		int[] members = new int[numMembers];
+		for (int index = 0; index < n; index++) {
+			if (valid[index]) {
+				int root = find(index);
+				if (changed[root])
+					members[end[root]++] = index;
+			}
+		}
+
+		LComponentGraph lg = new LComponentGraph(taskMonitor, kpmSettings);
+
+		// The weight of an exception node is 1 plus the weights of the
+		// adjacent clusters.
+		GeneCluster[] exceptionClusters = new GeneCluster[n];
+		int[] weights = new int[n];
+		for (int index = 0; index < n; index++) {
+			if (!valid[index]) {
+				exceptionClusters[index] = lg.exceptionCluster(snapshot.getNode(index));
+				lg.addVertex(exceptionClusters[index]);
+				weights[index] = 1;
+			}
+		}
+
+		// Contract every changed component into a new cluster. lastComponent
+		// marks the exception nodes that were already found next to the
+		// current one.
+		int[] lastComponent = new int[n];
+		Arrays.fill(lastComponent, -1);
+		for (int root = 0; root < n; root++) {
+			if (!valid[root] || find(root) != root)
+				continue;
+
+			GeneCluster cluster = clusters[root];
+			if (cluster == null) {
+				List<GeneNode> nodes = new ArrayList<GeneNode>(size[root]);
+				List<GeneNode> exceptionNeighbors = new ArrayList<GeneNode>();
+				for (int m = start[root]; m < end[root]; m++) {
+					int index = members[m];
+					nodes.add(snapshot.getNode(index));
+					for (int p = snapshot.neighborsStart(index), last = snapshot.neighborsEnd(index); p < last; p++) {
+						int neighbor = snapshot.neighborAt(p);
+						if (!valid[neighbor] && lastComponent[neighbor] != root) {
+							lastComponent[neighbor] = root;
+							exceptionNeighbors.add(snapshot.getNode(neighbor));
+						}
+					}
+				}
+				cluster = GeneCluster.validCluster(nodes, exceptionNeighbors,
+						kpmSettings);
+				clusters[root] = cluster;
+			}
+
+			lg.addVertex(cluster);
+			for (GeneNode exceptionNeighbor : cluster.getExceptionNeighbors()) {
+				int excIndex = exceptionNeighbor.getIndex();
+				lg.addEdge(new GeneEdge(), cluster, exceptionClusters[excIndex]);
+				weights[excIndex] += cluster.getWeight();
+			}
+		}
+
+		// Exception nodes stay on their own, connect the adjacent ones.
+		for (int index = 0; index < n; index++) {
+			if (valid[index])
+				continue;
+
+			for (int p = snapshot.neighborsStart(index), last = snapshot.neighborsEnd(index); p < last; p++) {
+				int neighbor = snapshot.neighborAt(p);
+				if (!valid[neighbor] && neighbor > index) {
+					if (!lg.addEdge(new GeneEdge(), exceptionClusters[index],
+							exceptionClusters[neighbor]))
+						throw new IllegalStateException(
+								"Adding an edge did not change the graph.");
+				}
+			}
+			exceptionClusters[index].setWeight(weights[index]);
+		}
+
+		if (key != null)
+			handedOut.put(lg, key);
+		return lg;
+	}
+
+	/**
+	 * Gives back a graph returned by
+	 * {@link #build(boolean[], IKPMTaskMonitor, KPMSettings)} once the run on
+	 * it is done, so that it can be reused. Graphs the run removed vertices
+	 * from are dropped.
+	 */
+	public synchronized void release(LComponentGraph lg) {
+		ValidityKey key = handedOut.remove(lg);
+		if (key == null || lg.isModified())
+			return;
+
+		released.remove(key);
+		released.put(key, lg);
+		if (released.size() > cacheSize) {
+			Iterator<ValidityKey> eldest = released.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	private boolean extendsPrevious(boolean[] validity) {
+		for (int index = 0; index < valid.length; index++) {
+			if (valid[index] && !validity[index])
+				return false;
+		}
+		return true;
+	}
+
+	private void reset(GraphSnapshot current) {
+		snapshot = current;
+		int n = current.size();
+		valid = new boolean[n];
+		parent = new int[n];
+		size = new int[n];
+		for (int index = 0; index < n; index++) {
+			parent[index] = index;
+			size[index] = 1;
+		}
+		clusters = new GeneCluster[n];
+	}
+
+	private int find(int index) {
+		while (parent[index] != index) {
+			parent[index] = parent[parent[index]];
+			index = parent[index];
+		}
+		return index;
+	}
+
+	private void union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA == rootB)
+			return;
+		if (size[rootA] < size[rootB]) {
+			int swap = rootA;
+			rootA = rootB;
+			rootB = swap;
+		}
+		parent[rootB] = rootA;
+		size[rootA] += size[rootB];
+		clusters[rootB] = null;
+	}
+
+	private static final class ValidityKey {
+
+		private final boolean[] validity;
+
+		private final int hashCode;
+
+		ValidityKey(boolean[] validity) {
+			this.validity = validity.clone();
+			this.hashCode = Arrays.hashCode(validity);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ValidityKey
+					&& Arrays.equals(validity, ((ValidityKey) obj).validity);
+		}
+	}
+}
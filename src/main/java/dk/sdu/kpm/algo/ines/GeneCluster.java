@@ -2,23 +2,17 @@ package dk.sdu.kpm.algo.ines;
 
 import dk.sdu.kpm.KPMSettings;
 import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
 import dk.sdu.kpm.graph.KPMGraph;
 
 import java.io.Serializable;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 
-public class GeneCluster implements Comparable<GeneCluster>, Serializable {
+public class GeneCluster implements Serializable {
 	private Set<GeneNode> nodesInCluster = new HashSet<GeneNode>();
 
-	private Stack<GeneNode> validNeighbors = new Stack<GeneNode>();
-
-	private Stack<GeneNode> exceptionNeighbors = new Stack<GeneNode>();
-
-	// This map is used to avoid creating several clusters that contain the same
-	// node.
-	private static Map<GeneNode, GeneCluster> excNodeToExcCluster = new HashMap<GeneNode, GeneCluster>();
+	private List<GeneNode> exceptionNeighbors = new ArrayList<GeneNode>();
 
 	private boolean valid = false;
 
@@ -26,30 +20,22 @@ public class GeneCluster implements Comparable<GeneCluster>, Serializable {
 	// non-exc. nodes around it
 	private int weight = -1;
 
-	// The fitness of an exception node displays the sum of all the weights of
-	// non-exc. nodes around it BUT the ones that are already in the current
-	// solution. Equals the weight when the solution is empty.
-	// We need to keep track of different Fitnesses for different threads...
-	private Map<Thread, Integer> fitness = new ConcurrentHashMap<Thread, Integer>();
-
-	private double pheromone;
-
 	private int hashCode = -1;
 	private boolean finalizedHashCode = false;
 
+	// Dense index of an exception cluster within its l-component graph, see
+	// LComponentGraph.exceptionCluster(), -1 otherwise. The fitness of the
+	// cluster is kept under this index, see ClusterFitness.
+	private int index = -1;
+
     private final boolean MULTIPLICATIVE_TRADEOFF;
     private final double ALPHA;
     private final double BETA;
 
-	public static void resetExcpMap(){
-		excNodeToExcCluster = new HashMap<GeneNode, GeneCluster>();
-	}
-
 	private GeneCluster(KPMSettings settings) {
 		this.MULTIPLICATIVE_TRADEOFF = settings.MULTIPLICATIVE_TRADEOFF;
 		this.ALPHA = settings.ALPHA;
 		this.BETA = settings.BETA;
-		this.pheromone = settings.N / ((double) 2);
 	}
 
 	/**
@@ -60,27 +46,95 @@ public class GeneCluster implements Comparable<GeneCluster>, Serializable {
 	 * @param node
 	 *            the node that is to be in the cluster
 	 * @param g
-	 *            the graph from which we construct the clusters
+	 *            the graph from which we construct the clusters, by the
+	 *            current validity flags of its nodes, see
+	 *            {@link GeneNode#isValid()}
 	 * @return The cluster as described
 	 */
 	public static GeneCluster fromValidNode(GeneNode node, KPMGraph g, KPMSettings settings) {
 		if (!node.isValid())
 			throw new IllegalArgumentException("Given node has to be valid.");
+		GraphSnapshot snapshot = g.getSnapshot();
+		return fromValidNode(snapshot.indexOf(node), snapshot, g.getValidity(),
+				new BitSet(snapshot.size()), new BitSet(snapshot.size()), settings);
+	}
+
+	/**
+	 * Same as {@link #fromValidNode(GeneNode, KPMGraph, KPMSettings)}, but
+	 * walks the snapshot of the graph with caller-provided scratch space.
+	 * 
+	 * @param start
+	 *            the snapshot index of a valid node
+	 * @param validity
+	 *            the validity of every node by snapshot index
+	 * @param processed
+	 *            marks the nodes that are already part of a cluster; the nodes
+	 *            of the new cluster are marked as well
+	 * @param seenExceptions
+	 *            scratch space, all bits have to be clear and are cleared
+	 *            again before returning
+	 */
+	private static GeneCluster fromValidNode(int start, GraphSnapshot snapshot,
+			boolean[] validity, BitSet processed, BitSet seenExceptions, KPMSettings settings) {
 		GeneCluster newCluster = new GeneCluster(settings);
 		newCluster.setValid(true);
-		newCluster.addNode(node);
-		GeneNode neighbor = newCluster.nextValidNeighbor(g);
-
-		// check the neighborhood recursively to expand the current
-		// valid cluster
-		while (neighbor != null) {
-			newCluster.addNode(neighbor);
-			neighbor = newCluster.nextValidNeighbor(g);
+
+		// breadth-first search over the valid nodes, collecting the exception
+		// nodes at the border of the cluster on the way
+		int[] queue = new int[16];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = start;
+		processed.set(start);
+
+		while (head < tail) {
+			int current = queue[head++];
+			newCluster.addNode(snapshot.getNode(current));
+
+			for (int p = snapshot.neighborsStart(current), end = snapshot.neighborsEnd(current); p < end; p++) {
+				int neighbor = snapshot.neighborAt(p);
+				GeneNode potentialNeighbor = snapshot.getNode(neighbor);
+				if (validity[neighbor]) {
+					if (!processed.get(neighbor)) {
+						processed.set(neighbor);
+						if (tail == queue.length)
+							queue = Arrays.copyOf(queue, tail * 2);
+						queue[tail++] = neighbor;
+					}
+				} else if (!seenExceptions.get(neighbor)) {
+					seenExceptions.set(neighbor);
+					newCluster.exceptionNeighbors.add(potentialNeighbor);
+				}
+			}
 		}
+
+		for (GeneNode exceptionNeighbor : newCluster.exceptionNeighbors)
+			seenExceptions.clear(exceptionNeighbor.getIndex());
+
 		newCluster.setWeight(newCluster.getNodesInCluster().size());
 		return newCluster;
 	}
 
+	/**
+	 * Constructs the cluster of a whole component of valid nodes at once.
+	 * 
+	 * @param nodes
+	 *            the nodes of the component
+	 * @param exceptionNeighbors
+	 *            the exception nodes adjacent to the component, each once
+	 */
+	static GeneCluster validCluster(Collection<GeneNode> nodes,
+			List<GeneNode> exceptionNeighbors, KPMSettings settings) {
+		GeneCluster newCluster = new GeneCluster(settings);
+		newCluster.setValid(true);
+		newCluster.nodesInCluster = new HashSet<GeneNode>(nodes);
+		newCluster.exceptionNeighbors = exceptionNeighbors;
+		newCluster.setWeight(nodes.size());
+		// the cluster is complete, don't rehash its nodes on every lookup
+		newCluster.finalizeHashCode();
+		return newCluster;
+	}
+
 	public void setWeight(int weight) {
 		if (weight < 1)
 			throw new IllegalArgumentException(
@@ -90,7 +144,9 @@ public class GeneCluster implements Comparable<GeneCluster>, Serializable {
 
 	/**
 	 * Constructs a GeneCluster only containing one node, and it has to be an
-	 * exception node.
+	 * exception node. Every call returns a new cluster, use
+	 * {@link LComponentGraph#exceptionCluster(GeneNode)} to get the cluster of
+	 * a node within an l-component graph.
 	 * 
 	 * @param node
 	 * @return
@@ -99,50 +155,28 @@ public class GeneCluster implements Comparable<GeneCluster>, Serializable {
 		if (node.isValid())
 			throw new IllegalArgumentException("Node has to be exceptional.");
 
-		GeneCluster excCluster = excNodeToExcCluster.get(node);
-
-		if (excCluster == null) {
-			excCluster = new GeneCluster(settings);
-			excCluster.addNode(node);
-			excCluster.setValid(false);
-			excNodeToExcCluster.put(node, excCluster);
-		}
-		return excCluster;
-	}
-
-	private void addNode(GeneNode n) {
-		nodesInCluster.add(n);
+		return exceptionCluster(node, settings, -1);
 	}
 
 	/**
-	 * Used to construct the Cluster. Searches for a neighbor node of the
-	 * cluster that is not an exception node. Should only be called when the
-	 * graph is not yet complete.
+	 * Same as {@link #fromExceptionNode(GeneNode, KPMSettings)}, for callers
+	 * that decided on the validity of the node themselves.
 	 * 
-	 * @param g
-	 *            the network from which the cluster has to be build
-	 * @return a neighbor not yet
+	 * @param index
+	 *            the index of the cluster among the exception clusters of
+	 *            its graph
 	 */
-	private GeneNode nextValidNeighbor(KPMGraph g) {
-		if (!validNeighbors.empty())
-			return validNeighbors.pop();
-
-		// check for new neighbors and update stack
-		for (GeneNode inhabitant : nodesInCluster)
-			for (GeneNode potentialNeighbor : g.getNeighbors(inhabitant)) {
-				if (!nodesInCluster.contains(potentialNeighbor))
-					if (potentialNeighbor.isValid())
-						validNeighbors.push(potentialNeighbor);
-					else
-						exceptionNeighbors.push(potentialNeighbor);
-			}
-
-		// in case there are no neighbors at all
-		if (validNeighbors.empty()) {
-			return null;
-		} else
-			return validNeighbors.pop();
+	static GeneCluster exceptionCluster(GeneNode node, KPMSettings settings, int index) {
+		GeneCluster excCluster = new GeneCluster(settings);
+		excCluster.index = index;
+		excCluster.addNode(node);
+		excCluster.setValid(false);
+		excCluster.finalizeHashCode();
+		return excCluster;
+	}
 
+	private void addNode(GeneNode n) {
+		nodesInCluster.add(n);
 	}
 
 	private void setValid(boolean b) {
@@ -153,6 +187,15 @@ public class GeneCluster implements Comparable<GeneCluster>, Serializable {
 		return valid;
 	}
 
+	/**
+	 * @return the index of this exception cluster within its l-component
+	 *         graph, from 0 to the number of exception clusters of the graph,
+	 *         or -1 if the cluster does not belong to a graph
+	 */
+	int getIndex() {
+		return index;
+	}
+
 	public Set<GeneNode> getNodesInCluster() {
 		return nodesInCluster;
 	}
@@ -206,39 +249,26 @@ public class GeneCluster implements Comparable<GeneCluster>, Serializable {
 		return true;
 	}
 
-	public double getPheromone() {
-		if (isValid())
-			throw new IllegalStateException(
-					"Called GetPheromone on a non-exception node.");
-
-		return pheromone;
-	}
-
-	/**
-	 * Sets the pheromone for this exception-vertex. Does NOT check the bounds.
-	 * 
-	 * @param d
-	 */
-	public void setPheromone(double d) {
-		if (isValid())
-			throw new IllegalStateException(
-					"Called SetPheromone on a non-exception node.");
-		pheromone = d;
-	}
-
 	/**
 	 * Returns the (unnormalized) probability for this vertex to be picked.
 	 * Basically consists of tradeoff(pheromone, fitness), where the tradeoff
 	 * function is given in the KPMParameters parameters.
 	 * 
+	 * @param pheromone
+	 *            the pheromone of this exception-vertex in the current run
+	 * @param fitness
+	 *            the fitness of this exception-vertex in the current solution
 	 * @return the unnormalized probability for this node to be picked. Has to
 	 *         be normalized against the sum of probabilities of all nodes.
 	 */
-	public double getProbability() {
-		if (getFitness() <= -1)
+	public double getProbability(double pheromone, int fitness) {
+		if (isValid())
+			throw new IllegalStateException(
+					"Called GetProbability on a non-exception node.");
+		if (fitness <= -1)
 			throw new IllegalStateException("Fitness was -1!");
 
-		return tradeOff(getPheromone(), getFitness());
+		return tradeOff(pheromone, fitness);
 	}
 
 	private double tradeOff(double pheromone, int weight) {
@@ -255,34 +285,6 @@ public class GeneCluster implements Comparable<GeneCluster>, Serializable {
 			return ALPHA * pheromone + BETA * weight;
 	}
 
-	public void setFitness(int fitness) {
-		if (valid)
-			throw new IllegalStateException(
-					"Wanted to set fitness on valid node.");
-		if (fitness < 1)
-			throw new IllegalArgumentException(
-					"Wanted to decrease fitness below 1: " + fitness);
-		if (fitness > weight)
-			throw new IllegalArgumentException(
-					"Wanted to increase fitness above its weight.");
-
-		this.fitness.put(Thread.currentThread(), fitness);
-	}
-
-	public int getFitness() {
-		if (valid) {
-			throw new IllegalStateException(
-					"Wanted to get fitness on valid node.");
-		}
-
-		if (!fitness.containsKey(Thread.currentThread())) {
-			System.out.println("Shouldn't happen!");
-			fitness.put(Thread.currentThread(), weight);
-		}
-
-		return fitness.get(Thread.currentThread());
-	}
-
 	/**
 	 * This method is called when the creation of the GeneCluster is (basically)
 	 * done. We use this mechanism such that the HashCode doesn't have to be
@@ -296,17 +298,4 @@ public class GeneCluster implements Comparable<GeneCluster>, Serializable {
 		hashCode = prime * hashCode
 				+ ((nodesInCluster == null) ? 0 : nodesInCluster.hashCode());
 	}
-
-	@Override
-	public int compareTo(GeneCluster o) {
-		if (valid && o.valid)
-			return 0;
-		else if (valid)
-			return -1;
-		else if (o.valid)
-			return 1;
-
-		else
-			return (new Integer(getFitness()).compareTo(o.getFitness()));
-	}
 }
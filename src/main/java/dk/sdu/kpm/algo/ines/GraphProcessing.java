@@ -2,13 +2,8 @@ package dk.sdu.kpm.algo.ines;
 
 import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
 import dk.sdu.kpm.KPMSettings;
-import dk.sdu.kpm.graph.GeneEdge;
-import dk.sdu.kpm.graph.GeneNode;
 import dk.sdu.kpm.graph.KPMGraph;
 
-import java.util.HashSet;
-import java.util.Set;
-
 public class GraphProcessing {
 	private GraphProcessing() {
 	}
@@ -30,68 +25,20 @@ public class GraphProcessing {
 	public static LComponentGraph componentGraph(KPMGraph g, IKPMTaskMonitor taskMonitor, KPMSettings kpmSettings) {
 		// Note that the parameter l is intrinsically given by the KPMNetwork
 		// that already flagged its vertices to be exceptional or not.
+		return componentGraph(g, g.getValidity(), taskMonitor, kpmSettings);
+	}
 
-		LComponentGraph lg = new LComponentGraph(taskMonitor, kpmSettings);
-		Set<GeneNode> processedNodes = new HashSet<GeneNode>();
-
-		for (GeneNode current : g.getVertices()) {
-			if (processedNodes.contains(current))
-				continue;
-
-			if (current.isValid()) {
-				GeneCluster newCluster = GeneCluster.fromValidNode(current, g, kpmSettings);
-				processedNodes.addAll(newCluster.getNodesInCluster());
-
-				lg.addVertex(newCluster);
-
-				for (GeneNode exceptionNeighbor : newCluster
-						.getExceptionNeighbors()) {
-
-					GeneCluster excNode = GeneCluster
-							.fromExceptionNode(exceptionNeighbor, kpmSettings);
-
-					lg.addEdge(new GeneEdge(), newCluster, excNode);
-
-				}
-
-			} else {
-				// check up all the exception neighbors of that node.
-				// Non-exceptional neighbors are added in the other case.
-				GeneCluster excNode = GeneCluster.fromExceptionNode(current, kpmSettings);
-				processedNodes.add(current);
-
-				lg.addVertex(excNode);
-				for (GeneNode excNeighbor : g.getNeighbors(current)) {
-					if (!excNeighbor.isValid()) {
-						GeneCluster excNeighborCluster = GeneCluster
-								.fromExceptionNode(excNeighbor, kpmSettings);
-
-						lg.addVertex(excNeighborCluster);
-						if (lg.isNeighbor(excNeighborCluster, excNode)) {
-							continue;
-						}
-                        if (!lg.addEdge(new GeneEdge(), excNode,
-                                excNeighborCluster))
-                            throw new IllegalStateException(
-                                    "Adding an edge did not change the graph.");
-					}
-				}
-			}
-		}
-
-		// Now that the graph is done, update with the weights of the exc. nodes
-		for (GeneCluster gl : lg.getVertices()) {
-			gl.finalizeHashCode();
-
-			if (!gl.isValid()) {
-				int weight = 1;
-				for (GeneCluster neighbor : lg.getNeighbors(gl)) {
-					if (neighbor.isValid())
-						weight += neighbor.getWeight();
-				}
-				gl.setWeight(weight);
-			}
-		}
-		return lg;
+	/**
+	 * Same as {@link #componentGraph(KPMGraph, IKPMTaskMonitor, KPMSettings)},
+	 * but takes the exception nodes from the given validity instead of the
+	 * flags of the nodes, so that the graph is not modified.
+	 * 
+	 * @param validity
+	 *            the validity of every node, see
+	 *            {@link KPMGraph#computeValidity(KPMSettings)}
+	 */
+	public static LComponentGraph componentGraph(KPMGraph g, boolean[] validity,
+			IKPMTaskMonitor taskMonitor, KPMSettings kpmSettings) {
+		return new ComponentGraphBuilder(g).build(validity, taskMonitor, kpmSettings);
 	}
 }
@@ -3,7 +3,9 @@ package dk.sdu.kpm.algo.ines;
 import dk.sdu.kpm.KPMSettings;
 import dk.sdu.kpm.algo.glone.Subgraph;
 import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.PackedExpression;
 import dk.sdu.kpm.graph.Result;
+import dk.sdu.kpm.graph.ResultFingerprint;
 
 import java.util.*;
 
@@ -11,6 +13,7 @@ import java.util.*;
 public class LCGSubgraph extends HashSet<GeneCluster> implements Result {
 
     private HashMap<String, GeneNode> visitedNodes = null;
+    private ResultFingerprint fingerprint = null;
     public int instances = 1;
 
     private volatile KPMSettings kpmSettings;
@@ -68,6 +71,21 @@ public class LCGSubgraph extends HashSet<GeneCluster> implements Result {
         return visitedNodes;
     }
 
+    @Override
+    public ResultFingerprint getFingerprint() {
+        if (fingerprint != null) {
+            return fingerprint;
+        }
+
+        List<GeneNode> nodes = new ArrayList<GeneNode>();
+        for (GeneCluster cluster : this) {
+            nodes.addAll(cluster.getNodesInCluster());
+        }
+        fingerprint = ResultFingerprint.of(nodes);
+
+        return fingerprint;
+    }
+
     public double getAverageDiffExpressedCases2() {
         int totalNumberDifferentialExpressedCases = 0;
         int numNodes = 0;
@@ -121,10 +139,9 @@ public class LCGSubgraph extends HashSet<GeneCluster> implements Result {
             for (GeneCluster cluster : this) {
                 for (GeneNode node : cluster.getNodesInCluster()) {
             
-                    char[] expressionArray = node.getDifferenceArray(expId);
-                    for (int j = 0; j < expressionArray.length; j++) {
-                        char symbol = expressionArray[j];
-                        if (symbol == GeneNode.NODIFFERENCE) {
+                    PackedExpression expression = node.getExpression(expId);
+                    for (int j = 0; j < expression.getNumCases(); j++) {
+                        if (!expression.isDifferent(j)) {
                             frequencies[0][j]++;
                         } else {
                             frequencies[1][j]++;
@@ -163,19 +180,18 @@ public class LCGSubgraph extends HashSet<GeneCluster> implements Result {
         double studies = 0.0;
         GeneNode aNode = nodeList.getFirst();
 
-        for (String expId : aNode.getDifferenceMap().keySet()) {
+        for (String expId : aNode.getExpressionMap().keySet()) {
             studies++;
             int nCases = aNode.getNumCases(expId);
             int[][] frequencies = new int[alphabetSize][nCases];
             for (GeneNode node : nodeList) {
-                char[] expressionArray = node.getDifferenceArray(expId);
-                if(expressionArray == null){
+                PackedExpression expression = node.getExpression(expId);
+                if(expression == null){
                     continue;
                 }
 
-                for (int j = 0; j < expressionArray.length; j++) {
-                    char symbol = expressionArray[j];
-                    if (symbol == GeneNode.NODIFFERENCE) {
+                for (int j = 0; j < expression.getNumCases(); j++) {
+                    if (!expression.isDifferent(j)) {
                         frequencies[0][j]++;
                     } else {
                         frequencies[1][j]++;
@@ -235,6 +251,11 @@ public class LCGSubgraph extends HashSet<GeneCluster> implements Result {
         // Do nothing
     }
 
+    @Override
+    public void flagExceptionNodes(boolean[] validity) {
+        // Do nothing
+    }
+
     @Override
     public boolean haveOverlap(Object o) {
         Set<String> currentSet = getVisitedNodes().keySet();
@@ -3,14 +3,20 @@ package dk.sdu.kpm.algo.ines;
 import dk.sdu.kpm.KPMSettings;
 import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
 import dk.sdu.kpm.graph.GeneEdge;
+import dk.sdu.kpm.graph.GeneNode;
 import dk.sdu.kpm.graph.Result;
+import dk.sdu.kpm.graph.ResultCollector;
+import dk.sdu.kpm.utils.SharedPools;
+import dk.sdu.kpm.utils.SplitMixRandom;
 import edu.uci.ics.jung.graph.SparseGraph;
 
 import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 
@@ -24,7 +30,23 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 
 	private volatile KPMSettings kpmSettings;
 
+	// Pheromone of every exception node by GeneCluster.getIndex(), see
+	// resetPheromones().
+	private double[] pheromones;
 
+	// The cluster of every exception node of this graph, so that no two
+	// clusters contain the same node.
+	private final ConcurrentMap<GeneNode, GeneCluster> exceptionClusters = new ConcurrentHashMap<GeneNode, GeneCluster>();
+
+	// the number of solutions built through constructSingleSolution(int)
+	// since the last reset, each of which gets a random stream of its own
+	private final AtomicLong singleSolutions = new AtomicLong();
+
+	// set once a run removed vertices, see optimal()
+	private volatile boolean modified = false;
+
+	// owned by the caller, see setExecutor()
+	private transient volatile ForkJoinPool executor;
 
 	public LComponentGraph(IKPMTaskMonitor taskMonitor, KPMSettings settings) {
 		this.taskMonitor = taskMonitor;
@@ -32,6 +54,61 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 		this.k = this.kpmSettings.GENE_EXCEPTIONS;
 	}
 
+	/**
+	 * Sets the pool the ACO and the greedy algorithm run on. It is not shut
+	 * down by this graph. Without a pool, the shared pool with
+	 * NUMBER_OF_PROCESSORS workers is used, see SharedPools.
+	 */
+	public void setExecutor(ForkJoinPool executor) {
+		this.executor = executor;
+	}
+
+	private ForkJoinPool executor() {
+		return executor != null ? executor : SharedPools.get(kpmSettings.NUMBER_OF_PROCESSORS);
+	}
+
+	/**
+	 * Returns the cluster of the given exception node, creating it on the
+	 * first call. The clusters are numbered densely in the order of their
+	 * creation, see GeneCluster.getIndex(). Safe to call from several threads
+	 * while the graph is constructed.
+	 */
+	GeneCluster exceptionCluster(GeneNode node) {
+		GeneCluster excCluster = exceptionClusters.get(node);
+		if (excCluster == null) {
+			synchronized (exceptionClusters) {
+				excCluster = exceptionClusters.get(node);
+				if (excCluster == null) {
+					excCluster = GeneCluster.exceptionCluster(node, kpmSettings, exceptionClusters.size());
+					exceptionClusters.put(node, excCluster);
+				}
+			}
+		}
+		return excCluster;
+	}
+
+	/**
+	 * Prepares this graph for another run with the given settings, e.g. with
+	 * a different K. The contracted graph only depends on the exception nodes,
+	 * so only the state of the previous run is dropped.
+	 */
+	void reset(IKPMTaskMonitor taskMonitor, KPMSettings settings) {
+		this.taskMonitor = taskMonitor;
+		this.kpmSettings = settings;
+		this.k = settings.GENE_EXCEPTIONS;
+		this.allSolutions = null;
+		this.pheromones = null;
+		this.isCancelled = false;
+		this.singleSolutions.set(0);
+	}
+
+	/**
+	 * @return whether a run removed vertices from this graph
+	 */
+	boolean isModified() {
+		return modified;
+	}
+
 	public List<Result> getResults() {
 		return allSolutions;
 	}
@@ -55,38 +132,45 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 * @param solutions
 	 */
 	public void updatePheromones(LCGSubgraph[] solutions) {
+		if (pheromones == null)
+			resetPheromones();
+
 		// evaporation
-		for (GeneCluster node : getVertices())
-			if (!node.isValid())
-				node.setPheromone((1 - kpmSettings.RHO) * node.getPheromone());
+		for (int i = 0; i < pheromones.length; i++)
+			pheromones[i] = (1 - kpmSettings.RHO) * pheromones[i];
 
 		// pheromone update
 		for (LCGSubgraph solution : solutions) {
 			int fitness = solution.getFitness();
 			for (GeneCluster node : solution)
 				if (!node.isValid())
-					node.setPheromone(node.getPheromone() + kpmSettings.RHO
-							* fitness);
+					pheromones[node.getIndex()] += kpmSettings.RHO
+							* fitness;
 		}
 
 		// check bounds
-		for (GeneCluster node : getVertices()) {
-			if (node.isValid())
-				continue;
-			else if (node.getPheromone() > kpmSettings.N)
-				node.setPheromone(kpmSettings.N);
-			else if (node.getPheromone() < 1)
-				node.setPheromone(1);
+		for (int i = 0; i < pheromones.length; i++) {
+			if (pheromones[i] > kpmSettings.N)
+				pheromones[i] = kpmSettings.N;
+			else if (pheromones[i] < 1)
+				pheromones[i] = 1;
 		}
 	}
 
 	/**
-	 * Sets the fitness of all nodes to their respective weights.
+	 * Sets the pheromones of all exception nodes to their start value. The
+	 * pheromones are kept by this graph, indexed by the dense index of the
+	 * exception clusters, and not by the clusters themselves, which outlive a
+	 * run when the graph is reused.
 	 */
 	public void resetPheromones() {
-		for (GeneCluster node : getVertices())
-			if (!node.isValid())
-				node.setPheromone(kpmSettings.N / ((double) 2));
+		double[] values = new double[exceptionClusters.size()];
+		Arrays.fill(values, kpmSettings.N / ((double) 2));
+		pheromones = values;
+	}
+
+	private double getPheromone(GeneCluster node) {
+		return pheromones[node.getIndex()];
 	}
 
 	/**
@@ -107,14 +191,30 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 * probability proportional to their pheromone and weight. The balance
 	 * between pheromone and weight is given by a tradeoff function.
 	 * 
+	 * The n-th call since the graph was last reset draws from a stream
+	 * derived from SEED and n, so a sequence of calls gives the same solutions
+	 * for the same seed.
+	 * 
 	 * @param k
 	 *            the number of exception vertices we allow in our solution
 	 * @return a possible solution (does not have to be the optimal one)
 	 */
 	public LCGSubgraph constructSingleSolution(int k) {
+		return constructSingleSolution(k, SplitMixRandom.forTask(
+				kpmSettings.SEED, -1, singleSolutions.getAndIncrement()));
+	}
+
+	/**
+	 * @param random
+	 *            the random numbers of this solution alone
+	 * @see #constructSingleSolution(int)
+	 */
+	private LCGSubgraph constructSingleSolution(int k, Random random) {
 		LCGSubgraph solution = new LCGSubgraph(kpmSettings);
 		HashSet<GeneCluster> currentExceptionNeighbors = new HashSet<GeneCluster>();
-		resetFitnesses();
+		ClusterFitness fitness = newFitness();
+		if (pheromones == null)
+			resetPheromones();
 
 		// in the beginning, all exc-nodes are possible entry points
 		for (GeneCluster node : getVertices())
@@ -126,21 +226,21 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			double totalProbability = 0;
 			for (GeneCluster node : currentExceptionNeighbors) {
 				assert !solution.contains(node);
-				totalProbability += node.getProbability();
+				totalProbability += node.getProbability(getPheromone(node), fitness.get(node));
 			}
 
-			double hit = kpmSettings.R.nextDouble();
+			double hit = random.nextDouble();
 
 			// choose a neighbor randomly
 			if (currentExceptionNeighbors.isEmpty())
 				return solution;
 
 			for (GeneCluster node : currentExceptionNeighbors) {
-				if (hit < (node.getProbability() / totalProbability)) {
+				if (hit < (node.getProbability(getPheromone(node), fitness.get(node)) / totalProbability)) {
 					newNode = node;
 					break;
 				} else {
-					hit -= (node.getProbability() / totalProbability);
+					hit -= (node.getProbability(getPheromone(node), fitness.get(node)) / totalProbability);
 				}
 			}
 			if (newNode == null){
@@ -152,7 +252,7 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			solution.add(newNode);
 
 			updateExceptionNeighbors(solution, currentExceptionNeighbors,
-					newNode);
+					newNode, fitness);
 		}
 		return solution;
 	}
@@ -170,9 +270,12 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 *            the neighborhood of the old solution
 	 * @param newNode
 	 *            the newNode that was just added
+	 * @param fitness
+	 *            the fitnesses of the old solution, updated to the new one
 	 */
 	private void updateExceptionNeighbors(LCGSubgraph solution,
-			Set<GeneCluster> currentExceptionNeighbors, GeneCluster newNode) {
+			Set<GeneCluster> currentExceptionNeighbors, GeneCluster newNode,
+			ClusterFitness fitness) {
 		if (newNode.isValid() || !solution.contains(newNode))
 			throw new IllegalArgumentException(
 					"Wanted to update exception neighbors when given an invalid new node.");
@@ -196,9 +299,9 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 					// Should not decrease fitness of newNode, but we don't
 					// need its fitness anyhow since it already is in the
 					// solution
-					int oldfitness = candidateNeighbor2.getFitness();
+					int oldfitness = fitness.get(candidateNeighbor2);
 					int weightToRemove = candidateNeighbor.getWeight();
-					candidateNeighbor2.setFitness(oldfitness - weightToRemove);
+					fitness.set(candidateNeighbor2, oldfitness - weightToRemove);
 
 					// don't add newNode the currentNeighbors!
 					if (!newNode.equals(candidateNeighbor2))
@@ -222,23 +325,27 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 *            to oldNode
 	 * @param oldNode
 	 *            the exception node that we are throwing out of the solution
+	 * @param fitness
+	 *            the fitnesses to revert
 	 */
 	private void revertExceptionNeighbors(LCGSubgraph solution,
-			GeneCluster oldNode) {
+			GeneCluster oldNode, ClusterFitness fitness) {
 		for (GeneCluster validNeighbor : getNeighbors(oldNode))
 			if (validNeighbor.isValid() && !solution.contains(validNeighbor))
 				for (GeneCluster excNeighbor : getNeighbors(validNeighbor))
 					// should not increase fitness of oldNode, but it's okay
 					// since we decreased it in the method
 					// updateExceptionNeighbor()
-					excNeighbor.setFitness(excNeighbor.getFitness()
+					fitness.set(excNeighbor, fitness.get(excNeighbor)
 							+ validNeighbor.getWeight());
 	}
 
-	private void resetFitnesses() {
-		for (GeneCluster node : getVertices())
-			if (!node.isValid())
-				node.setFitness(node.getWeight());
+	/**
+	 * @return the fitnesses of the exception nodes for an empty solution,
+	 *         owned by the caller
+	 */
+	private ClusterFitness newFitness() {
+		return new ClusterFitness(getVertices(), exceptionClusters.size());
 	}
 
 	/**
@@ -249,10 +356,20 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 * @return the top solutions, ordered by their fitness
 	 */
 	public List<Result> ACO() {
-		List<Result> toReturn = new ArrayList<Result>();
+		return ACO(ResultCollector.fromSettings(kpmSettings));
+	}
 
+	/**
+	 * @param collector
+	 *            receives every constructed solution
+	 * @return the results kept by the collector
+	 * @see #ACO()
+	 */
+	public List<Result> ACO(ResultCollector collector) {
 		if (k == 0)
-			return biggestValidClusters();
+			return biggestValidClusters(collector);
+
+		resetPheromones();
 
 		LCGSubgraph best = new LCGSubgraph(kpmSettings);
 		int bestFitness = best.getFitness();
@@ -266,21 +383,25 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			System.exit(-1);
 		}
 
-		ExecutorService pool = Executors.newFixedThreadPool(kpmSettings.NUMBER_OF_PROCESSORS);
+		ForkJoinPool pool = executor();
 
 		while (roundsWithoutChange <= kpmSettings.MAX_RUNS_WITHOUT_CHANGE
 				&& iterations <= kpmSettings.MAX_ITERATIONS && !isCancelled()) {
 			LCGSubgraph[] solutions = new LCGSubgraph[kpmSettings.NUMBER_OF_SOLUTIONS_PER_ITERATION];
 			List<Future<LCGSubgraph>> futures = new LinkedList<Future<LCGSubgraph>>();
 
-			for (int j = 0; j < solutions.length; j++)
+			for (int j = 0; j < solutions.length; j++) {
+				// every solution has a stream of its own, so the results do
+				// not depend on the scheduling of the threads
+				final Random random = SplitMixRandom.forTask(kpmSettings.SEED, iterations, j);
 				futures.add(pool.submit(new Callable<LCGSubgraph>() {
 
 					@Override
 					public LCGSubgraph call() throws Exception {
-						return constructSingleSolution(k);
+						return constructSingleSolution(k, random);
 					}
 				}));
+			}
 
 			int j = 0;
 			for (Future<LCGSubgraph> f : futures) {
@@ -303,7 +424,9 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			roundsWithoutChange++;
 			iterations++;
 
-			toReturn.addAll(Arrays.asList(solutions));
+			for (LCGSubgraph solution : solutions)
+				if (solution != null)
+					collector.offer(solution);
 
 			updatePheromones(solutions);
 			if (! kpmSettings.IS_BATCH_RUN) {
@@ -312,26 +435,18 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			}
 		}
 
-		pool.shutdown();
-
-		return toReturn;
+		return collector.getResults();
 	}
 
-	private List<Result> biggestValidClusters() {
-		List<LCGSubgraph> solutions = new ArrayList<LCGSubgraph>();
-
+	private List<Result> biggestValidClusters(ResultCollector collector) {
 		for (GeneCluster node : getVertices())
 			if (node.isValid()) {
 				LCGSubgraph sol = new LCGSubgraph(kpmSettings);
 				sol.add(node);
-				solutions.add(sol);
+				collector.offer(sol);
 			}
 
-		Collections.sort(solutions);
-
-		List<Result> toReturn = new ArrayList<Result>();
-		toReturn.addAll(solutions);
-		return toReturn;
+		return collector.getResults();
 	}
 
 	/**
@@ -357,7 +472,8 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			i++;
 			LCGSubgraph[] solutions = new LCGSubgraph[kpmSettings.NUMBER_OF_SOLUTIONS_PER_ITERATION];
 			for (int j = 0; j < solutions.length; j++) {
-				solutions[j] = constructSingleSolution(k);
+				solutions[j] = constructSingleSolution(k,
+						SplitMixRandom.forTask(kpmSettings.SEED, i, j));
 			}
 			updatePheromones(solutions);
 
@@ -376,9 +492,19 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 * number of nodes to the subgraph. It tries every exception node as start
 	 * node.
 	 * 
-	 * @return
+	 * @return the top solutions, ordered by their fitness
 	 */
 	public List<Result> greedy() {
+		return greedy(ResultCollector.fromSettings(kpmSettings));
+	}
+
+	/**
+	 * @param collector
+	 *            receives the solution from every start node
+	 * @return the results kept by the collector
+	 * @see #greedy()
+	 */
+	public List<Result> greedy(ResultCollector collector) {
 
 		double exceptionVertices = (double)getExceptionVertexCount();
 		double nodesComputed = 0.0;
@@ -388,26 +514,25 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			if (! kpmSettings.IS_BATCH_RUN) {
 				taskMonitor.setProgress(1.0);                        
 			}
-			return biggestValidClusters();
+			return biggestValidClusters(collector);
 		}
 
-		List<Result> toReturn = new ArrayList<Result>();
-
-        ExecutorService pool = Executors.newFixedThreadPool(kpmSettings.NUMBER_OF_PROCESSORS);
+        ForkJoinPool pool = executor();
 
 		List<Future<LCGSubgraph>> futures = new LinkedList<Future<LCGSubgraph>>();
 
 		// submit all threads
+		int task = 0;
 		for (final GeneCluster node : getVertices())
 			// all exc-nodes are possible entry points
 			if (!node.isValid()) {
-
+				final Random random = SplitMixRandom.forTask(kpmSettings.SEED, task++);
 				futures.add(pool.submit(new Callable<LCGSubgraph>() {
 
 					@Override
 					public LCGSubgraph call() throws Exception {
 
-						return greedyFromStartingNode(node);
+						return greedyFromStartingNode(node, random);
 					}
 				}));
 
@@ -416,7 +541,7 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 		// poll all threads
 		for (Future<LCGSubgraph> f : futures)
 			try {
-				toReturn.add(f.get());
+				collector.offer(f.get());
 				nodesComputed++;
 				if (! kpmSettings.IS_BATCH_RUN) {
 					double completed = (double)nodesComputed / (double)exceptionVertices;
@@ -427,22 +552,21 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 				e.printStackTrace();
 			}
 
-		pool.shutdown();
-		return toReturn;
+		return collector.getResults();
 	}
 
-	private LCGSubgraph greedyFromStartingNode(GeneCluster startingNode) {
+	private LCGSubgraph greedyFromStartingNode(GeneCluster startingNode, Random random) {
 		if (startingNode.isValid())
 			throw new IllegalArgumentException(
 					"Greedy Solution must start with an exception-node.");
 
-		resetFitnesses();
+		ClusterFitness fitness = newFitness();
 		LCGSubgraph solution = new LCGSubgraph(kpmSettings);
 		solution.add(startingNode);
 
 		HashSet<GeneCluster> currentExceptionNeighbors = new HashSet<GeneCluster>();
 		updateExceptionNeighbors(solution, currentExceptionNeighbors,
-				startingNode);
+				startingNode, fitness);
 
 		for (int t = 1; t < k; t++) {
 			List<GeneCluster> newNodes = new ArrayList<GeneCluster>();
@@ -454,11 +578,11 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			// neighbors with the same best fitness, choose one uniformly at
 			// random
 			for (GeneCluster node : currentExceptionNeighbors)
-				if (node.getFitness() > maxFitness) {
-					maxFitness = node.getFitness();
+				if (fitness.get(node) > maxFitness) {
+					maxFitness = fitness.get(node);
 					newNodes.clear();
 					newNodes.add(node);
-				} else if (node.getFitness() == maxFitness)
+				} else if (fitness.get(node) == maxFitness)
 					newNodes.add(node);
 
 			if (newNodes.size() == 0) {
@@ -466,13 +590,13 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
                 //TODO: Figure out what to do here instead of throwing the exception:
                 //throw new IllegalStateException("We did not pick a node...");
             }
-			GeneCluster newNode = newNodes.get(kpmSettings.R.nextInt(newNodes
+			GeneCluster newNode = newNodes.get(random.nextInt(newNodes
 					.size()));
 
 			solution.add(newNode);
 
 			updateExceptionNeighbors(solution, currentExceptionNeighbors,
-					newNode);
+					newNode, fitness);
 		}
 
 		return solution;
@@ -495,17 +619,27 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 * @return The optimal solution.
 	 */
 	public List<Result> optimal() {
+		return optimal(ResultCollector.fromSettings(kpmSettings));
+	}
+
+	/**
+	 * @param collector
+	 *            receives the optimal solution
+	 * @return the results kept by the collector
+	 * @see #optimal()
+	 */
+	public List<Result> optimal(ResultCollector collector) {
 		// if (k < 4)
 		// return greedy();
 		if (! kpmSettings.IS_BATCH_RUN) {
 			taskMonitor.setStatusMessage("Performing preprocessing...");
 		}
 
-		LCGSubgraph opt = (LCGSubgraph) greedy().get(0);
+		LCGSubgraph opt = (LCGSubgraph) greedy(new ResultCollector(1, true)).get(0);
 		if (! kpmSettings.IS_BATCH_RUN) {
 			taskMonitor.setStatusMessage("Extracting pathways...");
 		}
-		resetFitnesses();
+		ClusterFitness fitness = newFitness();
 		int lowerBound = opt.getFitness();
 
 		int count = 0;
@@ -519,7 +653,7 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			LCGSubgraph init = new LCGSubgraph(kpmSettings);
 
 			LCGSubgraph best = branchSolution(init, startingVertex,
-					new HashSet<GeneCluster>(), lowerBound);
+					new HashSet<GeneCluster>(), lowerBound, fitness);
 
 			if (best != null && best.getFitness() > lowerBound) {
 				opt = best;
@@ -527,6 +661,7 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			}
 
 			removeVertex(startingVertex);
+			modified = true;
 
 			startingVertex = getExceptionVertex();
 			count++;
@@ -538,7 +673,8 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 		if (! kpmSettings.IS_BATCH_RUN) {
 			taskMonitor.setProgress(0.99);
 		}
-		return Collections.singletonList((Result) opt);
+		collector.offer(opt);
+		return collector.getResults();
 	}
 
 	/**
@@ -551,7 +687,8 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 *         current lower bound fitness. True otherwise.
 	 */
 	private LCGSubgraph branchSolution(LCGSubgraph init, GeneCluster newNode,
-			Set<GeneCluster> currentExceptionNeighbors, int lowerBound) {
+			Set<GeneCluster> currentExceptionNeighbors, int lowerBound,
+			ClusterFitness fitness) {
 		if (init.getNumExceptionNodes() >= k) {
 			return init;
 		}
@@ -562,13 +699,13 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 		currentExceptionNeighbors = new HashSet<GeneCluster>(
 				currentExceptionNeighbors);
 
-		updateExceptionNeighbors(branch, currentExceptionNeighbors, newNode);
+		updateExceptionNeighbors(branch, currentExceptionNeighbors, newNode, fitness);
 		assert allExceptionNodes(currentExceptionNeighbors);
 
 		// Bound.
-		if (boundSolution(branch, currentExceptionNeighbors) < lowerBound) {
+		if (boundSolution(branch, currentExceptionNeighbors, fitness) < lowerBound) {
 			// System.out.println("Depth: " + branch.getNumExceptionNodes());
-			revertExceptionNeighbors(init, newNode);
+			revertExceptionNeighbors(init, newNode, fitness);
 			return null;
 		}
 
@@ -582,7 +719,7 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			assert (!branch.contains(node));
 
 			LCGSubgraph newSol = branchSolution(branch, node,
-					currentExceptionNeighbors, lowerBound);
+					currentExceptionNeighbors, lowerBound, fitness);
 
 			if (newSol != null && newSol.getFitness() > lowerBound) {
 				lowerBound = newSol.getFitness();
@@ -593,7 +730,7 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 
 		// updateExceptionNeighbors() messes up the fitnesses. Be sure to
 		// revert the changes after closing a branch.
-		revertExceptionNeighbors(init, newNode);
+		revertExceptionNeighbors(init, newNode, fitness);
 
 		return bestSolution;
 	}
@@ -608,7 +745,7 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 *         exception nodes (does not have to be tight)
 	 */
 	private int boundSolution(LCGSubgraph toBound,
-			Set<GeneCluster> currentExceptionNeighbors) {
+			Set<GeneCluster> currentExceptionNeighbors, ClusterFitness fitness) {
 		int x = toBound.getNumExceptionNodes();
 		if (x >= k)
 			return toBound.getFitness();
@@ -618,8 +755,8 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 
 		Set<GeneCluster> neighbors = new HashSet<GeneCluster>();
 		Set<GeneCluster> stepsFromSolution = new HashSet<GeneCluster>();
-		Queue<GeneCluster> neighborRing = new PriorityQueue<GeneCluster>();
-		Queue<GeneCluster> nextNeighborRing = new PriorityQueue<GeneCluster>();
+		Queue<GeneCluster> neighborRing = new PriorityQueue<GeneCluster>(11, fitness);
+		Queue<GeneCluster> nextNeighborRing = new PriorityQueue<GeneCluster>(11, fitness);
 
 		neighborRing.addAll(currentExceptionNeighbors);
 		stepsFromSolution.addAll(toBound);
@@ -650,7 +787,7 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 			}
 
 			neighborRing = nextNeighborRing;
-			nextNeighborRing = new PriorityQueue<GeneCluster>();
+			nextNeighborRing = new PriorityQueue<GeneCluster>(11, fitness);
 		}
 
 		// Now, we check the all the valid nodes that can still be added.
@@ -672,12 +809,12 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 
 		List<GeneCluster> neighborList = new ArrayList<GeneCluster>();
 		neighborList.addAll(neighbors);
-		Collections.sort(neighborList);
+		Collections.sort(neighborList, fitness);
 
 		for (int i = Math.max(neighborList.size() - k + x, 0); i < neighborList
 				.size(); i++)
 			if (!neighborList.get(i).isValid())
-				bestPossibleFitness2 += neighborList.get(i).getFitness();
+				bestPossibleFitness2 += fitness.get(neighborList.get(i));
 
 		return Math.min(bestPossibleFitness1, bestPossibleFitness2);
 	}
@@ -689,9 +826,9 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 * @param validNode
 	 *            the node whose weight is to be subtracted from all neighbors
 	 */
-	private void decreaseFitnessesAround(GeneCluster validNode) {
+	private void decreaseFitnessesAround(GeneCluster validNode, ClusterFitness fitness) {
 		for (GeneCluster excNeighbor : getNeighbors(validNode))
-			excNeighbor.setFitness(excNeighbor.getFitness()
+			fitness.set(excNeighbor, fitness.get(excNeighbor)
 					- validNode.getWeight());
 	}
 
@@ -702,9 +839,9 @@ public class LComponentGraph extends SparseGraph<GeneCluster, GeneEdge> {
 	 * @param validNode
 	 *            the node whose weight is to be subtracted from all neighbors
 	 */
-	private void increaseFitnessesAround(GeneCluster validNode) {
+	private void increaseFitnessesAround(GeneCluster validNode, ClusterFitness fitness) {
 		for (GeneCluster excNeighbor : getNeighbors(validNode))
-			excNeighbor.setFitness(excNeighbor.getFitness()
+			fitness.set(excNeighbor, fitness.get(excNeighbor)
 					+ validNode.getWeight());
 	}
 
@@ -17,6 +17,14 @@ public class GeneEdge implements Serializable {
 
 	String edgeId;
 
+	// The endpoints by GeneIdDictionary int, -1 if the edge was given an id
+	int fromGeneId = -1;
+
+	int toGeneId = -1;
+
+	// The dictionary of the endpoints, null if the edge was given an id
+	GeneIdDictionary dictionary;
+
 	double pheromone;
 
 	double weight;
@@ -31,6 +39,9 @@ public class GeneEdge implements Serializable {
 	
 	public GeneEdge(GeneEdge e){
 		this.edgeId = e.edgeId;
+		this.fromGeneId = e.fromGeneId;
+		this.toGeneId = e.toGeneId;
+		this.dictionary = e.dictionary;
 		this.pheromone = e.pheromone;
 		this.weight = e.weight;
 		this.probability = e.probability;
@@ -65,6 +76,22 @@ public class GeneEdge implements Serializable {
 		this.paths = null;
 	}
 
+	/**
+	 * Creates the edge of an interaction between two genes. Its id,
+	 * "to (pp) from" to be compatible with Cytoscape, is only built when it
+	 * is asked for.
+	 *
+	 * @param dictionary
+	 *            the dictionary of the graph the ints belong to
+	 * @see KPMGraph#getGeneIdDictionary()
+	 */
+	public GeneEdge(GeneIdDictionary dictionary, int fromGeneId, int toGeneId) {
+		this((String) null);
+		this.dictionary = dictionary;
+		this.fromGeneId = fromGeneId;
+		this.toGeneId = toGeneId;
+	}
+
 	public GeneEdge() {
 		this(nextIdString());
 	}
@@ -98,12 +125,32 @@ public class GeneEdge implements Serializable {
 	}
 
 	public String getEdgeId() {
+		if (edgeId == null && fromGeneId >= 0) {
+			edgeId = dictionary.getString(toGeneId) + " (pp) "
+					+ dictionary.getString(fromGeneId);
+		}
 		return edgeId;
 	}
 
+	/**
+	 * @return the int of the first node of the interaction, or -1 if the edge
+	 * was created with an id
+	 */
+	public int getFromGeneId() {
+		return fromGeneId;
+	}
+
+	/**
+	 * @return the int of the second node of the interaction, or -1 if the
+	 * edge was created with an id
+	 */
+	public int getToGeneId() {
+		return toGeneId;
+	}
+
 	@Override
 	public String toString() {
-		return edgeId;
+		return getEdgeId();
 	}
 
 	public Object getPaths() {
@@ -0,0 +1,75 @@
+package dk.sdu.kpm.graph;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns every gene (node) id a dense int when it is seen for the first
+ * time. A graph that is loaded or constructed from maps gets a dictionary of
+ * its own, and the graphs derived from it (copies, randomized and perturbed
+ * versions) share it by reference, so they agree on the ints and counters
+ * and lookups by gene can be arrays indexed by them. The dictionary is
+ * dropped with the last graph using it. The string ids are only needed again
+ * where results leave the algorithms.
+ *
+ * The ints are never reused and only valid for the graphs sharing the
+ * dictionary, see {@link KPMGraph#getGeneIdDictionary()} and
+ * {@link GeneNode#getGeneId()}. A graph keeps a second dictionary for the
+ * ids of its studies, see {@link KPMGraph#getStudyIdDictionary()}. Safe to
+ * use from several threads.
+ */
+public final class GeneIdDictionary implements Serializable {
+
+    private static final long serialVersionUID = 4263198410738351947L;
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    private final List<String> strings = new ArrayList<String>();
+
+    /**
+     * @return the int of the given id, which is assigned if the id is new
+     */
+    public int intern(String id) {
+        synchronized (ids) {
+            Integer geneId = ids.get(id);
+            if (geneId == null) {
+                geneId = strings.size();
+                ids.put(id, geneId);
+                strings.add(id);
+            }
+            return geneId;
+        }
+    }
+
+    /**
+     * @return the int of the given id, or -1 if it has not been interned
+     */
+    public int getId(String id) {
+        synchronized (ids) {
+            Integer geneId = ids.get(id);
+            return geneId == null ? -1 : geneId;
+        }
+    }
+
+    /**
+     * @return the id of the given int, the same instance for every call
+     */
+    public String getString(int geneId) {
+        synchronized (ids) {
+            return strings.get(geneId);
+        }
+    }
+
+    /**
+     * @return the number of ids interned so far, an upper bound of all ints
+     * handed out
+     */
+    public int size() {
+        synchronized (ids) {
+            return strings.size();
+        }
+    }
+}
@@ -7,6 +7,8 @@ package dk.sdu.kpm.graph;
 import dk.sdu.kpm.Heuristic;
 import dk.sdu.kpm.KPMSettings;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
@@ -23,17 +25,12 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
     
     public static final char NODIFFERENCE = '*';
     
-    public double pheromone = 0.5;
-    
-    private int lastIterationPheromoneUpdated = 0;
-    
     public String nodeId;
     
     public String symbol;
         
-    public Map<String, char[]> differenceMap;
-    
-    public Map<String, int[]> differenceIntMap;
+    // The indicator vector of every study
+    private Map<String, PackedExpression> expressionMap;
     
     public Map<String, Integer> numUpExpressedCasesMap;
     
@@ -43,6 +40,21 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
     
     public Map<String, Integer> numCasesMap;
     
+    // The study dictionary of the graph of this node, null before the node is
+    // put into a graph, see KPMGraph.getStudyIdDictionary().
+    private transient GeneIdDictionary studyIds;
+    
+    // The counts of the maps above by the index of the study in studyIds, so
+    // that the feasibility checks of the algorithms need no map lookups.
+    // Empty until the node is put into a graph, rebuilt when it is.
+    private transient int[] numUpExpressedCases;
+    
+    private transient int[] numDownExpressedCases;
+    
+    private transient int[] numNoDiffExpressedCases;
+    
+    private transient int[] numCases;
+    
     public int totalUpCases;
     
     public int totalDownCases;
@@ -55,20 +67,39 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
     
     private boolean isValid;
     
+    // Dense index of this node in the current GraphSnapshot of its graph.
+    private int index = -1;
+    
+    // The int of nodeId in the GeneIdDictionary of its graph, assigned when
+    // the node is put into a graph, -1 before.
+    private transient int geneId = -1;
+    
     public GeneNode(String nodeId, String symbol, Map<String, int[]> differenceIntMap) {
+        this(nodeId, symbol);
+        setDifferenceIntMap(differenceIntMap);
+    }
+    
+    private GeneNode(String nodeId, String symbol) {
         this.nodeId = nodeId;
         this.symbol = symbol;
         isValid = false;
-        this.differenceIntMap = differenceIntMap;
-        computeDifferenceMap();
+    }
+    
+    /**
+     * @param expressionMap the indicator vector of every study
+     */
+    public static GeneNode withExpression(String nodeId, String symbol, Map<String, PackedExpression> expressionMap) {
+        GeneNode node = new GeneNode(nodeId, symbol);
+        node.setExpressionMap(expressionMap);
+        return node;
     }
     
     public GeneNode(GeneNode n){
-    	this.pheromone = n.pheromone;
     	this.nodeId = n.nodeId;
+    	this.geneId = n.geneId;
+    	this.studyIds = n.studyIds;
     	this.symbol = n.symbol;
     	this.isValid = n.isValid;
-    	this.lastIterationPheromoneUpdated = n.lastIterationPheromoneUpdated;
     	this.totalUpCases = n.totalUpCases;
     	this.totalDownCases = n.totalDownCases;
     	this.totalNoDiffCases = n.totalNoDiffCases;
@@ -76,16 +107,18 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
     	this.averageNeighborExpression = n.averageNeighborExpression;
     	this.totalDownCases = n.totalDownCases;
     	this.totalDownCases = n.totalDownCases;
-    	this.differenceMap = new HashMap<String, char[]>(n.differenceMap);
-    	this.differenceIntMap = new HashMap<String, int[]>(n.differenceIntMap);
+    	this.expressionMap = new HashMap<String, PackedExpression>(n.expressionMap);
     	this.numUpExpressedCasesMap = new HashMap<String, Integer>(n.numUpExpressedCasesMap);
     	this.numDownExpressedCasesMap = new HashMap<String, Integer>(n.numDownExpressedCasesMap);
     	this.numNoDiffExpressedCasesMap = new HashMap<String, Integer>(n.numNoDiffExpressedCasesMap);
     	this.numCasesMap = new HashMap<String, Integer>(n.numCasesMap);
+    	this.numUpExpressedCases = n.numUpExpressedCases.clone();
+    	this.numDownExpressedCases = n.numDownExpressedCases.clone();
+    	this.numNoDiffExpressedCases = n.numNoDiffExpressedCases.clone();
+    	this.numCases = n.numCases.clone();
     }
     
-    private void computeDifferenceMap() {
-        differenceMap = new HashMap<String, char[]>();
+    private void computeCounts() {
         numUpExpressedCasesMap = new HashMap<String, Integer>();
         numDownExpressedCasesMap = new HashMap<String, Integer>();
         numNoDiffExpressedCasesMap = new HashMap<String, Integer>();
@@ -95,40 +128,79 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
         totalNoDiffCases = 0;
         totalCases = 0;
 
-        for (String expId : differenceIntMap.keySet()) {
-            int[] differArray = differenceIntMap.get(expId);
-            int ncases = differArray.length;
-            totalCases += ncases;
-            int numUp = 0;
-            int numDown = 0;
-            int numDiff = 0;
+        for (String expId : expressionMap.keySet()) {
+            PackedExpression expression = expressionMap.get(expId);
+            int ncases = expression.getNumCases();
+            int numUp = expression.getNumUp();
+            int numDown = expression.getNumDown();
+            int numDiff = expression.getNumNoDiff();
 
             numCasesMap.put(expId, ncases);
+            totalCases += ncases;
+            totalUpCases += numUp;
+            totalDownCases += numDown;
+            totalNoDiffCases += numDiff;
 
-            char[] diffarray = new char[ncases];
-            for (int i = 0; i < ncases; i++) {
-                int option = differArray[i];
-                if (option == 1) {
-                    diffarray[i] = UPREGULATED;
-                    numUp++;
-                    totalUpCases++;
-                } else if (option == -1) {
-                    diffarray[i] = DOWNREGULATED;
-                    numDown++;
-                    totalDownCases++;
-                } else {
-                    diffarray[i] = NODIFFERENCE;
-                    numDiff++;
-                    totalNoDiffCases++;
-                }
-            }
-            differenceMap.put(expId, diffarray);
             numUpExpressedCasesMap.put(expId, numUp);
             numDownExpressedCasesMap.put(expId, numDown);
             numNoDiffExpressedCasesMap.put(expId, numDiff);
         }
+        computeStudyArrays();
+    }
+    
+    private void computeStudyArrays() {
+        int numStudies = 0;
+        if (studyIds != null) {
+            for (String expId : numCasesMap.keySet()) {
+                numStudies = Math.max(numStudies, studyIds.intern(expId) + 1);
+            }
+        }
+        numUpExpressedCases = new int[numStudies];
+        numDownExpressedCases = new int[numStudies];
+        numNoDiffExpressedCases = new int[numStudies];
+        numCases = new int[numStudies];
+        if (studyIds == null) {
+            return;
+        }
+        for (String expId : numCasesMap.keySet()) {
+            int study = studyIds.getId(expId);
+            numUpExpressedCases[study] = numUpExpressedCasesMap.get(expId);
+            numDownExpressedCases[study] = numDownExpressedCasesMap.get(expId);
+            numNoDiffExpressedCases[study] = numNoDiffExpressedCasesMap.get(expId);
+            numCases[study] = numCasesMap.get(expId);
+        }
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        geneId = -1;
+        computeStudyArrays();
+    }
+    
+    /**
+     * Puts the node into a graph with the given study dictionary and indexes
+     * its counts by it.
+     */
+    void setStudyIdDictionary(GeneIdDictionary studyIds) {
+        this.studyIds = studyIds;
+        computeStudyArrays();
+    }
+    
+    /**
+     * @return the dictionary the study indices of this node refer to, that of
+     * its graph, or null if the node has not been put into a graph
+     * @see #getNumCases(int)
+     */
+    public GeneIdDictionary getStudyIdDictionary() {
+        return studyIds;
     }
 
+    /**
+     * @return whether this node is no exception node, as last set by
+     * KPMGraph.refreshGraph() or applyValidity(); undefined while a batch
+     * runs several combinations, each of which has a validity array of its
+     * own, see KPMGraph.computeValidity()
+     */
     public boolean isValid() {
         return isValid;
     }
@@ -137,19 +209,106 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
         this.isValid = isValid;
     }
 
+    /**
+     * @return the index of this node in the latest snapshot of its graph, or
+     * -1 if no snapshot has been taken yet
+     * @see KPMGraph#getSnapshot()
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the int of the id of this node in the dictionary of its graph,
+     * the same in every graph sharing that dictionary, or -1 if the node has
+     * not been put into a graph
+     * @see KPMGraph#getGeneIdDictionary()
+     */
+    public int getGeneId() {
+        return geneId;
+    }
+
+    void setGeneId(int geneId) {
+        this.geneId = geneId;
+    }
+
+    /**
+     * @return the indicator vector of the given study, or null if the node has
+     * no data for it
+     */
+    public PackedExpression getExpression(String expId) {
+        return expressionMap.get(expId);
+    }
+    
+    /**
+     * @return the indicator vector of every study, not to be modified
+     */
+    public Map<String, PackedExpression> getExpressionMap() {
+        return expressionMap;
+    }
+    
+    public void setExpressionMap(Map<String, PackedExpression> expressionMap) {
+        this.expressionMap = expressionMap;
+        computeCounts();
+    }
+    
+    /**
+     * @return the vector of the given study as UPREGULATED, DOWNREGULATED and
+     * NODIFFERENCE, computed on every call
+     * @deprecated use {@link #getExpression(String)}
+     */
+    @Deprecated
     public char[] getDifferenceArray(String expId) {
-        return differenceMap.get(expId);
+        PackedExpression expression = expressionMap.get(expId);
+        if (expression == null) {
+            return null;
+        }
+        char[] diffarray = new char[expression.getNumCases()];
+        for (int i = 0; i < diffarray.length; i++) {
+            if (expression.isUp(i)) {
+                diffarray[i] = UPREGULATED;
+            } else if (expression.isDown(i)) {
+                diffarray[i] = DOWNREGULATED;
+            } else {
+                diffarray[i] = NODIFFERENCE;
+            }
+        }
+        return diffarray;
     }
+    
+    /**
+     * @return the vectors of every study, see {@link #getDifferenceArray(String)}
+     * @deprecated use {@link #getExpressionMap()}
+     */
+    @Deprecated
     public Map<String, char[]> getDifferenceMap() {
+        Map<String, char[]> differenceMap = new HashMap<String, char[]>();
+        for (String expId : expressionMap.keySet()) {
+            differenceMap.put(expId, getDifferenceArray(expId));
+        }
         return differenceMap;
     }
 
+    /**
+     * @return unpacked copies of the vectors of every study; changing them
+     * does not change the node, use {@link #setDifferenceIntMap(Map)}
+     * @deprecated use {@link #getExpressionMap()}
+     */
+    @Deprecated
     public Map<String, int[]> getDifferenceIntMap() {
+        Map<String, int[]> differenceIntMap = new HashMap<String, int[]>();
+        for (String expId : expressionMap.keySet()) {
+            differenceIntMap.put(expId, expressionMap.get(expId).toIntArray());
+        }
         return differenceIntMap;
     }
+    
     public void setDifferenceIntMap(Map<String, int[]> differenceIntMap) {
-        this.differenceIntMap = differenceIntMap;
-        computeDifferenceMap();
+        setExpressionMap(PackedExpression.packAll(differenceIntMap));
     }
     public Map<String, Integer> getNumDownExpressedCasesMap() {
         return numDownExpressedCasesMap;
@@ -187,6 +346,29 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
         return numUpExpressedCasesMap.get(expId) + numDownExpressedCasesMap.get(expId);
     }
     
+    /**
+     * @param study the index of the study in the study dictionary of the
+     * graph, see getStudyIdDictionary()
+     * @return the number of cases, 0 if the node has no data for the study
+     */
+    public int getNumCases(int study) {
+        return study < numCases.length ? numCases[study] : 0;
+    }
+    
+    /**
+     * @see #getNumCases(int)
+     */
+    public int getNumNoDiffExpressedCases(int study) {
+        return study < numNoDiffExpressedCases.length ? numNoDiffExpressedCases[study] : 0;
+    }
+    
+    /**
+     * @see #getNumCases(int)
+     */
+    public int getNumDiffExpressedCases(int study) {
+        return study < numCases.length ? numUpExpressedCases[study] + numDownExpressedCases[study] : 0;
+    }
+    
     public int getTotalCases() {
         return totalCases;
     }
@@ -209,19 +391,19 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
     
     public double getAverageExpressedCasesNormalized() {
         double aux = 0.0;
-        for (String expId: getDifferenceMap().keySet()) {
+        for (String expId: expressionMap.keySet()) {
             double cases = (double)getNumCases(expId);
             double totalExp = (double)getNumDiffExpressedCases(expId);
             aux += totalExp / cases;
         }
-        return aux / (double)getDifferenceMap().size();
+        return aux / (double)expressionMap.size();
     }
     
     public int getAverageExpressedCases() {
         double den = 0.0;
-        for (String expId: getDifferenceMap().keySet()) {
-            double cases = (double)getNumCases(expId);
-            double totalNonExp = (double)getNumDiffExpressedCases(expId);
+        for (int study = 0; study < numCases.length; study++) {
+            double cases = (double)numCases[study];
+            double totalNonExp = (double)(numUpExpressedCases[study] + numDownExpressedCases[study]);
             double aux = cases * totalNonExp;
             den += aux;
         }
@@ -229,9 +411,9 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
     }
     public int getAverageNonExpressedCases() {
         double den = 0.0;
-        for (String expId: getDifferenceMap().keySet()) {
-            double cases = (double)getNumCases(expId);
-            double totalNonExp = (double)getNumNoDiffExpressedCases(expId);
+        for (int study = 0; study < numCases.length; study++) {
+            double cases = (double)numCases[study];
+            double totalNonExp = (double)numNoDiffExpressedCases[study];
             double aux = cases * totalNonExp;
             den += aux;
         }
@@ -301,7 +483,7 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
         } else if (!nodeId.equals(other.nodeId)) {
             return false;
             //if the two nodes contain expression data from different datasets they are not equal!
-        } else if (!other.differenceIntMap.keySet().containsAll(this.differenceIntMap.keySet())){
+        } else if (!other.expressionMap.keySet().containsAll(this.expressionMap.keySet())){
             return false;
         }
         return true;
@@ -316,29 +498,4 @@ public class GeneNode implements Comparable<GeneNode>, Serializable {
             return nodeId.compareTo(o.nodeId);
         }
     }
-
-    public double getPheromone() {
-        return pheromone;
-    }
-
-    public void reset() {
-        pheromone = 1.0 / 2.0;
-        lastIterationPheromoneUpdated = 0;
-    }
-
-    public int getLastIterationPheromoneUpdated() {
-        return lastIterationPheromoneUpdated;
-    }
-
-    public void setLastIterationPheromoneUpdated(
-            int lastIterationPheromoneUpdated) {
-        this.lastIterationPheromoneUpdated = lastIterationPheromoneUpdated;
-    }
-
-    public void setPheromone(double pheromone, double tau_min) {
-        if (pheromone < tau_min || pheromone > 1 - tau_min) {
-            throw new IllegalArgumentException("Pheromone out of bounds.");
-        }
-        this.pheromone = pheromone;
-    }
 }
\ No newline at end of file
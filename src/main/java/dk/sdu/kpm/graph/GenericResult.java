@@ -37,6 +37,11 @@ public class GenericResult implements Result, Serializable {
         return visitedNodes;
     }
 
+    @Override
+    public ResultFingerprint getFingerprint() {
+        return ResultFingerprint.of(visitedNodes.values());
+    }
+
     @Override
     public double getAverageDiffExpressedCases() {
         double diffExp = 0;
@@ -66,10 +71,9 @@ public class GenericResult implements Result, Serializable {
             
                 for (GeneNode node : visitedNodes.values()) {
             
-                    char[] expressionArray = node.getDifferenceArray(expId);
-                    for (int j = 0; j < expressionArray.length; j++) {
-                        char symbol = expressionArray[j];
-                        if (symbol == GeneNode.NODIFFERENCE) {
+                    PackedExpression expression = node.getExpression(expId);
+                    for (int j = 0; j < expression.getNumCases(); j++) {
+                        if (!expression.isDifferent(j)) {
                             frequencies[0][j]++;
                         } else {
                             frequencies[1][j]++;
@@ -109,15 +113,14 @@ public class GenericResult implements Result, Serializable {
         double studies = 0.0;
         GeneNode aNode = nodeList.getFirst();
 
-        for (String expId : aNode.getDifferenceMap().keySet()) {
+        for (String expId : aNode.getExpressionMap().keySet()) {
             studies++;
             int nCases = aNode.getNumCases(expId);
             int[][] frequencies = new int[alphabetSize][nCases];
             for (GeneNode node : nodeList) {
-                char[] expressionArray = node.getDifferenceArray(expId);
-                for (int j = 0; j < expressionArray.length; j++) {
-                    char symbol = expressionArray[j];
-                    if (symbol == GeneNode.NODIFFERENCE) {
+                PackedExpression expression = node.getExpression(expId);
+                for (int j = 0; j < expression.getNumCases(); j++) {
+                    if (!expression.isDifferent(j)) {
                         frequencies[0][j]++;
                     } else {
                         frequencies[1][j]++;
@@ -163,6 +166,10 @@ public class GenericResult implements Result, Serializable {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    /**
+     * @return the number of nodes flagged as exception nodes, see
+     * GeneNode.isValid()
+     */
     @Override
     public int getNumExceptionNodes() {
         int exc = 0;
@@ -179,9 +186,26 @@ public class GenericResult implements Result, Serializable {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    /**
+     * The exception nodes of a generic result are the ones flagged as such
+     * already, see getNumExceptionNodes(), so the flags of the nodes are kept.
+     */
     @Override
     public void flagExceptionNodes() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        // Do nothing
+    }
+
+    /**
+     * Copies the flag of every node into the validity, see
+     * {@link #flagExceptionNodes()}.
+     */
+    @Override
+    public void flagExceptionNodes(boolean[] validity) {
+        for (GeneNode node : visitedNodes.values()) {
+            if (node.getIndex() >= 0) {
+                validity[node.getIndex()] = node.isValid();
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,125 @@
+package dk.sdu.kpm.graph;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable compressed-sparse-row view of a {@link KPMGraph}. Every node gets
+ * a dense index in [0, size()), and the neighbors of node i are stored in
+ * adjacency[offsets[i]] .. adjacency[offsets[i + 1] - 1], sorted ascending.
+ *
+ * Iterating neighbors through the snapshot does not allocate and does not hash
+ * GeneNode objects, which is what the search algorithms spend most of their
+ * time on. The snapshot is built by {@link KPMGraph#getSnapshot()} and is
+ * thrown away by the graph whenever a vertex or edge is added or removed.
+ */
+public final class GraphSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 7381946021583727154L;
+
+    private final GeneNode[] nodes;
+
+    private final int[] offsets;
+
+    private final int[] adjacency;
+
+    private final GeneIdDictionary studyIds;
+
+    GraphSnapshot(KPMGraph g) {
+        studyIds = g.getStudyIdDictionary();
+        Collection<GeneNode> vertices = g.getVertices();
+        nodes = vertices.toArray(new GeneNode[vertices.size()]);
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].setIndex(i);
+        }
+
+        offsets = new int[nodes.length + 1];
+        for (int i = 0; i < nodes.length; i++) {
+            offsets[i + 1] = offsets[i] + g.getNeighborCount(nodes[i]);
+        }
+
+        adjacency = new int[offsets[nodes.length]];
+        for (int i = 0; i < nodes.length; i++) {
+            int pos = offsets[i];
+            for (GeneNode neighbor : g.getNeighbors(nodes[i])) {
+                adjacency[pos++] = neighbor.getIndex();
+            }
+            Arrays.sort(adjacency, offsets[i], pos);
+        }
+    }
+
+    /**
+     * @return the study dictionary of the graph, see
+     * KPMGraph.getStudyIdDictionary()
+     */
+    public GeneIdDictionary getStudyIdDictionary() {
+        return studyIds;
+    }
+
+    /**
+     * @return the number of nodes in the snapshot
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * @return the number of (undirected) adjacency entries, i.e. twice the
+     * number of edges
+     */
+    public int getAdjacencySize() {
+        return adjacency.length;
+    }
+
+    public GeneNode getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * Returns the index of the given node in this snapshot.
+     *
+     * @throws IllegalArgumentException if the node does not belong to the
+     * graph this snapshot was taken from
+     */
+    public int indexOf(GeneNode node) {
+        int index = node.getIndex();
+        if (index < 0 || index >= nodes.length || nodes[index] != node) {
+            throw new IllegalArgumentException("Node " + node.getNodeId()
+                    + " is not part of this snapshot.");
+        }
+        return index;
+    }
+
+    public int degree(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * @return the position in the adjacency array of the first neighbor of
+     * the given node
+     */
+    public int neighborsStart(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @return the position in the adjacency array just after the last
+     * neighbor of the given node
+     */
+    public int neighborsEnd(int index) {
+        return offsets[index + 1];
+    }
+
+    /**
+     * @return the node index stored at the given position of the adjacency
+     * array
+     */
+    public int neighborAt(int position) {
+        return adjacency[position];
+    }
+
+    public boolean isNeighbor(int u, int v) {
+        return Arrays.binarySearch(adjacency, offsets[u], offsets[u + 1], v) >= 0;
+    }
+}
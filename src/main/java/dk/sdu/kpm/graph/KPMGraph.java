@@ -1,11 +1,16 @@
 package dk.sdu.kpm.graph;
 
 import dk.sdu.kpm.Combine;
+import dk.sdu.kpm.CombinePredicate;
 import dk.sdu.kpm.KPMSettings;
 import edu.uci.ics.jung.graph.SparseGraph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
 
-import org.mvel2.MVEL;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -18,10 +23,11 @@ import java.util.*;
 public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Serializable {
 
     /**
-     * Mapping of node id's to their expression vector
+     * Mapping of node id's to their expression vector, packed on
+     * construction
      */
-    private Map<String, Map<String, int[]>> expressionIdToNodeMap;
-    private Map<String, Map<String, int[]>> expressionIdToNodeOriginal;
+    private Map<String, Map<String, PackedExpression>> expressionIdToNodeMap;
+    private Map<String, Map<String, PackedExpression>> expressionIdToNodeOriginal;
     /**
      * Mapping of node id's to gene id's
      */
@@ -31,9 +37,20 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
      */
     private LinkedList<String[]> edgeList;
     /**
-     * Mapping from node id's to node structures for quick access
+     * The ints of the node ids, shared with the graphs derived from this
+     * one, see getGeneIdDictionary()
      */
-    private Map<String, GeneNode> nodeIdToGeneNode;
+    private GeneIdDictionary dictionary;
+    /**
+     * The ints of the study ids, shared like the dictionary of the node ids,
+     * see getStudyIdDictionary()
+     */
+    private GeneIdDictionary studyIds;
+    /**
+     * Node structures by the int of their id for quick access, see
+     * GeneIdDictionary. Rebuilt when the graph is deserialized.
+     */
+    private transient GeneNode[] geneNodes;
     /**
      * List of predefined genes that will be treated as valid nodes with a full
      * vector of diff. exp. cases independent of their true expression values.
@@ -62,6 +79,17 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
     public static final String OR_NODE_VALID_CONDITION = "OR";
     public static final String AND_NODE_VALID_CONDITION = "AND";
     public char treatBackNodes;
+    /**
+     * Frozen CSR view of the current topology, built lazily and dropped on
+     * every structural change
+     */
+    private transient volatile GraphSnapshot snapshot;
+    /**
+     * Sorted counts of the nodes of the snapshot, so that consecutive calls of
+     * computeValidity() only re-evaluate the nodes between the old and the
+     * new limits. Dropped whenever the expression of a node is changed here.
+     */
+    private transient volatile ValidityIndex validityIndex;
 
     // private Map<String, Set> edgeIdToPaths;
     /**
@@ -75,12 +103,21 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
      */
     public KPMGraph(Map<String, Map<String, int[]>> expressionIdToNodeMap,
             LinkedList<String[]> edgeList, Map<String, String> nodeIdToSymbol, Map<String, Integer> num_cases_map) {
+        this(expressionIdToNodeMap, edgeList, nodeIdToSymbol, num_cases_map, new GeneIdDictionary(),
+                new GeneIdDictionary());
+    }
+
+    private KPMGraph(Map<String, Map<String, int[]>> expressionIdToNodeMap,
+            LinkedList<String[]> edgeList, Map<String, String> nodeIdToSymbol, Map<String, Integer> num_cases_map,
+            GeneIdDictionary dictionary, GeneIdDictionary studyIds) {
         super();
-        this.expressionIdToNodeMap = expressionIdToNodeMap;
-        this.expressionIdToNodeOriginal = expressionIdToNodeMap;
+        this.dictionary = dictionary;
+        this.studyIds = studyIds;
+        this.expressionIdToNodeMap = pack(expressionIdToNodeMap);
+        this.expressionIdToNodeOriginal = this.expressionIdToNodeMap;
         this.nodeIdToSymbol = nodeIdToSymbol;
         this.edgeList = edgeList;
-        nodeIdToGeneNode = new HashMap<String, GeneNode>();
+        geneNodes = new GeneNode[0];
         positiveList = new HashSet<String>();
         negativeList = new HashSet<String>();
         backNodesMap = new HashMap<String, Set<String>>();
@@ -100,12 +137,26 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
     public KPMGraph(Map<String, Map<String, int[]>> expressionIdToNodeMap,
             LinkedList<String[]> edgeList, Map<String, String> nodeIdToSymbol,
             Map<String, Set<String>> backNodesMap, Map<String, Set<String>> backGenesMap, Map<String, Integer> num_cases_map) {
+        this(expressionIdToNodeMap, edgeList, nodeIdToSymbol, backNodesMap, backGenesMap, num_cases_map,
+                new GeneIdDictionary());
+    }
+
+    /**
+     * @param dictionary the dictionary the ids have been interned in while
+     * they were read, it becomes the dictionary of this graph
+     */
+    public KPMGraph(Map<String, Map<String, int[]>> expressionIdToNodeMap,
+            LinkedList<String[]> edgeList, Map<String, String> nodeIdToSymbol,
+            Map<String, Set<String>> backNodesMap, Map<String, Set<String>> backGenesMap, Map<String, Integer> num_cases_map,
+            GeneIdDictionary dictionary) {
         super();
-        this.expressionIdToNodeMap = expressionIdToNodeMap;
-        this.expressionIdToNodeOriginal = expressionIdToNodeMap;
+        this.dictionary = dictionary;
+        this.studyIds = new GeneIdDictionary();
+        this.expressionIdToNodeMap = pack(expressionIdToNodeMap);
+        this.expressionIdToNodeOriginal = this.expressionIdToNodeMap;
         this.nodeIdToSymbol = nodeIdToSymbol;
         this.edgeList = edgeList;
-        nodeIdToGeneNode = new HashMap<String, GeneNode>();
+        geneNodes = new GeneNode[0];
         positiveList = new HashSet<String>();
         negativeList = new HashSet<String>();
         this.backNodesMap = backNodesMap;
@@ -116,17 +167,20 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
     }
 
     /**
-     * Copy constructor.
+     * Copy constructor. The copy shares the GeneIdDictionary of the given
+     * graph.
      *
      */
     public KPMGraph(KPMGraph g) {
         super();
+        dictionary = g.dictionary;
+        studyIds = g.studyIds;
         
-    	expressionIdToNodeMap = new HashMap<String, Map<String, int[]>>(g.expressionIdToNodeMap);        
-        this.expressionIdToNodeOriginal = expressionIdToNodeMap;
+    	expressionIdToNodeMap = new HashMap<String, Map<String, PackedExpression>>(g.expressionIdToNodeMap);        
+        this.expressionIdToNodeOriginal = this.expressionIdToNodeMap;
         nodeIdToSymbol = new HashMap<String, String>(g.nodeIdToSymbol);
         edgeList = new LinkedList<String[]>(g.edgeList);
-        nodeIdToGeneNode = new HashMap<String, GeneNode>();
+        geneNodes = new GeneNode[0];
         backNodesMap = new HashMap<String, Set<String>>(g.backNodesMap);
         backGenesMap = new HashMap<String, Set<String>>(g.backGenesMap);
         treatBackNodes = g.treatBackNodes;
@@ -137,42 +191,71 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
         // Ensure we copy the vertices.
         for (GeneNode node : g.getVertices()) {
         	GeneNode newNode = new GeneNode(node);
-        	this.nodeIdToGeneNode.put(newNode.nodeId, newNode);
+        	putGeneNode(newNode);
         	this.addVertex(newNode);
         }
         
         for (String[] pair : edgeList) {
             String from = pair[0];
             String to = pair[1];
-            // Modified ID to be more compatible with cytoscape id's
-            String edgeId = to + " (pp) " + from;
-            GeneEdge edge = new GeneEdge(edgeId);
+            GeneNode fromNode = getGeneNode(from);
+            GeneNode toNode = getGeneNode(to);
             
-            if(!nodeIdToGeneNode.containsKey(from) || !nodeIdToGeneNode.containsKey(to)){
+            if(fromNode == null || toNode == null){
             	//Edge removed, don't add.
             	continue;
             }
             
-            this.addEdge(edge, nodeIdToGeneNode.get(to), nodeIdToGeneNode.get(from));
+            GeneEdge edge = new GeneEdge(dictionary, fromNode.getGeneId(), toNode.getGeneId());
+            this.addEdge(edge, toNode, fromNode);
         }
     } 
     
+    /**
+     * Restores a graph written by PreprocessedGraphFile. The expression vectors of the
+     * back nodes have already been filled in, so only the nodes and edges
+     * are created.
+     */
+    KPMGraph(Map<String, Map<String, PackedExpression>> expressionIdToNodeMap,
+            LinkedList<String[]> edgeList, Map<String, String> nodeIdToSymbol,
+            Map<String, Set<String>> backNodesMap, Map<String, Set<String>> backGenesMap,
+            Map<String, Integer> num_cases_map, Set<String> positiveList, Set<String> negativeList,
+            char treatBackNodes) {
+        super();
+        this.dictionary = new GeneIdDictionary();
+        this.studyIds = new GeneIdDictionary();
+        this.expressionIdToNodeMap = expressionIdToNodeMap;
+        this.expressionIdToNodeOriginal = this.expressionIdToNodeMap;
+        this.nodeIdToSymbol = nodeIdToSymbol;
+        this.edgeList = edgeList;
+        geneNodes = new GeneNode[0];
+        this.positiveList = positiveList;
+        this.negativeList = negativeList;
+        this.backNodesMap = backNodesMap;
+        this.backGenesMap = backGenesMap;
+        numCasesMap = num_cases_map;
+        this.treatBackNodes = treatBackNodes;
+        addNodesAndEdges();
+    }
+
     private void createGraph() {
         processBackNodes(treatBackNodes);
+        addNodesAndEdges();
+    }
 
+    private void addNodesAndEdges() {
         for (String nodeId : expressionIdToNodeMap.keySet()) {
-            Map<String, int[]> exprVectors = expressionIdToNodeMap.get(nodeId);
-            nodeIdToGeneNode.put(nodeId, new GeneNode(nodeId, nodeIdToSymbol.get(nodeId),
+            putGeneNode(GeneNode.withExpression(nodeId, nodeIdToSymbol.get(nodeId),
                     expressionIdToNodeMap.get(nodeId)));
         }
 
         for (String[] pair : edgeList) {
             String from = pair[0];
             String to = pair[1];
-            // Modified ID to be more compatible with cytoscape id's
-            String edgeId = to + " (pp) " + from;
-            GeneEdge edge = new GeneEdge(edgeId);
-            this.addEdge(edge, nodeIdToGeneNode.get(to), nodeIdToGeneNode.get(from));
+            // The id of the edge is "to (pp) from", to be more compatible
+            // with cytoscape id's
+            GeneEdge edge = new GeneEdge(dictionary, dictionary.intern(from), dictionary.intern(to));
+            this.addEdge(edge, getGeneNode(to), getGeneNode(from));
         }
 
 
@@ -193,18 +276,132 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
         return edgeList;
     }
 
+    /**
+     * @return unpacked copies of the vectors of every node by study;
+     * changing them does not change the graph
+     * @deprecated use {@link #getPackedExpressionIdToNodeMap()}
+     */
+    @Deprecated
     public Map<String, Map<String, int[]>> getExpressionIdToNodeMap() {
+        Map<String, Map<String, int[]>> unpacked = new HashMap<String, Map<String, int[]>>();
+        for (Map.Entry<String, Map<String, PackedExpression>> entry : expressionIdToNodeMap.entrySet()) {
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            for (Map.Entry<String, PackedExpression> study : entry.getValue().entrySet()) {
+                vectors.put(study.getKey(), study.getValue().toIntArray());
+            }
+            unpacked.put(entry.getKey(), vectors);
+        }
+        return unpacked;
+    }
+
+    /**
+     * @return the vector of every node by study, as kept by this graph
+     */
+    public Map<String, Map<String, PackedExpression>> getPackedExpressionIdToNodeMap() {
         return expressionIdToNodeMap;
     }
 
+    private static Map<String, Map<String, PackedExpression>> pack(Map<String, Map<String, int[]>> expressionIdToNodeMap) {
+        Map<String, Map<String, PackedExpression>> packed = new HashMap<String, Map<String, PackedExpression>>();
+        for (Map.Entry<String, Map<String, int[]>> entry : expressionIdToNodeMap.entrySet()) {
+            packed.put(entry.getKey(), PackedExpression.packAll(entry.getValue()));
+        }
+        return packed;
+    }
+
+    /**
+     * @return the given vectors with every case set to value
+     */
+    private static Map<String, PackedExpression> filled(Map<String, PackedExpression> expMap, int value) {
+        Map<String, PackedExpression> filled = new HashMap<String, PackedExpression>();
+        for (String expId : expMap.keySet()) {
+            filled.put(expId, PackedExpression.filled(expMap.get(expId).getNumCases(), value));
+        }
+        return filled;
+    }
+
     public Map<String, String> getNodeIdToGeneId() {
         return nodeIdToSymbol;
     }
 
+    /**
+     * @return the dictionary of the ints of the node ids of this graph,
+     * shared with the graphs derived from it, see GeneNode.getGeneId()
+     */
+    public GeneIdDictionary getGeneIdDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the dictionary of the ints of the study ids of this graph,
+     * shared like getGeneIdDictionary(); the per-study counts of the nodes
+     * are indexed by it, see GeneNode.getNumCases(int)
+     */
+    public GeneIdDictionary getStudyIdDictionary() {
+        return studyIds;
+    }
+
+    /**
+     * @return a new map from the node id's to the node structures
+     */
     public Map<String, GeneNode> getNodeIdToGeneNode() {
+        Map<String, GeneNode> nodeIdToGeneNode = new HashMap<String, GeneNode>();
+        for (GeneNode node : geneNodes) {
+            if (node != null) {
+                nodeIdToGeneNode.put(node.getNodeId(), node);
+            }
+        }
         return nodeIdToGeneNode;
     }
 
+    /**
+     * @return the node structure of the given node id, or null
+     */
+    public GeneNode getGeneNode(String nodeId) {
+        return getGeneNode(dictionary.getId(nodeId));
+    }
+
+    /**
+     * @param geneId the int of a node id, see getGeneIdDictionary()
+     * @return the node structure of the given node, or null
+     */
+    public GeneNode getGeneNode(int geneId) {
+        if (geneId < 0 || geneId >= geneNodes.length) {
+            return null;
+        }
+        return geneNodes[geneId];
+    }
+
+    private void putGeneNode(GeneNode node) {
+        int geneId = dictionary.intern(node.getNodeId());
+        node.setGeneId(geneId);
+        node.setStudyIdDictionary(studyIds);
+        if (geneId >= geneNodes.length) {
+            geneNodes = Arrays.copyOf(geneNodes, Math.max(geneId + 1, dictionary.size()));
+        }
+        geneNodes[geneId] = node;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        List<GeneNode> nodes = new ArrayList<GeneNode>();
+        for (GeneNode node : geneNodes) {
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        out.writeObject(nodes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        geneNodes = new GeneNode[0];
+        for (GeneNode node : (List<GeneNode>) in.readObject()) {
+            putGeneNode(node);
+        }
+    }
+
    
 
 //    private void updateNodesInPositiveList() {
@@ -217,6 +414,64 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
 //    private void updateNodesInNegativeList() {
 //        
 //    }
+    /**
+     * Returns an immutable compressed-sparse-row view of this graph. The
+     * snapshot is cached until a vertex or an edge is added or removed, so
+     * repeated calls during a run are free. Building a snapshot (re)assigns
+     * the index of every GeneNode in this graph.
+     *
+     * @return the current snapshot of this graph
+     */
+    public GraphSnapshot getSnapshot() {
+        GraphSnapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null) {
+                    current = new GraphSnapshot(this);
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public boolean addVertex(GeneNode vertex) {
+        boolean changed = super.addVertex(vertex);
+        if (changed) {
+            snapshot = null;
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean addEdge(GeneEdge edge, Pair<? extends GeneNode> endpoints, EdgeType edgeType) {
+        boolean changed = super.addEdge(edge, endpoints, edgeType);
+        if (changed) {
+            snapshot = null;
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean removeVertex(GeneNode vertex) {
+        boolean changed = super.removeVertex(vertex);
+        if (changed) {
+            snapshot = null;
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean removeEdge(GeneEdge edge) {
+        boolean changed = super.removeEdge(edge);
+        if (changed) {
+            snapshot = null;
+        }
+        return changed;
+    }
+
     public double getAverageDegree() {
         return ((double) (getEdgeCount() * 2)) / getVertexCount();
     }
@@ -228,109 +483,83 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
     public void refreshGraph(KPMSettings kpmSettings) {
 
         for (String nodeId : positiveList) {
-            if (nodeIdToGeneNode.containsKey(nodeId)) {
-                GeneNode node = nodeIdToGeneNode.get(nodeId);
-                Map<String, int[]> expMap = node.getDifferenceIntMap();
-                for (String expId : expMap.keySet()) {
-                    int[] exp = expMap.get(expId);
-                    Arrays.fill(exp, 1);
-                    expMap.put(expId, exp);
-                }
-                node.setDifferenceIntMap(expMap);
-                nodeIdToGeneNode.put(nodeId, node);
-            }
-
-            if (expressionIdToNodeMap.containsKey(nodeId)) {
-                Map<String, int[]> expMap = expressionIdToNodeMap.get(nodeId);
-                for (String expId : expMap.keySet()) {
-                    int[] exp = expMap.get(expId);
-                    Arrays.fill(exp, 1);
-                    expMap.put(expId, exp);
-                }
-                expressionIdToNodeMap.put(nodeId, expMap);
-            }
+            fillExpression(nodeId, 1);
         }
 
         for (String nodeId : negativeList) {
-            if (nodeIdToGeneNode.containsKey(nodeId)) {
-                GeneNode node = nodeIdToGeneNode.get(nodeId);
-                Map<String, int[]> expMap = node.getDifferenceIntMap();
-                for (String expId : expMap.keySet()) {
-                    int[] exp = expMap.get(expId);
-                    Arrays.fill(exp, 0);
-                    expMap.put(expId, exp);
-                }
-                node.setDifferenceIntMap(expMap);
-                nodeIdToGeneNode.put(nodeId, node);
-            }
+            fillExpression(nodeId, 0);
+        }
 
-            if (expressionIdToNodeMap.containsKey(nodeId)) {
-                Map<String, int[]> expMap = expressionIdToNodeMap.get(nodeId);
-                for (String expId : expMap.keySet()) {
-                    int[] exp = expMap.get(expId);
-                    Arrays.fill(exp, 0);
-                    expMap.put(expId, exp);
-                }
-                expressionIdToNodeMap.put(nodeId, expMap);
+        applyValidity(computeValidity(kpmSettings));
+    }
+
+    private void fillExpression(String nodeId, int value) {
+        GeneNode node = getGeneNode(nodeId);
+        if (node != null) {
+            Map<String, PackedExpression> expression = filled(node.getExpressionMap(), value);
+            // after the first refresh the vectors are filled already, and
+            // the counts of the validity index stay valid
+            if (!expression.equals(node.getExpressionMap())) {
+                node.setExpressionMap(expression);
+                validityIndex = null;
             }
         }
 
-        if (kpmSettings.COMBINE_OPERATOR == Combine.OR) {
+        if (expressionIdToNodeMap.containsKey(nodeId)) {
+            expressionIdToNodeMap.put(nodeId, filled(expressionIdToNodeMap.get(nodeId), value));
+        }
+    }
 
-            for (GeneNode node : getVertices()) {
-                boolean isValid = false;
-                for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-                    if (node.getNumDiffExpressedCases(expId) >= node.getNumCases(expId) - kpmSettings.CASE_EXCEPTIONS_MAP.get(expId)) {
-                        isValid = true;
-                        break;
-                    }
-                }
-                node.setIsValid(isValid);
-                node.setPheromone(0.5, kpmSettings.TAU_MIN);
-                node.setLastIterationPheromoneUpdated(0);
-            }
-        } else if (kpmSettings.COMBINE_OPERATOR == Combine.AND) {
-            for (GeneNode node : getVertices()) {
-                boolean isValid = true;
-                for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-                    if (node.getNumDiffExpressedCases(expId) < node.getNumCases(expId) - kpmSettings.CASE_EXCEPTIONS_MAP.get(expId)) {
-                        isValid = false;
-                        break;
-                    }
-                }
-                node.setIsValid(isValid);
-                node.setPheromone(0.5, kpmSettings.TAU_MIN);
-                node.setLastIterationPheromoneUpdated(0);
-            }
-        } else if (kpmSettings.COMBINE_OPERATOR == Combine.CUSTOM) {
-            for (GeneNode node : getVertices()) {
-                Map<String, Object> context = new HashMap<String, Object>();
-
-                for (String expId : kpmSettings.CASE_EXCEPTIONS_MAP.keySet()) {
-                    boolean aux =
-                            (node.getNumCases(expId) - node.getNumDiffExpressedCases(expId))
-                            <= kpmSettings.CASE_EXCEPTIONS_MAP.get(expId);
-                    context.put(expId, aux);
-                }
-                
-                boolean val = false;
-                if (!context.isEmpty()) {
-                    try {
-                        val = MVEL.evalToBoolean(kpmSettings.COMBINE_FORMULA, context);
-                    } catch (Exception e) {
-                        String msg = e.getMessage();
-                        if (msg.contains("unresolvable property or identifier")) {
-                            continue;
-                        }
-                    }
-                }
-                node.setIsValid(val);
-                node.setPheromone(0.5, kpmSettings.TAU_MIN);
-                node.setLastIterationPheromoneUpdated(0);
-            }
+    /**
+     * Decides for every node whether it is valid (no exception node) under the
+     * given case exceptions and combine operator, without changing the nodes.
+     * Several parameter combinations can so be evaluated on the same graph at
+     * the same time.
+     *
+     * @return the validity of every node, indexed by its index in the current
+     * snapshot of this graph
+     */
+    public boolean[] computeValidity(KPMSettings kpmSettings) {
+        GraphSnapshot current = getSnapshot();
+        CombinePredicate predicate = kpmSettings.getCombinePredicate();
+        int[] studies = predicate.getStudyIndices(studyIds);
+        int[] caseExceptions = predicate.getCaseExceptions(kpmSettings.CASE_EXCEPTIONS_MAP);
+
+        ValidityIndex index = validityIndex;
+        if (index == null || !index.isFor(current, studies)) {
+            index = new ValidityIndex(current, studies);
+            validityIndex = index;
         }
+        return index.computeValidity(predicate, caseExceptions);
+    }
 
+    /**
+     * @return the current validity flags of the nodes, indexed by their index
+     * in the current snapshot of this graph, see GeneNode.isValid()
+     */
+    public boolean[] getValidity() {
+        GraphSnapshot current = getSnapshot();
+        boolean[] validity = new boolean[current.size()];
+        for (int i = 0; i < current.size(); i++) {
+            validity[i] = current.getNode(i).isValid();
+        }
+        return validity;
+    }
 
+    /**
+     * Flags the nodes as valid or exception nodes.
+     *
+     * @param validity as returned by computeValidity() for the current
+     * snapshot of this graph
+     */
+    public void applyValidity(boolean[] validity) {
+        GraphSnapshot current = getSnapshot();
+        if (validity.length != current.size()) {
+            throw new IllegalArgumentException("Validity was computed for a different graph.");
+        }
+        for (int i = 0; i < current.size(); i++) {
+            current.getNode(i).setIsValid(validity[i]);
+        }
     }
 
     public void setAllNodesValid() {
@@ -418,29 +647,29 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
     }
 
     public void processBackNodes(char treat) {
+        validityIndex = null;
         int fill = 0;
         if (treat == IN_POSITIVE) {
             fill = 1;
         }
         for (String nodeId : backNodesMap.keySet()) {
             Set<String> expSet = backNodesMap.get(nodeId);
-            Map<String, int[]> expVectors = new HashMap<String, int[]>();
+            Map<String, PackedExpression> expVectors = new HashMap<String, PackedExpression>();
             if (expressionIdToNodeMap.containsKey(nodeId)) {
                 expVectors = expressionIdToNodeMap.get(nodeId);
             }
 
             for (String expId : expSet) {
-                int[] exp = new int[numCasesMap.get(expId)];
-                Arrays.fill(exp, fill);
-                expVectors.put(expId, exp);
+                expVectors.put(expId, PackedExpression.filled(numCasesMap.get(expId), fill));
             }
 
             expressionIdToNodeMap.put(nodeId, expVectors);
-            if (!nodeIdToGeneNode.containsKey(nodeId)) {
-                nodeIdToGeneNode.put(nodeId, new GeneNode(nodeId,
+            GeneNode node = getGeneNode(nodeId);
+            if (node == null) {
+                putGeneNode(GeneNode.withExpression(nodeId,
                         nodeIdToSymbol.get(nodeId), expVectors));
             } else {
-                nodeIdToGeneNode.get(nodeId).setDifferenceIntMap(expVectors);
+                node.setExpressionMap(expVectors);
             }
         }
 
@@ -530,20 +759,106 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
 //        return ans;
 //    }
     public boolean removeGeneNode(GeneNode node) {
-        String nodeId = node.getNodeId();
-        for (Map<String, int[]> nodeIdToExpression : expressionIdToNodeMap.values()) {
-            nodeIdToExpression.remove(nodeId);
+        return removeGeneNodes(Collections.singleton(node)) > 0;
+    }
+
+    /**
+     * Removes the given nodes with their edges, and drops them from the edge
+     * list, the expression and the back nodes. The edge list is filtered
+     * once for all nodes.
+     *
+     * @return the number of nodes that were removed
+     */
+    public int removeGeneNodes(Collection<GeneNode> nodes) {
+        Set<String> nodeIds = new HashSet<String>();
+        int removed = 0;
+        for (GeneNode node : nodes) {
+            if (!this.removeVertex(node)) {
+                continue;
+            }
+            String nodeId = node.getNodeId();
+            nodeIds.add(nodeId);
+            expressionIdToNodeMap.remove(nodeId);
+            backNodesMap.remove(nodeId);
+            if (getGeneNode(node.getGeneId()) == node) {
+                geneNodes[node.getGeneId()] = null;
+            }
+            removed++;
+        }
+
+        LinkedList<String[]> newList = new LinkedList<String[]>();
+        for (String[] edge : edgeList) {
+            if (!(nodeIds.contains(edge[0]) || nodeIds.contains(edge[1]))) {
+                newList.add(edge);
+            }
+        }
+
+        edgeList = newList;
+        return removed;
+    }
+
+    /**
+     * Removes the given edges, and every pair of their nodes from the edge
+     * list, in either direction. The edge list is filtered once for all
+     * edges.
+     *
+     * @return the number of edges that were removed
+     */
+    public int removeGeneEdges(Collection<GeneEdge> edges) {
+        Set<Long> pairs = new HashSet<Long>();
+        int removed = 0;
+        for (GeneEdge edge : edges) {
+            Pair<GeneNode> endpoints = getEndpoints(edge);
+            if (endpoints == null || !this.removeEdge(edge)) {
+                continue;
+            }
+            pairs.add(pairKey(endpoints.getFirst().getGeneId(), endpoints.getSecond().getGeneId()));
+            removed++;
         }
 
         LinkedList<String[]> newList = new LinkedList<String[]>();
         for (String[] edge : edgeList) {
-            if (!(edge[0].equals(nodeId) || edge[1].equals(nodeId))) {
+            if (!pairs.contains(pairKey(dictionary.getId(edge[0]), dictionary.getId(edge[1])))) {
                 newList.add(edge);
             }
         }
 
         edgeList = newList;
-        return this.removeVertex(node);
+        return removed;
+    }
+
+    private static long pairKey(int a, int b) {
+        return a < b ? ((long) a << 32) | (b & 0xFFFFFFFFL) : ((long) b << 32) | (a & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds an edge from node from to node to, to the graph and the edge list,
+     * unless the nodes are connected already. Both nodes have to be part of
+     * this graph.
+     *
+     * @return whether the edge was added
+     */
+    public boolean addGeneEdge(GeneNode from, GeneNode to) {
+        GeneEdge edge = new GeneEdge(dictionary, from.getGeneId(), to.getGeneId());
+        if (!this.addEdge(edge, to, from)) {
+            return false;
+        }
+        String[] pair = {from.getNodeId(), to.getNodeId()};
+        edgeList.add(pair);
+        return true;
+    }
+
+    /**
+     * Replaces the vector of the given study of a node of this graph. The
+     * vectors of the node are copied first, as the copy constructor shares
+     * them with the original graph.
+     */
+    public void setExpression(GeneNode node, String expId, PackedExpression vector) {
+        Map<String, PackedExpression> expression = new HashMap<String, PackedExpression>(node.getExpressionMap());
+        expression.put(expId, vector);
+        node.setExpressionMap(expression);
+        expressionIdToNodeMap.put(node.getNodeId(), expression);
+        validityIndex = null;
     }
 
     /**
@@ -558,20 +873,21 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
         HashMap<String, String> newNodeIdToSymbol = new HashMap<String, String>(nodeIdToSymbol);
         LinkedList<String[]> newEdgeList = new LinkedList<String[]>(edgeList);
         // HashSet<String> newBackNodes = new HashSet<String>(backNodes);
-        KPMGraph ans = new KPMGraph(newNode2Exp, newEdgeList, newNodeIdToSymbol, numCasesMap);
+        KPMGraph ans = new KPMGraph(newNode2Exp, newEdgeList, newNodeIdToSymbol, numCasesMap, dictionary,
+                studyIds);
         return ans;
     }
 
     private Map<String, Map<String, int[]>> randomizeExpression() {
         Map<String, Map<String, int[]>> newMap = new HashMap<String, Map<String, int[]>>();
         for (String expId : expressionIdToNodeMap.keySet()) {
-            Map<String, int[]> nodeIdToExpression = expressionIdToNodeMap.get(expId);
-            List<int[]> valueList = new ArrayList<int[]>(nodeIdToExpression.values());
+            Map<String, PackedExpression> nodeIdToExpression = expressionIdToNodeMap.get(expId);
+            List<PackedExpression> valueList = new ArrayList<PackedExpression>(nodeIdToExpression.values());
             Collections.shuffle(valueList);
-            Iterator<int[]> valueIt = valueList.iterator();
+            Iterator<PackedExpression> valueIt = valueList.iterator();
             HashMap<String, int[]> aux = new HashMap<String, int[]>();
             for (String key : nodeIdToExpression.keySet()) {
-                aux.put(key, valueIt.next());
+                aux.put(key, valueIt.next().toIntArray());
             }
             newMap.put(expId, aux);
         }
@@ -626,7 +942,7 @@ public class KPMGraph extends SparseGraph<GeneNode, GeneEdge> implements Seriali
     }
     
     public Collection<String> getNodeIdSet() {
-        return nodeIdToGeneNode.keySet();
+        return getNodeIdToGeneNode().keySet();
     }
     
     public void SaveToFile(String filePath){
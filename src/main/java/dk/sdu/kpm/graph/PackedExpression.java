@@ -0,0 +1,224 @@
+package dk.sdu.kpm.graph;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The indicator vector of one gene in one study, packed into two bit sets:
+ * bit j of the up set is set if the gene is up-regulated in case j, bit j of
+ * the down set if it is down-regulated, and neither if there is no difference.
+ * This takes two bits per case instead of an int, and the counts are bit
+ * counts.
+ *
+ * Instances are immutable, so they can be shared by graphs and nodes.
+ */
+public final class PackedExpression implements Serializable {
+
+    private static final long serialVersionUID = -3402868815785946173L;
+
+    private final int numCases;
+
+    private final long[] up;
+
+    private final long[] down;
+
+    private final int numUp;
+
+    private final int numDown;
+
+    private PackedExpression(int numCases, long[] up, long[] down) {
+        this.numCases = numCases;
+        this.up = up;
+        this.down = down;
+
+        int ups = 0;
+        int downs = 0;
+        for (int w = 0; w < up.length; w++) {
+            ups += Long.bitCount(up[w]);
+            downs += Long.bitCount(down[w]);
+        }
+        this.numUp = ups;
+        this.numDown = downs;
+    }
+
+    /**
+     * @param values 1 for up-regulated, -1 for down-regulated, anything else
+     * for no difference
+     */
+    public static PackedExpression pack(int[] values) {
+        long[] up = new long[words(values.length)];
+        long[] down = new long[up.length];
+        for (int j = 0; j < values.length; j++) {
+            if (values[j] == 1) {
+                up[j >>> 6] |= 1L << j;
+            } else if (values[j] == -1) {
+                down[j >>> 6] |= 1L << j;
+            }
+        }
+        return new PackedExpression(values.length, up, down);
+    }
+
+    /**
+     * @return the vector with the given value in every case, see
+     * {@link #pack(int[])}
+     */
+    public static PackedExpression filled(int numCases, int value) {
+        long[] up = new long[words(numCases)];
+        long[] down = new long[up.length];
+        if (value == 1) {
+            fill(up, numCases);
+        } else if (value == -1) {
+            fill(down, numCases);
+        }
+        return new PackedExpression(numCases, up, down);
+    }
+
+    /**
+     * Packs every vector of the given map, see {@link #pack(int[])}.
+     */
+    public static Map<String, PackedExpression> packAll(Map<String, int[]> values) {
+        Map<String, PackedExpression> packed = new HashMap<String, PackedExpression>();
+        for (Map.Entry<String, int[]> entry : values.entrySet()) {
+            packed.put(entry.getKey(), pack(entry.getValue()));
+        }
+        return packed;
+    }
+
+    /**
+     * @param up the up bit set, owned by the new vector from now on
+     * @param down the down bit set, owned by the new vector from now on
+     */
+    static PackedExpression fromBits(int numCases, long[] up, long[] down) {
+        if (up.length != words(numCases) || down.length != up.length) {
+            throw new IllegalArgumentException("The bit sets do not fit " + numCases + " cases.");
+        }
+        return new PackedExpression(numCases, up, down);
+    }
+
+    // the up bit set, not to be modified
+    long[] upBits() {
+        return up;
+    }
+
+    // the down bit set, not to be modified
+    long[] downBits() {
+        return down;
+    }
+
+    /**
+     * Returns a copy of this vector with its values randomly permuted over
+     * the cases, so the numbers of up- and down-regulated cases stay the
+     * same. Only numUp + numDown cases are drawn (a partial Fisher-Yates
+     * shuffle), which is cheap for sparse vectors.
+     *
+     * @param cases a permutation of 0 .. getNumCases() - 1, which is
+     * reordered by the call and can be passed on to the next call for a
+     * vector with the same number of cases
+     */
+    public PackedExpression shuffled(Random random, int[] cases) {
+        if (cases.length != numCases) {
+            throw new IllegalArgumentException("Expected a permutation of " + numCases + " cases.");
+        }
+        long[] newUp = new long[up.length];
+        long[] newDown = new long[down.length];
+        // every draw is uniform over the cases not drawn yet, whatever their
+        // order, so the permutation need not be reset between calls
+        for (int i = 0; i < numUp + numDown; i++) {
+            int k = i + random.nextInt(numCases - i);
+            int j = cases[k];
+            cases[k] = cases[i];
+            cases[i] = j;
+            if (i < numUp) {
+                newUp[j >>> 6] |= 1L << j;
+            } else {
+                newDown[j >>> 6] |= 1L << j;
+            }
+        }
+        return new PackedExpression(numCases, newUp, newDown);
+    }
+
+    public int getNumCases() {
+        return numCases;
+    }
+
+    /**
+     * @return 1 if the gene is up-regulated in case j, -1 if it is
+     * down-regulated and 0 otherwise
+     */
+    public int get(int j) {
+        if (isUp(j)) {
+            return 1;
+        }
+        return isDown(j) ? -1 : 0;
+    }
+
+    public boolean isUp(int j) {
+        return (up[j >>> 6] & (1L << j)) != 0;
+    }
+
+    public boolean isDown(int j) {
+        return (down[j >>> 6] & (1L << j)) != 0;
+    }
+
+    /**
+     * @return whether the gene is up- or down-regulated in case j
+     */
+    public boolean isDifferent(int j) {
+        return ((up[j >>> 6] | down[j >>> 6]) & (1L << j)) != 0;
+    }
+
+    public int getNumUp() {
+        return numUp;
+    }
+
+    public int getNumDown() {
+        return numDown;
+    }
+
+    public int getNumNoDiff() {
+        return numCases - numUp - numDown;
+    }
+
+    /**
+     * @return the unpacked vector, see {@link #pack(int[])}
+     */
+    public int[] toIntArray() {
+        int[] values = new int[numCases];
+        for (int j = 0; j < numCases; j++) {
+            values[j] = get(j);
+        }
+        return values;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * numCases + Arrays.hashCode(up)) + Arrays.hashCode(down);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PackedExpression)) {
+            return false;
+        }
+        PackedExpression other = (PackedExpression) obj;
+        return numCases == other.numCases && Arrays.equals(up, other.up)
+                && Arrays.equals(down, other.down);
+    }
+
+    private static int words(int numCases) {
+        return (numCases + 63) >>> 6;
+    }
+
+    private static void fill(long[] bits, int numCases) {
+        Arrays.fill(bits, -1L);
+        if (numCases % 64 != 0) {
+            bits[bits.length - 1] = -1L >>> (64 - numCases % 64);
+        }
+    }
+}
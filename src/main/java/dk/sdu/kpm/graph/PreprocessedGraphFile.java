@@ -0,0 +1,324 @@
+package dk.sdu.kpm.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binary file of a preprocessed KPMGraph, so that a network that is used
+ * over and over again needs to be parsed and preprocessed only once.
+ *
+ * The file starts with the magic number and the format version, followed by
+ * these sections, all numbers as big-endian ints unless noted otherwise:
+ * <ol>
+ * <li>the string table: the number of strings, then every string as its
+ * length in bytes and its UTF-8 bytes. All ids below are indices into it.
+ * <li>the symbols: the number of entries, then node id and symbol (-1 for
+ * none) of every entry.
+ * <li>the studies: the number of studies, then study id and number of cases.
+ * <li>the expression: the number of nodes, then for every node its id and
+ * number of studies, and for every study its id, its number of cases and the
+ * up and down bit sets of its vector as longs, see {@link PackedExpression}.
+ * <li>the edge list: the number of edges, then both node ids of every edge.
+ * <li>the back nodes and the back genes: the number of keys, then for every
+ * key its id, the number of values and the value ids.
+ * <li>the positive and the negative list: the number of node ids and the
+ * ids.
+ * <li>how back nodes are treated, see KPMGraph.treatBackNodes.
+ * </ol>
+ *
+ * This is a compact serialization, not an image of the graph in memory that
+ * could be mapped: reading decodes every section into the maps and lists of
+ * a KPMGraph and then builds its nodes and edges, so it costs O(V + E)
+ * objects like building the graph from text. What it saves is the parsing
+ * of the text files and processBackNodes(), since the expression vectors are
+ * written after the back nodes have been filled in. The CSR adjacency is not
+ * stored; the GraphSnapshot is built from the restored graph on first use.
+ */
+public final class PreprocessedGraphFile {
+
+    private static final int MAGIC = 0x4B504D47;
+
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PreprocessedGraphFile() {
+    }
+
+    /**
+     * Writes the given graph to the given file.
+     */
+    public static void write(KPMGraph graph, String path) throws IOException {
+        StringTable strings = new StringTable();
+        Map<String, String> symbols = graph.getNodeIdToGeneId();
+        for (Map.Entry<String, String> entry : symbols.entrySet()) {
+            strings.add(entry.getKey());
+            strings.add(entry.getValue());
+        }
+        strings.addAll(graph.numCasesMap.keySet());
+        for (Map.Entry<String, Map<String, PackedExpression>> entry : graph.getPackedExpressionIdToNodeMap().entrySet()) {
+            strings.add(entry.getKey());
+            strings.addAll(entry.getValue().keySet());
+        }
+        for (String[] edge : graph.getEdgeList()) {
+            strings.add(edge[0]);
+            strings.add(edge[1]);
+        }
+        strings.addAll(graph.backNodesMap);
+        strings.addAll(graph.backGenesMap);
+        strings.addAll(graph.positiveList);
+        strings.addAll(graph.negativeList);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(strings.size());
+            for (String string : strings.strings) {
+                byte[] bytes = string.getBytes(UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(symbols.size());
+            for (Map.Entry<String, String> entry : symbols.entrySet()) {
+                out.writeInt(strings.get(entry.getKey()));
+                out.writeInt(strings.get(entry.getValue()));
+            }
+
+            out.writeInt(graph.numCasesMap.size());
+            for (Map.Entry<String, Integer> entry : graph.numCasesMap.entrySet()) {
+                out.writeInt(strings.get(entry.getKey()));
+                out.writeInt(entry.getValue());
+            }
+
+            Map<String, Map<String, PackedExpression>> expression = graph.getPackedExpressionIdToNodeMap();
+            out.writeInt(expression.size());
+            for (Map.Entry<String, Map<String, PackedExpression>> entry : expression.entrySet()) {
+                out.writeInt(strings.get(entry.getKey()));
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<String, PackedExpression> study : entry.getValue().entrySet()) {
+                    PackedExpression vector = study.getValue();
+                    out.writeInt(strings.get(study.getKey()));
+                    out.writeInt(vector.getNumCases());
+                    for (long word : vector.upBits()) {
+                        out.writeLong(word);
+                    }
+                    for (long word : vector.downBits()) {
+                        out.writeLong(word);
+                    }
+                }
+            }
+
+            out.writeInt(graph.getEdgeList().size());
+            for (String[] edge : graph.getEdgeList()) {
+                out.writeInt(strings.get(edge[0]));
+                out.writeInt(strings.get(edge[1]));
+            }
+
+            writeSetMap(out, strings, graph.backNodesMap);
+            writeSetMap(out, strings, graph.backGenesMap);
+            writeSet(out, strings, graph.positiveList);
+            writeSet(out, strings, graph.negativeList);
+            out.writeChar(graph.treatBackNodes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a graph written by {@link #write(KPMGraph, String)}.
+     *
+     * @throws IOException if the file cannot be read or is not a graph file
+     * of a supported version
+     */
+    public static KPMGraph read(String path) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16));
+        try {
+            return read(in, path);
+        } catch (EOFException e) {
+            throw new IOException(path + " is truncated.", e);
+        } catch (RuntimeException e) {
+            // negative sizes, indices outside of the string table, ...
+            throw new IOException(path + " is corrupt.", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static KPMGraph read(DataInputStream in, String path) throws IOException {
+        int magic;
+        try {
+            magic = in.readInt();
+        } catch (EOFException e) {
+            magic = 0;
+        }
+        if (magic != MAGIC) {
+            throw new IOException(path + " is not a KPM graph file.");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException(path + " has the unsupported format version " + version + ".");
+        }
+
+        String[] strings = new String[in.readInt()];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < strings.length; i++) {
+            int length = in.readInt();
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            in.readFully(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, UTF_8);
+        }
+
+        int numSymbols = in.readInt();
+        Map<String, String> symbols = new HashMap<String, String>();
+        for (int i = 0; i < numSymbols; i++) {
+            String nodeId = string(strings, in.readInt());
+            symbols.put(nodeId, string(strings, in.readInt()));
+        }
+
+        int numStudies = in.readInt();
+        Map<String, Integer> numCasesMap = new HashMap<String, Integer>();
+        for (int i = 0; i < numStudies; i++) {
+            String expId = string(strings, in.readInt());
+            numCasesMap.put(expId, in.readInt());
+        }
+
+        int numNodes = in.readInt();
+        Map<String, Map<String, PackedExpression>> expression = new HashMap<String, Map<String, PackedExpression>>();
+        for (int i = 0; i < numNodes; i++) {
+            String nodeId = string(strings, in.readInt());
+            int numVectors = in.readInt();
+            Map<String, PackedExpression> vectors = new HashMap<String, PackedExpression>();
+            for (int j = 0; j < numVectors; j++) {
+                String expId = string(strings, in.readInt());
+                int numCases = in.readInt();
+                int words = (numCases + 63) >>> 6;
+                long[] up = new long[words];
+                long[] down = new long[words];
+                for (int w = 0; w < words; w++) {
+                    up[w] = in.readLong();
+                }
+                for (int w = 0; w < words; w++) {
+                    down[w] = in.readLong();
+                }
+                vectors.put(expId, PackedExpression.fromBits(numCases, up, down));
+            }
+            expression.put(nodeId, vectors);
+        }
+
+        int numEdges = in.readInt();
+        LinkedList<String[]> edgeList = new LinkedList<String[]>();
+        for (int i = 0; i < numEdges; i++) {
+            String[] edge = {string(strings, in.readInt()), string(strings, in.readInt())};
+            edgeList.add(edge);
+        }
+
+        Map<String, Set<String>> backNodesMap = readSetMap(in, strings);
+        Map<String, Set<String>> backGenesMap = readSetMap(in, strings);
+        Set<String> positiveList = readSet(in, strings);
+        Set<String> negativeList = readSet(in, strings);
+        char treatBackNodes = in.readChar();
+
+        return new KPMGraph(expression, edgeList, symbols, backNodesMap, backGenesMap, numCasesMap,
+                positiveList, negativeList, treatBackNodes);
+    }
+
+    private static void writeSet(DataOutputStream out, StringTable strings, Collection<String> set)
+            throws IOException {
+        out.writeInt(set.size());
+        for (String string : set) {
+            out.writeInt(strings.get(string));
+        }
+    }
+
+    private static void writeSetMap(DataOutputStream out, StringTable strings, Map<String, Set<String>> map)
+            throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+            out.writeInt(strings.get(entry.getKey()));
+            writeSet(out, strings, entry.getValue());
+        }
+    }
+
+    private static Set<String> readSet(DataInputStream in, String[] strings) throws IOException {
+        int size = in.readInt();
+        Set<String> set = new HashSet<String>();
+        for (int i = 0; i < size; i++) {
+            set.add(string(strings, in.readInt()));
+        }
+        return set;
+    }
+
+    private static Map<String, Set<String>> readSetMap(DataInputStream in, String[] strings)
+            throws IOException {
+        int size = in.readInt();
+        Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+        for (int i = 0; i < size; i++) {
+            String key = string(strings, in.readInt());
+            map.put(key, readSet(in, strings));
+        }
+        return map;
+    }
+
+    private static String string(String[] strings, int index) {
+        return index < 0 ? null : strings[index];
+    }
+
+    /**
+     * Numbers the distinct strings of a graph in the order they are added.
+     */
+    private static final class StringTable {
+
+        private final Map<String, Integer> indices = new HashMap<String, Integer>();
+
+        private final List<String> strings = new ArrayList<String>();
+
+        void add(String string) {
+            if (string != null && !indices.containsKey(string)) {
+                indices.put(string, strings.size());
+                strings.add(string);
+            }
+        }
+
+        void addAll(Collection<String> strings) {
+            for (String string : strings) {
+                add(string);
+            }
+        }
+
+        void addAll(Map<String, Set<String>> map) {
+            for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+                add(entry.getKey());
+                addAll(entry.getValue());
+            }
+        }
+
+        // -1 for null
+        int get(String string) {
+            return string == null ? -1 : indices.get(string);
+        }
+
+        int size() {
+            return strings.size();
+        }
+    }
+}
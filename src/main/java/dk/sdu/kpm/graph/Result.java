@@ -14,6 +14,12 @@ public interface Result extends Comparable<Result> {
 	 */
 	public Map<String, GeneNode> getVisitedNodes();
 
+	/**
+	 * @return the canonical form of the nodes of this solution; equal for two
+	 *         solutions of the same graph iff they have the same nodes
+	 */
+	public ResultFingerprint getFingerprint();
+
 	/**
 	 * Relict from older implementation -- only needed for final statistics
 	 * printout.
@@ -52,6 +58,15 @@ public interface Result extends Comparable<Result> {
 	public int getNonDifferentiallyExpressedCases();
 
 	public void flagExceptionNodes();
+
+	/**
+	 * Same as {@link #flagExceptionNodes()}, but writes the flags into the
+	 * given validity instead of the nodes.
+	 * 
+	 * @param validity
+	 *            the validity of every node by its snapshot index
+	 */
+	public void flagExceptionNodes(boolean[] validity);
         
         public boolean haveOverlap(Object o);
 }
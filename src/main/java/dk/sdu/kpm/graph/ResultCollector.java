@@ -0,0 +1,177 @@
+package dk.sdu.kpm.graph;
+
+import dk.sdu.kpm.KPMSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the results of a run while the algorithm constructs them. Only the
+ * best NUM_SOLUTIONS results are kept, and unless DOUBLE_SOLUTIONS_ALLOWED is
+ * set, a result with the same nodes as a better one is dropped, compared by
+ * {@link Result#getFingerprint()}. The outcome is
+ * the same as sorting all results, removing the doubles and cutting the list
+ * after NUM_SOLUTIONS, without keeping every constructed solution around.
+ *
+ * The collector also records the exception nodes flagged by the algorithm, see
+ * {@link #setExceptionFlags(boolean[])}.
+ *
+ * All methods can be called from several threads.
+ */
+public class ResultCollector {
+
+    // negative if the number of results is not bounded
+    private final int capacity;
+
+    // the kept results, worst first
+    private final PriorityQueue<Entry> kept;
+
+    // the kept results by their nodes, null if doubles are allowed
+    private final Map<ResultFingerprint, Entry> keptByNodes;
+
+    private long offered = 0;
+
+    private boolean[] exceptionFlags = null;
+
+    /**
+     * @param capacity the number of results to keep, or a negative number to
+     * keep all of them
+     * @param allowDoubles whether several results with the same nodes are kept
+     */
+    public ResultCollector(int capacity, boolean allowDoubles) {
+        this.capacity = capacity;
+        this.kept = new PriorityQueue<Entry>(16, Collections.reverseOrder());
+        this.keptByNodes = allowDoubles ? null : new HashMap<ResultFingerprint, Entry>();
+    }
+
+    /**
+     * @return a collector for NUM_SOLUTIONS and DOUBLE_SOLUTIONS_ALLOWED of
+     * the given settings
+     */
+    public static ResultCollector fromSettings(KPMSettings settings) {
+        return new ResultCollector(settings.NUM_SOLUTIONS, settings.DOUBLE_SOLUTIONS_ALLOWED);
+    }
+
+    /**
+     * Makes {@link #flagExceptionNodes(Result)} write the flags into the given
+     * validity instead of the nodes, so that several runs can flag their
+     * solutions on the same graph at the same time.
+     *
+     * @param exceptionFlags the validity of every node by snapshot index,
+     * updated by this collector
+     */
+    public synchronized void setExceptionFlags(boolean[] exceptionFlags) {
+        this.exceptionFlags = exceptionFlags;
+    }
+
+    /**
+     * @return the validity the flags are written into, or null
+     */
+    public synchronized boolean[] getExceptionFlags() {
+        return exceptionFlags;
+    }
+
+    /**
+     * Flags the exception nodes of the given solution in the validity set by
+     * {@link #setExceptionFlags(boolean[])}, or on the nodes themselves if
+     * there is none, see {@link Result#flagExceptionNodes()}.
+     */
+    public void flagExceptionNodes(Result result) {
+        synchronized (this) {
+            if (exceptionFlags != null) {
+                result.flagExceptionNodes(exceptionFlags);
+                return;
+            }
+        }
+        result.flagExceptionNodes();
+    }
+
+    /**
+     * Adds a result, if it is among the best ones so far.
+     *
+     * @return whether the result is kept for now
+     */
+    public synchronized boolean offer(Result result) {
+        Entry entry = new Entry(result, offered++);
+        ResultFingerprint nodes = null;
+
+        if (keptByNodes != null) {
+            nodes = result.getFingerprint();
+            Entry existing = keptByNodes.get(nodes);
+            if (existing != null) {
+                if (entry.compareTo(existing) >= 0) {
+                    return false;
+                }
+                kept.remove(existing);
+                keptByNodes.remove(nodes);
+            }
+        }
+
+        if (capacity >= 0 && kept.size() >= capacity) {
+            Entry worst = kept.peek();
+            if (worst == null || entry.compareTo(worst) >= 0) {
+                return false;
+            }
+            kept.poll();
+            if (keptByNodes != null) {
+                keptByNodes.remove(worst.nodes);
+            }
+        }
+
+        entry.nodes = nodes;
+        kept.add(entry);
+        if (keptByNodes != null) {
+            keptByNodes.put(nodes, entry);
+        }
+        return true;
+    }
+
+    public synchronized int size() {
+        return kept.size();
+    }
+
+    /**
+     * @return the kept results, the best first
+     */
+    public synchronized List<Result> getResults() {
+        List<Entry> entries = new ArrayList<Entry>(kept);
+        Collections.sort(entries);
+
+        List<Result> results = new ArrayList<Result>(entries.size());
+        for (Entry entry : entries) {
+            results.add(entry.result);
+        }
+        return results;
+    }
+
+    /**
+     * Orders the results as Collections.sort() does, earlier offers first
+     * among equal results.
+     */
+    private static final class Entry implements Comparable<Entry> {
+
+        private final Result result;
+
+        private final long offer;
+
+        private ResultFingerprint nodes;
+
+        Entry(Result result, long offer) {
+            this.result = result;
+            this.offer = offer;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int cmp = result.compareTo(o.result);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return offer < o.offer ? -1 : (offer == o.offer ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package dk.sdu.kpm.graph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * Canonical form of the node set of a result: the sorted snapshot indices of
+ * its nodes and a 64-bit hash over them. Two results of the same graph have
+ * equal fingerprints iff they contain the same nodes, so doubles can be found
+ * with one pass over a hash set instead of comparing the id maps of every
+ * pair of results.
+ */
+public final class ResultFingerprint {
+
+    private final int[] indices;
+
+    private final long hash;
+
+    private ResultFingerprint(int[] indices) {
+        this(indices, hash(indices));
+    }
+
+    /**
+     * Takes the hash as given, so that tests can make the hashes of distinct
+     * node sets collide.
+     */
+    ResultFingerprint(int[] indices, long hash) {
+        this.indices = indices;
+        this.hash = hash;
+    }
+
+    /**
+     * @param nodes nodes of the latest snapshot of their graph, see
+     * {@link GeneNode#getIndex()}
+     */
+    public static ResultFingerprint of(Collection<GeneNode> nodes) {
+        int[] indices = new int[nodes.size()];
+        int i = 0;
+        for (GeneNode node : nodes) {
+            if (node.getIndex() < 0) {
+                throw new IllegalArgumentException("Node " + node.getNodeId()
+                        + " is not part of a graph snapshot.");
+            }
+            indices[i++] = node.getIndex();
+        }
+        Arrays.sort(indices);
+        return new ResultFingerprint(indices);
+    }
+
+    /**
+     * @param nodeIndices the snapshot indices of the nodes
+     */
+    public static ResultFingerprint of(BitSet nodeIndices) {
+        int[] indices = new int[nodeIndices.cardinality()];
+        int i = 0;
+        for (int index = nodeIndices.nextSetBit(0); index >= 0; index = nodeIndices.nextSetBit(index + 1)) {
+            indices[i++] = index;
+        }
+        return new ResultFingerprint(indices);
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int size() {
+        return indices.length;
+    }
+
+    /**
+     * @return the snapshot indices of the nodes in ascending order
+     */
+    public int[] getIndices() {
+        return indices.clone();
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ResultFingerprint)) {
+            return false;
+        }
+        ResultFingerprint other = (ResultFingerprint) obj;
+        return hash == other.hash && Arrays.equals(indices, other.indices);
+    }
+
+    private static long hash(int[] indices) {
+        long h = indices.length;
+        for (int index : indices) {
+            h = mix(h + index);
+        }
+        return h;
+    }
+
+    // finalizer of MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
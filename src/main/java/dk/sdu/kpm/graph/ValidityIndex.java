@@ -0,0 +1,181 @@
+package dk.sdu.kpm.graph;
+
+import dk.sdu.kpm.Combine;
+import dk.sdu.kpm.CombinePredicate;
+
+import java.util.Arrays;
+
+/**
+ * Computes the validity of the nodes of a snapshot incrementally, for
+ * parameter sweeps that evaluate many case exception vectors on the same
+ * graph.
+ *
+ * For every study the nodes are sorted by their number of not differentially
+ * expressed cases. A node is within the limit L of a study iff that number is
+ * at most L, so when L changes from a to b, only the nodes with a count in
+ * (min(a, b), max(a, b)] change their bit for the study. The index keeps the
+ * bit mask of every node for the last limits and re-tests the predicate only
+ * for the nodes whose mask has changed.
+ *
+ * The counts are read once, so the index has to be dropped when the
+ * expression of a node changes.
+ */
+final class ValidityIndex {
+
+    private final GraphSnapshot snapshot;
+
+    // the index of every study by its bit, see KPMGraph.getStudyIdDictionary()
+    private final int[] studies;
+
+    // per study, the node indices ascending by count and the counts
+    private final int[][] nodesByCount;
+
+    private final int[][] sortedCounts;
+
+    // the state of the last call, null before the first one
+    private int[] caseExceptions;
+
+    private CombinePredicate predicate;
+
+    private long[] masks;
+
+    private boolean[] validity;
+
+    // nodes whose mask has changed in the current call
+    private int[] changed;
+
+    private int numChanged;
+
+    private boolean[] isChanged;
+
+    ValidityIndex(GraphSnapshot snapshot, int[] studies) {
+        this.snapshot = snapshot;
+        this.studies = studies.clone();
+        this.nodesByCount = new int[studies.length][];
+        this.sortedCounts = new int[studies.length][];
+
+        int n = snapshot.size();
+        int[] counts = new int[n];
+        for (int s = 0; s < studies.length; s++) {
+            int max = 0;
+            for (int i = 0; i < n; i++) {
+                GeneNode node = snapshot.getNode(i);
+                counts[i] = node.getNumCases(studies[s]) - node.getNumDiffExpressedCases(studies[s]);
+                max = Math.max(max, counts[i]);
+            }
+            sortByCount(s, counts, max);
+        }
+    }
+
+    // counting sort, the counts are bounded by the number of cases
+    private void sortByCount(int s, int[] counts, int max) {
+        int n = counts.length;
+        int[] starts = new int[max + 2];
+        for (int i = 0; i < n; i++) {
+            starts[counts[i] + 1]++;
+        }
+        for (int c = 0; c <= max; c++) {
+            starts[c + 1] += starts[c];
+        }
+        int[] order = new int[n];
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++) {
+            int pos = starts[counts[i]]++;
+            order[pos] = i;
+            sorted[pos] = counts[i];
+        }
+        nodesByCount[s] = order;
+        sortedCounts[s] = sorted;
+    }
+
+    boolean isFor(GraphSnapshot snapshot, int[] studies) {
+        return this.snapshot == snapshot && Arrays.equals(this.studies, studies);
+    }
+
+    /**
+     * @param predicate a predicate over the studies of this index
+     * @param caseExceptions the limit of every study by its bit
+     * @return the validity of every node by snapshot index, to be owned by
+     * the caller
+     */
+    synchronized boolean[] computeValidity(CombinePredicate predicate, int[] caseExceptions) {
+        int n = snapshot.size();
+        if (masks == null) {
+            masks = new long[n];
+            validity = new boolean[n];
+            changed = new int[n];
+            isChanged = new boolean[n];
+            for (int s = 0; s < studies.length; s++) {
+                int end = upperBound(sortedCounts[s], caseExceptions[s]);
+                for (int pos = 0; pos < end; pos++) {
+                    masks[nodesByCount[s][pos]] |= 1L << s;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                validity[i] = predicate.test(masks[i]);
+            }
+        } else {
+            numChanged = 0;
+            for (int s = 0; s < studies.length; s++) {
+                int from = this.caseExceptions[s];
+                int to = caseExceptions[s];
+                if (from == to) {
+                    continue;
+                }
+                int start = upperBound(sortedCounts[s], Math.min(from, to));
+                int end = upperBound(sortedCounts[s], Math.max(from, to));
+                for (int pos = start; pos < end; pos++) {
+                    int i = nodesByCount[s][pos];
+                    masks[i] ^= 1L << s;
+                    if (!isChanged[i]) {
+                        isChanged[i] = true;
+                        changed[numChanged++] = i;
+                    }
+                }
+            }
+
+            if (isSameCombination(predicate)) {
+                for (int k = 0; k < numChanged; k++) {
+                    int i = changed[k];
+                    validity[i] = predicate.test(masks[i]);
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    validity[i] = predicate.test(masks[i]);
+                }
+            }
+            for (int k = 0; k < numChanged; k++) {
+                isChanged[changed[k]] = false;
+            }
+        }
+
+        this.caseExceptions = caseExceptions.clone();
+        this.predicate = predicate;
+        return validity.clone();
+    }
+
+    private boolean isSameCombination(CombinePredicate other) {
+        if (predicate == other) {
+            return true;
+        }
+        if (predicate.getOperator() != other.getOperator()) {
+            return false;
+        }
+        return other.getOperator() != Combine.CUSTOM || predicate.getFormula().equals(other.getFormula());
+    }
+
+    // the number of counts that are at most limit
+    private static int upperBound(int[] sorted, int limit) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= limit) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,44 @@
+package dk.sdu.kpm.io;
+
+import java.util.Map;
+
+/**
+ * The rows of one indicator matrix file: for every gene the indicator vector
+ * over the cases of the study, 1 for up-regulated, -1 for down-regulated and 0
+ * for no difference.
+ */
+public final class IndicatorMatrix {
+
+    private final Map<String, int[]> rows;
+
+    private final int numCases;
+
+    private final int numExpressed;
+
+    IndicatorMatrix(Map<String, int[]> rows, int numCases, int numExpressed) {
+        this.rows = rows;
+        this.numCases = numCases;
+        this.numExpressed = numExpressed;
+    }
+
+    /**
+     * @return the indicator vector of every gene by its id
+     */
+    public Map<String, int[]> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of cases, the length of the last row of the file
+     */
+    public int getNumCases() {
+        return numCases;
+    }
+
+    /**
+     * @return the number of entries that are 1 or -1
+     */
+    public int getNumExpressed() {
+        return numExpressed;
+    }
+}
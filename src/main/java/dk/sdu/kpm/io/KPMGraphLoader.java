@@ -0,0 +1,251 @@
+package dk.sdu.kpm.io;
+
+import dk.sdu.kpm.KPMSettings;
+import dk.sdu.kpm.graph.GeneIdDictionary;
+import dk.sdu.kpm.graph.KPMGraph;
+import dk.sdu.kpm.logging.KpmLogger;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+/**
+ * Loads a KPM-Network from a SIF file with the interactions and the indicator
+ * matrices of the studies.
+ *
+ * The files are read through memory-mapped buffers without splitting lines
+ * into string arrays, and the network and the matrices are parsed in
+ * parallel. Every gene id is stored once, in the {@link GeneIdDictionary}
+ * the loaded graph keeps.
+ */
+public class KPMGraphLoader {
+
+    /**
+     * Reads the interactions of a SIF file, one per line as
+     * "id1 TAB type TAB id2". Blank lines are skipped, lines with less than
+     * three fields are reported and skipped.
+     *
+     * @return the edges, an element elem has an edge from elem[0] to elem[1]
+     */
+    public static LinkedList<String[]> readSIF(String path) throws IOException {
+        return readSIF(path, new GeneIdDictionary());
+    }
+
+    /**
+     * @param dictionary receives the gene ids, the edges hold its instances
+     * @see #readSIF(String)
+     */
+    public static LinkedList<String[]> readSIF(String path, GeneIdDictionary dictionary) throws IOException {
+        LinkedList<String[]> edgeList = new LinkedList<String[]>();
+        TabSeparatedReader reader = new TabSeparatedReader(path);
+        try {
+            while (reader.nextLine()) {
+                if (reader.isBlank()) {
+                    continue;
+                }
+                if (reader.getNumFields() < 3) {
+                    KpmLogger.log(Level.WARNING, "Line " + reader.getLineNumber() + " of " + path
+                            + " has less than 3 fields and is skipped.");
+                    continue;
+                }
+                String[] edge = {geneId(dictionary, reader, 0), geneId(dictionary, reader, 2)};
+                edgeList.add(edge);
+            }
+        } finally {
+            reader.close();
+        }
+        return edgeList;
+    }
+
+    /**
+     * Reads an indicator matrix, one gene per line as the gene id followed by
+     * the value of every case, all separated by tabs. A value of 1 or -1 is
+     * taken as is, anything else as 0. Blank lines are skipped.
+     */
+    public static IndicatorMatrix readMatrix(String path) throws IOException {
+        return readMatrix(path, new GeneIdDictionary());
+    }
+
+    /**
+     * @param dictionary receives the gene ids, the rows are keyed by its
+     * instances
+     * @see #readMatrix(String)
+     */
+    public static IndicatorMatrix readMatrix(String path, GeneIdDictionary dictionary) throws IOException {
+        Map<String, int[]> rows = new HashMap<String, int[]>();
+        int numCases = 0;
+        int numExpressed = 0;
+        TabSeparatedReader reader = new TabSeparatedReader(path);
+        try {
+            while (reader.nextLine()) {
+                if (reader.isBlank()) {
+                    continue;
+                }
+                int[] exp = new int[reader.getNumFields() - 1];
+                for (int i = 0; i < exp.length; i++) {
+                    if (reader.fieldEquals(i + 1, "1")) {
+                        exp[i] = 1;
+                        numExpressed++;
+                    } else if (reader.fieldEquals(i + 1, "-1")) {
+                        exp[i] = -1;
+                        numExpressed++;
+                    }
+                }
+                rows.put(geneId(dictionary, reader, 0), exp);
+                numCases = exp.length;
+            }
+        } finally {
+            reader.close();
+        }
+        return new IndicatorMatrix(rows, numCases, numExpressed);
+    }
+
+    /**
+     * Reads the given indicator matrices in parallel.
+     *
+     * @param files the path of every matrix by the id of its study
+     * @param numThreads the maximal number of files read at the same time
+     * @return the matrices by the id of their study
+     */
+    public static Map<String, IndicatorMatrix> readMatrices(Map<String, String> files, int numThreads)
+            throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, files.size())));
+        try {
+            return getAll(submitAll(pool, files, new GeneIdDictionary()));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads the network in graphFile with the matrices in
+     * KPMSettings.MATRIX_FILES_MAP. The calling thread reads the network
+     * while up to NUMBER_OF_PROCESSORS - 1 threads, but at least one, read the
+     * matrices. Sets NUM_CASES_MAP and NUM_STUDIES of the given settings.
+     *
+     * Nodes of the network that are missing in a matrix become back nodes
+     * of its study, and genes of a matrix that are not in the network become
+     * back genes.
+     */
+    public static KPMGraph load(KPMSettings kpmSettings, String graphFile) throws IOException {
+        Map<String, String> expressionFiles = new HashMap<String, String>(kpmSettings.MATRIX_FILES_MAP);
+
+        // The network is read by this thread while the pool reads the matrices.
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(kpmSettings.NUMBER_OF_PROCESSORS - 1, expressionFiles.size())));
+        GeneIdDictionary dictionary = new GeneIdDictionary();
+        LinkedList<String[]> edgeList;
+        Map<String, IndicatorMatrix> matrices;
+        try {
+            Map<String, Future<IndicatorMatrix>> futures = submitAll(pool, expressionFiles, dictionary);
+            edgeList = readSIF(graphFile, dictionary);
+            matrices = getAll(futures);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Map<String, String> nodeId2Symbol = new HashMap<String, String>();
+        Set<String> inNetwork = new HashSet<String>();
+        for (String[] edge : edgeList) {
+            nodeId2Symbol.put(edge[0], edge[0]);
+            nodeId2Symbol.put(edge[1], edge[1]);
+            inNetwork.add(edge[0]);
+            inNetwork.add(edge[1]);
+        }
+
+        Map<String, Map<String, int[]>> expressionMap = new HashMap<String, Map<String, int[]>>();
+        HashMap<String, Integer> numCasesMap = new HashMap<String, Integer>();
+        Map<String, Set<String>> backGenesMap = new HashMap<String, Set<String>>();
+        for (String fileId : expressionFiles.keySet()) {
+            IndicatorMatrix matrix = matrices.get(fileId);
+            Set<String> backGenes = new HashSet<String>();
+            for (Map.Entry<String, int[]> row : matrix.getRows().entrySet()) {
+                String nodeId = row.getKey();
+                Map<String, int[]> expMap = expressionMap.get(nodeId);
+                if (expMap == null) {
+                    expMap = new HashMap<String, int[]>();
+                    expressionMap.put(nodeId, expMap);
+                }
+                expMap.put(fileId, row.getValue());
+                if (!inNetwork.contains(nodeId)) {
+                    backGenes.add(nodeId);
+                }
+            }
+            numCasesMap.put(fileId, matrix.getNumCases());
+            backGenesMap.put(fileId, backGenes);
+        }
+
+        Map<String, Set<String>> backNodesMap = new HashMap<String, Set<String>>();
+        for (String nodeId : inNetwork) {
+            Map<String, int[]> expMap = expressionMap.get(nodeId);
+            if (expMap == null) {
+                backNodesMap.put(nodeId, new HashSet<String>(expressionFiles.keySet()));
+                continue;
+            }
+            for (String expId : expressionFiles.keySet()) {
+                if (!expMap.containsKey(expId)) {
+                    Set<String> backNodes = backNodesMap.get(nodeId);
+                    if (backNodes == null) {
+                        backNodes = new HashSet<String>();
+                        backNodesMap.put(nodeId, backNodes);
+                    }
+                    backNodes.add(expId);
+                }
+            }
+        }
+
+        kpmSettings.NUM_CASES_MAP = numCasesMap;
+        kpmSettings.NUM_STUDIES = numCasesMap.size();
+        return new KPMGraph(expressionMap, edgeList, nodeId2Symbol, backNodesMap, backGenesMap,
+                kpmSettings.NUM_CASES_MAP, dictionary);
+    }
+
+    private static Map<String, Future<IndicatorMatrix>> submitAll(ExecutorService pool, Map<String, String> files,
+            final GeneIdDictionary dictionary) {
+        Map<String, Future<IndicatorMatrix>> futures = new LinkedHashMap<String, Future<IndicatorMatrix>>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            final String path = file.getValue();
+            futures.put(file.getKey(), pool.submit(new Callable<IndicatorMatrix>() {
+                @Override
+                public IndicatorMatrix call() throws IOException {
+                    return readMatrix(path, dictionary);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private static Map<String, IndicatorMatrix> getAll(Map<String, Future<IndicatorMatrix>> futures)
+            throws IOException {
+        Map<String, IndicatorMatrix> matrices = new HashMap<String, IndicatorMatrix>();
+        try {
+            for (Map.Entry<String, Future<IndicatorMatrix>> future : futures.entrySet()) {
+                matrices.put(future.getKey(), future.getValue().get());
+            }
+            return matrices;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the matrices.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // the field as the shared instance of its gene id
+    private static String geneId(GeneIdDictionary dictionary, TabSeparatedReader reader, int i) {
+        return dictionary.getString(dictionary.intern(reader.getField(i)));
+    }
+}
@@ -0,0 +1,202 @@
+package dk.sdu.kpm.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads a tab separated file line by line from memory-mapped windows of the
+ * file. The fields of the current line are only located, a field is decoded
+ * into a String when it is asked for, and small values can be compared
+ * byte-wise without decoding them at all.
+ *
+ * Like String.split("\t"), empty fields at the end of a line are dropped.
+ */
+final class TabSeparatedReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int WINDOW_SIZE = 64 << 20;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final long fileSize;
+
+    // the mapped part of the file, starting at windowStart
+    private MappedByteBuffer window;
+
+    private long windowStart;
+
+    // position of the next line in the window
+    private int position;
+
+    private int lineNumber;
+
+    // bounds of the fields of the current line in the window
+    private int[] fieldStarts = new int[16];
+
+    private int[] fieldEnds = new int[16];
+
+    private int numFields;
+
+    private byte[] scratch = new byte[64];
+
+    TabSeparatedReader(String path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        fileSize = channel.size();
+        map(0, WINDOW_SIZE);
+    }
+
+    private void map(long start, long size) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(size, fileSize - start));
+        position = 0;
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return false if the end of the file has been reached
+     */
+    boolean nextLine() throws IOException {
+        int limit = window.limit();
+        int end = indexOfNewline(position, limit);
+        while (end < 0 && windowStart + limit < fileSize) {
+            // the line continues after the window, map the next one from
+            // its start on, and larger if the line does not fit
+            long size = position == 0 ? 2L * limit : WINDOW_SIZE;
+            map(windowStart + position, Math.min(size, Integer.MAX_VALUE));
+            limit = window.limit();
+            end = indexOfNewline(position, limit);
+        }
+        if (end < 0) {
+            if (position == limit) {
+                return false;
+            }
+            end = limit;
+        }
+
+        splitFields(position, end);
+        position = Math.min(end + 1, limit);
+        lineNumber++;
+        return true;
+    }
+
+    private int indexOfNewline(int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void splitFields(int start, int end) {
+        numFields = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || window.get(i) == '\t') {
+                if (numFields == fieldStarts.length) {
+                    fieldStarts = Arrays.copyOf(fieldStarts, 2 * numFields);
+                    fieldEnds = Arrays.copyOf(fieldEnds, 2 * numFields);
+                }
+                fieldStarts[numFields] = fieldStart;
+                fieldEnds[numFields] = i;
+                numFields++;
+                fieldStart = i + 1;
+            }
+        }
+        // a \r of a Windows line break belongs to the line break
+        if (fieldEnds[numFields - 1] > fieldStarts[numFields - 1]
+                && window.get(fieldEnds[numFields - 1] - 1) == '\r') {
+            fieldEnds[numFields - 1]--;
+        }
+        while (numFields > 1 && fieldEnds[numFields - 1] == fieldStarts[numFields - 1]) {
+            numFields--;
+        }
+    }
+
+    /**
+     * @return the number of the current line, starting with 1
+     */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    int getNumFields() {
+        return numFields;
+    }
+
+    /**
+     * @return whether the current line contains nothing but white space
+     */
+    boolean isBlank() {
+        return numFields == 1 && trimmedStart(0) == trimmedEnd(0);
+    }
+
+    /**
+     * @return the i-th field of the current line without surrounding white
+     * space
+     */
+    String getField(int i) {
+        int start = trimmedStart(i);
+        int length = trimmedEnd(i) - start;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, 2 * scratch.length)];
+        }
+        for (int k = 0; k < length; k++) {
+            scratch[k] = window.get(start + k);
+        }
+        return new String(scratch, 0, length, UTF_8);
+    }
+
+    /**
+     * @param value an ASCII value
+     * @return whether the i-th field of the current line, without surrounding
+     * white space, equals the given value
+     */
+    boolean fieldEquals(int i, String value) {
+        int start = trimmedStart(i);
+        if (trimmedEnd(i) - start != value.length()) {
+            return false;
+        }
+        for (int k = 0; k < value.length(); k++) {
+            if (window.get(start + k) != value.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int trimmedStart(int i) {
+        int start = fieldStarts[i];
+        int end = fieldEnds[i];
+        while (start < end && window.get(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimmedEnd(int i) {
+        int start = fieldStarts[i];
+        int end = fieldEnds[i];
+        while (end > start && window.get(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+}
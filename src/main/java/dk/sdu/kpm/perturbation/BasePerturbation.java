@@ -15,11 +15,19 @@ import java.util.Random;
 class BasePerturbation<T> implements IPerturbation<T> {
     protected IndexRandomizer randomizer;
 
+    protected Random random;
+
     protected BasePerturbation(){
+        this.random = new Random(Calendar.getInstance().getTimeInMillis());
+    }
+
+    @Override
+    public void setSeed(long seed){
+        this.random = new Random(seed);
     }
 
     protected void initIndexRandomizer(int indexSize){
-        this.randomizer = new IndexRandomizer(indexSize);
+        this.randomizer = new IndexRandomizer(indexSize, random);
     }
 
     protected int getNextRandomIndex(){
@@ -130,19 +130,19 @@ public class ColumnWiseShufflePerturbation extends BasePerturbation<String> {
     private ArrayList<String> nodeIDs;
 
     private String convertToString(int[][] datasetMatrix){
-        String dataset = "";
+        StringBuilder dataset = new StringBuilder();
 
         for(int i = 0; i < datasetMatrix.length; i++){
-            dataset += nodeIDs.get(i);
+            dataset.append(nodeIDs.get(i));
 
             for(int j = 0; j < datasetMatrix[i].length; j++){
-                dataset += "\t" + datasetMatrix[i][j];
+                dataset.append('\t').append(datasetMatrix[i][j]);
             }
 
-            dataset += System.lineSeparator();
+            dataset.append(System.lineSeparator());
         }
 
-        return dataset;
+        return dataset.toString();
     }
 
     @Override
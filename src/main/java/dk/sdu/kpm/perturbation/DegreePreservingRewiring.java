@@ -0,0 +1,100 @@
+package dk.sdu.kpm.perturbation;
+
+import java.util.Random;
+
+/**
+ * Rewires an undirected graph without changing the degree of any node. A
+ * swap draws two edges (v1, v2) and (u1, u2) that share no node and replaces
+ * them by (v1, u2) and (v2, u1), unless one of these already exists.
+ *
+ * The edges are kept in two int arrays and every edge is also in a hash set
+ * of longs, so a swap, successful or not, takes constant time. A swapped
+ * edge stays at the position of the edge it replaces.
+ */
+public final class DegreePreservingRewiring {
+
+    // Attempts allowed per requested swap before giving up, for graphs in
+    // which (almost) no pair of edges can be swapped, e.g. stars.
+    private static final int MAX_ATTEMPTS_PER_SWAP = 100;
+
+    private final int[] from;
+
+    private final int[] to;
+
+    private final LongHashSet edges;
+
+    /**
+     * @param from the first node of every edge
+     * @param to the second node of every edge, node ids are non-negative
+     */
+    public DegreePreservingRewiring(int[] from, int[] to) {
+        this.from = from.clone();
+        this.to = to.clone();
+        this.edges = new LongHashSet(from.length);
+        for (int e = 0; e < from.length; e++) {
+            edges.add(key(from[e], to[e]));
+        }
+    }
+
+    /**
+     * Performs up to numSwaps swaps. Fewer swaps are performed if no
+     * swappable pair of edges is found in a large number of attempts.
+     *
+     * @return the number of swaps that have been performed
+     */
+    public int rewire(int numSwaps, Random random) {
+        int numEdges = from.length;
+        if (numEdges < 2) {
+            return 0;
+        }
+        long maxAttempts = (long) numSwaps * MAX_ATTEMPTS_PER_SWAP;
+        int swaps = 0;
+        for (long attempt = 0; swaps < numSwaps && attempt < maxAttempts; attempt++) {
+            int v = random.nextInt(numEdges);
+            int u = random.nextInt(numEdges);
+            int v1 = from[v];
+            int v2 = to[v];
+            int u1 = from[u];
+            int u2 = to[u];
+
+            // the edges must not share a node
+            if (v1 == u1 || v1 == u2 || v2 == u1 || v2 == u2) {
+                continue;
+            }
+
+            // none of the new edges may exist already
+            long vu = key(v1, u2);
+            long uv = key(v2, u1);
+            if (edges.contains(vu) || edges.contains(uv)) {
+                continue;
+            }
+
+            edges.remove(key(v1, v2));
+            edges.remove(key(u1, u2));
+            edges.add(vu);
+            edges.add(uv);
+            to[v] = u2;
+            from[u] = v2;
+            to[u] = u1;
+            swaps++;
+        }
+        return swaps;
+    }
+
+    public int getEdgeCount() {
+        return from.length;
+    }
+
+    public int getFrom(int edge) {
+        return from[edge];
+    }
+
+    public int getTo(int edge) {
+        return to[edge];
+    }
+
+    // the same for both directions of an edge
+    private static long key(int a, int b) {
+        return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+    }
+}
@@ -1,12 +1,14 @@
 package dk.sdu.kpm.perturbation;
 
-import java.util.HashSet;
-
 import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
 import dk.sdu.kpm.taskmonitors.KPMDummyTaskMonitor;
 import dk.sdu.kpm.graph.GeneEdge;
 import dk.sdu.kpm.graph.KPMGraph;
 
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Used for perturbing a graph, by removing edges, until the parameter percentage perturbation degree has been reached. 
  * @author Martin
@@ -42,34 +44,42 @@ class EdgeRemovePerturbation extends BasePerturbation<KPMGraph>{
 		taskMonitor.setStatusMessage("Permuting...");
 		
 		KPMGraph graph = new KPMGraph(currentGraph);
-		HashSet<GeneEdge> removedEdges = new HashSet<GeneEdge>();
-		GeneEdge[] edges = graph.getEdges().toArray(new GeneEdge[graph.getEdges().size()]);
+		GeneEdge[] edges = graph.getEdges().toArray(new GeneEdge[graph.getEdgeCount()]);
+		BitSet removedEdges = new BitSet(edges.length);
+		int nrEdges = edges.length;
 
-		int nrEdgesToRemove = (int)Math.ceil(((double)edges.length / 100) * percentageToPermute);
+		int nrEdgesToRemove = (int)Math.ceil(((double)nrEdges / 100) * percentageToPermute);
 		
 		// We want at least one edge left
-		if(nrEdgesToRemove >= edges.length){
-			nrEdgesToRemove = edges.length - 1;
+		if(nrEdgesToRemove >= nrEdges){
+			nrEdgesToRemove = nrEdges - 1;
 		}
 
         // Fill the list with edges indexes. Will be used to draw edges to be removed.
-        this.initIndexRandomizer(edges.length);
+        this.initIndexRandomizer(nrEdges);
 
         while(nrEdgesToRemove > 0){
-        	taskMonitor.setProgress((double)((double)1-((double) nrEdgesToRemove)/((double)(edges.length - 1))));
+        	taskMonitor.setProgress((double)((double)1-((double) nrEdgesToRemove)/((double)(nrEdges - 1))));
 
-        	GeneEdge edge = edges[getNextRandomIndex()];
+        	int edge = getNextRandomIndex();
         	
-        	// If it's the same ID, or either nodes have been swapped already, then we don't want to swap.
-        	if(removedEdges.contains(edge)){
+        	// If the edge has been removed already, we draw another one.
+        	if(removedEdges.get(edge)){
         		continue;
         	}
         	
-        	graph.removeEdge(edge);
-            removedEdges.add(edge);
+        	removedEdges.set(edge);
             
         	nrEdgesToRemove -= 1;
         }
+
+		// The edges are removed at once, so that the edge list is filtered
+		// only once.
+		Set<GeneEdge> toRemove = new HashSet<GeneEdge>();
+		for(int edge = removedEdges.nextSetBit(0); edge >= 0; edge = removedEdges.nextSetBit(edge + 1)){
+			toRemove.add(edges[edge]);
+		}
+		graph.removeGeneEdges(toRemove);
 	
 		return graph;
 	}
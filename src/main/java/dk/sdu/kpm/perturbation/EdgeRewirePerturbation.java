@@ -1,13 +1,17 @@
 package dk.sdu.kpm.perturbation;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-
+import dk.sdu.kpm.logging.KpmLogger;
 import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
 import dk.sdu.kpm.taskmonitors.KPMDummyTaskMonitor;
+import dk.sdu.kpm.graph.GeneEdge;
+import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
 import dk.sdu.kpm.graph.KPMGraph;
-import java.util.Calendar;
-import java.util.Random;
+import edu.uci.ics.jung.graph.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
 
 class EdgeRewirePerturbation extends BasePerturbation<KPMGraph>{
 
@@ -15,8 +19,8 @@ class EdgeRewirePerturbation extends BasePerturbation<KPMGraph>{
         super();
     }
 
-	private HashSet<String> edgeAsNodeIDs;
-	
+	private int swapsPerformed;
+
 	@Override
 	public String getDescription() {
 		return "Permutation of graph by way of edge rewiring.";
@@ -36,103 +40,58 @@ class EdgeRewirePerturbation extends BasePerturbation<KPMGraph>{
 		taskMonitor.setTitle(String.format("Permuting graph, using '%s'.", this.getName()));
 		taskMonitor.setStatusMessage("Permuting...");
 		
-		LinkedList<String[]> edges = graph.getEdgeList();
-
-		// For quick lookup to check if an edge already exists
-		this.edgeAsNodeIDs = new HashSet<String>();
-		for(String[] edge : edges){
-			addWiring(edge);
+		GraphSnapshot snapshot = graph.getSnapshot();
+		GeneEdge[] edges = graph.getEdges().toArray(new GeneEdge[graph.getEdgeCount()]);
+		int nrEdges = edges.length;
+		int[] from = new int[nrEdges];
+		int[] to = new int[nrEdges];
+		for(int e = 0; e < nrEdges; e++){
+			// KPMGraph adds every edge as (to, from)
+			Pair<GeneNode> endpoints = graph.getEndpoints(edges[e]);
+			from[e] = snapshot.indexOf(endpoints.getSecond());
+			to[e] = snapshot.indexOf(endpoints.getFirst());
 		}
 
-        // Fill the list with edges indexes. Will be used to draw edges to be rewired.
-        this.initIndexRandomizer(edges.size());
-
+		// Every swap rewires two edges.
+		int nrEdgesToRewire = (int)Math.ceil(((double)nrEdges / 100) * percentageToPermute);
+		int nrSwaps = nrEdgesToRewire / 2;
 
+		DegreePreservingRewiring rewiring = new DegreePreservingRewiring(from, to);
+		this.swapsPerformed = rewiring.rewire(nrSwaps, random);
+		if(swapsPerformed < nrSwaps){
+			KpmLogger.log(Level.WARNING, String.format("Only %d of %d edge swaps were possible.", swapsPerformed, nrSwaps));
+		}
+		taskMonitor.setProgress(1);
 
-        int nrEdgesToRewire = (int)Math.ceil(((double)edges.size() / 100) * percentageToPermute);
-		int total = (int)Math.ceil(((double)edges.size() / 100) * percentageToPermute);
-                Random random = new Random();
-                random.setSeed(Calendar.getInstance().getTimeInMillis());
-        // Starting the algorithm
-		while(nrEdgesToRewire > 1){
-			taskMonitor.setProgress((double)((double)1-((double) nrEdgesToRewire)/((double)total)));
-			
-			// Draw to random 
-			String[] v = edges.get(random.nextInt(edges.size())); //edges.get(getNextRandomIndex());
-			String[] u = edges.get(random.nextInt(edges.size()));
-			// If edges share at least one vertex in common we do nothing and jump to the next iteration
-			// IF (v1 == u1) OR (v1 == u2) OR (v2 == u1) OR (v2 == u2):
-			if(v[0].equals(u[0]) || v[0].equals(u[1]) || v[1].equals(u[0]) || v[1].equals(u[1])){
-				continue;
+		// A swapped edge replaces the edge at its position. All replaced edges
+		// are removed before the new ones are added, as a new edge may
+		// connect the nodes of a replaced one.
+		List<GeneEdge> replaced = new ArrayList<GeneEdge>();
+		for(int e = 0; e < nrEdges; e++){
+			if(rewiring.getFrom(e) != from[e] || rewiring.getTo(e) != to[e]){
+				replaced.add(edges[e]);
 			}
-			
-		    // If at least one of the the rewired edges already exists we do nothing and jump to the next iteration
-			// IF (v1, u2) in E OR (v2, u1) in E:
-			if(wiringExists(v[0], u[1]) || wiringExists(v[1], u[0])){
-				continue;
+		}
+		graph.removeGeneEdges(replaced);
+		for(int e = 0; e < nrEdges; e++){
+			if(rewiring.getFrom(e) != from[e] || rewiring.getTo(e) != to[e]){
+				graph.addGeneEdge(snapshot.getNode(rewiring.getFrom(e)), snapshot.getNode(rewiring.getTo(e)));
 			}
-			
-			// Otherwise we swap the endpoints of both edges
-			// First remove old wirings:
-			removeWiring(v);
-			removeWiring(u);
-			graph.getEdgeList().remove(v);
-			graph.getEdgeList().remove(u);
-			
-			// Add new (v1, u2) 
-			String[] vu = new String[2];
-			vu[0] = v[0];
-			vu[1] = u[1];
-			graph.getEdgeList().add(vu);
-			
-			// Add new (v2, u1)
-			String[] uv = new String[2];
-			uv[0] = v[1];
-			uv[1] = u[0];
-			graph.getEdgeList().add(uv);
-			
-			nrEdgesToRewire -= 2;
 		}
 		
 		return graph;
 	}
 
+	/**
+	 * @return the number of edge swaps of the last call to execute, which is
+	 * less than requested if the graph could not be rewired any further
+	 */
+	public int getSwapsPerformed(){
+		return swapsPerformed;
+	}
+
 	@Override
 	public PerturbationTags getTag() {
 		return PerturbationTags.EdgeRewire;
 	}
-
-	private boolean wiringExists(String v, String u){
-		
-		if(edgeAsNodeIDs.contains(String.format("%s|%s", v, u))){
-			return true;
-		}
-		
-		if(edgeAsNodeIDs.contains(String.format("%s|%s", u, v))){
-			return true;
-		}
-		
-		return false;
-	}
-	
-	private void addWiring(String[] edge){
-		edgeAsNodeIDs.add(String.format("%s|%s", edge[0], edge[1]));
-		
-		// For now, assume undirected
-		edgeAsNodeIDs.add(String.format("%s|%s", edge[1], edge[0]));
-	}
-	
-	private void removeWiring(String[] edge){
-		
-		String vu = String.format("%s|%s", edge[0], edge[1]);
-		if(edgeAsNodeIDs.contains(vu)){
-			edgeAsNodeIDs.remove(vu);
-		}
-		
-		String uv = String.format("%s|%s", edge[1], edge[0]);
-		if(edgeAsNodeIDs.contains(uv)){
-			edgeAsNodeIDs.remove(uv);
-		}
-	}
-	
 }
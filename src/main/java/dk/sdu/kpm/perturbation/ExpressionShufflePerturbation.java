@@ -0,0 +1,82 @@
+package dk.sdu.kpm.perturbation;
+
+import java.util.Map;
+
+import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
+import dk.sdu.kpm.taskmonitors.KPMDummyTaskMonitor;
+import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
+import dk.sdu.kpm.graph.KPMGraph;
+import dk.sdu.kpm.graph.PackedExpression;
+
+/**
+ * Used for perturbing the datasets of a graph, by shuffling the indicator
+ * vectors of a percentage of the genes of every study over its cases. The
+ * vectors are shuffled in their packed form, so neither the network nor the
+ * matrices are written out and parsed again.
+ */
+class ExpressionShufflePerturbation extends BasePerturbation<KPMGraph>{
+
+    public ExpressionShufflePerturbation(){
+        super();
+    }
+
+	@Override
+	public String getDescription() {
+		return "Permutation of the datasets by way of shuffling the cases of genes.";
+	}
+
+	@Override
+	public String getName() {
+		return "Expression shuffle";
+	}
+
+	@Override
+	public PerturbationTags getTag() {
+		return PerturbationTags.ExpressionShuffle;
+	}
+
+	@Override
+	public KPMGraph execute(int percentageToPermute, KPMGraph currentGraph, IKPMTaskMonitor taskMonitor){
+		if(taskMonitor == null){
+			taskMonitor = new KPMDummyTaskMonitor();
+		}
+		taskMonitor.setTitle(String.format("Permuting datasets, using '%s'.", this.getName()));
+		taskMonitor.setStatusMessage("Permuting...");
+
+		KPMGraph graph = new KPMGraph(currentGraph);
+		GraphSnapshot snapshot = graph.getSnapshot();
+		int nrStudies = currentGraph.numCasesMap.size();
+		int study = 0;
+		for(Map.Entry<String, Integer> entry : currentGraph.numCasesMap.entrySet()){
+			String expId = entry.getKey();
+
+			// The nodes with a vector for this study.
+			int[] nodes = new int[snapshot.size()];
+			int nrNodes = 0;
+			for(int i = 0; i < snapshot.size(); i++){
+				if(snapshot.getNode(i).getExpressionMap().containsKey(expId)){
+					nodes[nrNodes++] = i;
+				}
+			}
+
+			int[] cases = new int[entry.getValue()];
+			for(int j = 0; j < cases.length; j++){
+				cases[j] = j;
+			}
+
+			int nrNodesToShuffle = (int)Math.ceil(((double)nrNodes / 100) * percentageToPermute);
+			this.initIndexRandomizer(nrNodes);
+			for(int k = 0; k < nrNodesToShuffle; k++){
+				GeneNode node = snapshot.getNode(nodes[getNextRandomIndex()]);
+				PackedExpression vector = node.getExpressionMap().get(expId);
+				graph.setExpression(node, expId, vector.shuffled(random, cases));
+			}
+
+			study++;
+			taskMonitor.setProgress((double)study / nrStudies);
+		}
+
+		return graph;
+	}
+}
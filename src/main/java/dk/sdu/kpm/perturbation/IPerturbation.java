@@ -17,13 +17,19 @@ public interface IPerturbation<T> {
 	public T execute(int percentageToPermute, T input, IKPMTaskMonitor taskMonitor);
 
 	public PerturbationTags getTag();
+
+	/**
+	 * Makes the following perturbations reproducible. Without a seed, the
+	 * random numbers are seeded with the current time.
+	 */
+	public void setSeed(long seed);
 	
 	public enum PerturbationTags{
 		// Graph perturbations:
         NodeSwap, EdgeRemoval, NodeRemoval, EdgeRewire,
 
         // Dataset perturbations:
-        ColumnWiseShuffle
+        ColumnWiseShuffle, ExpressionShuffle
 	}
 	
 	@Override
@@ -1,6 +1,5 @@
 package dk.sdu.kpm.perturbation;
 
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Random;
 
@@ -10,19 +9,22 @@ import java.util.Random;
 public class IndexRandomizer {
     private Random random;
 
-    private ArrayList<Integer> indexList;
+    // the indices not drawn yet are indexList[0 .. indexSize - 1]
+    private int[] indexList;
 
     private int indexSize;
 
     public IndexRandomizer(int indexSize){
-        this.indexList = new ArrayList<Integer>();
+        this(indexSize, new Random(Calendar.getInstance().getTimeInMillis()));
+    }
+
+    public IndexRandomizer(int indexSize, Random random){
+        this.indexList = new int[Math.max(indexSize, 0)];
         this.indexSize = indexSize;
         for(int i = 0; i < indexSize; i++){
-            this.indexList.add(i);
+            this.indexList[i] = i;
         }
-        // Get random number generator
-        this.random = new Random();
-        this.random.setSeed(Calendar.getInstance().getTimeInMillis());
+        this.random = random;
     }
 
     public int getNextRandomIndex(){
@@ -36,8 +38,9 @@ public class IndexRandomizer {
             return 0;
         }
         
-        int index = indexList.get(indexIndex);
-        indexList.remove(indexIndex);
+        // the last index not drawn yet takes the place of the drawn one
+        int index = indexList[indexIndex];
+        indexList[indexIndex] = indexList[indexSize - 1];
         indexSize--;
 
         return index;
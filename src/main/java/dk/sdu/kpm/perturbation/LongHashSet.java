@@ -0,0 +1,102 @@
+package dk.sdu.kpm.perturbation;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of non-negative longs, without boxing. Removal
+ * shifts the following entries back, so there are no tombstones and lookups
+ * stay short no matter how many keys come and go.
+ */
+final class LongHashSet {
+
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+
+    private int mask;
+
+    private int size;
+
+    LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(long key) {
+        for (int slot = slot(key); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the key was in the set already
+     */
+    boolean add(long key) {
+        int slot = slot(key);
+        for (; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return false;
+            }
+        }
+        keys[slot] = key;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the key was not in the set
+     */
+    boolean remove(long key) {
+        int slot = slot(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // move back every following key that would not be found any more
+        int gap = slot;
+        for (slot = (slot + 1) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            int home = slot(keys[slot]);
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = EMPTY;
+        size--;
+        return true;
+    }
+
+    private void grow() {
+        long[] old = keys;
+        keys = new long[old.length * 2];
+        Arrays.fill(keys, EMPTY);
+        mask = keys.length - 1;
+        for (long key : old) {
+            if (key != EMPTY) {
+                int slot = slot(key);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
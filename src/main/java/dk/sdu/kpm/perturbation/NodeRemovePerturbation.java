@@ -1,12 +1,15 @@
 package dk.sdu.kpm.perturbation;
 
-import java.util.HashSet;
-
 import dk.sdu.kpm.taskmonitors.IKPMTaskMonitor;
 import dk.sdu.kpm.taskmonitors.KPMDummyTaskMonitor;
 import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
 import dk.sdu.kpm.graph.KPMGraph;
 
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
 class NodeRemovePerturbation extends BasePerturbation<KPMGraph>{
 
     public NodeRemovePerturbation(){
@@ -38,34 +41,42 @@ class NodeRemovePerturbation extends BasePerturbation<KPMGraph>{
 		taskMonitor.setStatusMessage("Permuting...");
 		
 		KPMGraph graph = new KPMGraph(currentGraph);
-		HashSet<GeneNode> removedNodes = new HashSet<GeneNode>();
-		GeneNode[] nodes = graph.getVertices().toArray(new GeneNode[graph.getVertices().size()]);
+		GraphSnapshot snapshot = graph.getSnapshot();
+		BitSet removedNodes = new BitSet(snapshot.size());
+		int nrNodes = snapshot.size();
 		
-		int nrNodesToRemove = (int)Math.ceil(((double)nodes.length / 100) * percentageToPermute);
+		int nrNodesToRemove = (int)Math.ceil(((double)nrNodes / 100) * percentageToPermute);
 		
 		// We want at least one node left
-		if(nrNodesToRemove >= nodes.length){
-			nrNodesToRemove = nodes.length - 1;
+		if(nrNodesToRemove >= nrNodes){
+			nrNodesToRemove = nrNodes - 1;
 		}
 
-        // Fill the list with edges indexes. Will be used to draw nodes to be removed.
-        this.initIndexRandomizer(nodes.length);
+        // Fill the list with node indexes. Will be used to draw nodes to be removed.
+        this.initIndexRandomizer(nrNodes);
 
         
         while(nrNodesToRemove > 0){
-        	taskMonitor.setProgress((double)((double)1-((double) nrNodesToRemove)/((double)(nodes.length - 1))));
-        	GeneNode node = nodes[getNextRandomIndex()];
+        	taskMonitor.setProgress((double)((double)1-((double) nrNodesToRemove)/((double)(nrNodes - 1))));
+        	int node = getNextRandomIndex();
         	
-        	// If it's the same ID, or either nodes have been swapped already, then we don't want to swap.
-        	if(removedNodes.contains(node)){
+        	// If the node has been removed already, we draw another one.
+        	if(removedNodes.get(node)){
         		continue;
         	}
 
-        	graph.removeGeneNode(node);
-            removedNodes.add(node);
+        	removedNodes.set(node);
             
         	nrNodesToRemove -= 1;
         }
+
+		// The nodes are removed at once, so that the edge list is filtered
+		// only once.
+		Set<GeneNode> nodes = new HashSet<GeneNode>();
+		for(int node = removedNodes.nextSetBit(0); node >= 0; node = removedNodes.nextSetBit(node + 1)){
+			nodes.add(snapshot.getNode(node));
+		}
+		graph.removeGeneNodes(nodes);
 		
 		return graph;
 	}
@@ -16,6 +16,8 @@ public class PerturbationService {
 			return new NodeRemovePerturbation();
 		case EdgeRewire:
 			return new EdgeRewirePerturbation();
+		case ExpressionShuffle:
+			return new ExpressionShufflePerturbation();
 		default:
 			break;
 		}
@@ -31,6 +33,7 @@ public class PerturbationService {
 		returnList.add(PerturbationTags.NodeRemoval);
 		returnList.add(PerturbationTags.EdgeRemoval);
 		returnList.add(PerturbationTags.EdgeRewire);
+		returnList.add(PerturbationTags.ExpressionShuffle);
 		
 		return returnList;
 	}
@@ -16,6 +16,9 @@ import java.util.Map;
 import java.util.Set;
 
 /**
+* Tells the exception nodes of a result by their validity flags, so the flags
+* of the graph have to be those of the run the result comes from, see
+* GeneNode.isValid().
 *
 * @author nalcaraz
 */
@@ -49,7 +52,7 @@ public class BENRemover implements Serializable {
    private Result toResult(SparseGraph<String, String> g) {
        GenericResult result = new GenericResult();
        for (String nodeId: g.getVertices()) {
-           result.add(kpmGraph.getNodeIdToGeneNode().get(nodeId));
+           result.add(kpmGraph.getGeneNode(nodeId));
        }
        return result;
    }
@@ -110,6 +110,9 @@ public class BatchRunWithPerturbationRunner implements Runnable, IKPMTaskMonitor
         }
 
 
+        // Perturb reproducibly for a given seed.
+        parameters.permuter.setSeed(kpmSettings.SEED);
+
         // Backup the unpermuted graph.
         kpmSettings.MAIN_GRAPH_BACKUP = new KPMGraph(kpmSettings.MAIN_GRAPH);
         kpmSettings.USE_INES = parameters.isINEs;
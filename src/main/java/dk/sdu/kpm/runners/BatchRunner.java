@@ -3,11 +3,13 @@ package dk.sdu.kpm.runners;
 import dk.sdu.kpm.AlgoComputations;
 import dk.sdu.kpm.KPMSettings;
 import dk.sdu.kpm.RunStats;
+import dk.sdu.kpm.algo.ines.ComponentGraphBuilder;
 import dk.sdu.kpm.charts.ChartInput;
 import dk.sdu.kpm.charts.IChart;
 import dk.sdu.kpm.charts.StandardCharts;
 import dk.sdu.kpm.graph.GeneNode;
 import dk.sdu.kpm.graph.Result;
+import dk.sdu.kpm.graph.ResultCollector;
 import dk.sdu.kpm.logging.KpmLogger;
 import dk.sdu.kpm.results.IKPMResultItem;
 import dk.sdu.kpm.results.IKPMRunListener;
@@ -19,6 +21,12 @@ import dk.sdu.kpm.validation.ValidationOverlapResult;
 
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 
 public class BatchRunner implements Runnable {
@@ -33,6 +41,18 @@ public class BatchRunner implements Runnable {
 
     private volatile KPMSettings kpmSettings;
 
+    // used for the combinations of a batch run, owned by the caller
+    private volatile ExecutorService executor;
+
+    // used by the algorithms of every run, owned by the caller
+    private volatile ForkJoinPool algorithmExecutor;
+
+    private int progress;
+    private int fullBar;
+
+    // shared by the INES runs of a batch run, see runGridPoints()
+    private volatile ComponentGraphBuilder componentGraphBuilder;
+
     public BatchRunner(String runId, IKPMTaskMonitor taskMonitor,
             IKPMRunListener listener, KPMSettings settings) {
         this.runId = runId;
@@ -49,6 +69,23 @@ public class BatchRunner implements Runnable {
         this.copyKPMSettings = copy;
     }
 
+    /**
+     * Sets the executor that computes the combinations of a batch run. It is
+     * not shut down by this runner. Without an executor, a pool with
+     * NUMBER_OF_PARALLEL_RUNS threads is used for every batch run.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the pool the algorithms of every run run on, see
+     * AlgoComputations.setExecutor(). It is not shut down by this runner.
+     */
+    public void setAlgorithmExecutor(ForkJoinPool algorithmExecutor) {
+        this.algorithmExecutor = algorithmExecutor;
+    }
+
     synchronized private boolean isCancelled() {
         return this.cancelled;
     }
@@ -89,7 +126,9 @@ public class BatchRunner implements Runnable {
         taskMonitor.setStatusMessage("Searching and extracting pathways...");
         long start = System.currentTimeMillis();
 
-        List<Result> results = new AlgoComputations().run(kpmSettings.ALGO, kpmSettings.MAIN_GRAPH, taskMonitor, kpmSettings);
+        AlgoComputations algoComputations = new AlgoComputations();
+        algoComputations.setExecutor(algorithmExecutor);
+        List<Result> results = algoComputations.run(kpmSettings.ALGO, kpmSettings.MAIN_GRAPH, taskMonitor, kpmSettings);
 
         long end = System.currentTimeMillis();
         kpmSettings.TOTAL_RUNNING_TIME = (end - start) / 1000;
@@ -101,27 +140,8 @@ public class BatchRunner implements Runnable {
         } else if (results.isEmpty()) {
             return;
         }
-        if (results.size() > 1) {
-            Collections.sort(results);
-            taskMonitor.setProgress(0.7);
-            if (!kpmSettings.DOUBLE_SOLUTIONS_ALLOWED) {
-                results = removeDoubleSolutions(results);
-            }
-
-            if (kpmSettings.NUM_SOLUTIONS >= 0) {
-                List<Result> filter = new ArrayList<Result>();
-                int toAdd = 1;
-                for (Result result : results) {
-                    if (toAdd > kpmSettings.NUM_SOLUTIONS) {
-                        break;
-                    } else {
-                        filter.add(result);
-                        toAdd++;
-                    }
-                }
-                results = filter;
-            }
-        }
+        // the results are already sorted, without doubles and cut after
+        // NUM_SOLUTIONS
         totalPathways = results.size();
         taskMonitor.setProgress(0.9);
         Map<String, Boolean> exceptionMap = new HashMap<String, Boolean>();
@@ -179,10 +199,7 @@ public class BatchRunner implements Runnable {
         indSize[0] = kList.size();
         int totalRuns = kList.size();
         int l = 0;
-        int maxRunK = 0;
-        Map<String, Integer> maxRunL = new HashMap<String, Integer>();
         for (String lid : kpmSettings.externalToInternalIDManager.getInternalIdentifiers()) {
-            maxRunL.put(lid, 0);
             int minL = 0;
             try {
                 minL = kpmSettings.MIN_L.get(lid);
@@ -207,15 +224,12 @@ public class BatchRunner implements Runnable {
 
         CartesianProduct cp = new BatchRunner.CartesianProduct(indSize);
 
-        int runs = 0;
-        int prog = runs;
-        int fullBar = 2 * totalRuns;
         kpmSettings.STATS_MAP = new HashMap<List<Integer>, RunStats>();
         cp.hasNext();
 
         try {
             DecimalFormat runFormat = getFormatedInt(totalRuns);
-            String currentGraphTitle = runId;
+            List<GridPoint> points = new ArrayList<GridPoint>(totalRuns);
             while (cp.hasNext() && !isCancelled()) {
                 int[] indices = cp.next();
                 int entries = indices.length;
@@ -223,106 +237,31 @@ public class BatchRunner implements Runnable {
                 for (int i = 0; i < entries; i++) {
                     params.add(0);
                 }
-                kpmSettings.CASE_EXCEPTIONS_MAP.clear();
                 params.set(0, ranges.get(0).get(indices[0]));
                 int currK = params.get(0);
-                kpmSettings.GENE_EXCEPTIONS = currK;
-                String message = "Extracting pathways for exceptions:\n";
                 String stats = "";
                 if (kpmSettings.USE_INES) {
                     stats = "K=" + currK;
                 }
-                if (currK > maxRunK) {
-                    maxRunK = currK;
-                }
+                Map<String, Integer> caseExceptions = new HashMap<String, Integer>();
                 for (int i = 1; i < entries; i++) {
                     int indi = indices[i];
                     List<Integer> rList = ranges.get(i);
                     params.set(i, rList.get(indi));
                     String internalId = kpmSettings.INDEX_L_MAP.get(i - 1);
                     int currL = params.get(i);
-                    kpmSettings.CASE_EXCEPTIONS_MAP.put(internalId, currL);
+                    caseExceptions.put(internalId, currL);
                     stats += ", L=" + currL;
-                    if (currL > maxRunL.get(internalId)) {
-                        maxRunL.put(internalId, currL);
-                    }
-                }
-
-                if (kpmSettings.GENE_EXCEPTIONS > maxRunK) {
-                    maxRunK = kpmSettings.GENE_EXCEPTIONS;
                 }
 
-                kpmSettings.MAIN_GRAPH.refreshGraph(kpmSettings);
-                taskMonitor.setStatusMessage(message + stats);
-                long start = System.currentTimeMillis();
-
-                // An interface mapper is needed, to isolate the library completely from Cytoscape
-                // Should not affect performance
-                List<Result> results = new AlgoComputations().run(kpmSettings.ALGO, kpmSettings.MAIN_GRAPH, taskMonitor, kpmSettings);
-                long end = System.currentTimeMillis();
-                String runId = currentGraphTitle + "-R" + runFormat.format(runs + 1);
-                runs++;
-                prog++;
-                double completed = (double) prog / (double) fullBar;
-                taskMonitor.setProgress(completed - 0.01);
-                message = "Computing statistics for exceptions:\n ";
-                taskMonitor.setStatusMessage(message + stats);
-
-                if (results.size() > 1) {
-                    Collections.sort(results);
-                    if (!kpmSettings.DOUBLE_SOLUTIONS_ALLOWED) {
-                        results = removeDoubleSolutions(results);
-                    }
-
-                    if (kpmSettings.NUM_SOLUTIONS >= 0) {
-                        List<Result> filter = new ArrayList<Result>();
-                        int toAdd = 1;
-                        for (Result result : results) {
-                            if (toAdd > kpmSettings.NUM_SOLUTIONS) {
-                                break;
-                            } else {
-                                filter.add(result);
-                                toAdd++;
-                            }
-                        }
-                        results = filter;
-                    }
-                }
-                totalPathways += results.size();
-
-                taskMonitor.setStatusMessage(message + "Iterating through vertices.");
-                Map<String, Boolean> exceptionMap = new HashMap<String, Boolean>();
-
-                if (kpmSettings.MAIN_GRAPH != null) {
-                    for (GeneNode geneNode : kpmSettings.MAIN_GRAPH.getVertices()) {
-                        exceptionMap.put(geneNode.getNodeId(), !geneNode.isValid());
-                    }
-                }
-
-                if (results != null) {
-                    if (!results.isEmpty()) {
-
-                        taskMonitor.setStatusMessage(message + "Computing run stats.");
-                        RunStats rs = new RunStats(runId,
-                                FilterBENs(results), kpmSettings.TOTAL_RUNNING_TIME, exceptionMap, kpmSettings);
-                        kpmSettings.STATS_MAP.put(params, rs);
-                        taskMonitor.setStatusMessage(message + "Finished computing run stats.");
-                    }
-                }
-
-                taskMonitor.setStatusMessage(message + "Finished computing run stats.");
-                prog++;
-
+                String pointRunId = runId + "-R" + runFormat.format(points.size() + 1);
+                points.add(new GridPoint(pointRunId, currK, caseExceptions, stats, params, null));
             }
+
+            runGridPoints(points);
         } catch (Exception e) {
             KpmLogger.log(Level.SEVERE, e);
         }
-        if (cancelled) {
-            kpmSettings.MAX_K = maxRunK;
-            for (String lid : maxRunL.keySet()) {
-                kpmSettings.MAX_L.put(lid, maxRunL.get(lid));
-            }
-        }
         taskMonitor.setStatusMessage("Finalizing and performing post-processing tasks...");
     }
 
@@ -350,144 +289,295 @@ public class BatchRunner implements Runnable {
         indSize[1] = lRuns;
         int totalRuns = kList.size() * lRuns;
 
-        int maxRunK = 0;
-        Map<String, Integer> maxRunL = new HashMap<String, Integer>();
-
         int l = 0;
         for (String lid : kpmSettings.externalToInternalIDManager.getInternalIdentifiers()) {
             ranges.add(lRanges.get(lid));
-            maxRunL.put(lid, 0);
             kpmSettings.INDEX_L_MAP.put(l, lid);
             l++;
         }
 
         CartesianProduct cp = new BatchRunner.CartesianProduct(indSize);
 
-        int runs = 0;
-        int prog = runs;
-        int fullBar = 2 * totalRuns;
         kpmSettings.STATS_MAP_PER = new HashMap<PercentageParameters, RunStats>();
         cp.hasNext();
 
         try {
             DecimalFormat runFormat = getFormatedInt(totalRuns);
-            String currentGraphTitle = runId;
-
+            List<GridPoint> points = new ArrayList<GridPoint>(totalRuns);
             while (cp.hasNext() && !isCancelled()) {
                 int[] indices = cp.next();
-                int entries = lRuns + 1;
-//                List<Integer> params = new ArrayList<Integer>(entries);
-//                for (int i = 0; i < entries; i++) {
-//                    params.add(0);
-//                }
-                kpmSettings.CASE_EXCEPTIONS_MAP.clear();
-//                params.set(0, ranges.get(0).get(indices[0]));
                 int currK = ranges.get(0).get(indices[0]);
-                kpmSettings.GENE_EXCEPTIONS = currK;
-                String message = "Extracting pathways for exceptions:\n";
                 String stats = "";
                 if (kpmSettings.USE_INES) {
                     stats = "K=" + currK;
                 }
-                if (currK > maxRunK) {
-                    maxRunK = currK;
-                }
                 int indi = indices[1];
 
                 PercentageParameters perParam
                         = new PercentageParameters(currK, percentages.get(indi));
+                Map<String, Integer> caseExceptions = new HashMap<String, Integer>();
                 for (int i = 1; i < ranges.size(); i++) {
 
                     List<Integer> rList = ranges.get(i);
-                    //params.set(i, rList.get(indi));
                     String internalId = kpmSettings.INDEX_L_MAP.get(i - 1);
                     int currL = rList.get(indi);
-                    kpmSettings.CASE_EXCEPTIONS_MAP.put(internalId, currL);
+                    caseExceptions.put(internalId, currL);
                     stats += ", L=" + currL;
-                    if (currL > maxRunL.get(internalId)) {
-                        maxRunL.put(internalId, currL);
-                    }
                 }
 
-//                kpmSettings.VARYING_L_ID = new ArrayList<String>(2);
-//                kpmSettings.VARYING_L_ID_IN_PERCENTAGE = new HashMap<String, Boolean>(2);
-                if (kpmSettings.GENE_EXCEPTIONS > maxRunK) {
-                    maxRunK = kpmSettings.GENE_EXCEPTIONS;
-                }
+                String pointRunId = runId + "-R" + runFormat.format(points.size() + 1);
+                points.add(new GridPoint(pointRunId, currK, caseExceptions, stats, null, perParam));
+            }
 
-                kpmSettings.MAIN_GRAPH.refreshGraph(kpmSettings);
-                taskMonitor.setStatusMessage(message + stats);
-                long start = System.currentTimeMillis();
-
-                // An interface mapper is needed, to isolate the library completely from Cytoscape
-                // Should not affect performance
-                List<Result> results = new AlgoComputations().run(kpmSettings.ALGO, kpmSettings.MAIN_GRAPH, taskMonitor, kpmSettings);
-                long end = System.currentTimeMillis();
-                String runId = currentGraphTitle + "-R" + runFormat.format(runs + 1);
-                runs++;
-                prog++;
-                double completed = (double) prog / (double) fullBar;
-                taskMonitor.setProgress(completed - 0.01);
-                message = "Computing statistics for exceptions:\n ";
-                taskMonitor.setStatusMessage(message + stats);
-
-                if (results.size() > 1) {
-                    Collections.sort(results);
-                    if (!kpmSettings.DOUBLE_SOLUTIONS_ALLOWED) {
-                        results = removeDoubleSolutions(results);
-                    }
+            runGridPoints(points);
+        } catch (Exception e) {
+            KpmLogger.log(Level.SEVERE, e);
+        }
+        taskMonitor.setStatusMessage("Finalizing and performing post-processing tasks...");
+    }
 
-                    if (kpmSettings.NUM_SOLUTIONS >= 0) {
-                        List<Result> filter = new ArrayList<Result>();
-                        int toAdd = 1;
-                        for (Result result : results) {
-                            if (toAdd > kpmSettings.NUM_SOLUTIONS) {
-                                break;
-                            } else {
-                                filter.add(result);
-                                toAdd++;
-                            }
-                        }
-                        results = filter;
-                    }
+    /**
+     * Computes the given (K, L) combinations, NUMBER_OF_PARALLEL_RUNS of them
+     * at the same time or on the executor set by setExecutor(). The runs only
+     * read MAIN_GRAPH. Once all of them are done, their results are merged
+     * into STATS_MAP or STATS_MAP_PER one after the other, in the order of the
+     * given list.
+     *
+     * Every run works on a validity array of its own, so the validity flags
+     * of the nodes of MAIN_GRAPH are undefined while the runs are computed.
+     * They hold the validity of a combination only while it is merged, see
+     * mergeGridPoint(); whatever reads them (BENRemover, GenericResult,
+     * GeneCluster.fromValidNode()) must not be used before.
+     */
+    private void runGridPoints(final List<GridPoint> points) throws InterruptedException {
+        fullBar = 2 * points.size();
+        progress = 0;
+
+        // Only refresh the positive and negative lists once, the validity of
+        // the nodes is computed per combination. The flags this sets are
+        // those of the base settings, not of any combination.
+        kpmSettings.MAIN_GRAPH.refreshGraph(kpmSettings);
+        // The combinations are started ordered by their L values and then by
+        // K, so that the l-component graph of a combination mostly extends
+        // the one before or is the same for another K.
+        componentGraphBuilder = new ComponentGraphBuilder(kpmSettings.MAIN_GRAPH,
+                Math.max(1, kpmSettings.NUMBER_OF_PARALLEL_RUNS));
+        List<Integer> startOrder = new ArrayList<Integer>(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            startOrder.add(i);
+        }
+        Collections.sort(startOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareGridPoints(points.get(a), points.get(b));
+            }
+        });
+
+        List<FutureTask<List<Result>>> tasks = new ArrayList<FutureTask<List<Result>>>(points.size());
+        for (GridPoint point : points) {
+            tasks.add(new FutureTask<List<Result>>(point));
+        }
+
+        ExecutorService pool = executor;
+        boolean ownPool = false;
+        if (pool == null && kpmSettings.NUMBER_OF_PARALLEL_RUNS > 1) {
+            pool = Executors.newFixedThreadPool(kpmSettings.NUMBER_OF_PARALLEL_RUNS);
+            ownPool = true;
+        }
+
+        try {
+            for (int i : startOrder) {
+                FutureTask<List<Result>> task = tasks.get(i);
+                if (pool != null) {
+                    pool.execute(task);
+                } else {
+                    task.run();
                 }
-                totalPathways += results.size();
+            }
 
-                taskMonitor.setStatusMessage(message + "Iterating through vertices.");
-                Map<String, Boolean> exceptionMap = new HashMap<String, Boolean>();
+            // The merge sets the flags of the nodes of MAIN_GRAPH, which are
+            // shared by all runs, so it has to wait until all are done.
+            List<List<Result>> pointResults = new ArrayList<List<Result>>(tasks.size());
+            for (FutureTask<List<Result>> task : tasks) {
+                try {
+                    pointResults.add(task.get());
+                } catch (ExecutionException e) {
+                    KpmLogger.log(Level.SEVERE, e);
+                    pointResults.add(null);
+                }
+            }
+
+            int maxRunK = 0;
+            Map<String, Integer> maxRunL = new HashMap<String, Integer>();
+            for (String lid : kpmSettings.externalToInternalIDManager.getInternalIdentifiers()) {
+                maxRunL.put(lid, 0);
+            }
+
+            for (int i = 0; i < points.size(); i++) {
+                GridPoint point = points.get(i);
+                List<Result> results = pointResults.get(i);
+                if (!point.hasRun()) {
+                    continue;
+                }
 
-                if (kpmSettings.MAIN_GRAPH != null) {
-                    for (GeneNode geneNode : kpmSettings.MAIN_GRAPH.getVertices()) {
-                        exceptionMap.put(geneNode.getNodeId(), !geneNode.isValid());
+                kpmSettings.GENE_EXCEPTIONS = point.k;
+                kpmSettings.CASE_EXCEPTIONS_MAP.clear();
+                kpmSettings.CASE_EXCEPTIONS_MAP.putAll(point.caseExceptions);
+                if (point.k > maxRunK) {
+                    maxRunK = point.k;
+                }
+                for (String lid : point.caseExceptions.keySet()) {
+                    if (point.caseExceptions.get(lid) > maxRunL.get(lid)) {
+                        maxRunL.put(lid, point.caseExceptions.get(lid));
                     }
                 }
 
                 if (results != null) {
-                    if (!results.isEmpty()) {
-
-                        taskMonitor.setStatusMessage(message + "Computing run stats.");
-                        RunStats rs = new RunStats(runId,
-                                FilterBENs(results), kpmSettings.TOTAL_RUNNING_TIME, exceptionMap, kpmSettings);
-                        //kpmSettings.STATS_MAP.put(params, rs);
-                        kpmSettings.STATS_MAP_PER.put(perParam, rs);
-                        taskMonitor.setStatusMessage(message + "Finished computing run stats.");
-                    }
+                    mergeGridPoint(point, results);
                 }
 
-                taskMonitor.setStatusMessage(message + "Finished computing run stats.");
-                prog++;
+                updateProgress(fullBar);
+            }
 
+            if (cancelled) {
+                kpmSettings.MAX_K = maxRunK;
+                for (String lid : maxRunL.keySet()) {
+                    kpmSettings.MAX_L.put(lid, maxRunL.get(lid));
+                }
+            }
+        } finally {
+            componentGraphBuilder = null;
+            if (ownPool) {
+                pool.shutdown();
             }
-        } catch (Exception e) {
-            KpmLogger.log(Level.SEVERE, e);
         }
-        if (cancelled) {
-            kpmSettings.MAX_K = maxRunK;
-            for (String lid : maxRunL.keySet()) {
-                kpmSettings.MAX_L.put(lid, maxRunL.get(lid));
+    }
+
+    private int compareGridPoints(GridPoint a, GridPoint b) {
+        for (int l = 0; l < kpmSettings.INDEX_L_MAP.size(); l++) {
+            String lid = kpmSettings.INDEX_L_MAP.get(l);
+            int cmp = a.caseExceptions.get(lid).compareTo(b.caseExceptions.get(lid));
+            if (cmp != 0) {
+                return cmp;
             }
         }
-        taskMonitor.setStatusMessage("Finalizing and performing post-processing tasks...");
+        return a.k < b.k ? -1 : (a.k == b.k ? 0 : 1);
+    }
+
+    /**
+     * Restores the state of the graph after the run of the given combination
+     * and computes its statistics.
+     */
+    private void mergeGridPoint(GridPoint point, List<Result> results) {
+        String message = "Computing statistics for exceptions:\n ";
+        taskMonitor.setStatusMessage(message + point.stats);
+
+        // Every run flags the nodes of its solutions, which shows up in the
+        // statistics. The collector of the run recorded those flags, and
+        // from here on the readers of the flags see the combination.
+        kpmSettings.MAIN_GRAPH.applyValidity(point.validity);
+        totalPathways += results.size();
+
+        taskMonitor.setStatusMessage(message + "Iterating through vertices.");
+        Map<String, Boolean> exceptionMap = new HashMap<String, Boolean>();
+
+        if (kpmSettings.MAIN_GRAPH != null) {
+            for (GeneNode geneNode : kpmSettings.MAIN_GRAPH.getVertices()) {
+                exceptionMap.put(geneNode.getNodeId(), !geneNode.isValid());
+            }
+        }
+
+        if (!results.isEmpty()) {
+
+            taskMonitor.setStatusMessage(message + "Computing run stats.");
+            RunStats rs = new RunStats(point.runId,
+                    FilterBENs(results), kpmSettings.TOTAL_RUNNING_TIME, exceptionMap, kpmSettings);
+            if (point.percentageParameters != null) {
+                kpmSettings.STATS_MAP_PER.put(point.percentageParameters, rs);
+            } else {
+                kpmSettings.STATS_MAP.put(point.params, rs);
+            }
+        }
+
+        taskMonitor.setStatusMessage(message + "Finished computing run stats.");
+    }
+
+    private synchronized void updateProgress(int fullBar) {
+        progress++;
+        double completed = (double) progress / (double) fullBar;
+        taskMonitor.setProgress(completed - 0.01);
+    }
+
+    /**
+     * One (K, L) combination of a batch run. It runs on its own copy of the
+     * settings and its own validity of the nodes, so that several
+     * combinations can be computed at the same time on the shared MAIN_GRAPH.
+     */
+    private class GridPoint implements Callable<List<Result>> {
+
+        private final String runId;
+
+        private final int k;
+
+        private final Map<String, Integer> caseExceptions;
+
+        private final String stats;
+
+        // key in STATS_MAP, or null if the run is stored in STATS_MAP_PER
+        private final List<Integer> params;
+
+        private final PercentageParameters percentageParameters;
+
+        private final KPMSettings settings;
+
+        // the validity of the run, with the exception nodes its solutions
+        // flagged
+        private volatile boolean[] validity = null;
+
+        GridPoint(String runId, int k, Map<String, Integer> caseExceptions, String stats,
+                  List<Integer> params, PercentageParameters percentageParameters) {
+            this.runId = runId;
+            this.k = k;
+            this.caseExceptions = caseExceptions;
+            this.stats = stats;
+            this.params = params;
+            this.percentageParameters = percentageParameters;
+
+            // copied up front, the merge modifies kpmSettings while other
+            // combinations may still be running
+            settings = new KPMSettings(kpmSettings, false);
+            settings.GENE_EXCEPTIONS = k;
+            settings.CASE_EXCEPTIONS_MAP = new HashMap<String, Integer>(caseExceptions);
+        }
+
+        boolean hasRun() {
+            return validity != null;
+        }
+
+        @Override
+        public List<Result> call() throws Exception {
+            if (isCancelled()) {
+                return null;
+            }
+
+            taskMonitor.setStatusMessage("Extracting pathways for exceptions:\n" + stats);
+            boolean[] pointValidity = settings.MAIN_GRAPH.computeValidity(settings);
+
+            // An interface mapper is needed, to isolate the library completely from Cytoscape
+            // Should not affect performance
+            AlgoComputations algoComputations = new AlgoComputations();
+            algoComputations.setComponentGraphBuilder(componentGraphBuilder);
+            algoComputations.setExecutor(algorithmExecutor);
+            ResultCollector collector = ResultCollector.fromSettings(settings);
+            boolean[] exceptionFlags = pointValidity.clone();
+            collector.setExceptionFlags(exceptionFlags);
+            List<Result> results = algoComputations.run(settings.ALGO, settings.MAIN_GRAPH,
+                    pointValidity, collector, taskMonitor, settings);
+
+            validity = exceptionFlags;
+            updateProgress(fullBar);
+            return results;
+        }
     }
 
     private void runBatch() {
@@ -565,20 +655,6 @@ public class BatchRunner implements Runnable {
         return ret;
     }
 
-    private List<Result> removeDoubleSolutions(List<Result> results) {
-        List<Result> toReturn = new ArrayList<Result>();
-        int i = 0;
-
-        while (i < results.size()) {
-            Result r = results.get(i);
-            if (!toReturn.contains(r)) {
-                toReturn.add(r);
-            }
-            i++;
-        }
-        return toReturn;
-    }
-
     private DecimalFormat getFormatedInt(int maxValue) {
         String ret = "";
         int zeros = (int) Math.floor(Math.log10(maxValue)) + 1;
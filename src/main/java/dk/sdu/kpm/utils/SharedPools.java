@@ -0,0 +1,43 @@
+package dk.sdu.kpm.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The pools the algorithms run on when the caller has not given them one,
+ * one per parallelism, created on first use and kept for the lifetime of
+ * the JVM. Runs with the same NUMBER_OF_PROCESSORS share their threads
+ * instead of starting and stopping a pool each, and overlapping runs do not
+ * add threads.
+ *
+ * The workers of a ForkJoinPool are daemon threads, so the pools never keep
+ * the JVM alive.
+ */
+public final class SharedPools {
+
+    private static final ConcurrentMap<Integer, ForkJoinPool> POOLS =
+            new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+    private SharedPools() {
+    }
+
+    /**
+     * @param parallelism the number of workers, values below 1 count as 1
+     * @return the shared pool with the given number of workers
+     */
+    public static ForkJoinPool get(int parallelism) {
+        int p = Math.max(1, parallelism);
+        ForkJoinPool pool = POOLS.get(p);
+        if (pool == null) {
+            ForkJoinPool created = new ForkJoinPool(p);
+            pool = POOLS.putIfAbsent(p, created);
+            if (pool == null) {
+                pool = created;
+            } else {
+                created.shutdown();
+            }
+        }
+        return pool;
+    }
+}
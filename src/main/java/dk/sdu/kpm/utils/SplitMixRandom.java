@@ -0,0 +1,94 @@
+package dk.sdu.kpm.utils;
+
+import java.util.Random;
+
+/**
+ * A SplitMix64 generator (the algorithm of Java 8's SplittableRandom) for
+ * one task. An instance must not be shared between threads; every parallel
+ * task gets a stream of its own through {@link #forTask(long, long...)},
+ * derived from the seed of the run and the identity of the task. The streams
+ * are therefore free of contention, and a run gives the same results for
+ * the same seed no matter how its tasks are scheduled.
+ *
+ * Extends Random only so that it can be passed wherever a Random is
+ * expected.
+ */
+public class SplitMixRandom extends Random {
+
+    private static final long serialVersionUID = -6127340811625457291L;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    public SplitMixRandom(long seed) {
+        super(0L);
+        this.state = seed;
+    }
+
+    /**
+     * @param seed the seed of the run, e.g. KPMSettings.SEED
+     * @param task the identity of the task, e.g. the index of its starting
+     * node, the iteration and the index of the ant
+     * @return the stream of the given task, different for every task
+     */
+    public static SplitMixRandom forTask(long seed, long... task) {
+        long s = mix64(seed);
+        for (long id : task) {
+            s = mix64(s + GOLDEN_GAMMA * (id + 1));
+        }
+        return new SplitMixRandom(s);
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        // also called by the constructor of Random, before state is set
+        this.state = seed;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        int m = bound - 1;
+        int u = (int) (nextLong() >>> 33);
+        if ((bound & m) == 0) {
+            return u & m;
+        }
+        // reject the top values that would make the result biased
+        int r = u % bound;
+        while (u - r + m < 0) {
+            u = (int) (nextLong() >>> 33);
+            r = u % bound;
+        }
+        return r;
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+}
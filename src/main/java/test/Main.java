@@ -4,6 +4,7 @@ import dk.sdu.kpm.Algo;
 import dk.sdu.kpm.KPMSettings;
 import dk.sdu.kpm.charts.*;
 import dk.sdu.kpm.graph.KPMGraph;
+import dk.sdu.kpm.io.KPMGraphLoader;
 import dk.sdu.kpm.results.IKPMResultItem;
 import dk.sdu.kpm.results.IKPMResultSet;
 import dk.sdu.kpm.runners.BatchRunner;
@@ -184,162 +185,12 @@ public class Main {
     }
 
     public static KPMGraph createGraph(KPMSettings kpmSettings, String graphFile) {
-        HashMap<String, String> nodeId2Symbol = new HashMap<String, String>();
-        Map<String, Map<String, int[]>> expressionMap = new HashMap<String, Map<String, int[]>>();
-        LinkedList<String[]> edgeList = new LinkedList<String[]>();
-        HashMap<String, Integer> without_exp = new HashMap<String, Integer>();
-        HashSet<String> inNetwork = new HashSet<String>();
-        HashMap<String, String> expressionFiles = new HashMap<>(kpmSettings.MATRIX_FILES_MAP);
-        HashMap<String, Integer> numCasesMap = new HashMap<>();
-        HashMap<String, Integer> numGenesMap = new HashMap<>();
-        HashMap<String, Double> avgExpressedCasesMap = new HashMap<>();
-        HashMap<String, Double> avgExpressedGenesMap = new HashMap<>();
-        HashMap<String, Integer> totalExpressedMap = new HashMap<>();
-        HashMap<String, Set<String>> backNodesMap = new HashMap<>();
-        HashMap<String, Set<String>> backNodesByExpMap = new HashMap<>();
-        HashMap<String, Set<String>> backGenesMap = new HashMap<>();
-
-        for (String fileId : expressionFiles.keySet()) {
-            numCasesMap.put(fileId, 0);
-            without_exp.put(fileId, 0);
-        }
         try {
-
-            String line = "";
-            BufferedReader graphReader = new BufferedReader(new FileReader(graphFile));
-            int cont = 0;
-            while ((line = graphReader.readLine()) != null) {
-                String[] fields = line.split("\t");
-                String id1 = fields[0].trim();
-                nodeId2Symbol.put(id1, id1);
-                cont++;
-                if (fields.length < 3) {
-                    System.out.println("LINE NUMBER:" + cont);
-                    System.out.print(line);
-                }
-                String id2 = fields[2].trim();
-                nodeId2Symbol.put(id2, id2);
-
-                String[] edge = {id1, id2};
-                edgeList.add(edge);
-                inNetwork.add(id1);
-                inNetwork.add(id2);
-            }
-            for (String fileId : expressionFiles.keySet()) {
-                int totalExp = 0;
-                int numCases = 0;
-                int numGenes = 0;
-                HashMap<String, int[]> nodeId2Expression = new HashMap<String, int[]>();
-                Set<String> inExp = new HashSet<String>();
-
-                BufferedReader expressionReader =
-                        new BufferedReader(new FileReader(expressionFiles.get(fileId)));
-
-
-
-                while ((line = expressionReader.readLine()) != null) {
-                    numGenes++;
-                    String[] fields = line.split("\t");
-                    String nodeId = fields[0].trim();
-                    inExp.add(nodeId);
-
-                    int[] exp = new int[fields.length - 1];
-
-                    for (int i = 1; i < fields.length; i++) {
-                        String val = fields[i].trim();
-                        if (val.equals("1")) {
-                            exp[i - 1] = 1;
-                            totalExp++;
-                        } else if (val.equals("-1")) {
-                            exp[i - 1] = -1;
-                            totalExp++;
-                        } else if (val.equals("0")) {
-                            exp[i - 1] = 0;
-                        } else {
-                            exp[i - 1] = 0;
-                        }
-                    }
-
-                    if (expressionMap.containsKey(nodeId)) {
-                        expressionMap.get(nodeId).put(fileId, exp);
-                    } else {
-                        Map<String, int[]> aux = new HashMap<String, int[]>();
-                        aux.put(fileId, exp);
-                        expressionMap.put(nodeId, aux);
-                    }
-                    numCases = exp.length;
-                    numCasesMap.put(fileId, numCases);
-                }
-                totalExpressedMap.put(fileId, totalExp);
-                double avgExpCases = 0;
-                double avgExpGenes = 0;
-                if (totalExp > 0) {
-                    avgExpCases = (double)numCases / (double)totalExp;
-                    avgExpGenes = (double)numGenes / (double)totalExp;
-                }
-                numGenesMap.put(fileId, inExp.size());
-                avgExpressedCasesMap.put(fileId, avgExpCases);
-                avgExpressedGenesMap.put(fileId, avgExpGenes);
-                Set<String> bckN = new HashSet(inNetwork);
-                Set<String> bckG = new HashSet(inExp);
-                for (String id: inNetwork) {
-                    if (inExp.contains(id)) {
-                        bckN.remove(id);
-                    }
-                }
-                for (String id: inExp) {
-                    if (inNetwork.contains(id)) {
-                        bckG.remove(id);
-                    }
-                }
-
-                backNodesByExpMap.put(fileId, bckN);
-                backGenesMap.put(fileId, bckG);
-                expressionReader.close();
-            }
-
-
-
-            graphReader.close();
-
-
-        } catch (FileNotFoundException ex) {
-            //Logger.getLogger(Parser.class.getName()).log(Level.SEVERE, null, ex);
-            ex.printStackTrace();
+            return KPMGraphLoader.load(kpmSettings, graphFile);
         } catch (IOException ioe) {
-            //Logger.getLogger(Parser.class.getName()).log(Level.SEVERE, null, ioe);
             ioe.printStackTrace();
+            return null;
         }
-
-        for (String nodeId : inNetwork) {
-            if (expressionMap.containsKey(nodeId)) {
-                Map<String, int[]> expMap = expressionMap.get(nodeId);
-                for (String expId : expressionFiles.keySet()) {
-                    if (!expMap.containsKey(expId)) {
-                        if (backNodesMap.containsKey(nodeId)) {
-                            backNodesMap.get(nodeId).add(expId);
-                        } else {
-                            HashSet<String> aux = new HashSet<String>();
-                            aux.add(expId);
-                            backNodesMap.put(nodeId, aux);
-                        }
-
-                    }
-                }
-            } else {
-                if (backNodesMap.containsKey(nodeId)) {
-                    backNodesMap.get(nodeId).addAll(expressionFiles.keySet());
-                } else {
-                    HashSet<String> aux = new HashSet<String>();
-                    aux.addAll(expressionFiles.keySet());
-                    backNodesMap.put(nodeId, aux);
-                }
-            }
-        }
-
-        kpmSettings.NUM_CASES_MAP = numCasesMap;
-        kpmSettings.NUM_STUDIES = numCasesMap.size();
-        return new KPMGraph(expressionMap, edgeList, nodeId2Symbol, backNodesMap, backGenesMap, kpmSettings.NUM_CASES_MAP);
     }
 
     public static void printSummary(IKPMResultSet results, KPMSettings kpmSettings) {
@@ -0,0 +1,202 @@
+package dk.sdu.kpm.algo.glone;
+
+import dk.sdu.kpm.Combine;
+import dk.sdu.kpm.KPMSettings;
+import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.GraphSnapshot;
+import dk.sdu.kpm.graph.KPMGraph;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks on small random graphs that the bound is never below the size of
+ * the largest solution that can be grown from a partial solution. Every
+ * partial solution is grown in every possible order, the same way the
+ * branch-and-bound of Optimal grows it, and the bound is checked at every
+ * step.
+ */
+public class NeighborhoodBoundTest {
+
+    private static final String[] STUDIES = {"L1", "L2", "L3"};
+
+    private static final int NUM_CASES = 4;
+
+    private static final int NUM_NODES = 6;
+
+    private static final int NUM_GRAPHS = 25;
+
+    @Test
+    public void orNeverUnderestimates() {
+        checkBound(Combine.OR, null);
+    }
+
+    @Test
+    public void andNeverUnderestimates() {
+        checkBound(Combine.AND, null);
+    }
+
+    @Test
+    public void customNeverUnderestimates() {
+        checkBound(Combine.CUSTOM, "(L1 && L2) || L3");
+    }
+
+    private void checkBound(Combine operator, String formula) {
+        Random random = new Random(4711);
+        for (int k = 0; k <= 2; k++) {
+            int checked = 0;
+            for (int graph = 0; graph < NUM_GRAPHS; graph++) {
+                KPMSettings settings = new KPMSettings();
+                settings.COMBINE_OPERATOR = operator;
+                if (formula != null) {
+                    settings.COMBINE_FORMULA = formula;
+                }
+                settings.GENE_EXCEPTIONS = k;
+                for (String study : STUDIES) {
+                    settings.CASE_EXCEPTIONS_MAP.put(study, random.nextInt(2 * NUM_CASES));
+                    settings.NUM_CASES_MAP.put(study, NUM_CASES);
+                }
+                KPMGraph g = randomGraph(random);
+                settings.MAIN_GRAPH = g;
+                settings.N = g.getVertexCount();
+                settings.NUM_STUDIES = STUDIES.length;
+                g.refreshGraph(settings);
+
+                Enumeration enumeration = new Enumeration(g, settings, random);
+                enumeration.fromEveryStartingNode();
+                checked += enumeration.checkedBeyondExceptions;
+            }
+            // the case exceptions have been relevant for the bound
+            assertTrue("no solution larger than K + 1 with K = " + k, checked > 0);
+        }
+    }
+
+    private static KPMGraph randomGraph(Random random) {
+        Map<String, Map<String, int[]>> expression = new HashMap<String, Map<String, int[]>>();
+        Map<String, String> symbols = new HashMap<String, String>();
+        Map<String, Integer> numCases = new HashMap<String, Integer>();
+        for (String study : STUDIES) {
+            numCases.put(study, NUM_CASES);
+        }
+        for (int i = 0; i < NUM_NODES; i++) {
+            String id = "n" + i;
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            for (String study : STUDIES) {
+                int[] vector = new int[NUM_CASES];
+                for (int j = 0; j < NUM_CASES; j++) {
+                    vector[j] = random.nextInt(3) == 0 ? 0 : 1;
+                }
+                vectors.put(study, vector);
+            }
+            expression.put(id, vectors);
+            symbols.put(id, id);
+        }
+
+        LinkedList<String[]> edges = new LinkedList<String[]>();
+        Set<String> seen = new HashSet<String>();
+        int numEdges = NUM_NODES - 1 + random.nextInt(NUM_NODES);
+        while (edges.size() < numEdges) {
+            int a = random.nextInt(NUM_NODES);
+            int b = random.nextInt(NUM_NODES);
+            if (a != b && seen.add(Math.min(a, b) + "-" + Math.max(a, b))) {
+                edges.add(new String[]{"n" + a, "n" + b});
+            }
+        }
+        return new KPMGraph(expression, edges, symbols, numCases);
+    }
+
+    private static final class Enumeration {
+
+        private final KPMGraph g;
+
+        private final GraphSnapshot snapshot;
+
+        private final KPMSettings settings;
+
+        private final NeighborhoodBound bound;
+
+        private final Random random;
+
+        // solutions checked that are larger than the K free nodes plus one
+        int checkedBeyondExceptions = 0;
+
+        Enumeration(KPMGraph g, KPMSettings settings, Random random) {
+            this.g = g;
+            this.snapshot = g.getSnapshot();
+            this.settings = settings;
+            this.bound = new NeighborhoodBound(snapshot, settings);
+            this.random = random;
+        }
+
+        void fromEveryStartingNode() {
+            for (int start = 0; start < snapshot.size(); start++) {
+                GeneNode startingNode = snapshot.getNode(start);
+                Subgraph init = new Subgraph(settings);
+                if (!init.canAdd(startingNode)) {
+                    continue;
+                }
+                init.add(startingNode);
+                NodeFrontier neighbors = new NodeFrontier(snapshot.degree(start));
+                neighbors.expand(start, init, snapshot);
+
+                // with and without nodes excluded as by Optimal
+                grow(init, neighbors, new BitSet());
+                BitSet excluded = new BitSet();
+                for (int i = 0; i < snapshot.size(); i++) {
+                    if (i != start && random.nextBoolean()) {
+                        excluded.set(i);
+                    }
+                }
+                grow(init, neighbors, excluded);
+            }
+        }
+
+        /**
+         * @return the size of the largest solution that can be grown from the
+         * given one without excluded nodes
+         */
+        private int grow(Subgraph solution, NodeFrontier neighbors, BitSet excluded) {
+            int upperBound = bound.bound(solution, neighbors, excluded);
+
+            if (solution.size() > settings.GENE_EXCEPTIONS + 1) {
+                checkedBeyondExceptions++;
+            }
+            int best = solution.size();
+            for (int i = 0; i < neighbors.size(); i++) {
+                int newNode = neighbors.get(i);
+                GeneNode node = snapshot.getNode(newNode);
+                if (excluded.get(newNode) || solution.containsIndex(newNode) || !solution.canAdd(node)) {
+                    continue;
+                }
+                Subgraph branch = new Subgraph(settings);
+                branch.addAll(solution);
+                try {
+                    branch.add(node);
+                } catch (IllegalStateException e) {
+                    // With K > 0, Subgraph loses track of its exception nodes
+                    // once more nodes are cheaper than all of them, and every
+                    // search fails the same way, so no search reaches this
+                    // solution.
+                    continue;
+                }
+                NodeFrontier branchNeighbors = new NodeFrontier(neighbors);
+                branchNeighbors.expand(newNode, branch, snapshot);
+                best = Math.max(best, grow(branch, branchNeighbors, excluded));
+            }
+
+            assertTrue("bound " + upperBound + " is below " + best + " reachable from " + solution
+                    + " with K = " + settings.GENE_EXCEPTIONS + ", L = " + settings.CASE_EXCEPTIONS_MAP
+                    + " and " + settings.COMBINE_OPERATOR + " in " + g.getEdgeList(),
+                    upperBound >= best);
+            return best;
+        }
+    }
+}
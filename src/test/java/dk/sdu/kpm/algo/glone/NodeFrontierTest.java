@@ -0,0 +1,73 @@
+package dk.sdu.kpm.algo.glone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Adds and removes random nodes, some of them colliding in the hash table,
+ * and compares the frontier and its copies with a plain set after every
+ * step.
+ */
+public class NodeFrontierTest {
+
+    private static final int NUM_OPERATIONS = 20000;
+
+    @Test
+    public void matchesSet() {
+        Random random = new Random(4711);
+        NodeFrontier frontier = new NodeFrontier(1);
+        Set<Integer> expected = new HashSet<Integer>();
+        // few distinct nodes at first, so that the table fills and empties
+        // several times, then many
+        for (int i = 0; i < NUM_OPERATIONS; i++) {
+            int range = i < NUM_OPERATIONS / 2 ? 64 : 5000;
+            int node = random.nextInt(range);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.add(node), frontier.add(node));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(node), frontier.remove(node));
+                    break;
+                default:
+                    if (!frontier.isEmpty()) {
+                        int position = random.nextInt(frontier.size());
+                        expected.remove(frontier.get(position));
+                        frontier.removeAt(position);
+                    }
+            }
+            if (i % 500 == 0) {
+                check(expected, new NodeFrontier(frontier), range);
+            }
+            check(expected, frontier, range);
+        }
+    }
+
+    private static void check(Set<Integer> expected, NodeFrontier frontier, int range) {
+        assertEquals(expected.size(), frontier.size());
+        List<Integer> members = new ArrayList<Integer>();
+        for (int position = 0; position < frontier.size(); position++) {
+            int node = frontier.get(position);
+            members.add(node);
+            assertEquals(position, frontier.indexOf(node));
+        }
+        assertEquals(expected, new HashSet<Integer>(members));
+        for (int node = 0; node < Math.min(range, 200); node++) {
+            assertEquals(expected.contains(node), frontier.contains(node));
+            if (!expected.contains(node)) {
+                assertEquals(-1, frontier.indexOf(node));
+            }
+        }
+        assertFalse(frontier.contains(-5 - range));
+        assertTrue(frontier.isEmpty() == expected.isEmpty());
+    }
+}
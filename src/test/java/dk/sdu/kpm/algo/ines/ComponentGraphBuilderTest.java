@@ -0,0 +1,256 @@
+package dk.sdu.kpm.algo.ines;
+
+import dk.sdu.kpm.Combine;
+import dk.sdu.kpm.KPMSettings;
+import dk.sdu.kpm.graph.GeneEdge;
+import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.KPMGraph;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Contracts random graphs for every L and compares the l-component graphs
+ * with the ones contracted cluster by cluster the way the builder did before
+ * it used a union-find structure. Also builds the graphs for a sequence of L
+ * values with one builder, the way a batch run does, and compares every
+ * graph with the one contracted from scratch for the same L, including the
+ * graphs that were released and are handed out again for a repeated L.
+ */
+public class ComponentGraphBuilderTest {
+
+    private static final int NUM_CASES = 8;
+
+    private static final int NUM_NODES = 60;
+
+    private static final int NUM_EDGES = 80;
+
+    private static final int NUM_GRAPHS = 10;
+
+    // raises L, so that the builder extends its previous build, and lowers
+    // it, so that it starts over
+    private static final int[] L_VALUES = {0, 1, 2, 3, 5, 8, 2, 4, 4, 6, 2};
+
+    @Test
+    public void matchesBreadthFirstContraction() {
+        Random random = new Random(4711);
+        for (int graph = 0; graph < NUM_GRAPHS; graph++) {
+            KPMGraph g = randomGraph(random);
+            for (int l = 0; l <= NUM_CASES; l++) {
+                KPMSettings settings = settings(g, l);
+                boolean[] validity = g.computeValidity(settings);
+                LComponentGraph lg = GraphProcessing.componentGraph(g, validity, null, settings);
+                assertEquals("L = " + l, contract(g, validity, settings), describe(lg));
+            }
+        }
+    }
+
+    @Test
+    public void matchesBuildFromScratch() {
+        checkSweep(0);
+    }
+
+    @Test
+    public void matchesBuildFromScratchWhenReleased() {
+        checkSweep(2);
+    }
+
+    @Test
+    public void reusesReleasedGraphs() {
+        KPMGraph g = randomGraph(new Random(4711));
+        ComponentGraphBuilder builder = new ComponentGraphBuilder(g, 2);
+
+        KPMSettings settings = settings(g, 3);
+        boolean[] validity = g.computeValidity(settings);
+        LComponentGraph first = builder.build(validity, null, settings);
+        // not released yet, so it must not be handed out twice
+        LComponentGraph second = builder.build(validity, null, settings);
+        assertNotSame(first, second);
+        assertEquals(describe(first), describe(second));
+
+        // the same L with another K
+        builder.release(first);
+        KPMSettings otherK = settings(g, 3);
+        otherK.GENE_EXCEPTIONS = 2;
+        LComponentGraph reused = builder.build(validity, null, otherK);
+        assertSame(first, reused);
+        assertEquals(describe(GraphProcessing.componentGraph(g, validity, null, otherK)), describe(reused));
+
+        // another L in between
+        builder.release(reused);
+        KPMSettings higher = settings(g, 5);
+        builder.release(builder.build(g.computeValidity(higher), null, higher));
+        assertSame(first, builder.build(validity, null, settings));
+    }
+
+    /**
+     * @param cacheSize the number of released graphs the builder keeps, every
+     * graph is released after it has been checked
+     */
+    private static void checkSweep(int cacheSize) {
+        Random random = new Random(4711);
+        for (int graph = 0; graph < NUM_GRAPHS; graph++) {
+            KPMGraph g = randomGraph(random);
+            ComponentGraphBuilder builder = new ComponentGraphBuilder(g, cacheSize);
+            for (int l : L_VALUES) {
+                KPMSettings settings = settings(g, l);
+                boolean[] validity = g.computeValidity(settings);
+                LComponentGraph lg = builder.build(validity, null, settings);
+                LComponentGraph expected = GraphProcessing.componentGraph(g, validity, null, settings);
+                assertEquals("L = " + l, describe(expected), describe(lg));
+                builder.release(lg);
+            }
+        }
+    }
+
+    private static KPMSettings settings(KPMGraph g, int l) {
+        KPMSettings settings = new KPMSettings();
+        settings.COMBINE_OPERATOR = Combine.OR;
+        settings.GENE_EXCEPTIONS = 1;
+        settings.CASE_EXCEPTIONS_MAP.put("L1", l);
+        settings.NUM_CASES_MAP.put("L1", NUM_CASES);
+        settings.MAIN_GRAPH = g;
+        settings.N = g.getVertexCount();
+        settings.NUM_STUDIES = 1;
+        return settings;
+    }
+
+    /**
+     * Contracts the graph one cluster at a time, by a breadth-first search
+     * from every valid node that is not part of a cluster yet, see
+     * GeneCluster.fromValidNode().
+     */
+    private static List<String> contract(KPMGraph g, boolean[] validity, KPMSettings settings) {
+        g.applyValidity(validity);
+        List<String> description = new ArrayList<String>();
+        Set<String> edges = new HashSet<String>();
+        Set<GeneNode> processed = new HashSet<GeneNode>();
+        Map<GeneNode, Integer> exceptionWeights = new HashMap<GeneNode, Integer>();
+        for (GeneNode node : g.getVertices()) {
+            if (node.isValid()) {
+                if (processed.contains(node)) {
+                    continue;
+                }
+                GeneCluster cluster = GeneCluster.fromValidNode(node, g, settings);
+                processed.addAll(cluster.getNodesInCluster());
+                description.add(label(cluster) + " weight=" + cluster.getWeight()
+                        + " exceptionNeighbors=" + ids(cluster.getExceptionNeighbors()));
+                for (GeneNode exceptionNeighbor : cluster.getExceptionNeighbors()) {
+                    Integer weight = exceptionWeights.get(exceptionNeighbor);
+                    exceptionWeights.put(exceptionNeighbor, (weight == null ? 1 : weight) + cluster.getWeight());
+                    edges.add(edge(label(cluster), exceptionLabel(exceptionNeighbor)));
+                }
+            } else {
+                if (!exceptionWeights.containsKey(node)) {
+                    exceptionWeights.put(node, 1);
+                }
+                for (GeneNode neighbor : g.getNeighbors(node)) {
+                    if (!neighbor.isValid()) {
+                        edges.add(edge(exceptionLabel(node), exceptionLabel(neighbor)));
+                    }
+                }
+            }
+        }
+        for (Map.Entry<GeneNode, Integer> entry : exceptionWeights.entrySet()) {
+            description.add(exceptionLabel(entry.getKey()) + " weight=" + entry.getValue());
+        }
+        description.addAll(edges);
+        Collections.sort(description);
+        return description;
+    }
+
+    /**
+     * @return the clusters, their weights and exception neighbors, and the
+     * edges of the graph, independent of the order they were added in
+     */
+    private static List<String> describe(LComponentGraph lg) {
+        List<String> description = new ArrayList<String>();
+        Set<Integer> exceptionIndices = new HashSet<Integer>();
+        for (GeneCluster cluster : lg.getVertices()) {
+            StringBuilder line = new StringBuilder(label(cluster));
+            line.append(" weight=").append(cluster.getWeight());
+            if (cluster.isValid()) {
+                line.append(" exceptionNeighbors=").append(ids(cluster.getExceptionNeighbors()));
+            } else {
+                exceptionIndices.add(cluster.getIndex());
+            }
+            description.add(line.toString());
+        }
+        for (GeneEdge edge : lg.getEdges()) {
+            description.add(edge(label(lg.getEndpoints(edge).getFirst()),
+                    label(lg.getEndpoints(edge).getSecond())));
+        }
+        Collections.sort(description);
+
+        // the exception clusters are numbered densely
+        assertEquals(exceptionIndices.size(), lg.getExceptionVertexCount());
+        for (int index = 0; index < exceptionIndices.size(); index++) {
+            assertEquals(true, exceptionIndices.contains(index));
+        }
+        return description;
+    }
+
+    private static String label(GeneCluster cluster) {
+        return (cluster.isValid() ? "valid" : "exception") + ids(cluster.getNodesInCluster());
+    }
+
+    private static String exceptionLabel(GeneNode node) {
+        return "exception" + ids(Collections.singleton(node));
+    }
+
+    private static String edge(String a, String b) {
+        return a.compareTo(b) < 0 ? a + " -- " + b : b + " -- " + a;
+    }
+
+    private static List<String> ids(Iterable<GeneNode> nodes) {
+        List<String> ids = new ArrayList<String>();
+        for (GeneNode node : nodes) {
+            ids.add(node.getNodeId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static KPMGraph randomGraph(Random random) {
+        Map<String, Map<String, int[]>> expression = new HashMap<String, Map<String, int[]>>();
+        Map<String, String> symbols = new HashMap<String, String>();
+        Map<String, Integer> numCases = new HashMap<String, Integer>();
+        numCases.put("L1", NUM_CASES);
+        for (int i = 0; i < NUM_NODES; i++) {
+            String id = "n" + i;
+            int[] vector = new int[NUM_CASES];
+            // from almost always to almost never expressed
+            int zeros = random.nextInt(NUM_CASES + 1);
+            for (int j = 0; j < NUM_CASES; j++) {
+                vector[j] = random.nextInt(NUM_CASES) < zeros ? 0 : 1;
+            }
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            vectors.put("L1", vector);
+            expression.put(id, vectors);
+            symbols.put(id, id);
+        }
+
+        LinkedList<String[]> edges = new LinkedList<String[]>();
+        Set<String> seen = new HashSet<String>();
+        while (edges.size() < NUM_EDGES) {
+            int a = random.nextInt(NUM_NODES);
+            int b = random.nextInt(NUM_NODES);
+            if (a != b && seen.add(Math.min(a, b) + "-" + Math.max(a, b))) {
+                edges.add(new String[]{"n" + a, "n" + b});
+            }
+        }
+        return new KPMGraph(expression, edges, symbols, numCases);
+    }
+}
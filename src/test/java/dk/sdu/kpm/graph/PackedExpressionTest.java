@@ -0,0 +1,142 @@
+package dk.sdu.kpm.graph;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Packs random vectors, some of them filling their last word exactly, and
+ * compares them and the int[] accessors of the graph and its nodes with the
+ * unpacked vectors.
+ */
+public class PackedExpressionTest {
+
+    private static final int[] NUM_CASES = {0, 1, 2, 63, 64, 65, 127, 128, 129, 200};
+
+    // values other than 1 and -1 mean no difference
+    private static final int[] VALUES = {1, -1, 0, 0, 2, -7};
+
+    @Test
+    public void roundTrip() {
+        Random random = new Random(4711);
+        for (int numCases : NUM_CASES) {
+            for (int i = 0; i < 20; i++) {
+                int[] values = randomValues(random, numCases);
+                int[] expected = normalized(values);
+                PackedExpression packed = PackedExpression.pack(values);
+                assertArrayEquals(expected, packed.toIntArray());
+                assertCounts(expected, packed);
+
+                PackedExpression repacked = PackedExpression.pack(packed.toIntArray());
+                assertEquals(packed, repacked);
+                assertEquals(packed.hashCode(), repacked.hashCode());
+            }
+        }
+    }
+
+    @Test
+    public void filled() {
+        for (int numCases : NUM_CASES) {
+            for (int value : VALUES) {
+                int[] values = new int[numCases];
+                Arrays.fill(values, value);
+                PackedExpression filled = PackedExpression.filled(numCases, value);
+                assertArrayEquals(normalized(values), filled.toIntArray());
+                assertEquals(PackedExpression.pack(values), filled);
+            }
+        }
+    }
+
+    @Test
+    public void graphRoundTrip() {
+        Random random = new Random(4711);
+        Map<String, Map<String, int[]>> expression = new HashMap<String, Map<String, int[]>>();
+        Map<String, String> symbols = new HashMap<String, String>();
+        Map<String, Integer> numCases = new HashMap<String, Integer>();
+        numCases.put("L1", 65);
+        numCases.put("L2", 7);
+        LinkedList<String[]> edges = new LinkedList<String[]>();
+        for (int i = 0; i < 30; i++) {
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            for (Map.Entry<String, Integer> study : numCases.entrySet()) {
+                vectors.put(study.getKey(), randomValues(random, study.getValue()));
+            }
+            expression.put("n" + i, vectors);
+            symbols.put("n" + i, "n" + i);
+            if (i > 0) {
+                edges.add(new String[]{"n" + random.nextInt(i), "n" + i});
+            }
+        }
+        KPMGraph g = new KPMGraph(expression, edges, symbols, numCases);
+
+        @SuppressWarnings("deprecation")
+        Map<String, Map<String, int[]>> unpacked = g.getExpressionIdToNodeMap();
+        assertEquals(expression.keySet(), unpacked.keySet());
+        for (String nodeId : expression.keySet()) {
+            GeneNode node = g.getGeneNode(nodeId);
+            @SuppressWarnings("deprecation")
+            Map<String, int[]> nodeVectors = node.getDifferenceIntMap();
+            for (String study : numCases.keySet()) {
+                int[] expected = normalized(expression.get(nodeId).get(study));
+                assertArrayEquals(expected, unpacked.get(nodeId).get(study));
+                assertArrayEquals(expected, nodeVectors.get(study));
+                assertArrayEquals(expected, node.getExpression(study).toIntArray());
+                assertEquals(count(expected, 1), (int) node.getNumUpExpressedCasesMap().get(study));
+                assertEquals(count(expected, -1), (int) node.getNumDownExpressedCasesMap().get(study));
+                assertEquals(count(expected, 0), (int) node.getNumNoDiffExpressedCasesMap().get(study));
+            }
+
+            // the unpacked vectors can be set again
+            node.setDifferenceIntMap(nodeVectors);
+            @SuppressWarnings("deprecation")
+            Map<String, int[]> again = node.getDifferenceIntMap();
+            assertArrayEquals(nodeVectors.get("L2"), again.get("L2"));
+        }
+    }
+
+    private static void assertCounts(int[] expected, PackedExpression packed) {
+        assertEquals(expected.length, packed.getNumCases());
+        assertEquals(count(expected, 1), packed.getNumUp());
+        assertEquals(count(expected, -1), packed.getNumDown());
+        assertEquals(count(expected, 0), packed.getNumNoDiff());
+        for (int j = 0; j < expected.length; j++) {
+            assertEquals(expected[j], packed.get(j));
+            assertEquals(expected[j] == 1, packed.isUp(j));
+            assertEquals(expected[j] == -1, packed.isDown(j));
+            assertEquals(expected[j] != 0, packed.isDifferent(j));
+        }
+    }
+
+    private static int[] randomValues(Random random, int numCases) {
+        int[] values = new int[numCases];
+        for (int j = 0; j < numCases; j++) {
+            values[j] = VALUES[random.nextInt(VALUES.length)];
+        }
+        return values;
+    }
+
+    private static int[] normalized(int[] values) {
+        int[] normalized = new int[values.length];
+        for (int j = 0; j < values.length; j++) {
+            normalized[j] = values[j] == 1 || values[j] == -1 ? values[j] : 0;
+        }
+        return normalized;
+    }
+
+    private static int count(int[] values, int value) {
+        int count = 0;
+        for (int v : values) {
+            if (v == value) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
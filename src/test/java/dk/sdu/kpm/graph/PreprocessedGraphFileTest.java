@@ -0,0 +1,174 @@
+package dk.sdu.kpm.graph;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes graphs with PreprocessedGraphFile, reads them back and compares the restored
+ * graph with the original one.
+ */
+public class PreprocessedGraphFileTest {
+
+    private static final int NUM_NODES = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        Random random = new Random(4711);
+        // more than 64 cases, so that a vector takes several words
+        Map<String, Integer> numCases = new HashMap<String, Integer>();
+        numCases.put("L1", 5);
+        numCases.put("L2", 70);
+
+        Map<String, Map<String, int[]>> expression = new HashMap<String, Map<String, int[]>>();
+        Map<String, String> symbols = new HashMap<String, String>();
+        Map<String, Set<String>> backNodes = new HashMap<String, Set<String>>();
+        for (int i = 0; i < NUM_NODES; i++) {
+            String id = "n" + i;
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            backNodes.put(id, new HashSet<String>());
+            for (Map.Entry<String, Integer> study : numCases.entrySet()) {
+                if (i % 7 == 0 && study.getKey().equals("L2")) {
+                    backNodes.get(id).add(study.getKey());
+                    continue;
+                }
+                int[] vector = new int[study.getValue()];
+                for (int j = 0; j < vector.length; j++) {
+                    vector[j] = random.nextInt(3) - 1;
+                }
+                vectors.put(study.getKey(), vector);
+            }
+            expression.put(id, vectors);
+            // one node without a symbol
+            symbols.put(id, i == 3 ? null : "GENE" + i);
+        }
+
+        LinkedList<String[]> edges = new LinkedList<String[]>();
+        for (int i = 0; i < 3 * NUM_NODES; i++) {
+            String[] edge = {"n" + random.nextInt(NUM_NODES), "n" + random.nextInt(NUM_NODES)};
+            edges.add(edge);
+        }
+
+        Map<String, Set<String>> backGenes = new HashMap<String, Set<String>>();
+        backGenes.put("L1", new HashSet<String>(Arrays.asList("g1", "g2")));
+        backGenes.put("L2", new HashSet<String>());
+
+        KPMGraph g = new KPMGraph(expression, edges, symbols, backNodes, backGenes, numCases);
+        g.positiveList.add("n1");
+        g.negativeList.add("n2");
+        g.treatBackNodes = KPMGraph.IN_POSITIVE;
+
+        String path = folder.newFile("graph.kpm").getPath();
+        PreprocessedGraphFile.write(g, path);
+        KPMGraph h = PreprocessedGraphFile.read(path);
+
+        assertEquals(g.getNodeIdToGeneId(), h.getNodeIdToGeneId());
+        assertEquals(g.numCasesMap, h.numCasesMap);
+        assertEquals(g.getPackedExpressionIdToNodeMap(), h.getPackedExpressionIdToNodeMap());
+        assertEquals(g.backNodesMap, h.backNodesMap);
+        assertEquals(g.backGenesMap, h.backGenesMap);
+        assertEquals(g.positiveList, h.positiveList);
+        assertEquals(g.negativeList, h.negativeList);
+        assertEquals(g.treatBackNodes, h.treatBackNodes);
+
+        assertEquals(g.getEdgeList().size(), h.getEdgeList().size());
+        for (int i = 0; i < g.getEdgeList().size(); i++) {
+            assertTrue(Arrays.equals(g.getEdgeList().get(i), h.getEdgeList().get(i)));
+        }
+
+        assertEquals(g.getVertexCount(), h.getVertexCount());
+        for (GeneNode node : g.getVertices()) {
+            GeneNode restored = h.getGeneNode(node.getNodeId());
+            assertNotNull(node.getNodeId(), restored);
+            assertEquals(node.getSymbol(), restored.getSymbol());
+            for (String expId : numCases.keySet()) {
+                assertEquals(node.getExpression(expId), restored.getExpression(expId));
+            }
+            assertEquals(g.getNeighborCount(node), h.getNeighborCount(restored));
+            for (GeneNode neighbor : g.getNeighbors(node)) {
+                assertTrue(h.isNeighbor(restored, h.getGeneNode(neighbor.getNodeId())));
+            }
+        }
+
+        Set<String> edgeIds = new HashSet<String>();
+        for (GeneEdge edge : g.getEdges()) {
+            edgeIds.add(edge.getEdgeId());
+        }
+        Set<String> restoredEdgeIds = new HashSet<String>();
+        for (GeneEdge edge : h.getEdges()) {
+            restoredEdgeIds.add(edge.getEdgeId());
+        }
+        assertEquals(edgeIds, restoredEdgeIds);
+    }
+
+    @Test
+    public void rejectsTruncatedFiles() throws IOException {
+        Map<String, Integer> numCases = new HashMap<String, Integer>();
+        numCases.put("L1", 3);
+        Map<String, Map<String, int[]>> expression = new HashMap<String, Map<String, int[]>>();
+        Map<String, String> symbols = new HashMap<String, String>();
+        for (int i = 0; i < 3; i++) {
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            vectors.put("L1", new int[]{1, 0, -1});
+            expression.put("n" + i, vectors);
+            symbols.put("n" + i, "GENE" + i);
+        }
+        LinkedList<String[]> edges = new LinkedList<String[]>();
+        edges.add(new String[]{"n0", "n1"});
+        edges.add(new String[]{"n1", "n2"});
+        KPMGraph g = new KPMGraph(expression, edges, symbols, numCases);
+
+        String path = folder.newFile("truncated.kpm").getPath();
+        PreprocessedGraphFile.write(g, path);
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(file.length() - 5);
+        } finally {
+            file.close();
+        }
+        try {
+            PreprocessedGraphFile.read(path);
+            fail("read a truncated file");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        String path = folder.newFile("other.bin").getPath();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(path));
+        try {
+            out.writeInt(42);
+            out.writeInt(1);
+        } finally {
+            out.close();
+        }
+        try {
+            PreprocessedGraphFile.read(path);
+            fail("read a file without the magic number");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
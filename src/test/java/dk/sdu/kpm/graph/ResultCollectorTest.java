@@ -0,0 +1,186 @@
+package dk.sdu.kpm.graph;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Offers random results and compares the kept ones with the outcome of
+ * sorting all results, removing the doubles and cutting the list after the
+ * capacity, as the algorithms did before they collected their results while
+ * running. Doubles have the same nodes, added in any order, and results
+ * whose fingerprints only share their hash are no doubles.
+ */
+public class ResultCollectorTest {
+
+    private static final int NUM_NODES = 12;
+
+    private static final int NUM_RESULTS = 2000;
+
+    @Test
+    public void keepsTheBestResults() {
+        Random random = new Random(4711);
+        GraphSnapshot snapshot = graph().getSnapshot();
+        for (int capacity : new int[]{0, 1, 5, 50, -1}) {
+            List<Result> offered = new ArrayList<Result>();
+            ResultCollector collector = new ResultCollector(capacity, true);
+            for (int i = 0; i < NUM_RESULTS; i++) {
+                // few distinct fitnesses, so that the ties are many
+                Result result = new FixedResult(randomNodes(random, snapshot), random.nextInt(20));
+                offered.add(result);
+                collector.offer(result);
+                assertEquals(capacity < 0 ? offered.size() : Math.min(capacity, offered.size()),
+                        collector.size());
+            }
+            assertResults(sortAndCut(offered, capacity), collector.getResults());
+        }
+    }
+
+    @Test
+    public void dropsDoubles() {
+        Random random = new Random(4711);
+        GraphSnapshot snapshot = graph().getSnapshot();
+        // few distinct node sets, so that the doubles are many
+        List<List<GeneNode>> nodeSets = new ArrayList<List<GeneNode>>();
+        for (int i = 0; i < 40; i++) {
+            nodeSets.add(randomNodes(random, snapshot));
+        }
+        for (int capacity : new int[]{0, 1, 5, 50, -1}) {
+            List<Result> offered = new ArrayList<Result>();
+            ResultCollector collector = new ResultCollector(capacity, false);
+            for (int i = 0; i < NUM_RESULTS; i++) {
+                // the same nodes, added in another order
+                List<GeneNode> nodes = new ArrayList<GeneNode>(nodeSets.get(random.nextInt(nodeSets.size())));
+                Collections.shuffle(nodes, random);
+                Result result = new FixedResult(nodes, random.nextInt(20));
+                offered.add(result);
+                collector.offer(result);
+            }
+            assertResults(sortAndCut(withoutDoubles(offered), capacity), collector.getResults());
+        }
+    }
+
+    @Test
+    public void keepsResultsWithCollidingHashes() {
+        GraphSnapshot snapshot = graph().getSnapshot();
+        ResultCollector collector = new ResultCollector(10, false);
+        List<Result> offered = new ArrayList<Result>();
+        for (int index = 0; index < snapshot.size(); index++) {
+            Result result = new CollidingResult(Collections.singleton(snapshot.getNode(index)), index);
+            offered.add(result);
+            collector.offer(result);
+        }
+        // the double of the best result is dropped
+        collector.offer(new CollidingResult(Collections.singleton(snapshot.getNode(snapshot.size() - 1)), 0));
+        List<Result> expected = new ArrayList<Result>(offered);
+        Collections.sort(expected);
+        assertResults(expected.subList(0, 10), collector.getResults());
+    }
+
+    /**
+     * @return the given results without the ones with the same nodes as an
+     * earlier result that is at least as good
+     */
+    private static List<Result> withoutDoubles(List<Result> offered) {
+        List<Result> sorted = new ArrayList<Result>(offered);
+        Collections.sort(sorted);
+        List<Result> results = new ArrayList<Result>();
+        Set<Set<String>> seen = new HashSet<Set<String>>();
+        for (Result result : sorted) {
+            if (seen.add(new HashSet<String>(result.getVisitedNodes().keySet()))) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private static List<Result> sortAndCut(List<Result> offered, int capacity) {
+        List<Result> expected = new ArrayList<Result>(offered);
+        Collections.sort(expected);
+        if (capacity >= 0 && expected.size() > capacity) {
+            expected = expected.subList(0, capacity);
+        }
+        return expected;
+    }
+
+    private static void assertResults(List<Result> expected, List<Result> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame("result " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    private static List<GeneNode> randomNodes(Random random, GraphSnapshot snapshot) {
+        List<GeneNode> nodes = new ArrayList<GeneNode>();
+        for (int index = 0; index < snapshot.size(); index++) {
+            if (random.nextInt(4) == 0) {
+                nodes.add(snapshot.getNode(index));
+            }
+        }
+        return nodes;
+    }
+
+    private static KPMGraph graph() {
+        Map<String, Map<String, int[]>> expression = new HashMap<String, Map<String, int[]>>();
+        Map<String, String> symbols = new HashMap<String, String>();
+        Map<String, Integer> numCases = new HashMap<String, Integer>();
+        numCases.put("L1", 1);
+        LinkedList<String[]> edges = new LinkedList<String[]>();
+        for (int i = 0; i < NUM_NODES; i++) {
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            vectors.put("L1", new int[]{1});
+            expression.put("n" + i, vectors);
+            symbols.put("n" + i, "n" + i);
+            if (i > 0) {
+                edges.add(new String[]{"n" + (i - 1), "n" + i});
+            }
+        }
+        return new KPMGraph(expression, edges, symbols, numCases);
+    }
+
+    /**
+     * A result whose fingerprint has the same hash as the fingerprint of any
+     * other one.
+     */
+    private static class CollidingResult extends FixedResult {
+
+        CollidingResult(Collection<GeneNode> nodes, int fitness) {
+            super(nodes, fitness);
+        }
+
+        @Override
+        public ResultFingerprint getFingerprint() {
+            return new ResultFingerprint(super.getFingerprint().getIndices(), 0);
+        }
+    }
+
+    /**
+     * A result with a given fitness instead of its number of nodes.
+     */
+    private static class FixedResult extends GenericResult {
+
+        private final int fitness;
+
+        FixedResult(Collection<GeneNode> nodes, int fitness) {
+            super(nodes);
+            this.fitness = fitness;
+        }
+
+        @Override
+        public int getFitness() {
+            return fitness;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package dk.sdu.kpm.graph;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that fingerprints are equal iff their node sets are, whatever the
+ * order the nodes are given in and however their hashes collide.
+ */
+public class ResultFingerprintTest {
+
+    private static final int NUM_NODES = 64;
+
+    @Test
+    public void equalForAnyOrder() {
+        Random random = new Random(4711);
+        GraphSnapshot snapshot = graph(NUM_NODES).getSnapshot();
+        for (int i = 0; i < 1000; i++) {
+            List<GeneNode> nodes = new ArrayList<GeneNode>();
+            BitSet indices = new BitSet();
+            for (int index = 0; index < snapshot.size(); index++) {
+                if (random.nextInt(3) == 0) {
+                    nodes.add(snapshot.getNode(index));
+                    indices.set(index);
+                }
+            }
+            ResultFingerprint fingerprint = ResultFingerprint.of(nodes);
+            Collections.shuffle(nodes, random);
+            ResultFingerprint shuffled = ResultFingerprint.of(nodes);
+            assertEquals(fingerprint, shuffled);
+            assertEquals(fingerprint.getHash(), shuffled.getHash());
+            assertEquals(fingerprint, ResultFingerprint.of(indices));
+            assertEquals(fingerprint.hashCode(), ResultFingerprint.of(indices).hashCode());
+
+            int[] sorted = fingerprint.getIndices();
+            assertEquals(nodes.size(), sorted.length);
+            for (int j = 1; j < sorted.length; j++) {
+                assertTrue(sorted[j - 1] < sorted[j]);
+            }
+        }
+    }
+
+    @Test
+    public void distinctForCollidingHashCodes() {
+        // draw random node sets until two distinct ones share their hash
+        // code, i.e. land in the same bucket of a hash map
+        Random random = new Random(4711);
+        Map<Integer, ResultFingerprint> byHashCode = new HashMap<Integer, ResultFingerprint>();
+        ResultFingerprint[] collision = null;
+        while (collision == null) {
+            BitSet indices = new BitSet();
+            for (int j = random.nextInt(8); j >= 0; j--) {
+                indices.set(random.nextInt(NUM_NODES * NUM_NODES));
+            }
+            ResultFingerprint fingerprint = ResultFingerprint.of(indices);
+            ResultFingerprint other = byHashCode.put(fingerprint.hashCode(), fingerprint);
+            if (other != null && !other.equals(fingerprint)) {
+                collision = new ResultFingerprint[]{other, fingerprint};
+            }
+        }
+        assertFalse(Arrays.equals(collision[0].getIndices(), collision[1].getIndices()));
+        Set<ResultFingerprint> set = new HashSet<ResultFingerprint>();
+        set.add(collision[0]);
+        set.add(collision[1]);
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void distinctForCollidingHashes() {
+        ResultFingerprint a = new ResultFingerprint(new int[]{1, 2, 3}, 42);
+        ResultFingerprint b = new ResultFingerprint(new int[]{1, 2, 4}, 42);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(b));
+        assertEquals(a, new ResultFingerprint(new int[]{1, 2, 3}, 42));
+        assertArrayEquals(new int[]{1, 2, 3}, a.getIndices());
+
+        Set<ResultFingerprint> set = new HashSet<ResultFingerprint>();
+        set.add(a);
+        set.add(b);
+        assertEquals(2, set.size());
+    }
+
+    private static KPMGraph graph(int numNodes) {
+        Map<String, Map<String, int[]>> expression = new HashMap<String, Map<String, int[]>>();
+        Map<String, String> symbols = new HashMap<String, String>();
+        Map<String, Integer> numCases = new HashMap<String, Integer>();
+        numCases.put("L1", 1);
+        LinkedList<String[]> edges = new LinkedList<String[]>();
+        for (int i = 0; i < numNodes; i++) {
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            vectors.put("L1", new int[]{1});
+            expression.put("n" + i, vectors);
+            symbols.put("n" + i, "n" + i);
+            if (i > 0) {
+                edges.add(new String[]{"n" + (i - 1), "n" + i});
+            }
+        }
+        return new KPMGraph(expression, edges, symbols, numCases);
+    }
+}
@@ -0,0 +1,185 @@
+package dk.sdu.kpm.graph;
+
+import dk.sdu.kpm.Combine;
+import dk.sdu.kpm.KPMSettings;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sweeps random case exceptions and combine operators over random graphs and
+ * compares the validity computed incrementally by computeValidity() and the
+ * flags set by refreshGraph() with the validity of every node tested from
+ * its counts, as refreshGraph() did before the index.
+ */
+public class ValidityIndexTest {
+
+    private static final String[] STUDIES = {"L1", "L2", "L3"};
+
+    private static final int[] NUM_CASES = {6, 20, 1};
+
+    private static final int NUM_NODES = 200;
+
+    private static final int NUM_STEPS = 300;
+
+    private static final Formula[] FORMULAS = {
+            new Formula(Combine.OR, null) {
+                @Override
+                boolean test(boolean l1, boolean l2, boolean l3) {
+                    return l1 || l2 || l3;
+                }
+            },
+            new Formula(Combine.AND, null) {
+                @Override
+                boolean test(boolean l1, boolean l2, boolean l3) {
+                    return l1 && l2 && l3;
+                }
+            },
+            new Formula(Combine.CUSTOM, "(L1 && L2) || L3") {
+                @Override
+                boolean test(boolean l1, boolean l2, boolean l3) {
+                    return (l1 && l2) || l3;
+                }
+            },
+            // not monotone, raising a limit can make a node invalid
+            new Formula(Combine.CUSTOM, "L1 && !L2") {
+                @Override
+                boolean test(boolean l1, boolean l2, boolean l3) {
+                    return l1 && !l2;
+                }
+            },
+            new Formula(Combine.CUSTOM, "L3 || !L2") {
+                @Override
+                boolean test(boolean l1, boolean l2, boolean l3) {
+                    return l3 || !l2;
+                }
+            }
+    };
+
+    @Test
+    public void matchesFullRecomputation() {
+        Random random = new Random(4711);
+        for (int graph = 0; graph < 3; graph++) {
+            KPMGraph g = randomGraph(random);
+            Formula formula = FORMULAS[0];
+            int[] limits = new int[STUDIES.length];
+            for (int step = 0; step < NUM_STEPS; step++) {
+                // mostly small changes of one limit, as in a sweep, sometimes
+                // another operator or arbitrary limits
+                if (random.nextInt(20) == 0) {
+                    formula = FORMULAS[random.nextInt(FORMULAS.length)];
+                }
+                if (random.nextInt(10) == 0) {
+                    for (int s = 0; s < STUDIES.length; s++) {
+                        limits[s] = random.nextInt(NUM_CASES[s] + 2);
+                    }
+                } else {
+                    int s = random.nextInt(STUDIES.length);
+                    limits[s] = Math.max(0, limits[s] + random.nextInt(5) - 2);
+                }
+                // the vectors change now and then, e.g. by a perturbation
+                if (random.nextInt(25) == 0) {
+                    GeneNode node = g.getSnapshot().getNode(random.nextInt(g.getVertexCount()));
+                    int s = random.nextInt(STUDIES.length);
+                    g.setExpression(node, STUDIES[s], randomVector(random, NUM_CASES[s]));
+                }
+
+                KPMSettings settings = settings(g, formula, limits);
+                boolean[] expected = recompute(g, formula, limits);
+                String message = "step " + step + " " + formula.operator + " " + formula.formula;
+                assertValidity(message, expected, g.computeValidity(settings));
+
+                g.refreshGraph(settings);
+                assertValidity(message, expected, g.getValidity());
+            }
+        }
+    }
+
+    private static void assertValidity(String message, boolean[] expected, boolean[] actual) {
+        assertEquals(message, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(message + " node " + i, expected[i], actual[i]);
+        }
+    }
+
+    private static boolean[] recompute(KPMGraph g, Formula formula, int[] limits) {
+        GraphSnapshot snapshot = g.getSnapshot();
+        boolean[] validity = new boolean[snapshot.size()];
+        for (int i = 0; i < snapshot.size(); i++) {
+            GeneNode node = snapshot.getNode(i);
+            boolean[] withinLimits = new boolean[STUDIES.length];
+            for (int s = 0; s < STUDIES.length; s++) {
+                withinLimits[s] = node.getNumNoDiffExpressedCasesMap().get(STUDIES[s]) <= limits[s];
+            }
+            validity[i] = formula.test(withinLimits[0], withinLimits[1], withinLimits[2]);
+        }
+        return validity;
+    }
+
+    private static KPMSettings settings(KPMGraph g, Formula formula, int[] limits) {
+        KPMSettings settings = new KPMSettings();
+        settings.COMBINE_OPERATOR = formula.operator;
+        if (formula.formula != null) {
+            settings.COMBINE_FORMULA = formula.formula;
+        }
+        for (int s = 0; s < STUDIES.length; s++) {
+            settings.CASE_EXCEPTIONS_MAP.put(STUDIES[s], limits[s]);
+            settings.NUM_CASES_MAP.put(STUDIES[s], NUM_CASES[s]);
+        }
+        settings.MAIN_GRAPH = g;
+        settings.N = g.getVertexCount();
+        settings.NUM_STUDIES = STUDIES.length;
+        return settings;
+    }
+
+    private static PackedExpression randomVector(Random random, int numCases) {
+        int[] vector = new int[numCases];
+        // from almost always to almost never expressed
+        int zeros = random.nextInt(numCases + 1);
+        for (int j = 0; j < numCases; j++) {
+            vector[j] = random.nextInt(numCases) < zeros ? 0 : 1 - 2 * random.nextInt(2);
+        }
+        return PackedExpression.pack(vector);
+    }
+
+    private static KPMGraph randomGraph(Random random) {
+        Map<String, Map<String, int[]>> expression = new HashMap<String, Map<String, int[]>>();
+        Map<String, String> symbols = new HashMap<String, String>();
+        Map<String, Integer> numCases = new HashMap<String, Integer>();
+        for (int s = 0; s < STUDIES.length; s++) {
+            numCases.put(STUDIES[s], NUM_CASES[s]);
+        }
+        LinkedList<String[]> edges = new LinkedList<String[]>();
+        for (int i = 0; i < NUM_NODES; i++) {
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            for (int s = 0; s < STUDIES.length; s++) {
+                vectors.put(STUDIES[s], randomVector(random, NUM_CASES[s]).toIntArray());
+            }
+            expression.put("n" + i, vectors);
+            symbols.put("n" + i, "n" + i);
+            if (i > 0) {
+                edges.add(new String[]{"n" + random.nextInt(i), "n" + i});
+            }
+        }
+        return new KPMGraph(expression, edges, symbols, numCases);
+    }
+
+    private abstract static class Formula {
+
+        final Combine operator;
+
+        final String formula;
+
+        Formula(Combine operator, String formula) {
+            this.operator = operator;
+            this.formula = formula;
+        }
+
+        abstract boolean test(boolean l1, boolean l2, boolean l3);
+    }
+}
@@ -0,0 +1,208 @@
+package dk.sdu.kpm.io;
+
+import dk.sdu.kpm.KPMSettings;
+import dk.sdu.kpm.graph.KPMGraph;
+import dk.sdu.kpm.graph.PackedExpression;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Writes random networks and indicator matrices and compares the graphs
+ * loaded by KPMGraphLoader with the ones read line by line with
+ * BufferedReader and String.split(), the way test.Main.createGraph read them
+ * before.
+ */
+public class KPMGraphLoaderTest {
+
+    private static final int NUM_GENES = 300;
+
+    private static final String[] VALUES = {"1", "-1", "0", "0", "2", "1.0", "x", " 1 ", "-1 "};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesLineReader() throws IOException {
+        Random random = new Random(4711);
+        for (int round = 0; round < 3; round++) {
+            File sif = folder.newFile();
+            writeNetwork(random, sif);
+            Map<String, String> matrixFiles = new HashMap<String, String>();
+            for (int study = 1; study <= 3; study++) {
+                File matrix = folder.newFile();
+                writeMatrix(random, matrix, 1 + random.nextInt(80), study == 2);
+                matrixFiles.put("L" + study, matrix.getPath());
+            }
+
+            KPMSettings expectedSettings = new KPMSettings();
+            expectedSettings.MATRIX_FILES_MAP = matrixFiles;
+            KPMGraph expected = readLines(expectedSettings, sif.getPath());
+
+            KPMSettings settings = new KPMSettings();
+            settings.MATRIX_FILES_MAP = matrixFiles;
+            settings.NUMBER_OF_PROCESSORS = 1 + round;
+            KPMGraph loaded = KPMGraphLoader.load(settings, sif.getPath());
+
+            assertEquals(expectedSettings.NUM_CASES_MAP, settings.NUM_CASES_MAP);
+            assertEquals(expectedSettings.NUM_STUDIES, settings.NUM_STUDIES);
+            assertGraphs(expected, loaded);
+        }
+    }
+
+    private static void assertGraphs(KPMGraph expected, KPMGraph loaded) {
+        assertEquals(expected.getVertexCount(), loaded.getVertexCount());
+        assertEquals(expected.getEdgeCount(), loaded.getEdgeCount());
+
+        LinkedList<String[]> expectedEdges = expected.getEdgeList();
+        LinkedList<String[]> loadedEdges = loaded.getEdgeList();
+        assertEquals(expectedEdges.size(), loadedEdges.size());
+        for (int i = 0; i < expectedEdges.size(); i++) {
+            assertArrayEquals(expectedEdges.get(i), loadedEdges.get(i));
+        }
+
+        Map<String, Map<String, PackedExpression>> expectedExpression = expected.getPackedExpressionIdToNodeMap();
+        assertEquals(expectedExpression, loaded.getPackedExpressionIdToNodeMap());
+        assertEquals(expected.getBackNodesMap(), loaded.getBackNodesMap());
+        assertEquals(expected.getBackGenesMap(), loaded.getBackGenesMap());
+    }
+
+    private static void writeNetwork(Random random, File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            for (int i = 0; i < 2 * NUM_GENES; i++) {
+                // genes beyond NUM_GENES are not in any matrix
+                String a = "g" + random.nextInt(NUM_GENES + 20);
+                String b = "g" + random.nextInt(NUM_GENES + 20);
+                writer.write((i % 10 == 0 ? " " + a : a) + "\tpp\t" + b + (i % 7 == 0 ? " " : "") + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeMatrix(Random random, File file, int numCases, boolean windowsLineBreaks)
+            throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            for (int gene = 0; gene < NUM_GENES + 40; gene++) {
+                // some genes are not measured, some are not in the network
+                if (random.nextInt(5) == 0) {
+                    continue;
+                }
+                StringBuilder line = new StringBuilder("g" + gene);
+                for (int j = 0; j < numCases; j++) {
+                    line.append('\t').append(VALUES[random.nextInt(VALUES.length)]);
+                }
+                line.append(windowsLineBreaks ? "\r\n" : "\n");
+                writer.write(line.toString());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * The reader of test.Main.createGraph before KPMGraphLoader, without the
+     * statistics it computed and did not use.
+     */
+    private static KPMGraph readLines(KPMSettings kpmSettings, String graphFile) throws IOException {
+        HashMap<String, String> nodeId2Symbol = new HashMap<String, String>();
+        Map<String, Map<String, int[]>> expressionMap = new HashMap<String, Map<String, int[]>>();
+        LinkedList<String[]> edgeList = new LinkedList<String[]>();
+        HashSet<String> inNetwork = new HashSet<String>();
+        HashMap<String, String> expressionFiles = new HashMap<String, String>(kpmSettings.MATRIX_FILES_MAP);
+        HashMap<String, Integer> numCasesMap = new HashMap<String, Integer>();
+        HashMap<String, Set<String>> backNodesMap = new HashMap<String, Set<String>>();
+        HashMap<String, Set<String>> backGenesMap = new HashMap<String, Set<String>>();
+
+        for (String fileId : expressionFiles.keySet()) {
+            numCasesMap.put(fileId, 0);
+        }
+
+        String line;
+        BufferedReader graphReader = new BufferedReader(new FileReader(graphFile));
+        while ((line = graphReader.readLine()) != null) {
+            String[] fields = line.split("\t");
+            String id1 = fields[0].trim();
+            nodeId2Symbol.put(id1, id1);
+            String id2 = fields[2].trim();
+            nodeId2Symbol.put(id2, id2);
+
+            String[] edge = {id1, id2};
+            edgeList.add(edge);
+            inNetwork.add(id1);
+            inNetwork.add(id2);
+        }
+        graphReader.close();
+
+        for (String fileId : expressionFiles.keySet()) {
+            Set<String> inExp = new HashSet<String>();
+            BufferedReader expressionReader = new BufferedReader(new FileReader(expressionFiles.get(fileId)));
+            while ((line = expressionReader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                String nodeId = fields[0].trim();
+                inExp.add(nodeId);
+
+                int[] exp = new int[fields.length - 1];
+                for (int i = 1; i < fields.length; i++) {
+                    String val = fields[i].trim();
+                    if (val.equals("1")) {
+                        exp[i - 1] = 1;
+                    } else if (val.equals("-1")) {
+                        exp[i - 1] = -1;
+                    }
+                }
+
+                if (expressionMap.containsKey(nodeId)) {
+                    expressionMap.get(nodeId).put(fileId, exp);
+                } else {
+                    Map<String, int[]> aux = new HashMap<String, int[]>();
+                    aux.put(fileId, exp);
+                    expressionMap.put(nodeId, aux);
+                }
+                numCasesMap.put(fileId, exp.length);
+            }
+            expressionReader.close();
+
+            Set<String> backGenes = new HashSet<String>(inExp);
+            backGenes.removeAll(inNetwork);
+            backGenesMap.put(fileId, backGenes);
+        }
+
+        for (String nodeId : inNetwork) {
+            Map<String, int[]> expMap = expressionMap.get(nodeId);
+            for (String expId : expressionFiles.keySet()) {
+                if (expMap == null || !expMap.containsKey(expId)) {
+                    Set<String> backNodes = backNodesMap.get(nodeId);
+                    if (backNodes == null) {
+                        backNodes = new HashSet<String>();
+                        backNodesMap.put(nodeId, backNodes);
+                    }
+                    backNodes.add(expId);
+                }
+            }
+        }
+
+        kpmSettings.NUM_CASES_MAP = numCasesMap;
+        kpmSettings.NUM_STUDIES = numCasesMap.size();
+        return new KPMGraph(expressionMap, edgeList, nodeId2Symbol, backNodesMap, backGenesMap,
+                kpmSettings.NUM_CASES_MAP);
+    }
+}
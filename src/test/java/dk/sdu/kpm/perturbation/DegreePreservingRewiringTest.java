@@ -0,0 +1,181 @@
+package dk.sdu.kpm.perturbation;
+
+import dk.sdu.kpm.graph.GeneEdge;
+import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.KPMGraph;
+import dk.sdu.kpm.perturbation.IPerturbation.PerturbationTags;
+import edu.uci.ics.jung.graph.util.Pair;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rewires random graphs and checks that the degree of every node is kept and
+ * that no self loop or parallel edge is created, both for the rewiring itself
+ * and for the graphs the EdgeRewire perturbation returns.
+ */
+public class DegreePreservingRewiringTest {
+
+    private static final int NUM_NODES = 100;
+
+    private static final int NUM_EDGES = 300;
+
+    @Test
+    public void keepsDegrees() {
+        Random random = new Random(4711);
+        for (int graph = 0; graph < 20; graph++) {
+            int[] from = new int[NUM_EDGES];
+            int[] to = new int[NUM_EDGES];
+            randomEdges(random, from, to);
+            DegreePreservingRewiring rewiring = new DegreePreservingRewiring(from, to);
+            int numSwaps = random.nextInt(2 * NUM_EDGES);
+            int swaps = rewiring.rewire(numSwaps, random);
+            assertTrue(swaps <= numSwaps);
+
+            int[] rewiredFrom = new int[NUM_EDGES];
+            int[] rewiredTo = new int[NUM_EDGES];
+            int changed = 0;
+            for (int e = 0; e < NUM_EDGES; e++) {
+                rewiredFrom[e] = rewiring.getFrom(e);
+                rewiredTo[e] = rewiring.getTo(e);
+                if (rewiredFrom[e] != from[e] || rewiredTo[e] != to[e]) {
+                    changed++;
+                }
+            }
+            assertEquals(NUM_EDGES, rewiring.getEdgeCount());
+            assertTrue(changed <= 2 * swaps);
+            assertTrue("nothing rewired", numSwaps == 0 || changed > 0);
+            assertArrayEquals(degrees(from, to), degrees(rewiredFrom, rewiredTo));
+            assertSimple(rewiredFrom, rewiredTo);
+        }
+    }
+
+    @Test
+    public void givesUpOnStars() {
+        // every pair of edges shares the center
+        int[] from = new int[10];
+        int[] to = new int[10];
+        for (int e = 0; e < from.length; e++) {
+            to[e] = e + 1;
+        }
+        DegreePreservingRewiring rewiring = new DegreePreservingRewiring(from, to);
+        assertEquals(0, rewiring.rewire(5, new Random(4711)));
+        for (int e = 0; e < from.length; e++) {
+            assertEquals(0, rewiring.getFrom(e));
+            assertEquals(e + 1, rewiring.getTo(e));
+        }
+    }
+
+    @Test
+    public void perturbationKeepsDegrees() {
+        Random random = new Random(4711);
+        int[] from = new int[NUM_EDGES];
+        int[] to = new int[NUM_EDGES];
+        randomEdges(random, from, to);
+        Map<String, Map<String, int[]>> expression = new HashMap<String, Map<String, int[]>>();
+        Map<String, String> symbols = new HashMap<String, String>();
+        Map<String, Integer> numCases = new HashMap<String, Integer>();
+        numCases.put("L1", 1);
+        for (int i = 0; i < NUM_NODES; i++) {
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            vectors.put("L1", new int[]{1});
+            expression.put("n" + i, vectors);
+            symbols.put("n" + i, "n" + i);
+        }
+        LinkedList<String[]> edges = new LinkedList<String[]>();
+        for (int e = 0; e < NUM_EDGES; e++) {
+            edges.add(new String[]{"n" + from[e], "n" + to[e]});
+        }
+        KPMGraph g = new KPMGraph(expression, edges, symbols, numCases);
+        Map<String, Integer> degrees = degrees(g);
+        Set<Set<String>> edgeSet = edgeSet(g);
+
+        IPerturbation<KPMGraph> perturbation = PerturbationService.getPerturbation(PerturbationTags.EdgeRewire);
+        perturbation.setSeed(5);
+        for (int percentage : new int[]{10, 50, 100}) {
+            KPMGraph rewired = perturbation.execute(percentage, g, null);
+            assertEquals(degrees, degrees(rewired));
+            assertEquals(g.getEdgeCount(), rewired.getEdgeCount());
+            assertEquals(rewired.getEdgeCount(), rewired.getEdgeList().size());
+            Set<Set<String>> rewiredEdges = edgeSet(rewired);
+            assertEquals(rewired.getEdgeCount(), rewiredEdges.size());
+            for (String[] edge : rewired.getEdgeList()) {
+                assertTrue(rewiredEdges.contains(pair(edge[0], edge[1])));
+            }
+            assertTrue("nothing rewired", !edgeSet.equals(rewiredEdges));
+
+            // the graph that was perturbed is unchanged
+            assertEquals(degrees, degrees(g));
+            assertEquals(edgeSet, edgeSet(g));
+        }
+    }
+
+    /**
+     * Draws distinct edges between distinct nodes.
+     */
+    private static void randomEdges(Random random, int[] from, int[] to) {
+        Set<Long> seen = new HashSet<Long>();
+        int e = 0;
+        while (e < from.length) {
+            int a = random.nextInt(NUM_NODES);
+            int b = random.nextInt(NUM_NODES);
+            if (a != b && seen.add((long) Math.min(a, b) * NUM_NODES + Math.max(a, b))) {
+                from[e] = a;
+                to[e] = b;
+                e++;
+            }
+        }
+    }
+
+    private static int[] degrees(int[] from, int[] to) {
+        int[] degrees = new int[NUM_NODES];
+        for (int e = 0; e < from.length; e++) {
+            degrees[from[e]]++;
+            degrees[to[e]]++;
+        }
+        return degrees;
+    }
+
+    private static void assertSimple(int[] from, int[] to) {
+        Set<Long> seen = new HashSet<Long>();
+        for (int e = 0; e < from.length; e++) {
+            assertTrue("self loop", from[e] != to[e]);
+            int a = Math.min(from[e], to[e]);
+            int b = Math.max(from[e], to[e]);
+            assertTrue("parallel edge", seen.add((long) a * NUM_NODES + b));
+        }
+    }
+
+    private static Map<String, Integer> degrees(KPMGraph g) {
+        Map<String, Integer> degrees = new HashMap<String, Integer>();
+        for (GeneNode node : g.getVertices()) {
+            degrees.put(node.getNodeId(), g.degree(node));
+        }
+        return degrees;
+    }
+
+    private static Set<Set<String>> edgeSet(KPMGraph g) {
+        Set<Set<String>> edges = new HashSet<Set<String>>();
+        for (GeneEdge edge : g.getEdges()) {
+            Pair<GeneNode> endpoints = g.getEndpoints(edge);
+            edges.add(pair(endpoints.getFirst().getNodeId(), endpoints.getSecond().getNodeId()));
+        }
+        return edges;
+    }
+
+    private static Set<String> pair(String a, String b) {
+        Set<String> pair = new HashSet<String>();
+        pair.add(a);
+        pair.add(b);
+        return pair;
+    }
+}
@@ -0,0 +1,124 @@
+package dk.sdu.kpm.perturbation;
+
+import dk.sdu.kpm.graph.GeneNode;
+import dk.sdu.kpm.graph.KPMGraph;
+import dk.sdu.kpm.graph.PackedExpression;
+import dk.sdu.kpm.perturbation.IPerturbation.PerturbationTags;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shuffles the vectors of random graphs and checks that every vector keeps
+ * its values, only in other cases, that at most the requested share of the
+ * vectors of a study changes and that the shuffled graph stays unchanged.
+ */
+public class ExpressionShufflePerturbationTest {
+
+    private static final int NUM_NODES = 200;
+
+    @Test
+    public void keepsValues() {
+        Random random = new Random(4711);
+        // more than 64 cases, so that a vector takes several words
+        Map<String, Integer> numCases = new HashMap<String, Integer>();
+        numCases.put("L1", 5);
+        numCases.put("L2", 70);
+        Map<String, Map<String, int[]>> expression = new HashMap<String, Map<String, int[]>>();
+        Map<String, String> symbols = new HashMap<String, String>();
+        LinkedList<String[]> edges = new LinkedList<String[]>();
+        for (int i = 0; i < NUM_NODES; i++) {
+            Map<String, int[]> vectors = new HashMap<String, int[]>();
+            for (Map.Entry<String, Integer> study : numCases.entrySet()) {
+                int[] vector = new int[study.getValue()];
+                for (int j = 0; j < vector.length; j++) {
+                    vector[j] = random.nextInt(4) == 0 ? random.nextInt(3) - 1 : 0;
+                }
+                vectors.put(study.getKey(), vector);
+            }
+            expression.put("n" + i, vectors);
+            symbols.put("n" + i, "n" + i);
+            if (i > 0) {
+                edges.add(new String[]{"n" + random.nextInt(i), "n" + i});
+            }
+        }
+        KPMGraph g = new KPMGraph(expression, edges, symbols, numCases);
+
+        IPerturbation<KPMGraph> perturbation = PerturbationService.getPerturbation(PerturbationTags.ExpressionShuffle);
+        perturbation.setSeed(5);
+        for (int percentage : new int[]{0, 10, 50, 100}) {
+            KPMGraph shuffled = perturbation.execute(percentage, g, null);
+            assertEquals(g.getVertexCount(), shuffled.getVertexCount());
+            assertEquals(g.getEdgeCount(), shuffled.getEdgeCount());
+            Map<String, Map<String, PackedExpression>> shuffledVectors = shuffled.getPackedExpressionIdToNodeMap();
+            for (String study : numCases.keySet()) {
+                int changed = 0;
+                for (GeneNode node : shuffled.getVertices()) {
+                    int[] original = expression.get(node.getNodeId()).get(study);
+                    PackedExpression vector = node.getExpression(study);
+                    assertEquals(vector, shuffledVectors.get(node.getNodeId()).get(study));
+                    assertArrayEquals(sorted(original), sorted(vector.toIntArray()));
+                    assertEquals(vector.getNumUp(), (int) node.getNumUpExpressedCasesMap().get(study));
+                    assertEquals(vector.getNumDown(), (int) node.getNumDownExpressedCasesMap().get(study));
+                    assertEquals(vector.getNumNoDiff(), (int) node.getNumNoDiffExpressedCasesMap().get(study));
+                    if (!Arrays.equals(original, vector.toIntArray())) {
+                        changed++;
+                    }
+
+                    // the shuffled graph keeps its vectors
+                    GeneNode originalNode = g.getGeneNode(node.getNodeId());
+                    assertArrayEquals(original, originalNode.getExpression(study).toIntArray());
+                    assertArrayEquals(original, g.getPackedExpressionIdToNodeMap()
+                            .get(node.getNodeId()).get(study).toIntArray());
+                }
+                int requested = (int) Math.ceil(NUM_NODES / 100.0 * percentage);
+                assertTrue(study + " " + percentage + "%: " + changed + " changed", changed <= requested);
+                if (study.equals("L2")) {
+                    // the long vectors hardly ever come out the same
+                    assertTrue(study + " " + percentage + "%: " + changed + " changed", changed >= 0.9 * requested);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shuffledKeepsCounts() {
+        Random random = new Random(4711);
+        for (int numCases : new int[]{1, 63, 64, 65, 200}) {
+            int[] cases = new int[numCases];
+            for (int j = 0; j < numCases; j++) {
+                cases[j] = j;
+            }
+            for (int i = 0; i < 50; i++) {
+                int[] values = new int[numCases];
+                for (int j = 0; j < numCases; j++) {
+                    values[j] = random.nextInt(3) - 1;
+                }
+                PackedExpression vector = PackedExpression.pack(values);
+                // the permutation is passed on from call to call
+                PackedExpression shuffled = vector.shuffled(random, cases);
+                assertArrayEquals(sorted(values), sorted(shuffled.toIntArray()));
+                assertEquals(vector.getNumUp(), shuffled.getNumUp());
+                assertEquals(vector.getNumDown(), shuffled.getNumDown());
+                int[] permutation = sorted(cases);
+                for (int j = 0; j < numCases; j++) {
+                    assertEquals(j, permutation[j]);
+                }
+            }
+        }
+    }
+
+    private static int[] sorted(int[] values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,49 @@
+package dk.sdu.kpm.perturbation;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Adds and removes random keys, many of them colliding in the table, and
+ * compares the set with a plain one after every step.
+ */
+public class LongHashSetTest {
+
+    private static final int NUM_OPERATIONS = 50000;
+
+    @Test
+    public void matchesSet() {
+        Random random = new Random(4711);
+        LongHashSet set = new LongHashSet(1);
+        Set<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < NUM_OPERATIONS; i++) {
+            // few distinct keys at first, so that the table fills and empties
+            // several times, then edge keys of many nodes
+            long key;
+            if (i < NUM_OPERATIONS / 2) {
+                key = random.nextInt(100);
+            } else {
+                key = ((long) random.nextInt(300) << 32) | random.nextInt(300);
+            }
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(key), set.add(key));
+            } else {
+                assertEquals(expected.remove(key), set.remove(key));
+            }
+            assertEquals(expected.size(), set.size());
+            if (i % 100 == 0) {
+                for (long k : expected) {
+                    assertEquals(true, set.contains(k));
+                }
+            }
+            assertEquals(expected.contains(key), set.contains(key));
+            long other = key + 1 + random.nextInt(10);
+            assertEquals(expected.contains(other), set.contains(other));
+        }
+    }
+}